@@ -31,6 +31,7 @@ import javax.crypto.spec.SecretKeySpec;
 
 import kinetic.client.CallbackHandler;
 import kinetic.client.ClientConfiguration;
+import kinetic.client.ClientMetrics;
 import kinetic.client.KineticClient;
 import kinetic.client.KineticException;
 
@@ -75,9 +76,6 @@ public class ClientProxy {
     // connection id
     private long connectionID = 1234;
 
-    // sequence
-    private long sequence = 1;
-
     // cluster version
     private long clusterVersion = 43;
 
@@ -587,8 +585,8 @@ public class ClientProxy {
 
         try {
             //Hmac.check(message, this.myKey);
-            byte[] bytes = message.getMessage().getCommandBytes().toByteArray();
-            Hmac.check(bytes, this.myKey, message.getMessage().getHmacAuth().getHmac());
+            Hmac.check(message.getMessage().getCommandBytes(), this.myKey,
+                    message.getMessage().getHmacAuth().getHmac());
             
             flag = true;
         } catch (Exception e) {
@@ -603,8 +601,10 @@ public class ClientProxy {
      *
      * @param message
      *            the request protocol buffer message.
+     * @param sequence
+     *            the sequence number assigned to the request.
      */
-    public void finalizeHeader(KineticMessage kineticMessage) {
+    public void finalizeHeader(KineticMessage kineticMessage, long sequence) {
 
         Message.Builder messageBuilder = (Builder) kineticMessage.getMessage();
         
@@ -620,7 +620,7 @@ public class ClientProxy {
         header.setConnectionID(connectionID);
 
         // set sequence number.
-        header.setSequence(getNextSequence());
+        header.setSequence(sequence);
 
         /**
          * calculate and set tag value for the message
@@ -646,15 +646,12 @@ public class ClientProxy {
         // get command byte string
         ByteString commandByteString = commandBuilder.build().toByteString();
         
-        // get command bytes for hmac calculation
-        byte[] commandBytes = commandByteString.toByteArray();
-        
         // calculate HMAC
         try {
 
             if (messageBuilder.getAuthType() == AuthType.HMACAUTH) {
                 // calculate hmac
-                ByteString hmac = Hmac.calc(commandBytes, myKey);
+                ByteString hmac = Hmac.calc(commandByteString, myKey);
                 // set identity
                 messageBuilder.getHmacAuthBuilder().setIdentity(user);
                 // set hmac
@@ -662,7 +659,7 @@ public class ClientProxy {
             }
 
             // set command bytes to message
-            messageBuilder.setCommandBytes(ByteString.copyFrom(commandBytes));
+            messageBuilder.setCommandBytes(commandByteString);
 
         } catch (HmacException e) {
             logger.log(Level.WARNING, e.getMessage(), e);
@@ -670,12 +667,12 @@ public class ClientProxy {
     }
 
     /**
-     * Get next sequence number for this connection (client instance).
+     * Get the request metrics of the connection.
      *
-     * @return next unique number for this client instance.
+     * @return the request metrics.
      */
-    private synchronized long getNextSequence() {
-        return sequence++;
+    public ClientMetrics getMetrics() {
+        return this.iohandler.getMessageHandler();
     }
 
     /**
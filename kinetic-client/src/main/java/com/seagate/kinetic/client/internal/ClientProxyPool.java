@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.seagate.kinetic.client.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import kinetic.client.ClientConfiguration;
+import kinetic.client.ClientMetrics;
+import kinetic.client.KineticException;
+
+import com.seagate.kinetic.client.lib.ClientLogger;
+import com.seagate.kinetic.common.lib.KineticMessage;
+
+/**
+ * Connections of a Kinetic client to one drive.
+ * <p>
+ * The pool opens {@link ClientConfiguration#getConnectionPoolSize()}
+ * connections, each with its own client proxy, so each connection has its own
+ * sequence space, HMAC calculation, write path and receiving thread. A
+ * request is sent over the connection with the least outstanding requests.
+ * <p>
+ * A batch is bound to the connection that started it, so the requests of a
+ * batch are sent over the connection selected by their batch ID.
+ *
+ * @see ClientProxy
+ */
+final class ClientProxyPool implements ClientMetrics {
+
+    private final static Logger LOG = ClientLogger.get();
+
+    // client proxy of each connection
+    private final ClientProxy[] proxies;
+
+    // first connection checked by the next selection
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    // writes committed by batches of write coalescing
+    private final AtomicLong coalescedWrites = new AtomicLong(0);
+
+    /**
+     * Open the connections of the pool.
+     *
+     * @param config
+     *            client configuration.
+     * @throws KineticException
+     *             if a connection cannot be opened.
+     */
+    ClientProxyPool(ClientConfiguration config) throws KineticException {
+
+        int size = Math.max(1, config.getConnectionPoolSize());
+
+        this.proxies = new ClientProxy[size];
+
+        try {
+            for (int i = 0; i < size; i++) {
+                this.proxies[i] = new ClientProxy(config);
+            }
+        } catch (KineticException e) {
+            this.close();
+            throw e;
+        } catch (RuntimeException e) {
+            this.close();
+            throw e;
+        }
+
+        if (size > 1) {
+            LOG.fine("opened " + size + " connections, server="
+                    + config.getHost() + ", port=" + config.getPort());
+        }
+    }
+
+    /**
+     * Select the connection of a request.
+     *
+     * @param request
+     *            the request message.
+     * @return the client proxy of the batch of the request, or of the
+     *         connection with the least outstanding requests.
+     */
+    ClientProxy select(KineticMessage request) {
+
+        if (this.proxies.length > 1
+                && request.getCommand().getHeader().hasBatchID()) {
+            return this.get(request.getCommand().getHeader().getBatchID());
+        }
+
+        return this.select();
+    }
+
+    /**
+     * Select the connection with the least outstanding requests.
+     * <p>
+     * The search starts at a different connection each time, so idle
+     * connections are used in turn.
+     *
+     * @return the client proxy of the selected connection.
+     */
+    ClientProxy select() {
+
+        if (this.proxies.length == 1) {
+            return this.proxies[0];
+        }
+
+        int start = (this.next.getAndIncrement() & Integer.MAX_VALUE)
+                % this.proxies.length;
+
+        ClientProxy selected = null;
+        int least = Integer.MAX_VALUE;
+
+        for (int i = 0; i < this.proxies.length; i++) {
+
+            ClientProxy proxy = this.proxies[(start + i) % this.proxies.length];
+
+            int outstanding = proxy.getMetrics().getOutstandingRequestCount();
+
+            if (outstanding < least) {
+                selected = proxy;
+                least = outstanding;
+
+                if (outstanding == 0) {
+                    break;
+                }
+            }
+        }
+
+        return selected;
+    }
+
+    /**
+     * Get the connection of a batch.
+     *
+     * @param batchId
+     *            the batch ID.
+     * @return the client proxy of the connection of the batch.
+     */
+    ClientProxy get(int batchId) {
+        return this.proxies[(batchId & Integer.MAX_VALUE) % this.proxies.length];
+    }
+
+    @Override
+    public long getSyncTimeoutCount() {
+
+        long count = 0;
+
+        for (ClientProxy proxy : this.proxies) {
+            count += proxy.getMetrics().getSyncTimeoutCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getAsyncTimeoutCount() {
+
+        long count = 0;
+
+        for (ClientProxy proxy : this.proxies) {
+            count += proxy.getMetrics().getAsyncTimeoutCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public int getOutstandingRequestCount() {
+
+        int count = 0;
+
+        for (ClientProxy proxy : this.proxies) {
+            count += proxy.getMetrics().getOutstandingRequestCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getCoalescedWriteCount() {
+        return this.coalescedWrites.get();
+    }
+
+    /**
+     * Count writes committed by a batch of write coalescing.
+     *
+     * @param count
+     *            number of writes of the batch.
+     */
+    void coalesced(int count) {
+        this.coalescedWrites.addAndGet(count);
+    }
+
+    /**
+     * Close all connections of the pool.
+     */
+    void close() {
+
+        for (ClientProxy proxy : this.proxies) {
+            if (proxy != null) {
+                proxy.close();
+            }
+        }
+    }
+}
@@ -24,11 +24,13 @@ import java.util.logging.Logger;
 import kinetic.client.BatchOperation;
 import kinetic.client.CallbackHandler;
 import kinetic.client.ClientConfiguration;
+import kinetic.client.ClientMetrics;
 import kinetic.client.Entry;
 import kinetic.client.EntryMetadata;
 import kinetic.client.EntryNotFoundException;
 import kinetic.client.BatchAbortedException;
 import kinetic.client.KineticException;
+import kinetic.client.KineticFuture;
 import kinetic.client.advanced.AdvancedKineticClient;
 import kinetic.client.advanced.PersistOption;
 
@@ -58,8 +60,11 @@ public class DefaultKineticClient implements AdvancedKineticClient {
     // client configuration
     private ClientConfiguration config = null;
 
-    // client proxy -- perform ops for apps.
-    private ClientProxy client = null;
+    // client proxies of the connections -- perform ops for apps.
+    private ClientProxyPool pool = null;
+
+    // coalesces asynchronous writes into batches, null if not enabled
+    private WriteCoalescer coalescer = null;
 
     /**
      * Constructor to instantiate a new instance of kinetic client.
@@ -84,8 +89,12 @@ public class DefaultKineticClient implements AdvancedKineticClient {
      */
     private void init() throws KineticException {
 
-        // create client proxy to talk to the drive
-        client = new ClientProxy(config);
+        // create client proxies to talk to the drive
+        pool = new ClientProxyPool(config);
+
+        if (config.getWriteCoalescingWindowMillis() > 0) {
+            coalescer = new WriteCoalescer(this, pool, config);
+        }
         
         //send a no-op and set connection ID.
         //this.connectionSetUp();
@@ -127,7 +136,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
             setPersistOption(message, option);
 
             // send request
-            response = this.client.request(request);
+            response = this.pool.select(request).request(request);
 
             // check response
             //MessageFactory.checkPutReply(reply, MessageType.PUT_RESPONSE);
@@ -172,7 +181,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
                     key, MessageType.GET);
 
             // send request
-            response = this.client.request(request);
+            response = this.pool.select(request).request(request);
 
             // check response
             //MessageFactory.checkGetReply(response, MessageType.GET_RESPONSE);
@@ -207,7 +216,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
                     key, MessageType.GETNEXT);
 
             // send request
-            response = this.client.request(request);
+            response = this.pool.select(request).request(request);
 
             // check response
             //MessageFactory
@@ -244,7 +253,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
                     key, MessageType.GETPREVIOUS);
 
             // send request
-            response = this.client.request(request);
+            response = this.pool.select(request).request(request);
 
             // check response
 //            MessageFactory.checkGetReply(response,
@@ -281,12 +290,14 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         try {
 
             // get key range request parameter object
-            KeyRange kr = client.new KeyRange(toByteString(startKey),
+            ClientProxy proxy = this.pool.select();
+
+            KeyRange kr = proxy.new KeyRange(toByteString(startKey),
                     startKeyInclusive, toByteString(endKey), endKeyInclusive,
                     maxReturned, reverse);
 
             // send request to drive
-            List<ByteString> bsList = this.client.getKeyRange(kr);
+            List<ByteString> bsList = proxy.getKeyRange(kr);
 
             // convert to return type
             response = toByteArrayList(bsList);
@@ -306,7 +317,12 @@ public class DefaultKineticClient implements AdvancedKineticClient {
     @Override
     public void close() throws KineticException {
         try {
-            this.client.close();
+            // queued writes are sent before the connections are closed
+            if (this.coalescer != null) {
+                this.coalescer.close();
+            }
+
+            this.pool.close();
         } catch (Exception e) {
             KineticException lce = new KineticException(e.getMessage(), e);
             throw lce;
@@ -366,7 +382,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         
         try {
             // response message
-            response = this.client.request(request);
+            response = this.pool.select(request).request(request);
 
             //deleted = MessageFactory.checkDeleteReply(response);
             deleted = true;
@@ -436,7 +452,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         KineticMessage respond = null;
 
         try {
-            respond = this.client.request(request);
+            respond = this.pool.select(request).request(request);
         } catch (KineticException ke) {
             throw ke;
         } catch (Exception e) {
@@ -468,7 +484,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
             CallbackHandler<T> callback) throws KineticException {
 
         try {
-            this.client.requestAsync(message, callback);
+            this.pool.select(message).requestAsync(message, callback);
         } catch (Exception e) {
             throw new KineticException(e.getMessage(), e);
         }
@@ -513,7 +529,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
             request = MessageFactory.createGetVersionRequestMessage(key);
 
             // send request
-            response = this.client.request(request);
+            response = this.pool.select(request).request(request);
 
             version = response.getCommand().getBody().getKeyValue()
                     .getDbVersion().toByteArray();
@@ -534,10 +550,27 @@ public class DefaultKineticClient implements AdvancedKineticClient {
     @Override
     public void putAsync(Entry entry, byte[] newVersion,
             CallbackHandler<Entry> handler) throws KineticException {
+
+        if (this.coalescer != null) {
+            this.coalescer.putAsync(entry, newVersion, handler);
+            return;
+        }
+
         // default as sync
         this.putAsync(entry, newVersion, PersistOption.SYNC, handler);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public KineticFuture<Entry> putAsync(Entry entry, byte[] newVersion)
+            throws KineticException {
+        DefaultKineticFuture<Entry> future = new DefaultKineticFuture<Entry>();
+        this.putAsync(entry, newVersion, future);
+        return future;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -556,7 +589,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         setPersistOption(message, option);
 
         // send request to the drive
-        this.client.requestAsync(km, handler);
+        this.pool.select(km).requestAsync(km, handler);
     }
 
     public void batchPutAsync(Entry entry, byte[] newVersion,
@@ -574,7 +607,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         command.getHeaderBuilder().setBatchID(batchId);
 
         // send request to the drive
-        this.client.requestAsync(km, handler);
+        this.pool.select(km).requestAsync(km, handler);
     }
 
     public void batchPut(Entry entry, byte[] newVersion, int batchId)
@@ -591,7 +624,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         command.getHeaderBuilder().setBatchID(batchId);
 
         // send request to the drive
-        this.client.requestNoAck(km);
+        this.pool.select(km).requestNoAck(km);
     }
 
     public void batchPutForced(Entry entry, int batchId)
@@ -614,7 +647,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         // set force bit
         commandBuilder.getBodyBuilder().getKeyValueBuilder().setForce(true);
 
-        this.client.requestNoAck(km);
+        this.pool.select(km).requestNoAck(km);
     }
 
     /**
@@ -628,7 +661,17 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         KineticMessage message = MessageFactory.createGetRequestMessage(key,
                 MessageType.GET);
 
-        this.client.requestAsync(message, handler);
+        this.pool.select(message).requestAsync(message, handler);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public KineticFuture<Entry> getAsync(byte[] key) throws KineticException {
+        DefaultKineticFuture<Entry> future = new DefaultKineticFuture<Entry>();
+        this.getAsync(key, future);
+        return future;
     }
 
     /**
@@ -637,9 +680,26 @@ public class DefaultKineticClient implements AdvancedKineticClient {
     @Override
     public void deleteAsync(Entry entry, CallbackHandler<Boolean> handler)
             throws KineticException {
+
+        if (this.coalescer != null) {
+            this.coalescer.deleteAsync(entry, handler);
+            return;
+        }
+
         this.deleteAsync(entry, PersistOption.SYNC, handler);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public KineticFuture<Boolean> deleteAsync(Entry entry)
+            throws KineticException {
+        DefaultKineticFuture<Boolean> future = new DefaultKineticFuture<Boolean>();
+        this.deleteAsync(entry, future);
+        return future;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -656,7 +716,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         // set persist option
         setPersistOption(message, option);
 
-        this.client.requestAsync(km, handler);
+        this.pool.select(km).requestAsync(km, handler);
     }
 
     public void batchDeleteAsync(Entry entry, CallbackHandler<Boolean> handler,
@@ -670,7 +730,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         // set batch id
         message.getHeaderBuilder().setBatchID(batchId);
 
-        this.client.requestAsync(km, handler);
+        this.pool.select(km).requestAsync(km, handler);
     }
 
     public void batchDelete(Entry entry, int batchId) throws KineticException {
@@ -683,7 +743,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         // set batch id
         message.getHeaderBuilder().setBatchID(batchId);
 
-        this.client.requestNoAck(km);
+        this.pool.select(km).requestNoAck(km);
     }
 
     /**
@@ -697,7 +757,18 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         KineticMessage message = MessageFactory.createGetRequestMessage(key,
                 MessageType.GETNEXT);
 
-        this.client.requestAsync(message, handler);
+        this.pool.select(message).requestAsync(message, handler);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public KineticFuture<Entry> getNextAsync(byte[] key)
+            throws KineticException {
+        DefaultKineticFuture<Entry> future = new DefaultKineticFuture<Entry>();
+        this.getNextAsync(key, future);
+        return future;
     }
 
     /**
@@ -711,7 +782,18 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         KineticMessage message = MessageFactory.createGetRequestMessage(key,
                 MessageType.GETPREVIOUS);
 
-        this.client.requestAsync(message, handler);
+        this.pool.select(message).requestAsync(message, handler);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public KineticFuture<Entry> getPreviousAsync(byte[] key)
+            throws KineticException {
+        DefaultKineticFuture<Entry> future = new DefaultKineticFuture<Entry>();
+        this.getPreviousAsync(key, future);
+        return future;
     }
 
     /**
@@ -724,7 +806,20 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         KineticMessage message = MessageFactory.createGetKeyRangeMessage(
                 startKey, startKeyInclusive, endKey, endKeyInclusive, maxKeys,
                 false);
-        this.client.requestAsync(message, handler);
+        this.pool.select(message).requestAsync(message, handler);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public KineticFuture<List<byte[]>> getKeyRangeAsync(byte[] startKey,
+            boolean startKeyInclusive, byte[] endKey, boolean endKeyInclusive,
+            int maxKeys) throws KineticException {
+        DefaultKineticFuture<List<byte[]>> future = new DefaultKineticFuture<List<byte[]>>();
+        this.getKeyRangeAsync(startKey, startKeyInclusive, endKey,
+                endKeyInclusive, maxKeys, future);
+        return future;
     }
 
     /**
@@ -744,7 +839,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
                     key, MessageType.GET);
 
             // send request
-            response = this.client.request(request);
+            response = this.pool.select(request).request(request);
 
             // check response
             //MessageFactory.checkGetReply(response, MessageType.GET_RESPONSE);
@@ -773,7 +868,18 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         KineticMessage message = MessageFactory.createGetMetadataMessage(key,
                 MessageType.GET);
 
-        this.client.requestAsync(message, handler);
+        this.pool.select(message).requestAsync(message, handler);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public KineticFuture<EntryMetadata> getMetadataAsync(byte[] key)
+            throws KineticException {
+        DefaultKineticFuture<EntryMetadata> future = new DefaultKineticFuture<EntryMetadata>();
+        this.getMetadataAsync(key, future);
+        return future;
     }
 
     /**
@@ -816,7 +922,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
             setPersistOption(commandBuilder, option);
 
             // send request
-            response = this.client.request(request);
+            response = this.pool.select(request).request(request);
 
             // check response
             //MessageFactory.checkPutReply(reply, MessageType.PUT_RESPONSE);
@@ -843,9 +949,26 @@ public class DefaultKineticClient implements AdvancedKineticClient {
     @Override
     public void putForcedAsync(Entry entry, CallbackHandler<Entry> handler)
             throws KineticException {
+
+        if (this.coalescer != null) {
+            this.coalescer.putForcedAsync(entry, handler);
+            return;
+        }
+
         this.putForcedAsync(entry, PersistOption.SYNC, handler);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public KineticFuture<Entry> putForcedAsync(Entry entry)
+            throws KineticException {
+        DefaultKineticFuture<Entry> future = new DefaultKineticFuture<Entry>();
+        this.putForcedAsync(entry, future);
+        return future;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -871,7 +994,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         // set persist option
         setPersistOption(commandBuilder, option);
 
-        this.client.requestAsync(km, handler);
+        this.pool.select(km).requestAsync(km, handler);
 
     }
 
@@ -896,7 +1019,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         // set force bit
         commandBuilder.getBodyBuilder().getKeyValueBuilder().setForce(true);
 
-        this.client.requestAsync(km, handler);
+        this.pool.select(km).requestAsync(km, handler);
     }
 
     /**
@@ -934,9 +1057,26 @@ public class DefaultKineticClient implements AdvancedKineticClient {
     @Override
     public void deleteForcedAsync(byte[] key, CallbackHandler<Boolean> handler)
             throws KineticException {
+
+        if (this.coalescer != null) {
+            this.coalescer.deleteForcedAsync(key, handler);
+            return;
+        }
+
         this.deleteForcedAsync(key, PersistOption.SYNC, handler);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public KineticFuture<Boolean> deleteForcedAsync(byte[] key)
+            throws KineticException {
+        DefaultKineticFuture<Boolean> future = new DefaultKineticFuture<Boolean>();
+        this.deleteForcedAsync(key, future);
+        return future;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -954,7 +1094,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         setPersistOption(request, option);
 
         // do async delete
-        this.client.requestAsync(km, handler);
+        this.pool.select(km).requestAsync(km, handler);
     }
     
     public void batchDeleteForcedAsync(byte[] key,
@@ -970,7 +1110,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         request.getHeaderBuilder().setBatchID(batchId);
 
         // do async delete
-        this.client.requestAsync(km, handler);
+        this.pool.select(km).requestAsync(km, handler);
     }
 
     public void batchDeleteForced(byte[] key, int batchId)
@@ -984,7 +1124,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         request.getHeaderBuilder().setBatchID(batchId);
 
         // do async delete
-        this.client.requestNoAck(km);
+        this.pool.select(km).requestNoAck(km);
     }
 
     /**
@@ -999,7 +1139,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         KineticMessage request = MessageFactory.createNoOpRequestMessage();
 
         // send request
-        this.client.request(request);
+        this.pool.select(request).request(request);
 
         // check response
         // MessageFactory.checkNoOpReply(response);
@@ -1019,7 +1159,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
             KineticMessage request = MessageFactory.createFlushDataRequestMessage();
 
             // send request
-            this.client.request(request);
+            this.pool.select(request).request(request);
     }
 
     /**
@@ -1071,12 +1211,14 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         try {
 
             // construct request parameter object
-            KeyRange kr = client.new KeyRange(toByteString(startKey),
+            ClientProxy proxy = this.pool.select();
+
+            KeyRange kr = proxy.new KeyRange(toByteString(startKey),
                     startKeyInclusive, toByteString(endKey), endKeyInclusive,
                     maxKeys, reverse);
 
             // send request
-            List<ByteString> bsList = this.client.getKeyRange(kr);
+            List<ByteString> bsList = proxy.getKeyRange(kr);
 
             // convert to return type
             response = toByteArrayList(bsList);
@@ -1103,7 +1245,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
                 startKey, startKeyInclusive, endKey, endKeyInclusive, maxKeys,
                 true);
 
-        this.client.requestAsync(message, handler);
+        this.pool.select(message).requestAsync(message, handler);
     }
 
     /**
@@ -1121,7 +1263,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         request = MessageFactory.createStartBatchRequestMessage(batchId);
 
         // send request
-        response = this.client.request(request);
+        response = this.pool.select(request).request(request);
 
         // check response
         MessageFactory.checkReply(request, response);
@@ -1142,7 +1284,7 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         request = MessageFactory.createEndBatchRequestMessage(batchId, count);
         try {
             // send request
-            response = this.client.request(request);
+            response = this.pool.select(request).request(request);
             // check response
             MessageFactory.checkReply(request, response);
         } catch (KineticException ke) {
@@ -1197,12 +1339,20 @@ public class DefaultKineticClient implements AdvancedKineticClient {
         request = MessageFactory.createAbortBatchRequestMessage(batchId);
 
         // send request
-        response = this.client.request(request);
+        response = this.pool.select(request).request(request);
 
         // check response
         MessageFactory.checkReply(request, response);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ClientMetrics getMetrics() {
+        return this.pool;
+    }
+
     /**
      * {@inheritDoc}
      */
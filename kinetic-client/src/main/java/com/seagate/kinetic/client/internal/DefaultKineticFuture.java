@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.seagate.kinetic.client.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import kinetic.client.AsyncKineticException;
+import kinetic.client.CallbackHandler;
+import kinetic.client.CallbackResult;
+import kinetic.client.KineticException;
+import kinetic.client.KineticFuture;
+
+/**
+ * Kinetic future implementation.
+ * <p>
+ * The future is the callback handler of its asynchronous request, it is
+ * completed by the callback of the request and then invokes the callback
+ * handlers added by the application.
+ *
+ * @param <T>
+ *            result type of the operation.
+ *
+ * @see KineticFuture
+ */
+public class DefaultKineticFuture<T> implements KineticFuture<T>,
+        CallbackHandler<T> {
+
+    private final static Logger logger = Logger
+            .getLogger(DefaultKineticFuture.class.getName());
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    // result of a successful operation
+    private volatile CallbackResult<T> result = null;
+
+    // exception of a failed operation
+    private volatile AsyncKineticException exception = null;
+
+    // callbacks added before completion, null once completed
+    private List<CallbackHandler<T>> callbacks = new ArrayList<CallbackHandler<T>>(
+            1);
+
+    @Override
+    public void onSuccess(CallbackResult<T> result) {
+        this.complete(result, null);
+    }
+
+    @Override
+    public void onError(AsyncKineticException exception) {
+        this.complete(null, exception);
+    }
+
+    private void complete(CallbackResult<T> result,
+            AsyncKineticException exception) {
+
+        List<CallbackHandler<T>> list = null;
+
+        synchronized (this) {
+
+            if (this.callbacks == null) {
+                // completed already
+                return;
+            }
+
+            this.result = result;
+            this.exception = exception;
+
+            list = this.callbacks;
+            this.callbacks = null;
+        }
+
+        this.done.countDown();
+
+        for (CallbackHandler<T> handler : list) {
+            this.invoke(handler);
+        }
+    }
+
+    @Override
+    public void addCallback(CallbackHandler<T> handler) {
+
+        synchronized (this) {
+            if (this.callbacks != null) {
+                this.callbacks.add(handler);
+                return;
+            }
+        }
+
+        this.invoke(handler);
+    }
+
+    private void invoke(CallbackHandler<T> handler) {
+
+        try {
+            if (this.exception == null) {
+                handler.onSuccess(this.result);
+            } else {
+                handler.onError(this.exception);
+            }
+        } catch (Throwable t) {
+            logger.log(Level.WARNING, t.getMessage(), t);
+        }
+    }
+
+    @Override
+    public T getResult() throws KineticException, InterruptedException {
+
+        this.done.await();
+
+        if (this.exception != null) {
+            throw this.exception;
+        }
+
+        return this.result.getResult();
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+
+        this.done.await();
+
+        return this.report();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException,
+            ExecutionException, TimeoutException {
+
+        if (this.done.await(timeout, unit) == false) {
+            throw new TimeoutException();
+        }
+
+        return this.report();
+    }
+
+    private T report() throws ExecutionException {
+
+        if (this.exception != null) {
+            throw new ExecutionException(this.exception);
+        }
+
+        return this.result.getResult();
+    }
+
+    /**
+     * A request that was sent cannot be cancelled.
+     *
+     * @return false
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return this.done.getCount() == 0;
+    }
+}
@@ -0,0 +1,698 @@
+/**
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.seagate.kinetic.client.internal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import kinetic.client.AsyncKineticException;
+import kinetic.client.BatchAbortedException;
+import kinetic.client.BatchOperation;
+import kinetic.client.CallbackHandler;
+import kinetic.client.CallbackResult;
+import kinetic.client.ClientConfiguration;
+import kinetic.client.Entry;
+import kinetic.client.EntryMetadata;
+import kinetic.client.KineticException;
+import kinetic.client.advanced.PersistOption;
+
+import com.seagate.kinetic.client.io.MessageHandler;
+import com.seagate.kinetic.client.lib.ClientLogger;
+
+/**
+ * Coalesces asynchronous puts and deletes into batches.
+ * <p>
+ * Writes are queued and sent by a background thread. The thread groups the
+ * writes issued within {@link ClientConfiguration#getWriteCoalescingWindowMillis()}
+ * of the first write of a group, up to
+ * {@link ClientConfiguration#getWriteCoalescingMaxEntries()} writes, and sends
+ * the group as one {@link DefaultBatchOperation}. When the batch is committed
+ * the callback of each write is invoked with its result.
+ * <p>
+ * The writes of a group are independent and each write gets the result it
+ * would get as a single request. A group has at most one write of a key, a
+ * write of a key already in the group starts the next group. If the batch is
+ * aborted because of one write, nothing of the batch is committed and all
+ * writes are sent again, one by one. A group of one write is sent as a single
+ * request.
+ * <p>
+ * Single requests and batches may be sent over different connections of the
+ * pool, so a write of a key is sent after the response of the single request
+ * of the key sent before.
+ *
+ * @see DefaultKineticClient
+ */
+final class WriteCoalescer implements Runnable {
+
+    private final static Logger LOG = ClientLogger.get();
+
+    // max time the background thread waits for a write when idle, in milli
+    // seconds
+    private static final long IDLE_WAIT = 100;
+
+    private final DefaultKineticClient client;
+
+    // connections of the client, counts the coalesced writes
+    private final ClientProxyPool pool;
+
+    // max time a write waits for other writes, in nano seconds
+    private final long window;
+
+    // max writes in a batch
+    private final int maxEntries;
+
+    // executor of the callbacks, null to invoke by the background thread
+    private final Executor executor;
+
+    // queued writes
+    private final LinkedBlockingQueue<Write<?>> queue = new LinkedBlockingQueue<Write<?>>();
+
+    // free places of the queue, a callback may queue a write without one
+    private final Semaphore space;
+
+    // background thread, started with the first write
+    private Thread thread = null;
+
+    // close flag, no write is queued once set
+    private volatile boolean isClosed = false;
+
+    // callers queuing a write
+    private final AtomicInteger submitting = new AtomicInteger(0);
+
+    // write taken from the queue that starts the next group, used by the
+    // background thread only
+    private Write<?> carried = null;
+
+    // writes sent as single requests waiting for a response, by key, guarded
+    // by this
+    private final Map<ByteBuffer, Integer> unanswered = new HashMap<ByteBuffer, Integer>();
+
+    // max time close waits for the responses of single requests, in milli
+    // seconds
+    private final long requestTimeout;
+
+    WriteCoalescer(DefaultKineticClient client, ClientProxyPool pool,
+            ClientConfiguration config) {
+        this.client = client;
+        this.pool = pool;
+        this.window = TimeUnit.MILLISECONDS.toNanos(config
+                .getWriteCoalescingWindowMillis());
+        this.maxEntries = Math.max(1, config.getWriteCoalescingMaxEntries());
+        this.executor = config.getCompletionExecutor();
+        this.requestTimeout = config.getRequestTimeoutMillis();
+
+        // a group being sent and the next group
+        this.space = new Semaphore(2 * this.maxEntries);
+    }
+
+    void putAsync(Entry entry, byte[] newVersion, CallbackHandler<Entry> handler)
+            throws KineticException {
+        this.submit(new PutWrite(entry, newVersion, false, handler));
+    }
+
+    void putForcedAsync(Entry entry, CallbackHandler<Entry> handler)
+            throws KineticException {
+        this.submit(new PutWrite(entry, null, true, handler));
+    }
+
+    void deleteAsync(Entry entry, CallbackHandler<Boolean> handler)
+            throws KineticException {
+        this.submit(new DeleteWrite(entry, null, false, handler));
+    }
+
+    void deleteForcedAsync(byte[] key, CallbackHandler<Boolean> handler)
+            throws KineticException {
+        this.submit(new DeleteWrite(null, key, true, handler));
+    }
+
+    /**
+     * Queue a write. The caller is blocked if the queue is full, unless it
+     * invokes callback handlers.
+     */
+    private void submit(Write<?> write) throws KineticException {
+
+        // counted before the close flag is checked, see run()
+        this.submitting.incrementAndGet();
+
+        try {
+            if (this.isClosed) {
+                throw new KineticException("Connection is closed.");
+            }
+
+            if (Thread.currentThread() == this.start()
+                    || MessageHandler.isCallbackThread()) {
+
+                // a callback cannot wait for the background thread, which may
+                // wait for a slot of outstanding requests released by the
+                // callbacks. The write is queued beyond the bound, so it is
+                // still sent after the writes queued before.
+                write.hasSpace = this.space.tryAcquire();
+            } else {
+                this.space.acquire();
+                write.hasSpace = true;
+            }
+
+            this.queue.add(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KineticException(e.getMessage(), e);
+        } finally {
+            this.submitting.decrementAndGet();
+        }
+    }
+
+    private synchronized Thread start() {
+
+        if (this.thread == null) {
+            this.thread = new Thread(this, "Kinetic-Write-Coalescer");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        return this.thread;
+    }
+
+    @Override
+    public void run() {
+
+        List<Write<?>> group = new ArrayList<Write<?>>(this.maxEntries);
+
+        // keys of the group
+        Set<ByteBuffer> keys = new HashSet<ByteBuffer>();
+
+        while (true) {
+
+            try {
+                this.collect(group, keys);
+
+                // a previous single request of a key may be sent over
+                // another connection than the group
+                if (this.awaitAnswers(keys) == false) {
+                    LOG.warning("no response to a previous write of a key, "
+                            + "the key is written again");
+                }
+            } catch (InterruptedException e) {
+                LOG.log(Level.WARNING, "write coalescer interrupted", e);
+                break;
+            }
+
+            if (group.isEmpty() == false) {
+                this.flush(group);
+                group.clear();
+                keys.clear();
+            } else if (this.isClosed && this.submitting.get() == 0
+                    && this.queue.isEmpty()) {
+                // all writes queued before close are sent
+                break;
+            }
+        }
+    }
+
+    /**
+     * Collect the writes of the next group.
+     */
+    private void collect(List<Write<?>> group, Set<ByteBuffer> keys)
+            throws InterruptedException {
+
+        Write<?> write = this.carried;
+
+        this.carried = null;
+
+        if (write == null) {
+            write = this.poll(TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT));
+        }
+
+        if (write == null) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + this.window;
+
+        while (true) {
+
+            if (keys.add(write.keyBuffer()) == false) {
+                // same key in one batch, the write starts the next group
+                this.carried = write;
+                return;
+            }
+
+            group.add(write);
+
+            if (group.size() == this.maxEntries) {
+                return;
+            }
+
+            write = this.poll(0);
+
+            if (write == null) {
+
+                long wait = deadline - System.nanoTime();
+
+                // no more writes are queued once closed
+                if (wait <= 0 || this.isClosed) {
+                    return;
+                }
+
+                write = this.poll(wait);
+
+                if (write == null) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Take a write from the queue and free its place.
+     */
+    private Write<?> poll(long nanos) throws InterruptedException {
+
+        Write<?> write = this.queue.poll(nanos, TimeUnit.NANOSECONDS);
+
+        if (write != null && write.hasSpace) {
+            this.space.release();
+        }
+
+        return write;
+    }
+
+    /**
+     * Send a group of writes as a batch.
+     */
+    private void flush(List<Write<?>> group) {
+
+        if (group.size() == 1) {
+            group.get(0).sendAlone();
+            return;
+        }
+
+        BatchOperation batch = null;
+
+        try {
+            batch = new DefaultBatchOperation(this.client);
+        } catch (KineticException e) {
+            LOG.log(Level.FINE, "batch not started, writes sent one by one", e);
+            this.sendAlone(group);
+            return;
+        }
+
+        try {
+            for (Write<?> write : group) {
+                write.addTo(batch);
+            }
+        } catch (KineticException e) {
+
+            LOG.log(Level.FINE, "batch aborted, writes sent one by one", e);
+
+            try {
+                batch.abort();
+            } catch (KineticException e2) {
+                LOG.log(Level.FINE, e2.getMessage(), e2);
+            }
+
+            this.sendAlone(group);
+            return;
+        }
+
+        try {
+            batch.commit();
+        } catch (BatchAbortedException e) {
+
+            LOG.log(Level.FINE, "batch aborted at index "
+                    + e.getFailedOperationIndex()
+                    + ", writes sent one by one", e);
+
+            // nothing is committed, each write gets its own result
+            this.sendAlone(group);
+            return;
+        } catch (KineticException e) {
+
+            // outcome unknown
+            for (Write<?> write : group) {
+                write.fail(e);
+            }
+
+            return;
+        }
+
+        this.pool.coalesced(group.size());
+
+        for (Write<?> write : group) {
+            write.succeed();
+        }
+    }
+
+    private void sendAlone(List<Write<?>> group) {
+
+        for (Write<?> write : group) {
+            write.sendAlone();
+        }
+    }
+
+    /**
+     * Send the queued writes, stop the background thread and wait for the
+     * responses of the writes sent as single requests.
+     */
+    void close() {
+
+        Thread t = null;
+
+        synchronized (this) {
+
+            if (this.isClosed) {
+                return;
+            }
+
+            this.isClosed = true;
+
+            t = this.thread;
+        }
+
+        // a callback may close the client
+        if (t == null || t == Thread.currentThread()) {
+            return;
+        }
+
+        try {
+            t.join();
+
+            if (this.awaitAnswers(null) == false) {
+                LOG.warning("coalesced writes without response at close");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for the responses of the writes sent as single requests, at most
+     * the request timeout.
+     *
+     * @param keys
+     *            keys of the writes, null for all writes.
+     * @return true if all responses are received.
+     */
+    private synchronized boolean awaitAnswers(Set<ByteBuffer> keys)
+            throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + this.requestTimeout;
+
+        while (this.isAnswered(keys) == false) {
+
+            long wait = deadline - System.currentTimeMillis();
+
+            if (wait <= 0) {
+                return false;
+            }
+
+            this.wait(wait);
+        }
+
+        return true;
+    }
+
+    private boolean isAnswered(Set<ByteBuffer> keys) {
+
+        if (keys == null) {
+            return this.unanswered.isEmpty();
+        }
+
+        for (ByteBuffer key : keys) {
+            if (this.unanswered.containsKey(key)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private synchronized void sent(ByteBuffer key) {
+
+        Integer count = this.unanswered.get(key);
+
+        this.unanswered.put(key, count == null ? 1 : count + 1);
+    }
+
+    private synchronized void answered(ByteBuffer key) {
+
+        Integer count = this.unanswered.remove(key);
+
+        if (count != null && count > 1) {
+            this.unanswered.put(key, count - 1);
+        }
+
+        this.notifyAll();
+    }
+
+    private void dispatch(Runnable callback) {
+
+        if (this.executor != null) {
+            try {
+                this.executor.execute(callback);
+                return;
+            } catch (RejectedExecutionException e) {
+                LOG.fine("completion executor rejected callback, invoked by caller");
+            }
+        }
+
+        callback.run();
+    }
+
+    /**
+     * A queued write.
+     */
+    private abstract class Write<T> {
+
+        private final CallbackHandler<T> handler;
+
+        // true if the write holds a place of the queue
+        private boolean hasSpace = false;
+
+        Write(CallbackHandler<T> handler) {
+            this.handler = handler;
+        }
+
+        /**
+         * Key of the write.
+         */
+        abstract byte[] key();
+
+        ByteBuffer keyBuffer() {
+            return ByteBuffer.wrap(this.key());
+        }
+
+        /**
+         * Add the write to a batch.
+         */
+        abstract void addTo(BatchOperation batch) throws KineticException;
+
+        /**
+         * Send the write as a single asynchronous request.
+         */
+        abstract void send(CallbackHandler<T> handler) throws KineticException;
+
+        /**
+         * Result of the committed write.
+         */
+        abstract T result();
+
+        void sendAlone() {
+
+            final ByteBuffer key = this.keyBuffer();
+
+            sent(key);
+
+            try {
+                this.send(new CallbackHandler<T>() {
+                    @Override
+                    public void onSuccess(CallbackResult<T> result) {
+                        answered(key);
+                        handler.onSuccess(result);
+                    }
+
+                    @Override
+                    public void onError(AsyncKineticException exception) {
+                        answered(key);
+                        handler.onError(exception);
+                    }
+                });
+            } catch (KineticException e) {
+                answered(key);
+                this.fail(e);
+            }
+        }
+
+        void succeed() {
+
+            final AsyncCallbackResult<T> result = new AsyncCallbackResult<T>(
+                    null, null, this.result());
+
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handler.onSuccess(result);
+                    } catch (Throwable t) {
+                        LOG.log(Level.WARNING, t.getMessage(), t);
+                    }
+                }
+            });
+        }
+
+        void fail(KineticException e) {
+
+            final AsyncKineticException exception = new AsyncKineticException(
+                    e.getMessage(), e);
+
+            exception.setRequestMessage(e.getRequestMessage());
+            exception.setResponseMessage(e.getResponseMessage());
+
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handler.onError(exception);
+                    } catch (Throwable t) {
+                        LOG.log(Level.WARNING, t.getMessage(), t);
+                    }
+                }
+            });
+        }
+    }
+
+    private final class PutWrite extends Write<Entry> {
+
+        private final Entry entry;
+
+        private final byte[] newVersion;
+
+        private final boolean forced;
+
+        PutWrite(Entry entry, byte[] newVersion, boolean forced,
+                CallbackHandler<Entry> handler) {
+            super(handler);
+            this.entry = entry;
+            this.newVersion = newVersion;
+            this.forced = forced;
+        }
+
+        @Override
+        byte[] key() {
+            return this.entry.getKey();
+        }
+
+        @Override
+        void addTo(BatchOperation batch) throws KineticException {
+            if (this.forced) {
+                batch.putForced(this.entry);
+            } else {
+                batch.put(this.entry, this.newVersion);
+            }
+        }
+
+        @Override
+        void send(CallbackHandler<Entry> handler) throws KineticException {
+            if (this.forced) {
+                client.putForcedAsync(this.entry, PersistOption.SYNC, handler);
+            } else {
+                client.putAsync(this.entry, this.newVersion,
+                        PersistOption.SYNC, handler);
+            }
+        }
+
+        @Override
+        Entry result() {
+
+            EntryMetadata metadata = new EntryMetadata();
+
+            byte[] version = this.newVersion;
+
+            // the version of a forced put is the version of the entry
+            if (this.forced && this.entry.getEntryMetadata() != null) {
+                version = this.entry.getEntryMetadata().getVersion();
+            }
+
+            metadata.setVersion(version);
+
+            return new Entry(this.entry.getKey(), this.entry.getValue(),
+                    metadata);
+        }
+    }
+
+    private final class DeleteWrite extends Write<Boolean> {
+
+        private final Entry entry;
+
+        private final byte[] key;
+
+        private final boolean forced;
+
+        DeleteWrite(Entry entry, byte[] key, boolean forced,
+                CallbackHandler<Boolean> handler) {
+            super(handler);
+            this.entry = entry;
+            this.key = key;
+            this.forced = forced;
+        }
+
+        @Override
+        byte[] key() {
+            return this.forced ? this.key : this.entry.getKey();
+        }
+
+        @Override
+        void addTo(BatchOperation batch) throws KineticException {
+            if (this.forced) {
+                batch.deleteForced(this.key);
+            } else {
+                batch.delete(this.entry);
+            }
+        }
+
+        @Override
+        void send(CallbackHandler<Boolean> handler) throws KineticException {
+            if (this.forced) {
+                client.deleteForcedAsync(this.key, PersistOption.SYNC, handler);
+            } else {
+                client.deleteAsync(this.entry, PersistOption.SYNC, handler);
+            }
+        }
+
+        /**
+         * A versioned delete of a missing entry aborts the batch, and a forced
+         * delete returns true whether the entry existed or not.
+         */
+        @Override
+        Boolean result() {
+            return Boolean.TRUE;
+        }
+    }
+}
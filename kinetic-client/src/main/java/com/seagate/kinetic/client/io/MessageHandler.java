@@ -18,16 +18,26 @@
 package com.seagate.kinetic.client.io;
 
 import java.io.IOException;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import kinetic.client.AsyncKineticException;
+import kinetic.client.CallbackHandler;
 import kinetic.client.ClientConfiguration;
+import kinetic.client.ClientMetrics;
 import kinetic.client.Entry;
 import kinetic.client.EntryMetadata;
 import kinetic.client.EntryNotFoundException;
@@ -50,24 +60,94 @@ import com.seagate.kinetic.proto.Kinetic.Message.AuthType;
  *
  * Kinetic Client message handler.
  * <p>
+ * Requests are finalized, including the HMAC calculation, by the calling
+ * threads without holding a lock. Sequence numbers are assigned atomically
+ * and the {@link OrderedWriter} writes the messages in sequence order. Each
+ * request is tracked by a {@link ResponseFuture}, the number of outstanding
+ * asynchronous requests is bounded by a semaphore.
+ * <p>
+ * Each asynchronous request has a deadline of the request timeout, tracked by
+ * a hashed wheel timer shared by all clients. An expired request is removed,
+ * its slot is released and its callback handler is called with an error.
  *
  * @author chiaming Yang
  * @param <AsyncCallbackHandler>
  *
  */
-public class MessageHandler implements ClientMessageService, Runnable {
+public class MessageHandler implements ClientMessageService, Runnable,
+		ClientMetrics {
 
 	// my logger
 	private final static Logger logger = Logger.getLogger(MessageHandler.class
 			.getName());
 
+	// response callback handlers, stateless and shared
+	private static final PutAsyncCallbackHandler PUT_HANDLER = new PutAsyncCallbackHandler();
+
+	private static final GetAsyncCallbackHandler GET_HANDLER = new GetAsyncCallbackHandler(
+			MessageType.GET_RESPONSE);
+
+	private static final GetMetadataAsyncCallbackHandler GET_METADATA_HANDLER = new GetMetadataAsyncCallbackHandler(
+			MessageType.GET_RESPONSE);
+
+	private static final GetKeyRangeAsyncCallbackHandler GET_KEY_RANGE_HANDLER = new GetKeyRangeAsyncCallbackHandler(
+			MessageType.GETKEYRANGE_RESPONSE);
+
+	private static final GetAsyncCallbackHandler GET_NEXT_HANDLER = new GetAsyncCallbackHandler(
+			MessageType.GETNEXT_RESPONSE);
+
+	private static final GetAsyncCallbackHandler GET_PREVIOUS_HANDLER = new GetAsyncCallbackHandler(
+			MessageType.GETPREVIOUS_RESPONSE);
+
+	private static final DeleteAsyncCallbackHandler DELETE_HANDLER = new DeleteAsyncCallbackHandler();
+
+	// set on the threads that invoke callback handlers without an executor
+	private static final ThreadLocal<Boolean> CALLBACK_THREAD = new ThreadLocal<Boolean>();
+
+	// deadlines of asynchronous requests of all clients
+	private static final HashedWheelTimer TIMER = new HashedWheelTimer(
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					Thread t = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							// invokes the callbacks of timed out requests
+							CALLBACK_THREAD.set(Boolean.TRUE);
+							r.run();
+						}
+					}, "ClientRequestTimer");
+					t.setDaemon(true);
+					return t;
+				}
+			}, 100, TimeUnit.MILLISECONDS, 512);
+
 	// XXX 07172013 chiaming: make it elastic.
 	private Thread myThread = null;
 
 	// my message queue
 	private final LinkedBlockingQueue<KineticMessage> asyncQueue = new LinkedBlockingQueue<KineticMessage>();
 
-	private final Map<Long, Object> ackmap = new ConcurrentHashMap<Long, Object>();
+	// requests waiting for a response
+	private final ConcurrentHashMap<Long, ResponseFuture> ackmap = new ConcurrentHashMap<Long, ResponseFuture>();
+
+	// sequence of the next request
+	private final AtomicLong sequence = new AtomicLong(1);
+
+	// writes requests in sequence order
+	private final OrderedWriter writer;
+
+	// permits of outstanding asynchronous requests
+	private final Semaphore asyncPermits;
+
+	// executor of callbacks, null to invoke them by the dispatching thread
+	private final Executor completionExecutor;
+
+	// timed out synchronous requests
+	private final AtomicLong syncTimeouts = new AtomicLong();
+
+	// timed out asynchronous requests
+	private final AtomicLong asyncTimeouts = new AtomicLong();
 
 	// flag running flag
 	private volatile boolean isRunning = false;
@@ -105,6 +185,13 @@ public class MessageHandler implements ClientMessageService, Runnable {
 
 		this.requestTimeout = this.client.getConfiguration()
 				.getRequestTimeoutMillis();
+
+		this.asyncPermits = new Semaphore(this.asyncQueuedSize);
+
+		this.completionExecutor = this.client.getConfiguration()
+				.getCompletionExecutor();
+
+		this.writer = new OrderedWriter(this, iohandler, this.sequence.get());
 	}
 	
 
@@ -118,7 +205,6 @@ public class MessageHandler implements ClientMessageService, Runnable {
 	 *             if interrupted.
 	 */
 	@Override
-	@SuppressWarnings("unchecked")
 	public void routeMessage(KineticMessage message)
 			throws InterruptedException {
 
@@ -150,12 +236,12 @@ public class MessageHandler implements ClientMessageService, Runnable {
 		Long seq = Long.valueOf(message.getCommand().getHeader()
 				.getAckSequence());
 
-		Object obj = this.ackmap.get(seq);
+		ResponseFuture future = this.ackmap.get(seq);
 
 		// check if sync request
-		if (obj != null && (obj instanceof LinkedBlockingQueue)) {
+		if (future != null && future.isAsync() == false) {
 			// sync request
-			((LinkedBlockingQueue<KineticMessage>) obj).put(message);
+			future.complete(message);
 		} else {
 			// async request
 			// this.asyncQueue.put(message);
@@ -167,6 +253,8 @@ public class MessageHandler implements ClientMessageService, Runnable {
 	@Override
     public void run() {
 
+        CALLBACK_THREAD.set(Boolean.TRUE);
+
         try {
             if (logger.isLoggable(Level.FINEST)) {
                 logger.finest("thread started, name=" + this.myThread.getName());
@@ -216,20 +304,19 @@ public class MessageHandler implements ClientMessageService, Runnable {
 		// get ack seq
 		Long seq = Long.valueOf(message.getCommand().getHeader()
 				.getAckSequence());
-		// get callback instance
-		Object context = this.ackmap.get(seq);
+		// claim the request, it may have timed out
+		ResponseFuture future = this.ackmap.remove(seq);
 
-		if (context != null) {
-			try {
-				if (context instanceof CallbackContext) {
-					// invoke callback handler
-					invokeCallbackHandler(context, message);
-				} else {
-					logger.warning("received unknown message: " + message);
-				}
-			} finally {
-				// this.ackmap.remove(seq);
-				this.asyncDelivered(seq);
+		if (future != null) {
+
+			// the slot is released first, the callback may send requests
+			this.asyncDelivered(future);
+
+			if (future.getContext() instanceof CallbackContext) {
+				// invoke callback handler
+				this.complete(future.getContext(), message);
+			} else {
+				logger.warning("received unknown message: " + message);
 			}
 		} else {
 
@@ -277,68 +364,250 @@ public class MessageHandler implements ClientMessageService, Runnable {
 	public KineticMessage write(KineticMessage message) throws IOException,
 	InterruptedException {
 
-		LinkedBlockingQueue<KineticMessage> lbq = new LinkedBlockingQueue<KineticMessage>(
-				1);
+		this.checkClosed();
+
+		ResponseFuture future = this.send(message, null, true, false);
+
+		try {
+			KineticMessage respond = future.get(this.requestTimeout);
+
+			this.checkClosed();
+
+			if (respond == null) {
+				this.syncTimeouts.incrementAndGet();
+			}
+
+			return respond;
+		} finally {
+			this.ackmap.remove(Long.valueOf(future.getSequence()));
+		}
+	}
+
+	public void writeAsync(KineticMessage message, Object context)
+			throws IOException, InterruptedException {
+
+		boolean hasPermit = true;
 
-		KineticMessage respond = null;
+		if (isCallbackThread()) {
+			// sent by a callback, a dispatching thread must not wait for
+			// a slot that only it can release
+			hasPermit = this.asyncPermits.tryAcquire();
+		} else {
+			// wait for a free slot of outstanding requests
+			while (this.asyncPermits.tryAcquire(1, TimeUnit.SECONDS) == false) {
+				this.checkClosed();
+			}
+		}
 
-        Long seq = 0L;
+		boolean sent = false;
 
 		try {
+			this.checkClosed();
 
-            synchronized (this) {
+			this.send(message, context, true, hasPermit);
 
-                this.client.finalizeHeader(message);
+			sent = true;
+		} finally {
+			if (sent == false && hasPermit) {
+				this.asyncPermits.release();
+			}
+		}
+	}
 
-                seq = Long.valueOf(message.getCommand().getHeader()
-                        .getSequence());
+	/**
+	 * Check if the calling thread invokes callback handlers of asynchronous
+	 * requests, as the receiving thread of a connection or the timer of
+	 * request deadlines does if no completion executor is set. Such a thread
+	 * must not wait for a slot of outstanding requests or for any other
+	 * resource released by the callbacks.
+	 *
+	 * @return true if the calling thread invokes callback handlers.
+	 */
+	public static boolean isCallbackThread() {
+		return CALLBACK_THREAD.get() != null;
+	}
 
-                this.ackmap.put(seq, lbq);
+	public void writeNoAck(KineticMessage message) throws IOException {
 
-                // this.iohandler.write(message);
-                this.doWrite(message);
-            }
+		this.checkClosed();
+
+		this.send(message, null, false, false);
+	}
+
+	/**
+	 * Finalize and write a request. The header and the HMAC are calculated by
+	 * the calling thread, the message is written when all requests with a
+	 * lower sequence are written.
+	 *
+	 * @param message
+	 *            the request message.
+	 * @param context
+	 *            callback context, null for a synchronous request.
+	 * @param ack
+	 *            true if a response is expected.
+	 * @param hasPermit
+	 *            true if the request holds a slot of the asynchronous queue.
+	 * @return the future of the request.
+	 */
+	private ResponseFuture send(KineticMessage message, Object context,
+			boolean ack, boolean hasPermit) {
 
-			respond = lbq.poll(this.requestTimeout, TimeUnit.MILLISECONDS);
+		long seq = this.sequence.getAndIncrement();
 
-			if (this.isClosed) {
-				throw new IOException("Connection is closed.");
+		ResponseFuture future = null;
+
+		try {
+			this.client.finalizeHeader(message, seq);
+
+			future = new ResponseFuture(seq, message, context, hasPermit);
+
+			if (ack) {
+				// registered before written, the response may arrive at once
+				this.ackmap.put(Long.valueOf(seq), future);
+
+				if (context != null) {
+					this.scheduleTimeout(future);
+				}
 			}
 		} finally {
-			this.ackmap.remove(seq);
+			if (future == null) {
+				// the later sequences must not wait for this one
+				this.writer.skip(seq);
+			}
 		}
 
-		return respond;
+		this.writer.write(future);
+
+		return future;
 	}
 
-    public synchronized void writeAsync(KineticMessage message, Object context)
-			throws IOException,
-			InterruptedException {
+	/**
+	 * Called by the ordered writer if the message of a request could not be
+	 * written.
+	 *
+	 * @param future
+	 *            future of the request.
+	 * @param e
+	 *            the I/O failure.
+	 */
+	void writeFailed(ResponseFuture future, IOException e) {
 
-        this.client.finalizeHeader(message);
+		logger.log(Level.WARNING, e.getMessage(), e);
 
-		Long seq = Long.valueOf(message.getCommand().getHeader()
-				.getSequence());
+		if (this.ackmap.remove(Long.valueOf(future.getSequence())) == null) {
+			// no response expected
+			return;
+		}
 
-        // synchronized (this) {
-			while (this.ackmap.size() >= this.asyncQueuedSize && this.isRunning) {
-				this.wait();
-            // }
+		if (future.isAsync() == false) {
+			future.fail(e);
+			return;
 		}
 
-		this.ackmap.put(seq, context);
+		this.asyncDelivered(future);
 
-		// this.iohandler.write(message);
-		this.doWrite(message);
+		this.deliverError(future, new AsyncKineticException(e));
 	}
 
-    public synchronized void writeNoAck(KineticMessage message)
-            throws IOException {
+	/**
+	 * Start the deadline of an asynchronous request.
+	 */
+	private void scheduleTimeout(final ResponseFuture future) {
 
-        this.client.finalizeHeader(message);
+		final Long seq = Long.valueOf(future.getSequence());
 
-        this.doWrite(message);
-    }
+		future.setTimeout(TIMER.newTimeout(new TimerTask() {
+			@Override
+			public void run(Timeout timeout) {
+
+				// the response may have claimed the request
+				if (ackmap.remove(seq, future) == false) {
+					return;
+				}
+
+				asyncTimeouts.incrementAndGet();
+
+				asyncDelivered(future);
+
+				logger.warning("async request timed out, sequence=" + seq);
+
+				deliverError(future, new AsyncKineticException(
+						"Timeout - unable to receive response message within "
+								+ requestTimeout + " ms"));
+			}
+		}, this.requestTimeout, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Call the callback handler of an asynchronous request with an error.
+	 */
+	private void deliverError(final ResponseFuture future,
+			final AsyncKineticException exception) {
+
+		exception.setRequestMessage(future.getRequest());
+
+		this.dispatch(new Runnable() {
+			@Override
+			@SuppressWarnings({ "rawtypes", "unchecked" })
+			public void run() {
+				try {
+					CallbackContext context = (CallbackContext) future
+							.getContext();
+
+					context.setResponseMessage(null);
+
+					CallbackHandler handler = context.getCallbackHandler();
+
+					handler.onError(exception);
+				} catch (Throwable t) {
+					logger.log(Level.WARNING, t.getMessage(), t);
+				}
+			}
+		});
+	}
+
+	private void checkClosed() throws IOException {
+		if (this.isClosed) {
+			throw new IOException("Connection is closed.");
+		}
+	}
+
+	/**
+	 * Invoke the callback handler of an asynchronous request by the
+	 * completion executor, or by the calling thread if none is set.
+	 */
+	private void complete(final Object cbContext, final KineticMessage response) {
+
+		if (this.completionExecutor == null) {
+			this.invokeCallbackHandler(cbContext, response);
+			return;
+		}
+
+		this.dispatch(new Runnable() {
+			@Override
+			public void run() {
+				invokeCallbackHandler(cbContext, response);
+			}
+		});
+	}
+
+	/**
+	 * Run a callback by the completion executor, or by the calling thread if
+	 * none is set or the executor rejects it.
+	 */
+	private void dispatch(Runnable callback) {
+
+		if (this.completionExecutor != null) {
+			try {
+				this.completionExecutor.execute(callback);
+				return;
+			} catch (RejectedExecutionException e) {
+				logger.fine("completion executor rejected callback, invoked by caller");
+			}
+		}
+
+		callback.run();
+	}
 
 	@SuppressWarnings("rawtypes")
 	private void invokeCallbackHandler(Object cbContext, KineticMessage response) {
@@ -351,48 +620,32 @@ public class MessageHandler implements ClientMessageService, Runnable {
 
 		switch (type) {
 		case PUT_RESPONSE:
-
-			new PutAsyncCallbackHandler().onAsyncMessage(cbContext,
-					response, exception);
-
+			PUT_HANDLER.onAsyncMessage(cbContext, response, exception);
 			break;
 		case GET_RESPONSE:
 			boolean isMetadataOnly = ((CallbackContext) cbContext)
 					.getRequestMessage().getCommand().getBody()
 					.getKeyValue().getMetadataOnly();
-			if (isMetadataOnly)
-			{
-				new GetMetadataAsyncCallbackHandler(MessageType.GET_RESPONSE).onAsyncMessage(
-						cbContext, response,
-						exception);
-			}else
-			{
-				new GetAsyncCallbackHandler(MessageType.GET_RESPONSE).onAsyncMessage(
-						cbContext, response,
+			if (isMetadataOnly) {
+				GET_METADATA_HANDLER.onAsyncMessage(cbContext, response,
 						exception);
+			} else {
+				GET_HANDLER.onAsyncMessage(cbContext, response, exception);
 			}
 			break;
 		case GETKEYRANGE_RESPONSE:
-			new GetKeyRangeAsyncCallbackHandler(MessageType.GETKEYRANGE_RESPONSE).onAsyncMessage(
-					cbContext, response,
+			GET_KEY_RANGE_HANDLER.onAsyncMessage(cbContext, response,
 					exception);
 			break;
 		case GETNEXT_RESPONSE:
-			new GetAsyncCallbackHandler(MessageType.GETNEXT_RESPONSE)
-			.onAsyncMessage(cbContext, response, exception);
-
+			GET_NEXT_HANDLER.onAsyncMessage(cbContext, response, exception);
 			break;
-
 		case GETPREVIOUS_RESPONSE:
-			new GetAsyncCallbackHandler(MessageType.GETPREVIOUS_RESPONSE)
-			.onAsyncMessage(cbContext, response, exception);
+			GET_PREVIOUS_HANDLER.onAsyncMessage(cbContext, response, exception);
 			break;
-
 		case DELETE_RESPONSE:
-			new DeleteAsyncCallbackHandler().onAsyncMessage(cbContext,
-					response, exception);
+			DELETE_HANDLER.onAsyncMessage(cbContext, response, exception);
 			break;
-
 		default:
 			break;
 		}
@@ -523,16 +776,6 @@ public class MessageHandler implements ClientMessageService, Runnable {
 		return this.client.getConfiguration();
 	}
 
-	private void doWrite(KineticMessage message) throws IOException {
-
-		if (logger.isLoggable(Level.FINEST)) {
-			logger.info("writing message: " + message);
-		}
-
-		this.iohandler.write(message);
-	}
-
-
 	/**
 	 * Close the message handler.
 	 */
@@ -549,36 +792,54 @@ public class MessageHandler implements ClientMessageService, Runnable {
 		// wake up sync callers
 		this.wakeupSyncCallers();
 
-		// wakes up all wait threads for this instance.
-		synchronized (this) {
-			this.notifyAll();
-		}
+		// wake up async callers waiting for a slot
+		this.asyncPermits.release(this.asyncQueuedSize);
 
 	}
 
-	@SuppressWarnings("unchecked")
 	private void wakeupSyncCallers() {
 
-		// logger.info("waking up sync callers ...");
+		for (ResponseFuture future : this.ackmap.values()) {
+			if (future.isAsync() == false) {
+				// the connection is closed, unblock callers
+				future.complete(new KineticMessage());
+			}
+		}
+	}
 
-		for (Long id : this.ackmap.keySet().toArray(new Long[0])) {
+	/**
+	 * Release the resources of a claimed asynchronous request.
+	 */
+	private void asyncDelivered(ResponseFuture future) {
 
-			Object obj = this.ackmap.get(id);
+		future.cancelTimeout();
 
-			try {
-				if (obj instanceof LinkedBlockingQueue) {
-					// the connection is closed, unblock callers
-				    ((LinkedBlockingQueue<KineticMessage>) obj).put(new KineticMessage());
-				}
-			} catch (Exception e) {
-				logger.log(Level.WARNING, e.getMessage(), e);
-			}
+		if (future.hasPermit()) {
+			this.asyncPermits.release();
 		}
 	}
 
-	private synchronized void asyncDelivered(Long key) {
-		this.ackmap.remove(key);
-		this.notifyAll();
+	@Override
+	public long getSyncTimeoutCount() {
+		return this.syncTimeouts.get();
+	}
+
+	@Override
+	public long getAsyncTimeoutCount() {
+		return this.asyncTimeouts.get();
+	}
+
+	@Override
+	public int getOutstandingRequestCount() {
+		return this.ackmap.size();
+	}
+
+	/**
+	 * Writes are coalesced by the client instance, not by a connection.
+	 */
+	@Override
+	public long getCoalescedWriteCount() {
+		return 0;
 	}
 
 	/**
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.seagate.kinetic.client.io;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes request messages to the transport in sequence order.
+ * <p>
+ * The requests of a connection are written in increasing sequence order.
+ * Callers finalize their messages in parallel, so a message may be ready
+ * before the messages of the lower sequences. Ready messages are parked until all lower sequences are ready,
+ * and the thread that finds the next sequence ready writes it and the parked
+ * messages that follow. No caller waits for another caller.
+ *
+ * @see MessageHandler
+ */
+final class OrderedWriter {
+
+	// placeholder of a sequence that is not written
+	private static final ResponseFuture SKIPPED = new ResponseFuture(-1, null,
+			null, false);
+
+	private final MessageHandler handler;
+
+	private final IoHandler iohandler;
+
+	// ready messages waiting for the lower sequences
+	private final ConcurrentHashMap<Long, ResponseFuture> ready = new ConcurrentHashMap<Long, ResponseFuture>();
+
+	// next sequence to write, written by the draining thread
+	private volatile long next;
+
+	// set while a thread writes the ready messages
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+
+	OrderedWriter(MessageHandler handler, IoHandler iohandler,
+			long firstSequence) {
+		this.handler = handler;
+		this.iohandler = iohandler;
+		this.next = firstSequence;
+	}
+
+	/**
+	 * Write the request of the future when all lower sequences are written.
+	 *
+	 * @param future
+	 *            future of a finalized request.
+	 */
+	void write(ResponseFuture future) {
+		this.ready.put(Long.valueOf(future.getSequence()), future);
+		this.drain();
+	}
+
+	/**
+	 * Release a sequence that is not written, so the higher sequences are not
+	 * held back.
+	 *
+	 * @param sequence
+	 *            the sequence.
+	 */
+	void skip(long sequence) {
+		this.ready.put(Long.valueOf(sequence), SKIPPED);
+		this.drain();
+	}
+
+	private void drain() {
+
+		while (this.draining.compareAndSet(false, true)) {
+
+			try {
+				ResponseFuture future = null;
+
+				while ((future = this.ready.remove(Long.valueOf(this.next))) != null) {
+
+					this.next++;
+
+					if (future != SKIPPED) {
+						this.doWrite(future);
+					}
+				}
+			} finally {
+				this.draining.set(false);
+			}
+
+			// the next sequence may have become ready after the last check
+			if (this.ready.containsKey(Long.valueOf(this.next)) == false) {
+				break;
+			}
+		}
+	}
+
+	private void doWrite(ResponseFuture future) {
+
+		try {
+			this.iohandler.write(future.getRequest());
+		} catch (IOException e) {
+			this.handler.writeFailed(future, e);
+		} catch (RuntimeException e) {
+			this.handler.writeFailed(future, new IOException(e));
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.seagate.kinetic.client.io;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.netty.util.Timeout;
+
+import com.seagate.kinetic.common.lib.KineticMessage;
+
+/**
+ * Completion of a request sent by the message handler.
+ * <p>
+ * A future is completed once, with the response message or with the I/O
+ * failure of the request. Synchronous callers wait for the completion,
+ * asynchronous requests carry their callback context.
+ *
+ * @see MessageHandler
+ */
+final class ResponseFuture {
+
+	// request sequence
+	private final long sequence;
+
+	// request message
+	private final KineticMessage request;
+
+	// callback context, null for a synchronous request
+	private final Object context;
+
+	// true if the request holds a slot of the asynchronous queue
+	private final boolean hasPermit;
+
+	// response message or I/O failure, set once
+	private final AtomicReference<Object> result = new AtomicReference<Object>();
+
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	// deadline of an asynchronous request
+	private volatile Timeout timeout = null;
+
+	ResponseFuture(long sequence, KineticMessage request, Object context,
+			boolean hasPermit) {
+		this.sequence = sequence;
+		this.request = request;
+		this.context = context;
+		this.hasPermit = hasPermit;
+	}
+
+	long getSequence() {
+		return this.sequence;
+	}
+
+	KineticMessage getRequest() {
+		return this.request;
+	}
+
+	Object getContext() {
+		return this.context;
+	}
+
+	boolean isAsync() {
+		return this.context != null;
+	}
+
+	boolean hasPermit() {
+		return this.hasPermit;
+	}
+
+	void setTimeout(Timeout timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Cancel the deadline, the request is delivered.
+	 */
+	void cancelTimeout() {
+
+		Timeout t = this.timeout;
+
+		if (t != null) {
+			t.cancel();
+		}
+	}
+
+	/**
+	 * Complete with the response message.
+	 *
+	 * @return false if already completed.
+	 */
+	boolean complete(KineticMessage response) {
+		return this.set(response);
+	}
+
+	/**
+	 * Complete with an I/O failure.
+	 *
+	 * @return false if already completed.
+	 */
+	boolean fail(IOException failure) {
+		return this.set(failure);
+	}
+
+	private boolean set(Object value) {
+
+		if (this.result.compareAndSet(null, value) == false) {
+			return false;
+		}
+
+		this.done.countDown();
+
+		return true;
+	}
+
+	/**
+	 * Wait for the response message.
+	 *
+	 * @param timeout
+	 *            max time to wait in milli seconds.
+	 * @return the response message, null if not received in time.
+	 * @throws IOException
+	 *             if the request failed.
+	 * @throws InterruptedException
+	 *             if interrupted.
+	 */
+	KineticMessage get(long timeout) throws IOException, InterruptedException {
+
+		if (this.done.await(timeout, TimeUnit.MILLISECONDS) == false) {
+			return null;
+		}
+
+		Object value = this.result.get();
+
+		if (value instanceof IOException) {
+			throw (IOException) value;
+		}
+
+		return (KineticMessage) value;
+	}
+}
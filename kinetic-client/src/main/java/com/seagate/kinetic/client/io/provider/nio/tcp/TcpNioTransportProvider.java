@@ -18,7 +18,9 @@
 package com.seagate.kinetic.client.io.provider.nio.tcp;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
 
@@ -91,6 +93,8 @@ public class TcpNioTransportProvider implements ClientTransportProvider {
             bootstrap = new Bootstrap();
 
             bootstrap.group(workerGroup).channel(NioSocketChannel.class)
+                    .option(ChannelOption.ALLOCATOR,
+                            PooledByteBufAllocator.DEFAULT)
                     .handler(nioChannelInitializer);
 
             if (config.getLocalAddress() == null) {
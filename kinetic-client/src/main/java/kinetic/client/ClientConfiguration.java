@@ -18,6 +18,7 @@
 package kinetic.client;
 
 import java.util.Properties;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 import com.seagate.kinetic.proto.Kinetic;
@@ -129,6 +130,18 @@ public class ClientConfiguration extends Properties {
     // connection listener
     private ConnectionListener listener = null;
 
+    // executor of asynchronous completions
+    private transient Executor completionExecutor = null;
+
+    // connections to the drive
+    private int connectionPoolSize = 1;
+
+    // write coalescing window in milli seconds, 0 if disabled
+    private long writeCoalescingWindow = 0;
+
+    // max writes coalesced into a batch
+    private int writeCoalescingMaxEntries = 15;
+
     /**
      * Client configuration constructor.
      * 
@@ -583,4 +596,123 @@ public class ClientConfiguration extends Properties {
         return this.listener;
     }
 
+    /**
+     * Set the executor that completes asynchronous operations.
+     * <p>
+     * The callback handlers of asynchronous operations, and the callbacks of
+     * {@link KineticFuture}s, are invoked by the executor. By default they
+     * are invoked by the thread that receives the responses of the
+     * connection, so a slow callback delays the responses of the other
+     * operations.
+     * <p>
+     * The slot of an operation in the asynchronous queue, see
+     * {@link #setAsyncQueueSize(int)}, is released before its callback is
+     * invoked.
+     * 
+     * @param executor
+     *            the executor, or null to invoke callbacks by the receiving
+     *            thread.
+     */
+    public void setCompletionExecutor(Executor executor) {
+        this.completionExecutor = executor;
+    }
+
+    /**
+     * Get the executor that completes asynchronous operations.
+     * 
+     * @return the executor. Return null if not set.
+     */
+    public Executor getCompletionExecutor() {
+        return this.completionExecutor;
+    }
+
+    /**
+     * Set the number of connections a client instance opens to the drive.
+     * <p>
+     * Each connection has its own sequence numbers, HMAC calculation and
+     * receiving thread. A request is sent over the connection with the least
+     * outstanding requests, and all requests of a batch operation are sent
+     * over the same connection. The asynchronous queue size, see
+     * {@link #setAsyncQueueSize(int)}, applies to each connection.
+     * <p>
+     * A local port, see {@link #setLocalPort(int)}, can only be bound by one
+     * connection. Default is set to 1.
+     * 
+     * @param size
+     *            the number of connections.
+     */
+    public void setConnectionPoolSize(int size) {
+        this.connectionPoolSize = size;
+    }
+
+    /**
+     * Get the number of connections a client instance opens to the drive.
+     * Default is set to 1.
+     * 
+     * @return the number of connections.
+     */
+    public int getConnectionPoolSize() {
+        return this.connectionPoolSize;
+    }
+
+    /**
+     * Set the write coalescing window in milli seconds.
+     * <p>
+     * If set to a positive value, the asynchronous puts and deletes of a client
+     * instance without a persist option, such as
+     * {@link KineticClient#putForcedAsync(Entry, CallbackHandler)}, are
+     * coalesced into batch operations. The writes issued within the window of
+     * the first write of a group, up to {@link #getWriteCoalescingMaxEntries()}
+     * writes, are committed by one batch, and the callback handler of each
+     * write is invoked when the batch is committed.
+     * <p>
+     * The writes stay independent: if a write fails, all writes of its batch
+     * are sent again one by one, and a batch has at most one write of a key.
+     * The writes of a key are applied in the order they are issued.
+     * The callback result of a write committed by a batch has no request or
+     * response message. Writes are coalesced by one batch at a time per client
+     * instance. Default is set to 0, writes are not coalesced.
+     * 
+     * @param millis
+     *            the window in milli seconds, 0 to disable write coalescing.
+     * 
+     * @see BatchOperation
+     */
+    public void setWriteCoalescingWindowMillis(long millis) {
+        this.writeCoalescingWindow = millis;
+    }
+
+    /**
+     * Get the write coalescing window in milli seconds. Default is set to 0,
+     * writes are not coalesced.
+     * 
+     * @return the window in milli seconds.
+     */
+    public long getWriteCoalescingWindowMillis() {
+        return this.writeCoalescingWindow;
+    }
+
+    /**
+     * Set the max number of writes coalesced into a batch. The value must not
+     * exceed the max operations per batch of the drive. Default is set to 15.
+     * 
+     * @param max
+     *            the max number of writes in a batch.
+     * 
+     * @see #setWriteCoalescingWindowMillis(long)
+     */
+    public void setWriteCoalescingMaxEntries(int max) {
+        this.writeCoalescingMaxEntries = max;
+    }
+
+    /**
+     * Get the max number of writes coalesced into a batch. Default is set to
+     * 15.
+     * 
+     * @return the max number of writes in a batch.
+     */
+    public int getWriteCoalescingMaxEntries() {
+        return this.writeCoalescingMaxEntries;
+    }
+
 }
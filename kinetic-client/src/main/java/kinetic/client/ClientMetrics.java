@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package kinetic.client;
+
+/**
+ * Request metrics of a Kinetic client instance.
+ * <p>
+ * The counters are cumulative since the client instance was created.
+ *
+ * @see KineticClient#getMetrics()
+ * @see ClientConfiguration#setRequestTimeoutMillis(long)
+ */
+public interface ClientMetrics {
+
+    /**
+     * Get the number of synchronous requests that did not receive a response
+     * within the request timeout.
+     *
+     * @return the number of timed out synchronous requests.
+     */
+    public long getSyncTimeoutCount();
+
+    /**
+     * Get the number of asynchronous requests that did not receive a response
+     * within the request timeout. The callback handler of such a request is
+     * called with an {@link AsyncKineticException}.
+     *
+     * @return the number of timed out asynchronous requests.
+     */
+    public long getAsyncTimeoutCount();
+
+    /**
+     * Get the number of requests waiting for a response.
+     *
+     * @return the number of outstanding requests.
+     */
+    public int getOutstandingRequestCount();
+
+    /**
+     * Get the number of asynchronous writes committed by batches of write
+     * coalescing.
+     *
+     * @return the number of coalesced writes, 0 if write coalescing is
+     *         disabled.
+     * @see ClientConfiguration#setWriteCoalescingWindowMillis(long)
+     */
+    public long getCoalescedWriteCount();
+}
@@ -179,6 +179,31 @@ public interface KineticClient extends GenericKineticClient {
     public void putAsync(Entry entry, byte[] newVersion,
             CallbackHandler<Entry> handler) throws KineticException;
 
+    /**
+     * Put the specified <code>Entry</code> asynchronously, with a future to
+     * obtain the result.
+     * <p>
+     * The future is completed with the entry put, or with a
+     * <code>VersionMismatchException</code> if the version of the entry does
+     * not match the stored version.
+     * 
+     * @param entry
+     *            the <code>Entry</code> to be put to the persistent store.
+     * 
+     * @param newVersion
+     *            new version for the entry.
+     * 
+     * @return the future of the operation.
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * 
+     * @see #putAsync(Entry, byte[], CallbackHandler)
+     * @see KineticFuture
+     */
+    public KineticFuture<Entry> putAsync(Entry entry, byte[] newVersion)
+            throws KineticException;
+
     /**
      * Force to put the specified <code>Entry</code> asynchronously. Overwrite
      * the entry in the store if existed.
@@ -198,6 +223,26 @@ public interface KineticClient extends GenericKineticClient {
     public void putForcedAsync(Entry entry, CallbackHandler<Entry> handler)
             throws KineticException;
 
+    /**
+     * Force to put the specified <code>Entry</code> asynchronously, with a
+     * future to obtain the result.
+     * <p>
+     * The future is completed with the entry put.
+     * 
+     * @param entry
+     *            the <code>Entry</code> to be put to the persistent store.
+     * 
+     * @return the future of the operation.
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * 
+     * @see #putForcedAsync(Entry, CallbackHandler)
+     * @see KineticFuture
+     */
+    public KineticFuture<Entry> putForcedAsync(Entry entry)
+            throws KineticException;
+
     /**
      * Get the <code>Entry</code> entry associated with the specified key.
      * <p>
@@ -259,6 +304,26 @@ public interface KineticClient extends GenericKineticClient {
     public void getAsync(byte[] key, CallbackHandler<Entry> handler)
             throws KineticException;
 
+    /**
+     * Get the <code>Entry</code> associated with the specified key
+     * asynchronously, with a future to obtain the result.
+     * <p>
+     * The future is completed with the entry, or with null if
+     * there is no entry found.
+     * 
+     * @param key
+     *            the key used to obtain the entry.
+     * 
+     * @return the future of the operation.
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * 
+     * @see #getAsync(byte[], CallbackHandler)
+     * @see KineticFuture
+     */
+    public KineticFuture<Entry> getAsync(byte[] key) throws KineticException;
+
     /**
      * Delete the entry that is associated with the key specified in the
      * <code>entry</code>. Applications may also use other variations of this
@@ -322,6 +387,27 @@ public interface KineticClient extends GenericKineticClient {
     public void deleteAsync(Entry entry, CallbackHandler<Boolean> handler)
             throws KineticException;
 
+    /**
+     * Delete the specified <code>Entry</code> asynchronously, with a future
+     * to obtain the result.
+     * <p>
+     * The future is completed with true if the entry was
+     * deleted, or with false if there is no entry found.
+     * 
+     * @param entry
+     *            the entry to be deleted.
+     * 
+     * @return the future of the operation.
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * 
+     * @see #deleteAsync(Entry, CallbackHandler)
+     * @see KineticFuture
+     */
+    public KineticFuture<Boolean> deleteAsync(Entry entry)
+            throws KineticException;
+
     /**
      * Force delete the entry that is associated with the key specified in the
      * parameter asynchronously, ignoring the entry version stored in the
@@ -343,6 +429,27 @@ public interface KineticClient extends GenericKineticClient {
     public void deleteForcedAsync(byte[] key, CallbackHandler<Boolean> handler)
             throws KineticException;
 
+    /**
+     * Force to delete the entry of the specified key asynchronously, with a
+     * future to obtain the result.
+     * <p>
+     * The future is completed with the result of the
+     * delete operation.
+     * 
+     * @param key
+     *            the key of the entry to be deleted.
+     * 
+     * @return the future of the operation.
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * 
+     * @see #deleteForcedAsync(byte[], CallbackHandler)
+     * @see KineticFuture
+     */
+    public KineticFuture<Boolean> deleteForcedAsync(byte[] key)
+            throws KineticException;
+
     /**
      * Get the <code>Entry</code> entry associated with a key that is after the
      * specified key.
@@ -384,6 +491,27 @@ public interface KineticClient extends GenericKineticClient {
     public void getNextAsync(byte[] key, CallbackHandler<Entry> handler)
             throws KineticException;
 
+    /**
+     * Get the next <code>Entry</code> of the specified key asynchronously,
+     * with a future to obtain the result.
+     * <p>
+     * The future is completed with the next entry, or with
+     * null if there is no next entry.
+     * 
+     * @param key
+     *            the key used to obtain the next entry.
+     * 
+     * @return the future of the operation.
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * 
+     * @see #getNextAsync(byte[], CallbackHandler)
+     * @see KineticFuture
+     */
+    public KineticFuture<Entry> getNextAsync(byte[] key)
+            throws KineticException;
+
     /**
      * Get the <code>Entry</code> entry associated with a key that is before the
      * specified key in the sequence.
@@ -422,6 +550,27 @@ public interface KineticClient extends GenericKineticClient {
     public void getPreviousAsync(byte[] key, CallbackHandler<Entry> handler)
             throws KineticException;
 
+    /**
+     * Get the previous <code>Entry</code> of the specified key
+     * asynchronously, with a future to obtain the result.
+     * <p>
+     * The future is completed with the previous entry, or
+     * with null if there is no previous entry.
+     * 
+     * @param key
+     *            the key used to obtain the previous entry.
+     * 
+     * @return the future of the operation.
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * 
+     * @see #getPreviousAsync(byte[], CallbackHandler)
+     * @see KineticFuture
+     */
+    public KineticFuture<Entry> getPreviousAsync(byte[] key)
+            throws KineticException;
+
     /**
      * Get a list of keys in the sequence based on the specified key range.
      * 
@@ -482,6 +631,40 @@ public interface KineticClient extends GenericKineticClient {
             byte[] endKey, boolean endKeyInclusive, int maxKeys,
             CallbackHandler<List<byte[]>> handler) throws KineticException;
 
+    /**
+     * Get a range of keys asynchronously, with a future to obtain the
+     * result.
+     * <p>
+     * The future is completed with the keys in the range.
+     * 
+     * @param startKey
+     *            the start key in the specified key range.
+     * 
+     * @param startKeyInclusive
+     *            true if the start key is inclusive.
+     * 
+     * @param endKey
+     *            the end key in the specified key range.
+     * 
+     * @param endKeyInclusive
+     *            true if the end key is inclusive.
+     * 
+     * @param maxKeys
+     *            the maximum number of keys to return.
+     * 
+     * @return the future of the operation.
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * 
+     * @see #getKeyRangeAsync(byte[], boolean, byte[], boolean, int,
+     *      CallbackHandler)
+     * @see KineticFuture
+     */
+    public KineticFuture<List<byte[]>> getKeyRangeAsync(byte[] startKey,
+            boolean startKeyInclusive, byte[] endKey, boolean endKeyInclusive,
+            int maxKeys) throws KineticException;
+
     /**
      * Get entry metadata for the specified key.
      * 
@@ -517,6 +700,27 @@ public interface KineticClient extends GenericKineticClient {
     public void getMetadataAsync(byte[] key,
             CallbackHandler<EntryMetadata> handler) throws KineticException;
 
+    /**
+     * Get the <code>EntryMetadata</code> associated with the specified key
+     * asynchronously, with a future to obtain the result.
+     * <p>
+     * The future is completed with the metadata, or with
+     * null if there is no entry found.
+     * 
+     * @param key
+     *            the key used to obtain the metadata.
+     * 
+     * @return the future of the operation.
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * 
+     * @see #getMetadataAsync(byte[], CallbackHandler)
+     * @see KineticFuture
+     */
+    public KineticFuture<EntryMetadata> getMetadataAsync(byte[] key)
+            throws KineticException;
+
     /**
      * Create a new instance of <code>BatchOperation</code> object.
      * <p>
@@ -529,6 +733,16 @@ public interface KineticClient extends GenericKineticClient {
      */
     public BatchOperation createBatchOperation() throws KineticException;
 
+    /**
+     * Get the request metrics of this instance, such as the number of
+     * requests that timed out.
+     * 
+     * @return the request metrics of this instance.
+     * 
+     * @see ClientMetrics
+     */
+    public ClientMetrics getMetrics();
+
     /**
      * Close the connection and release all resources allocated by this
      * instance.
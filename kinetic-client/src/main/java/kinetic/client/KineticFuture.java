@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package kinetic.client;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Result of an asynchronous operation returned by the future based
+ * asynchronous API, for example {@link KineticClient#getAsync(byte[])}.
+ * <p>
+ * Applications either wait for the result with {@link #get()}, or register
+ * callback handlers with {@link #addCallback(CallbackHandler)} to compose
+ * operations without blocking a thread. For example, the results of gets of
+ * many keys can be collected by the callbacks of their futures.
+ * <p>
+ * If the operation failed, {@link #get()} throws an
+ * <code>ExecutionException</code> whose cause is the
+ * {@link AsyncKineticException} of the operation. A request that was sent
+ * cannot be cancelled, {@link #cancel(boolean)} returns false.
+ *
+ * @param <T>
+ *            result type of the operation.
+ *
+ * @see ClientConfiguration#setCompletionExecutor(java.util.concurrent.Executor)
+ */
+public interface KineticFuture<T> extends Future<T> {
+
+    /**
+     * Add a callback handler invoked when the operation completes.
+     * <p>
+     * The handler is invoked by the thread that completes the operation, see
+     * {@link ClientConfiguration#setCompletionExecutor(java.util.concurrent.Executor)}
+     * , or by the calling thread if the operation has already completed.
+     *
+     * @param handler
+     *            the callback handler.
+     */
+    public void addCallback(CallbackHandler<T> handler);
+
+    /**
+     * Get the result of the operation, waiting for it to complete if
+     * necessary.
+     *
+     * @return the result of the operation.
+     *
+     * @throws KineticException
+     *             if the operation failed.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    public T getResult() throws KineticException, InterruptedException;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T get() throws InterruptedException, ExecutionException;
+}
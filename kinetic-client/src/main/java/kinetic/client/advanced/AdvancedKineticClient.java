@@ -38,6 +38,10 @@ import kinetic.client.KineticException;
  * If FLUSH option is used and the operation is successfully returned (callback
  * handler is invoked with SUCCESS status), all operations performed with ASYNC
  * option are also 'synced' to the persistent store.
+ * <p>
+ * Asynchronous puts and deletes without a persist option can be coalesced
+ * into batch operations, see
+ * {@link kinetic.client.ClientConfiguration#setWriteCoalescingWindowMillis(long)}.
  * 
  * @see PersistOption
  * 
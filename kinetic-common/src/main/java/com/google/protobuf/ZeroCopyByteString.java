@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.google.protobuf;
+
+/**
+ * Zero copy conversions between <code>byte[]</code> and {@link ByteString}.
+ * <p>
+ * Protocol buffer 2.5 always copies the byte[] when a ByteString is created
+ * from, or converted to, a byte[]. This class is placed in the protocol buffer
+ * package to access the package private byte[] backed ByteString
+ * implementation.
+ * <p>
+ * The byte[] passed to or returned from this class is shared with the
+ * ByteString. Callers must not modify the byte[] after the conversion.
+ */
+public final class ZeroCopyByteString {
+
+    private ZeroCopyByteString() {
+        ;
+    }
+
+    /**
+     * Wrap the specified byte[] as a ByteString without copying.
+     *
+     * @param bytes
+     *            the byte[] to be wrapped. Must not be modified afterwards.
+     *
+     * @return a ByteString backed by the specified byte[].
+     */
+    public static ByteString wrap(byte[] bytes) {
+
+        if (bytes.length == 0) {
+            return ByteString.EMPTY;
+        }
+
+        return new LiteralByteString(bytes);
+    }
+
+    /**
+     * Get the byte[] content of the specified ByteString. The backing byte[]
+     * is returned if the ByteString is backed by a whole byte[]. Otherwise, a
+     * copy is returned.
+     *
+     * @param bs
+     *            the ByteString to get the content from.
+     *
+     * @return the content of the ByteString. Must not be modified.
+     */
+    public static byte[] array(ByteString bs) {
+
+        // bounded byte strings are sub-classes with an offset into the array
+        if (bs.getClass() == LiteralByteString.class) {
+            return ((LiteralByteString) bs).bytes;
+        }
+
+        return bs.toByteArray();
+    }
+
+    /**
+     * Get the backing byte[] of the specified ByteString if it is backed by a
+     * whole byte[].
+     *
+     * @param bs
+     *            the ByteString.
+     *
+     * @return the backing byte[], or null if the ByteString is not backed by a
+     *         whole byte[]. Must not be modified.
+     */
+    public static byte[] backingArray(ByteString bs) {
+
+        if (bs.getClass() == LiteralByteString.class) {
+            return ((LiteralByteString) bs).bytes;
+        }
+
+        return null;
+    }
+}
@@ -20,22 +20,28 @@ package com.seagate.kinetic.common.lib;
 
 import java.io.StringWriter;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.crypto.Mac;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.GeneratedMessage;
+import com.google.protobuf.ZeroCopyByteString;
 import com.seagate.kinetic.proto.Kinetic.Command;
 import com.seagate.kinetic.proto.Kinetic.Message;
 
 /**
  * Hmac common library.
+ * <p>
+ * Initialized <code>Mac</code> instances are cached per thread and per key,
+ * and reset for reuse, instead of looked up and initialized for every
+ * message.
  *
  * @author Jim Hugues.
  * @author chiaming
@@ -47,6 +53,26 @@ public class Hmac {
 
 	private final static Logger LOG = Logger.getLogger(Hmac.class.getName());
 
+	// max keys cached per thread
+	private static final int MAC_CACHE_SIZE = 16;
+
+	// initialized mac instances of the calling thread, least recently used
+	// first
+	private static final ThreadLocal<Map<Key, Mac>> macCache = new ThreadLocal<Map<Key, Mac>>() {
+		@Override
+		protected Map<Key, Mac> initialValue() {
+			return new LinkedHashMap<Key, Mac>(MAC_CACHE_SIZE, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Key, Mac> eldest) {
+					return size() > MAC_CACHE_SIZE;
+				}
+			};
+		}
+	};
+
 	public static String toString(byte[] b) {
 		final int MAX_LENGTH = 50; // only include up to MAX_LENGTH bytes
 		StringWriter sw = new StringWriter();
@@ -91,9 +117,11 @@ public class Hmac {
 		throw h.new HmacException(status, s);
 	}
 
-	static private byte[] int32(int x) {
-		return ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putInt(x)
-				.array();
+	static private void int32(Mac mac, int x) {
+		mac.update((byte) (x >>> 24));
+		mac.update((byte) (x >>> 16));
+		mac.update((byte) (x >>> 8));
+		mac.update((byte) x);
 	}
 
 	// private byte[] int64(long x) {
@@ -117,11 +145,26 @@ public class Hmac {
 	static void lv(String name, Mac mac, byte[] bytes) {
 		if (bytes.length > 0) {
 			// LOG.fine(name + toString(bytes));
-			mac.update(int32(bytes.length));
+			int32(mac, bytes.length);
 			mac.update(bytes);
 		}
 	}
 
+	static void lv(String name, Mac mac, ByteString bytes) {
+		if (bytes.size() > 0) {
+			int32(mac, bytes.size());
+			// not copied unless a substring
+			mac.update(ZeroCopyByteString.array(bytes));
+		}
+	}
+
+	static void lv(String name, Mac mac, ByteBuffer bytes) {
+		if (bytes.remaining() > 0) {
+			int32(mac, bytes.remaining());
+			mac.update(bytes.duplicate());
+		}
+	}
+
 //	public static ByteString calc(KineticMessage im, Key key)
 //			throws HmacException {
 //
@@ -157,14 +200,37 @@ public class Hmac {
 
         try {
 
-            Mac mac = getMacInstance (key);
+            Mac mac = getCachedMac(key);
 
             lv("command", mac, bytes);
 
-            ByteString result = ByteString.copyFrom(mac.doFinal());
+            return result(mac);
+
+        } catch (GeneralSecurityException e) {
+            oops(e.getMessage());
+        }
+        return null; // should never get here...
+    }
+
+	/**
+	 * Calculate HMAC based on the specified bytes and key. The bytes are not
+	 * copied.
+	 * 
+	 * @param bytes bytes for HMAC calculation
+	 * @param key security key used to calculate HMAC
+	 * @return byte string of hmac value
+	 * @throws HmacException 
+	 */
+	public static ByteString calc(ByteString bytes, Key key)
+            throws HmacException {
+
+        try {
 
-            LOG.fine("Message Hmac :" + toString(result));
-            return result;
+            Mac mac = getCachedMac(key);
+
+            lv("command", mac, bytes);
+
+            return result(mac);
 
         } catch (GeneralSecurityException e) {
             oops(e.getMessage());
@@ -172,6 +238,41 @@ public class Hmac {
         return null; // should never get here...
     }
 
+	/**
+	 * Calculate HMAC based on the remaining bytes of the buffer and the key.
+	 * The buffer position is not changed.
+	 * 
+	 * @param bytes bytes for HMAC calculation
+	 * @param key security key used to calculate HMAC
+	 * @return byte string of hmac value
+	 * @throws HmacException 
+	 */
+	public static ByteString calc(ByteBuffer bytes, Key key)
+            throws HmacException {
+
+        try {
+
+            Mac mac = getCachedMac(key);
+
+            lv("command", mac, bytes);
+
+            return result(mac);
+
+        } catch (GeneralSecurityException e) {
+            oops(e.getMessage());
+        }
+        return null; // should never get here...
+    }
+
+	private static ByteString result(Mac mac) {
+
+		ByteString result = ZeroCopyByteString.wrap(mac.doFinal());
+
+		LOG.fine("Message Hmac :" + toString(result));
+
+		return result;
+	}
+
 	public static ByteString calcTag(KineticMessage im, Key key) {
 
 		ByteString result = null;
@@ -180,7 +281,7 @@ public class Hmac {
 
 			// Message.Builder message = (Builder) im.getMessage();
 
-			Mac mac = getMacInstance(key);
+			Mac mac = getCachedMac(key);
 
 			byte[] value = im.getValue();
 			if (value == null) {
@@ -188,7 +289,7 @@ public class Hmac {
 			}
 			lv("tag", mac, value);
 
-			result = ByteString.copyFrom(mac.doFinal());
+			result = ZeroCopyByteString.wrap(mac.doFinal());
 
 			LOG.fine("Message Tag Hmac :" + toString(result));
 
@@ -203,7 +304,7 @@ public class Hmac {
 			throws HmacException {
 
 	    // get commnad bytes
-	    byte[] bytes = km.getMessage().getCommandBytes().toByteArray();
+	    ByteString bytes = km.getMessage().getCommandBytes();
 	    
 	    // get expected hmac value
 	    ByteString expected = km.getMessage().getHmacAuth().getHmac();
@@ -236,6 +337,53 @@ public class Hmac {
         return false;
     }
 
+	/**
+	 * Check if the specified bytes are equal to the expected hmac with the
+	 * specified key. The bytes are not copied.
+	 * 
+	 * @param bytes
+	 * @param key
+	 * @param expectedHmac
+	 * @return
+	 * @throws HmacException
+	 */
+	public static boolean check(ByteString bytes, Key key,
+			ByteString expectedHmac) throws HmacException {
+
+		if (calc(bytes, key).equals(expectedHmac)) {
+			return true;
+		}
+
+		LOG.warning("HMAC did not compare");
+		return false;
+	}
+
+	/**
+	 * Get the initialized mac instance of the calling thread for the key. The
+	 * instance is reset and must not be used by other threads.
+	 */
+	static Mac getCachedMac(Key key) throws HmacException,
+			NoSuchAlgorithmException, InvalidKeyException {
+
+		if (key == null) {
+			oops("User not found");
+		}
+
+		Map<Key, Mac> cache = macCache.get();
+
+		Mac mac = cache.get(key);
+
+		if (mac == null) {
+			mac = getMacInstance(key);
+			cache.put(key, mac);
+		} else {
+			// discard data of an update that did not complete
+			mac.reset();
+		}
+
+		return mac;
+	}
+
 	public static Mac getMacInstance (Key key) throws HmacException, NoSuchAlgorithmException, InvalidKeyException {
 
 		Mac mac = null;
@@ -17,6 +17,8 @@
  */
 package com.seagate.kinetic.common.lib;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.ZeroCopyByteString;
 import com.seagate.kinetic.proto.Kinetic.CommandOrBuilder;
 import com.seagate.kinetic.proto.Kinetic.MessageOrBuilder;
 
@@ -24,6 +26,10 @@ import com.seagate.kinetic.proto.Kinetic.MessageOrBuilder;
  * A data container that holds a Kinetic protocol buffer message and an optional
  * byte[] value.
  * <p>
+ * The value may be set and read either as a byte[] or as a ByteString. The two
+ * forms share the same byte[] and no copy is made between them. The value
+ * byte[] must not be modified after it is set.
+ * <p>
  * Please note that instances of this class does not provide synchronization and
  * thus API user must provide synchronization facility for the concurrent
  * operations.
@@ -39,6 +45,9 @@ public class KineticMessage {
 
 	// optional value
 	private byte[] value = null;
+
+	// optional value as byte string, shares the value byte[]
+	private ByteString valueByteString = null;
 	
 	// command
 	private CommandOrBuilder command = null;
@@ -88,6 +97,7 @@ public class KineticMessage {
 	 */
 	public void setValue(byte[] value) {
 		this.value = value;
+		this.valueByteString = null;
 	}
 
 	/**
@@ -96,8 +106,57 @@ public class KineticMessage {
 	 * @return value from this message instance.
 	 */
 	public byte[] getValue() {
+
+		if (this.value == null && this.valueByteString != null) {
+			this.value = ZeroCopyByteString.array(this.valueByteString);
+		}
+
 		return this.value;
 	}
+
+	/**
+	 * Set value to this message instance. The value is not copied.
+	 *
+	 * @param value
+	 *            value to be set into this message instance.
+	 */
+	public void setValueByteString(ByteString value) {
+		this.valueByteString = value;
+		this.value = null;
+	}
+
+	/**
+	 * Get value from this message instance as a ByteString. The value is not
+	 * copied.
+	 *
+	 * @return value from this message instance, or null if not set.
+	 */
+	public ByteString getValueByteString() {
+
+		if (this.valueByteString == null && this.value != null) {
+			this.valueByteString = ZeroCopyByteString.wrap(this.value);
+		}
+
+		return this.valueByteString;
+	}
+
+	/**
+	 * Get the value size of this message instance.
+	 *
+	 * @return value size in bytes, or 0 if value is not set.
+	 */
+	public int getValueSize() {
+
+		if (this.value != null) {
+			return this.value.length;
+		}
+
+		if (this.valueByteString != null) {
+			return this.valueByteString.size();
+		}
+
+		return 0;
+	}
 	
 	/**
 	 * set command for this message instance
@@ -17,16 +17,26 @@
  */
 package com.seagate.kinetic.common.lib;
 
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.ZeroCopyByteString;
 import com.seagate.kinetic.proto.Kinetic.Command.Algorithm;
 
 /**
- * 
+ * Tag calculation for the data integrity algorithms.
+ * <p>
+ * Tags are calculated with digest and checksum instances cached per thread.
+ * Values are streamed into the digest from the backing array of the
+ * ByteString, or through a per thread chunk buffer, without copying the whole
+ * value. The CRC32 tag is the standard Ethernet CRC32 of the value in four
+ * bytes big endian.
+ *
  * @author chiaming
  *
  */
@@ -35,22 +45,84 @@ public class MessageDigestUtil {
     private final static Logger logger = Logger
             .getLogger(MessageDigestUtil.class.getName());
 
-    public static ByteString calculateTag(Algorithm algo, byte[] value) {
+    // chunk size used to stream non array backed values
+    private static final int CHUNK_SIZE = 8192;
 
-        byte[] digest = null;
+    // digests and buffers of the calling thread
+    private static final ThreadLocal<TagState> tagState = new ThreadLocal<TagState>() {
+        @Override
+        protected TagState initialValue() {
+            return new TagState();
+        }
+    };
 
-        // get md instance
-        MessageDigest md = getInstance(algo);
+    public static ByteString calculateTag(Algorithm algo, byte[] value) {
 
         if (value == null) {
             value = new byte[0];
         }
 
-        // calculate and return digest
-        digest = md.digest(value);
+        TagState state = tagState.get();
+
+        int length = state.update(algo, value, 0, value.length);
+
+        byte[] digest = new byte[length];
+        System.arraycopy(state.out, 0, digest, 0, length);
+
+        return ZeroCopyByteString.wrap(digest);
+    }
+
+    /**
+     * Calculate the tag of the value without copying the value.
+     *
+     * @param algo
+     *            tag algorithm.
+     * @param value
+     *            value, null is the empty value.
+     * @return the tag.
+     */
+    public static ByteString calculateTag(Algorithm algo, ByteString value) {
+
+        TagState state = tagState.get();
 
-        return ByteString.copyFrom(digest);
+        int length = state.update(algo, value);
 
+        byte[] digest = new byte[length];
+        System.arraycopy(state.out, 0, digest, 0, length);
+
+        return ZeroCopyByteString.wrap(digest);
+    }
+
+    /**
+     * Check the tag of the value. The value is not copied and no tag is
+     * allocated.
+     *
+     * @param algo
+     *            tag algorithm.
+     * @param value
+     *            value, null is the empty value.
+     * @param tag
+     *            expected tag.
+     * @return true if the calculated tag equals the expected tag.
+     */
+    public static boolean checkTag(Algorithm algo, ByteString value,
+            ByteString tag) {
+
+        TagState state = tagState.get();
+
+        int length = state.update(algo, value);
+
+        if (tag.size() != length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (tag.byteAt(i) != state.out[i]) {
+                return false;
+            }
+        }
+
+        return true;
     }
 
     public static boolean isSupportedForKineticJava(Algorithm algo) {
@@ -60,6 +132,8 @@ public class MessageDigestUtil {
             return true;
         case SHA2:
             return true;
+        case CRC32:
+            return true;
         default:
             return false;
         }
@@ -91,4 +165,127 @@ public class MessageDigestUtil {
         return md;
     }
 
+    /**
+     * Digests and buffers of a thread.
+     */
+    private static final class TagState {
+
+        private MessageDigest sha1 = null;
+
+        private MessageDigest sha2 = null;
+
+        private final CRC32 crc32 = new CRC32();
+
+        // calculated tag, large enough for all algorithms
+        private final byte[] out = new byte[64];
+
+        // chunk buffer to stream non array backed values
+        private byte[] chunk = null;
+
+        /**
+         * Calculate the tag of the value into {@link #out}.
+         *
+         * @return the tag length.
+         */
+        int update(Algorithm algo, ByteString value) {
+
+            if (value == null) {
+                value = ByteString.EMPTY;
+            }
+
+            if (value.isEmpty()) {
+                return this.update(algo, this.out, 0, 0);
+            }
+
+            byte[] array = ZeroCopyByteString.backingArray(value);
+
+            if (array != null) {
+                return this.update(algo, array, 0, array.length);
+            }
+
+            if (this.chunk == null) {
+                this.chunk = new byte[CHUNK_SIZE];
+            }
+
+            int size = value.size();
+
+            this.reset(algo);
+
+            for (int offset = 0; offset < size; offset += CHUNK_SIZE) {
+
+                int n = Math.min(CHUNK_SIZE, size - offset);
+
+                value.copyTo(this.chunk, offset, 0, n);
+
+                this.feed(algo, this.chunk, 0, n);
+            }
+
+            return this.finish(algo);
+        }
+
+        int update(Algorithm algo, byte[] bytes, int offset, int length) {
+
+            this.reset(algo);
+
+            this.feed(algo, bytes, offset, length);
+
+            return this.finish(algo);
+        }
+
+        private void reset(Algorithm algo) {
+            if (algo == Algorithm.CRC32) {
+                this.crc32.reset();
+            } else {
+                this.digest(algo).reset();
+            }
+        }
+
+        private void feed(Algorithm algo, byte[] bytes, int offset, int length) {
+            if (algo == Algorithm.CRC32) {
+                this.crc32.update(bytes, offset, length);
+            } else {
+                this.digest(algo).update(bytes, offset, length);
+            }
+        }
+
+        private int finish(Algorithm algo) {
+
+            if (algo == Algorithm.CRC32) {
+
+                long value = this.crc32.getValue();
+
+                out[0] = (byte) (value >>> 24);
+                out[1] = (byte) (value >>> 16);
+                out[2] = (byte) (value >>> 8);
+                out[3] = (byte) value;
+
+                return 4;
+            }
+
+            try {
+                return this.digest(algo).digest(this.out, 0, this.out.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private MessageDigest digest(Algorithm algo) {
+
+            switch (algo) {
+            case SHA1:
+                if (this.sha1 == null) {
+                    this.sha1 = getInstance(algo);
+                }
+                return this.sha1;
+            case SHA2:
+                if (this.sha2 == null) {
+                    this.sha2 = getInstance(algo);
+                }
+                return this.sha2;
+            default:
+                throw new java.lang.UnsupportedOperationException(
+                        "unsupported algorithm., name = " + algo.name());
+            }
+        }
+    }
 }
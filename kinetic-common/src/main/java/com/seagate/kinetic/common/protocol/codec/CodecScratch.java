@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.seagate.kinetic.common.protocol.codec;
+
+/**
+ * Per thread scratch array of the codec.
+ * <p>
+ * Protocol buffer messages are serialized into or parsed from the scratch
+ * array of the event loop thread instead of a new array per message. The
+ * array is only used within one encode or decode call.
+ */
+final class CodecScratch {
+
+	// initial scratch size
+	private static final int INITIAL_SIZE = 4 * 1024;
+
+	// max scratch size kept per thread
+	private static final int MAX_SIZE = 1024 * 1024;
+
+	private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[INITIAL_SIZE];
+		}
+	};
+
+	private CodecScratch() {
+		;
+	}
+
+	/**
+	 * Get the scratch array of the calling thread.
+	 *
+	 * @param size
+	 *            bytes needed.
+	 * @return an array of at least the specified size.
+	 */
+	static byte[] get(int size) {
+
+		byte[] bytes = scratch.get();
+
+		if (bytes.length >= size) {
+			return bytes;
+		}
+
+		if (size > MAX_SIZE) {
+			// not kept
+			return new byte[size];
+		}
+
+		bytes = new byte[Math.max(size, Math.min(MAX_SIZE, bytes.length * 2))];
+
+		scratch.set(bytes);
+
+		return bytes;
+	}
+}
@@ -65,42 +65,46 @@ public class KineticDecoder extends ByteToMessageDecoder {
 
 	private static boolean printMessage = Boolean.getBoolean("kinetic.io.in");
 
+	// magic ('F') + proto-msg-size + value-size
+	private static final int HEADER_LENGTH = 9;
+
 	@Override
 	protected void decode(ChannelHandlerContext ctx, ByteBuf in,
 			List<Object> out) {
 
-		in.markReaderIndex();
-
 		// Wait until the length prefix is available
-		// (magic ('F') + proto-msg-size + value-size)
-		if (in.readableBytes() < 9) {
-			in.resetReaderIndex();
+		if (in.readableBytes() < HEADER_LENGTH) {
 			return;
 		}
 
-		// 1. Read magic number.
-		int magicNumber = in.readUnsignedByte();
+		// the header is peeked, nothing is consumed until the whole frame
+		// is available
+		int start = in.readerIndex();
+
+		// 1. check magic number.
+		int magicNumber = in.getUnsignedByte(start);
 		if (magicNumber != 'F') {
-			in.resetReaderIndex();
 			throw new CorruptedFrameException("Invalid magic number: "
 					+ magicNumber);
 		}
 
 		// 2. protobuf message size
-		int protoMessageLength = in.readInt();
+		int protoMessageLength = in.getInt(start + 1);
 
 		// 3. attched value size
-		int attachedValueLength = in.readInt();
+		int attachedValueLength = in.getInt(start + 5);
+
+		if (protoMessageLength < 0 || attachedValueLength < 0) {
+			throw new CorruptedFrameException("Invalid frame length: "
+					+ protoMessageLength + ", " + attachedValueLength);
+		}
 
 		// wait until whole message is available
-		if (in.readableBytes() < (protoMessageLength + attachedValueLength)) {
-			in.resetReaderIndex();
+		if (in.readableBytes() < (HEADER_LENGTH + protoMessageLength + attachedValueLength)) {
 			return;
 		}
 
-		// 4. read protobuf message
-		byte[] decoded = new byte[protoMessageLength];
-		in.readBytes(decoded);
+		in.skipBytes(HEADER_LENGTH);
 
 		// kinetic message
 		KineticMessage km = new KineticMessage();
@@ -108,10 +112,22 @@ public class KineticDecoder extends ByteToMessageDecoder {
 		// construct protobuf message
 		Message.Builder mbuilder = Message.newBuilder();
 
+		// 4. parse protobuf message from the buffer
 		try {
-			mbuilder.mergeFrom(decoded);
+			if (in.hasArray()) {
+				// parse in place
+				mbuilder.mergeFrom(in.array(),
+						in.arrayOffset() + in.readerIndex(), protoMessageLength);
+			} else {
+				// direct buffer, parse from the scratch array of this thread
+				byte[] scratch = CodecScratch.get(protoMessageLength);
+				in.getBytes(in.readerIndex(), scratch, 0, protoMessageLength);
+				mbuilder.mergeFrom(scratch, 0, protoMessageLength);
+			}
+
+			in.skipBytes(protoMessageLength);
 		} catch (Exception e) {
-			in.resetReaderIndex();
+			in.readerIndex(start);
 
 			logger.log(Level.WARNING, e.getMessage(), e);
 
@@ -120,7 +136,9 @@ public class KineticDecoder extends ByteToMessageDecoder {
 
 		// 5. read attched value if any
 		if (attachedValueLength > 0) {
-			// construct byte[]
+			// construct byte[], the value is shared afterwards and not
+			// copied again
+
 			byte[] attachedValue = new byte[attachedValueLength];
 			// read from buffer
 			in.readBytes(attachedValue);
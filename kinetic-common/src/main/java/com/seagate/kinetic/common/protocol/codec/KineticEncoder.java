@@ -18,12 +18,17 @@
 package com.seagate.kinetic.common.protocol.codec;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
 
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.ZeroCopyByteString;
 import com.seagate.kinetic.common.lib.KineticMessage;
 import com.seagate.kinetic.common.lib.ProtocolMessageUtil;
 
@@ -53,55 +58,75 @@ import com.seagate.kinetic.proto.Kinetic.Message.Builder;
  * application or Simulator.
  * <p>
  * -D"kinetic.io.out"=true
+ * <p>
+ * The encoded frame is a composite of the header, the protocol buffer message
+ * and the attached value. The value is wrapped and is not copied into the
+ * outbound buffer.
  *
  * @author chiaming
  */
-public class KineticEncoder extends MessageToByteEncoder<KineticMessage> {
+public class KineticEncoder extends MessageToMessageEncoder<KineticMessage> {
 
 	private final Logger logger = Logger.getLogger(KineticEncoder.class
 			.getName());
 
 	private static boolean printMessage = Boolean.getBoolean("kinetic.io.out");
 
+	// magic ('F') + proto-msg-size + value-size
+	private static final int HEADER_LENGTH = 9;
+
 	@Override
 	protected void encode(ChannelHandlerContext ctx, KineticMessage km,
-			ByteBuf out) throws Exception {
+			List<Object> out) throws Exception {
 
 		try {
-	
+
 			// get value to write separately
-			// byte[] value = builder.getValue().toByteArray();
-			byte[] value = km.getValue();
+			ByteString value = km.getValueByteString();
+
+			int valueLength = (value != null) ? value.size() : 0;
 
-			// 1. write magic number
-			out.writeByte((byte) 'F');
-			
 			//get message
 			Message.Builder messageBuilder = (Builder) km.getMessage();
-			
+
 			// build message
 			Message msg = messageBuilder.build();
 
-			// get proto message bytes
-			byte[] protoMessageBytes = msg.toByteArray();
+			// proto message size
+			int protoMessageLength = msg.getSerializedSize();
+
+			// serialize into the scratch array of this thread
+			byte[] scratch = CodecScratch.get(protoMessageLength);
+
+			CodedOutputStream cos = CodedOutputStream.newInstance(scratch, 0,
+					protoMessageLength);
+			msg.writeTo(cos);
+			cos.checkNoSpaceLeft();
+
+			// header and protobuf message in one pooled direct buffer
+			ByteBuf frame = ctx.alloc().directBuffer(
+					HEADER_LENGTH + protoMessageLength);
+
+			// 1. write magic number
+			frame.writeByte((byte) 'F');
 
 			// 2. write protobuf message message size, 4 byte
-			out.writeInt(protoMessageBytes.length);
+			frame.writeInt(protoMessageLength);
 
 			// 3. write attached value size, 4 byte
-			if (value != null) {
-				out.writeInt(value.length);
-			} else {
-				out.writeInt(0);
-			}
+			frame.writeInt(valueLength);
 
-			// 4. write protobuf message byte[]
-			out.writeBytes(protoMessageBytes);
+			// 4. protobuf message byte[]
+			frame.writeBytes(scratch, 0, protoMessageLength);
 
-			// 5 (optional) write attached value if any
-			if (value != null && value.length > 0) {
-				// write value
-				out.writeBytes(value);
+			// 5 (optional) attached value if any, added as a component
+			// without copy
+			if (valueLength > 0) {
+				out.add(Unpooled.wrappedBuffer(frame,
+						Unpooled.wrappedBuffer(ZeroCopyByteString
+								.array(value))));
+			} else {
+				out.add(frame);
 			}
 
 			// log message out
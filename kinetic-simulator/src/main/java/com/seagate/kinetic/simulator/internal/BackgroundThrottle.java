@@ -0,0 +1,110 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import com.seagate.kinetic.proto.Kinetic.Command.Priority;
+
+/**
+ * Throttle of a background operation based on the request priority.
+ * <p>
+ * A background operation works in steps and calls {@link #pause(long)} after
+ * each step with the time the step took. The throttle sleeps so that the
+ * operation is busy for the duty cycle of its priority, and leaves the rest
+ * of the time to the foreground requests. The priority also limits the number
+ * of threads the operation uses in parallel.
+ * <ul>
+ * <li>HIGHEST: no pause, all processors.</li>
+ * <li>HIGHER: busy 75% of the time, all processors.</li>
+ * <li>NORMAL: busy 50% of the time, half the processors.</li>
+ * <li>LOWER: busy 25% of the time, one thread.</li>
+ * <li>LOWEST: busy 10% of the time, one thread.</li>
+ * </ul>
+ */
+final class BackgroundThrottle {
+
+    // max pause after a step
+    private static final long MAX_PAUSE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // percent of the time the operation is busy
+    private final int dutyCycle;
+
+    // threads used in parallel
+    private final int parallelism;
+
+    BackgroundThrottle(Priority priority) {
+
+        int cpus = Runtime.getRuntime().availableProcessors();
+
+        switch (priority) {
+        case HIGHEST:
+            this.dutyCycle = 100;
+            this.parallelism = cpus;
+            break;
+        case HIGHER:
+            this.dutyCycle = 75;
+            this.parallelism = cpus;
+            break;
+        case LOWER:
+            this.dutyCycle = 25;
+            this.parallelism = 1;
+            break;
+        case LOWEST:
+            this.dutyCycle = 10;
+            this.parallelism = 1;
+            break;
+        case NORMAL:
+        default:
+            this.dutyCycle = 50;
+            this.parallelism = Math.max(1, cpus / 2);
+            break;
+        }
+    }
+
+    /**
+     * Get the number of threads the operation may use in parallel.
+     *
+     * @return the number of threads, at least one.
+     */
+    int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Pause after a step of the operation.
+     *
+     * @param busyNanos
+     *            time the step took.
+     * @throws InterruptedException
+     *             if interrupted while paused.
+     */
+    void pause(long busyNanos) throws InterruptedException {
+
+        if (this.dutyCycle >= 100 || busyNanos <= 0) {
+            return;
+        }
+
+        long pause = Math.min(MAX_PAUSE_NANOS, busyNanos
+                * (100 - this.dutyCycle) / this.dutyCycle);
+
+        TimeUnit.NANOSECONDS.sleep(pause);
+    }
+}
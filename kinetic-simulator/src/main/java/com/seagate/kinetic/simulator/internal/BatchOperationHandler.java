@@ -20,6 +20,7 @@
 package com.seagate.kinetic.simulator.internal;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,6 +40,14 @@ import com.seagate.kinetic.simulator.persist.Store;
 
 /**
  * Batch operation handler.
+ * <p>
+ * One handler is created per batch of a connection. Puts and deletes of the
+ * batch are staged in a store batch operation, independently of other
+ * batches, and applied atomically at END_BATCH. Versions of versioned puts
+ * and deletes are checked when staged, and checked again by the store when
+ * the batch is committed, so a batch fails if another writer changed one of
+ * its versioned keys in between. Requests of other connections are not
+ * blocked while a batch is open.
  * 
  * @author chiaming
  *
@@ -48,8 +57,6 @@ public class BatchOperationHandler {
     private final static Logger logger = Logger.getLogger(BatchOperationHandler.class
             .getName());
 
-    private long MAX_TIME_OUT = 30000;
-
     private SimulatorEngine engine = null;
 
     @SuppressWarnings("rawtypes")
@@ -59,45 +66,35 @@ public class BatchOperationHandler {
 
     private int batchId = -1;
 
-    // boolean isClosed = false;
-
     private BatchOperation<ByteString, KVValue> batch = null;
 
-    //
-    // private Map<ByteString, ByteString> map = new
-    // ConcurrentHashMap<ByteString, ByteString>();
-
     // sequence list
     private ArrayList<Long> sequenceList = new ArrayList<Long>();
 
+    // versioned puts and deletes, used to find a commit conflict
+    private List<KineticMessage> versionedList = new ArrayList<KineticMessage>();
+
     // saved exception
     private InvalidBatchException batchException = null;
 
-    public BatchOperationHandler(SimulatorEngine engine) {
+    public BatchOperationHandler(SimulatorEngine engine, long cid, int batchId) {
 
             // simulator engine
             this.engine = engine;
 
             // store
             this.store = engine.getStore();
+
+            // this batch op handler belongs to this connection and batch
+            this.cid = cid;
+
+            this.batchId = batchId;
     }
 
     @SuppressWarnings("unchecked")
     public synchronized void init(RequestContext context)
             throws InvalidBatchException, InvalidRequestException {
 
-        if (this.batch != null) {
-            this.waitForBatchToFinish();
-        }
-
-        // this batch op handler belongs to this connection
-        this.cid = context.getRequestMessage().getCommand().getHeader()
-                .getConnectionID();
-
-        // batch Id
-        this.batchId = context.getRequestMessage().getCommand().getHeader()
-                .getBatchID();
-
         // start batch
         try {
             // create new batch instance
@@ -106,8 +103,7 @@ public class BatchOperationHandler {
             // clear seq list
             sequenceList.clear();
 
-            // clear version map
-            // map.clear();
+            versionedList.clear();
 
             // clear exception
             this.batchException = null;
@@ -116,7 +112,10 @@ public class BatchOperationHandler {
         }
     }
 
-    public synchronized void checkBatchMode(KineticMessage kmreq)
+    /**
+     * Check if the message has a batch Id known to the batch pre-processor.
+     */
+    public static void checkBatchMode(KineticMessage kmreq)
             throws InvalidRequestException {
 
         if (kmreq.getIsInvalidBatchMessage()) {
@@ -124,50 +123,6 @@ public class BatchOperationHandler {
                     "Invalid batch Id found in message: "
                             + kmreq.getCommand().getHeader().getBatchID());
         }
-
-        if (this.batch == null) {
-            return;
-        }
-
-        if (kmreq.getCommand().getHeader().getBatchID() == this.batchId
-                && kmreq.getCommand().getHeader().getConnectionID() == this.cid) {
-
-            return;
-        }
-
-        this.waitForBatchToFinish();
-    }
-
-    private synchronized void waitForBatchToFinish() {
-
-        long totalWaitTime = 0;
-        long period = 3000;
-
-        long start = System.currentTimeMillis();
-
-        while (batch != null) {
-
-            try {
-
-                this.wait(period);
-
-                if (batch == null) {
-                    return;
-                }
-
-                totalWaitTime = (System.currentTimeMillis() - start);
-
-                if (totalWaitTime >= MAX_TIME_OUT) {
-                    throw new RuntimeException(
-                            "Timeout waiting for batch mode to finish");
-                } else {
-                    logger.warning("waiting for batch mode to finish., total wait time ="
-                            + totalWaitTime);
-                }
-            } catch (InterruptedException e) {
-                logger.log(Level.WARNING, e.getMessage(), e);
-            }
-        }
     }
 
     public synchronized void handleRequest(RequestContext context)
@@ -374,24 +329,6 @@ public class BatchOperationHandler {
                 throw new NotAttemptedException(msg);
             }
         }
-
-        // check if request is from the same batch
-        if (context.getRequestMessage().getCommand().getHeader()
-                .getConnectionID() != this.cid
-                || context.getRequestMessage().getCommand().getHeader()
-                        .getBatchID() != this.batchId) {
-
-            throw new RuntimeException("DB is locked by: "
-                    + cid
-                    + "-"
-                    + batchId
-                    + ", request id: "
-                    + context.getRequestMessage().getCommand().getHeader()
-                            .getConnectionID()
-                    + context.getRequestMessage().getCommand().getHeader()
-                            .getBatchID());
-        }
-
     }
 
     private void batchDelete(KineticMessage km) throws KVStoreException,
@@ -406,13 +343,10 @@ public class BatchOperationHandler {
 
         // check version if required
         if (requestKeyValue.getForce() == false) {
-            checkVersion(km);
+            stageVersion(km);
         }
 
         batch.delete(key);
-
-        // delete entry from map.
-        // map.remove(key);
     }
 
     private void batchPut(KineticMessage km) throws KVStoreException,
@@ -422,11 +356,10 @@ public class BatchOperationHandler {
 
         ByteString key = km.getCommand().getBody().getKeyValue().getKey();
 
-        ByteString valueByteString = null;
+        // request value is not copied
+        ByteString valueByteString = km.getValueByteString();
 
-        if (km.getValue() != null) {
-            valueByteString = ByteString.copyFrom(km.getValue());
-        } else {
+        if (valueByteString == null) {
             // set value to empty if null
             valueByteString = ByteString.EMPTY;
         }
@@ -436,7 +369,7 @@ public class BatchOperationHandler {
 
         // check version if required
         if (requestKeyValue.getForce() == false) {
-            checkVersion(km);
+            stageVersion(km);
         }
 
         // construct store KV
@@ -451,38 +384,60 @@ public class BatchOperationHandler {
 
         // batch put
         batch.put(key, data);
-
-        // put to batch map for version comparison
-        // map.put(requestKeyValue.getKey(), requestKeyValue.getNewVersion());
     }
 
-    private synchronized void commitBatch(RequestContext context) {
+    private synchronized void commitBatch(RequestContext context)
+            throws KVStoreException {
+
+        Command.Builder cb = context.getCommandBuilder();
 
         try {
 
             /**
-             * db commit batch
+             * db commit batch, versions are checked again by the store
              */
             batch.commit();
 
             /**
              * add sequence sequenceList to end batch response message
              */
-            Command.Builder cb = context.getCommandBuilder();
-
-            /**
-             * add sequence list to batch construct
-             */
             for (Long sequence : sequenceList) {
                 cb.getBodyBuilder().getBatchBuilder()
                         .addSequence(sequence.longValue());
             }
 
+        } catch (KVStoreVersionMismatch e) {
+
+            // a versioned key was changed by another writer since staged
+            cb.getBodyBuilder().getBatchBuilder()
+                    .setFailedSequence(this.findConflict());
+
+            throw e;
         } finally {
             this.close();
         }
     }
 
+    /**
+     * Find the first versioned put or delete of this batch whose key was
+     * changed since staged.
+     *
+     * @return sequence of the conflicting request.
+     */
+    private long findConflict() {
+
+        for (KineticMessage km : versionedList) {
+            try {
+                checkVersion(km);
+            } catch (KVStoreException e) {
+                return km.getCommand().getHeader().getSequence();
+            }
+        }
+
+        // changed back meanwhile, report the first versioned request
+        return versionedList.get(0).getCommand().getHeader().getSequence();
+    }
+
     /**
      * close the current batch operation.
      */
@@ -500,7 +455,6 @@ public class BatchOperationHandler {
             logger.log(Level.WARNING, e.getMessage(), e);
         } finally {
             batch = null;
-            this.notifyAll();
         }
     }
 
@@ -538,12 +492,21 @@ public class BatchOperationHandler {
 
         // compare version with store
         compareVersion(storeDbVersion, requestDbVersion);
+    }
+
+    /**
+     * Check the version when staged, and again when the batch is committed.
+     */
+    private void stageVersion(KineticMessage km) throws KVStoreException {
+
+        checkVersion(km);
+
+        KeyValue requestKeyValue = km.getCommand().getBody().getKeyValue();
+
+        batch.checkVersion(requestKeyValue.getKey(),
+                requestKeyValue.getDbVersion());
 
-        // compare version with batch map
-        // ByteString mapVersion = this.map.get(key);
-        // if (mapVersion != null) {
-        // compareVersion(mapVersion, requestDbVersion);
-        // }
+        versionedList.add(km);
     }
 
     @SuppressWarnings("unchecked")
@@ -553,7 +516,7 @@ public class BatchOperationHandler {
         ByteString storeDbVersion = null;
 
         try {
-            storeKv = (KVValue) store.get(key);
+            storeKv = (KVValue) store.getMetadata(key);
             storeDbVersion = storeKv.getVersion();
         } catch (Exception e) {
             ;
@@ -108,7 +108,7 @@ public class GetLogHandler {
 
             switch (type) {
             case CAPACITIES:
-                Capacity capacity = CapacityUtil.getCapacity();
+                Capacity capacity = CapacityUtil.getCapacity(engine.getStore());
                 getLog.setCapacity(capacity);
                 break;
             case UTILIZATIONS:
@@ -131,7 +131,8 @@ public class GetLogHandler {
                 break;
 
             case MESSAGES:
-                getLog.setMessages(ByteString.copyFrom("Message from simulator".getBytes()));
+                getLog.setMessages(ByteString.copyFromUtf8("Message from simulator\n"
+                        + engine.getMediaOptimizer().getStatus()));
                 break;
 
             case STATISTICS:
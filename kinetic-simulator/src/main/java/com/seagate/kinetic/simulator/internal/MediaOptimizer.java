@@ -0,0 +1,298 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.internal;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.protobuf.ByteString;
+import com.seagate.kinetic.proto.Kinetic.Command.Priority;
+import com.seagate.kinetic.proto.Kinetic.Command.Range;
+import com.seagate.kinetic.simulator.persist.KVKey;
+import com.seagate.kinetic.simulator.persist.Store;
+import com.seagate.kinetic.simulator.persist.UnorderedCompaction;
+
+/**
+ * Background media optimization of a simulator.
+ * <p>
+ * MEDIAOPTIMIZE requests are queued and optimized one at a time by a
+ * background thread, the request returns when the optimization is queued. A
+ * range is split into sub-ranges of {@link #SUB_RANGE_KEYS} keys found with a
+ * key only range read, and each sub-range is compacted by the store. The
+ * optimization pauses between sub-ranges as the {@link BackgroundThrottle} of
+ * the request priority requires. A store with {@link UnorderedCompaction}
+ * ignores the range, it is compacted once for the whole range.
+ * <p>
+ * The progress is reported in the GETLOG MESSAGES log, see
+ * {@link #getStatus()}.
+ */
+final class MediaOptimizer implements Runnable {
+
+    private final static Logger logger = Logger.getLogger(MediaOptimizer.class
+            .getName());
+
+    // keys of a sub-range
+    static final int SUB_RANGE_KEYS = 8192;
+
+    // max queued optimizations
+    static final int MAX_QUEUED = 16;
+
+    private final SimulatorEngine engine;
+
+    // queued optimizations
+    private final LinkedBlockingQueue<Job> queue = new LinkedBlockingQueue<Job>(
+            MAX_QUEUED);
+
+    // background thread, started with the first optimization
+    private Thread thread = null;
+
+    // running optimization
+    private volatile Job running = null;
+
+    // last finished optimization
+    private volatile Job finished = null;
+
+    // close flag
+    private volatile boolean isClosed = false;
+
+    MediaOptimizer(SimulatorEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Queue an optimization of the range.
+     *
+     * @param range
+     *            range to optimize.
+     * @param priority
+     *            request priority.
+     * @return false if too many optimizations are queued.
+     */
+    synchronized boolean submit(Range range, Priority priority) {
+
+        if (this.isClosed) {
+            return false;
+        }
+
+        if (this.queue.offer(new Job(range, priority)) == false) {
+            return false;
+        }
+
+        if (this.thread == null) {
+            this.thread = new Thread(this, "Simulator-Media-Optimizer");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        return true;
+    }
+
+    @Override
+    public void run() {
+
+        while (this.isClosed == false) {
+
+            Job job = null;
+
+            try {
+                job = this.queue.take();
+            } catch (InterruptedException e) {
+                // closed
+                break;
+            }
+
+            this.running = job;
+
+            try {
+                job.optimize();
+            } catch (InterruptedException e) {
+                job.state = "interrupted";
+                break;
+            } catch (Exception e) {
+                job.state = "failed: " + e.getMessage();
+                logger.log(Level.WARNING, e.getMessage(), e);
+            } finally {
+                job.endTime = System.currentTimeMillis();
+                this.finished = job;
+                this.running = null;
+            }
+        }
+    }
+
+    /**
+     * Get the status of the running, queued and last finished optimization.
+     *
+     * @return status lines.
+     */
+    String getStatus() {
+
+        StringBuilder sb = new StringBuilder();
+
+        Job job = this.running;
+
+        if (job != null) {
+            sb.append("media optimize running: ").append(job).append('\n');
+        }
+
+        sb.append("media optimize queued: ").append(this.queue.size())
+                .append('\n');
+
+        job = this.finished;
+
+        if (job != null) {
+            sb.append("media optimize last: ").append(job).append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Stop the background thread. The running optimization stops after its
+     * current sub-range.
+     */
+    void close() {
+
+        Thread t = null;
+
+        synchronized (this) {
+            this.isClosed = true;
+            this.queue.clear();
+            t = this.thread;
+        }
+
+        if (t == null) {
+            return;
+        }
+
+        t.interrupt();
+
+        try {
+            t.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * An optimization of a range.
+     */
+    private final class Job {
+
+        private final Range range;
+
+        private final Priority priority;
+
+        // state reported in the log
+        private volatile String state = "queued";
+
+        // sub-ranges compacted
+        private volatile int subRanges = 0;
+
+        // keys in the compacted sub-ranges
+        private volatile long keys = 0;
+
+        private volatile long startTime = 0;
+
+        private volatile long endTime = 0;
+
+        Job(Range range, Priority priority) {
+            this.range = range;
+            this.priority = priority;
+        }
+
+        @SuppressWarnings("unchecked")
+        void optimize() throws KVStoreException, InterruptedException {
+
+            this.state = "running";
+            this.startTime = System.currentTimeMillis();
+
+            BackgroundThrottle throttle = new BackgroundThrottle(priority);
+
+            Store<ByteString, ?, ?> store = engine.getStore();
+
+            if (store instanceof UnorderedCompaction) {
+                // the whole store is compacted by one call
+                store.compactRange(range.getStartKey(), range.getEndKey());
+
+                this.subRanges++;
+                this.state = "completed";
+
+                logger.info("media optimize " + this);
+
+                return;
+            }
+
+            ByteString cursor = range.getStartKey();
+            boolean inclusive = range.getStartKeyInclusive();
+
+            while (true) {
+
+                if (isClosed || Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                long start = System.nanoTime();
+
+                List<KVKey> batch = (List<KVKey>) store.getKeyRange(cursor,
+                        inclusive, range.getEndKey(),
+                        range.getEndKeyInclusive(), SUB_RANGE_KEYS);
+
+                boolean last = batch.size() < SUB_RANGE_KEYS;
+
+                // the last sub-range extends to the end of the range
+                ByteString end = last ? range.getEndKey() : batch.get(
+                        batch.size() - 1).toByteString();
+
+                store.compactRange(cursor, end);
+
+                this.subRanges++;
+                this.keys += batch.size();
+
+                if (last) {
+                    break;
+                }
+
+                cursor = end;
+                inclusive = false;
+
+                throttle.pause(System.nanoTime() - start);
+            }
+
+            this.state = "completed";
+
+            logger.info("media optimize " + this);
+        }
+
+        @Override
+        public String toString() {
+
+            long end = (this.endTime == 0) ? System.currentTimeMillis()
+                    : this.endTime;
+
+            return "state=" + state + ", priority=" + priority
+                    + ", sub-ranges=" + subRanges + ", keys=" + keys
+                    + ", time(ms)="
+                    + ((startTime == 0) ? 0 : end - startTime);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.protobuf.ByteString;
+import com.seagate.kinetic.common.lib.MessageDigestUtil;
+import com.seagate.kinetic.proto.Kinetic.Command.Algorithm;
+import com.seagate.kinetic.proto.Kinetic.Command.Range;
+
+/**
+ * Resumable progress of a media scan.
+ * <p>
+ * A checkpoint records the last key scanned and the bad keys found so far for
+ * the range of a media scan. It is saved to a file under the kinetic home
+ * named after the range, so a media scan request for the same range resumes
+ * after the last checkpoint, also after the simulator is restarted. The file
+ * is removed when the scan of the range completes.
+ * <p>
+ * A checkpoint not saved for {@link #MAX_AGE_MILLIS} is discarded, the scan
+ * starts over. All checkpoints are removed when the store is erased, and a
+ * scan started before the erase does not save its checkpoint.
+ */
+final class MediaScanCheckpoint {
+
+    private final static Logger logger = Logger
+            .getLogger(MediaScanCheckpoint.class.getName());
+
+    // file format version
+    private static final int VERSION = 1;
+
+    // checkpoint file name prefix
+    private static final String FILE_PREFIX = ".mediascan-";
+
+    // max age of a checkpoint
+    static final long MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    private final SimulatorEngine engine;
+
+    // store epoch when the checkpoint was loaded
+    private final long epoch;
+
+    // checkpoint file
+    private final File file;
+
+    // start key of the scanned range
+    private final ByteString startKey;
+
+    // start key inclusive flag of the scanned range
+    private final boolean startKeyInclusive;
+
+    // end key of the scanned range
+    private final ByteString endKey;
+
+    // end key inclusive flag of the scanned range
+    private final boolean endKeyInclusive;
+
+    // last key scanned, null if none
+    private ByteString lastKey = null;
+
+    // number of keys scanned
+    private long scanned = 0;
+
+    // bad keys found, in key order
+    private final List<ByteString> badKeys = new ArrayList<ByteString>();
+
+    private MediaScanCheckpoint(SimulatorEngine engine, File file, Range range) {
+        this.engine = engine;
+        this.epoch = engine.getStoreEpoch();
+        this.file = file;
+        this.startKey = range.getStartKey();
+        this.startKeyInclusive = range.getStartKeyInclusive();
+        this.endKey = range.getEndKey();
+        this.endKeyInclusive = range.getEndKeyInclusive();
+    }
+
+    /**
+     * Load the checkpoint of the range, or create a new one.
+     *
+     * @param engine
+     *            simulator engine.
+     * @param range
+     *            scanned range.
+     * @return the saved checkpoint of the range, or a new checkpoint if none
+     *         was saved, the saved checkpoint expired or cannot be read.
+     */
+    static MediaScanCheckpoint load(SimulatorEngine engine, Range range) {
+
+        MediaScanCheckpoint checkpoint = new MediaScanCheckpoint(engine,
+                new File(engine.getKineticHome(), fileName(range)), range);
+
+        if (checkpoint.file.exists() == false) {
+            return checkpoint;
+        }
+
+        long age = System.currentTimeMillis() - checkpoint.file.lastModified();
+
+        if (age > MAX_AGE_MILLIS) {
+            logger.info("media scan checkpoint expired: " + checkpoint.file);
+            checkpoint.delete();
+            return checkpoint;
+        }
+
+        try {
+            checkpoint.read();
+
+            logger.info("resume media scan from checkpoint, scanned="
+                    + checkpoint.scanned + ", bad keys="
+                    + checkpoint.badKeys.size());
+
+            return checkpoint;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "unable to read media scan checkpoint: "
+                    + checkpoint.file, e);
+        }
+
+        // start over
+        return new MediaScanCheckpoint(engine, checkpoint.file, range);
+    }
+
+    /**
+     * Remove all saved checkpoints, the store was erased.
+     *
+     * @param kineticHome
+     *            kinetic home of the simulator.
+     */
+    static void deleteAll(String kineticHome) {
+
+        String[] names = new File(kineticHome).list();
+
+        if (names == null) {
+            return;
+        }
+
+        for (String name : names) {
+            if (name.startsWith(FILE_PREFIX)
+                    && new File(kineticHome, name).delete() == false) {
+                logger.warning("unable to delete media scan checkpoint: "
+                        + name);
+            }
+        }
+    }
+
+    /**
+     * Get the last key scanned.
+     *
+     * @return the last key scanned, null if the scan has not started.
+     */
+    ByteString getLastKey() {
+        return this.lastKey;
+    }
+
+    /**
+     * Get the number of keys scanned.
+     *
+     * @return the number of keys scanned.
+     */
+    long getScanned() {
+        return this.scanned;
+    }
+
+    /**
+     * Get the bad keys found so far.
+     *
+     * @return the bad keys, in key order.
+     */
+    List<ByteString> getBadKeys() {
+        return this.badKeys;
+    }
+
+    /**
+     * Record a scanned batch of keys.
+     *
+     * @param lastKey
+     *            last key of the batch.
+     * @param count
+     *            number of keys in the batch.
+     */
+    void scanned(ByteString lastKey, int count) {
+        this.lastKey = lastKey;
+        this.scanned += count;
+    }
+
+    /**
+     * Save the checkpoint. The previous checkpoint is replaced only after the
+     * new one is written completely.
+     */
+    void save() {
+
+        if (engine.getStoreEpoch() != this.epoch) {
+            // the scanned entries were erased
+            return;
+        }
+
+        File tmp = new File(this.file.getPath() + ".tmp");
+
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)));
+
+            try {
+                out.writeInt(VERSION);
+                writeBytes(out, this.startKey);
+                out.writeBoolean(this.startKeyInclusive);
+                writeBytes(out, this.endKey);
+                out.writeBoolean(this.endKeyInclusive);
+                out.writeBoolean(this.lastKey != null);
+                if (this.lastKey != null) {
+                    writeBytes(out, this.lastKey);
+                }
+                out.writeLong(this.scanned);
+                out.writeInt(this.badKeys.size());
+                for (ByteString key : this.badKeys) {
+                    writeBytes(out, key);
+                }
+            } finally {
+                out.close();
+            }
+
+            if (tmp.renameTo(this.file) == false) {
+                this.file.delete();
+                if (tmp.renameTo(this.file) == false) {
+                    throw new IOException("unable to rename " + tmp);
+                }
+            }
+        } catch (IOException e) {
+            // the scan continues, it restarts from an older checkpoint
+            logger.log(Level.WARNING, "unable to save media scan checkpoint: "
+                    + this.file, e);
+        }
+    }
+
+    /**
+     * Remove the saved checkpoint.
+     */
+    void delete() {
+        this.file.delete();
+    }
+
+    private void read() throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(this.file)));
+
+        try {
+            if (in.readInt() != VERSION) {
+                throw new IOException("unsupported checkpoint version");
+            }
+
+            // the file name is a hash, check the range
+            if (readBytes(in).equals(this.startKey) == false
+                    || in.readBoolean() != this.startKeyInclusive
+                    || readBytes(in).equals(this.endKey) == false
+                    || in.readBoolean() != this.endKeyInclusive) {
+                throw new IOException("checkpoint range does not match");
+            }
+
+            if (in.readBoolean()) {
+                this.lastKey = readBytes(in);
+            }
+
+            this.scanned = in.readLong();
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                this.badKeys.add(readBytes(in));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, ByteString bytes)
+            throws IOException {
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    private static ByteString readBytes(DataInputStream in) throws IOException {
+
+        int length = in.readInt();
+
+        if (length < 0) {
+            throw new IOException("invalid length: " + length);
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return ByteString.copyFrom(bytes);
+    }
+
+    /**
+     * Get the checkpoint file name of the range.
+     */
+    private static String fileName(Range range) {
+
+        ByteString id = range.getStartKey()
+                .concat(ByteString.copyFrom(new byte[] {
+                        (byte) (range.getStartKeyInclusive() ? 1 : 0),
+                        (byte) (range.getEndKeyInclusive() ? 1 : 0) }))
+                .concat(range.getEndKey());
+
+        // length of the start key, so that different splits of the same
+        // bytes do not share a name
+        int length = range.getStartKey().size();
+        id = id.concat(ByteString.copyFrom(new byte[] { (byte) (length >>> 24),
+                (byte) (length >>> 16), (byte) (length >>> 8), (byte) length }));
+
+        ByteString hash = MessageDigestUtil.calculateTag(Algorithm.SHA1, id);
+
+        StringBuilder sb = new StringBuilder(FILE_PREFIX);
+
+        for (int i = 0; i < hash.size(); i++) {
+            sb.append(String.format("%02x", hash.byteAt(i) & 0xff));
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,378 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.internal;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.protobuf.ByteString;
+import com.seagate.kinetic.common.lib.MessageDigestUtil;
+import com.seagate.kinetic.proto.Kinetic.Command.Algorithm;
+import com.seagate.kinetic.proto.Kinetic.Command.Priority;
+import com.seagate.kinetic.proto.Kinetic.Command.Range;
+import com.seagate.kinetic.simulator.io.provider.spi.MessageService;
+import com.seagate.kinetic.simulator.persist.KVKey;
+import com.seagate.kinetic.simulator.persist.KVValue;
+import com.seagate.kinetic.simulator.persist.Store;
+
+/**
+ * Media scan of a key range.
+ * <p>
+ * The scanner reads the keys of the range with one cursor, a key only range
+ * read per batch of keys continuing after the last key of the previous batch.
+ * The batch is split into partitions of consecutive keys whose tags are
+ * verified by the scanning thread and, in parallel, by the request threads of
+ * the engine, while the scanning thread reads the next batch.
+ * <p>
+ * The scanning thread is a background thread of the simulator, not a request
+ * worker, see {@link MessageService#executeBackground(Runnable)}. The scan is
+ * throttled by the request priority, see {@link BackgroundThrottle}. The progress is saved to a
+ * {@link MediaScanCheckpoint} periodically, a scan request for the same range
+ * resumes after the last checkpoint. The bad keys found before the checkpoint
+ * are verified again before they are returned.
+ */
+final class MediaScanner {
+
+    private final static Logger logger = Logger.getLogger(MediaScanner.class
+            .getName());
+
+    // keys read per batch of the cursor
+    private static final int BATCH_SIZE = 1024;
+
+    // min keys of a partition
+    private static final int MIN_KEYS_PER_PARTITION = 16;
+
+    // interval between checkpoints
+    private static final long CHECKPOINT_INTERVAL_NANOS = TimeUnit.SECONDS
+            .toNanos(1);
+
+    private final SimulatorEngine engine;
+
+    private final Store<ByteString, ByteString, KVValue> store;
+
+    // scanned range
+    private final Range range;
+
+    // max bad keys returned
+    private final int maxReturned;
+
+    private final BackgroundThrottle throttle;
+
+    @SuppressWarnings("unchecked")
+    MediaScanner(SimulatorEngine engine, Range range, Priority priority,
+            int maxReturned) {
+        this.engine = engine;
+        this.store = engine.getStore();
+        this.range = range;
+        this.maxReturned = maxReturned;
+        this.throttle = new BackgroundThrottle(priority);
+    }
+
+    /**
+     * Scan the range. The bad keys found are added to the response range. The
+     * end key of the response is set to the end key of the range if the
+     * range was scanned completely, or to the first bad key not returned if
+     * more bad keys were found than the max returned.
+     *
+     * @param response
+     *            range of the response message.
+     * @throws KVStoreException
+     *             if the store failed.
+     * @throws InterruptedException
+     *             if interrupted.
+     */
+    void scan(Range.Builder response) throws KVStoreException,
+            InterruptedException {
+
+        MediaScanCheckpoint checkpoint = MediaScanCheckpoint.load(engine,
+                range);
+
+        boolean completed = false;
+
+        long begin = System.nanoTime();
+
+        try {
+            // bad keys found before the checkpoint, verified again
+            Iterator<ByteString> checkpointed = checkpoint.getBadKeys()
+                    .iterator();
+
+            while (checkpointed.hasNext()) {
+
+                ByteString badKey = checkpointed.next();
+
+                if (verify(badKey) == null) {
+                    // rewritten or deleted since
+                    checkpointed.remove();
+                    continue;
+                }
+
+                if (report(response, badKey) == false) {
+                    completed = true;
+                    return;
+                }
+            }
+
+            ByteString cursor = range.getStartKey();
+            boolean inclusive = range.getStartKeyInclusive();
+
+            if (checkpoint.getLastKey() != null) {
+                cursor = checkpoint.getLastKey();
+                inclusive = false;
+            }
+
+            long lastCheckpoint = System.nanoTime();
+
+            List<KVKey> keys = this.read(cursor, inclusive);
+
+            while (true) {
+
+                long start = System.nanoTime();
+
+                Verification verification = new Verification(keys);
+
+                verification.start();
+
+                // read the next batch while the batch is verified
+                List<KVKey> next = null;
+                if (keys.size() == BATCH_SIZE) {
+                    next = this.read(keys.get(keys.size() - 1).toByteString(),
+                            false);
+                }
+
+                ByteString[] badKeys = verification.runAndAwait();
+
+                for (int i = 0; i < badKeys.length; i++) {
+
+                    if (badKeys[i] == null) {
+                        continue;
+                    }
+
+                    checkpoint.getBadKeys().add(badKeys[i]);
+
+                    if (report(response, badKeys[i]) == false) {
+                        completed = true;
+                        return;
+                    }
+                }
+
+                if (keys.isEmpty() == false) {
+                    checkpoint.scanned(keys.get(keys.size() - 1)
+                            .toByteString(), keys.size());
+                }
+
+                if (next == null) {
+                    break;
+                }
+
+                if (System.nanoTime() - lastCheckpoint >= CHECKPOINT_INTERVAL_NANOS) {
+                    checkpoint.save();
+                    lastCheckpoint = System.nanoTime();
+                }
+
+                throttle.pause(System.nanoTime() - start);
+
+                keys = next;
+            }
+
+            // set endkey in response
+            response.setEndKey(range.getEndKey());
+
+            completed = true;
+
+        } finally {
+            if (completed) {
+                checkpoint.delete();
+
+                logger.info("media scan completed, scanned="
+                        + checkpoint.getScanned() + ", bad keys="
+                        + response.getKeysCount() + ", time(ms)="
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                                - begin));
+            } else if (checkpoint.getLastKey() != null) {
+                // resume from here
+                checkpoint.save();
+            }
+        }
+    }
+
+    /**
+     * Add a bad key to the response.
+     *
+     * @return false if the max returned keys were reached. The key is set as
+     *         the end key of the response and the scan ends.
+     */
+    private boolean report(Range.Builder response, ByteString badKey) {
+
+        if (response.getKeysCount() < maxReturned) {
+            response.addKeys(badKey);
+            return true;
+        }
+
+        // reached max returned keys
+        response.setEndKey(badKey);
+
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<KVKey> read(ByteString startKey, boolean inclusive)
+            throws KVStoreException {
+        return (List<KVKey>) store.getKeyRange(startKey, inclusive,
+                range.getEndKey(), range.getEndKeyInclusive(), BATCH_SIZE);
+    }
+
+    /**
+     * Verify the tag of the value of the key.
+     *
+     * @return the key if the tag did not match, null otherwise.
+     */
+    private ByteString verify(ByteString key) {
+
+        KVValue kv = null;
+
+        try {
+            kv = store.get(key);
+        } catch (Exception e) {
+            logger.fine(e.getMessage());
+        }
+
+        if (kv == null) {
+            // deleted after the keys were read
+            return null;
+        }
+
+        // get algo
+        Algorithm algo = kv.getAlgorithm();
+        // get tag
+        ByteString tag = kv.getTag();
+
+        if ((tag == null) || tag.isEmpty()
+                || MessageDigestUtil.isSupportedForKineticJava(algo) == false) {
+            return null;
+        }
+
+        // compare tag
+        if (MessageDigestUtil.checkTag(algo, kv.getData(), tag)) {
+
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("tag validated for key: " + kv.getKeyOf()
+                        + ", algo: " + algo);
+            }
+
+            return null;
+        }
+
+        logger.info("tag does not match for key: " + kv.getKeyOf()
+                + ", algo: " + algo);
+
+        return kv.getKeyOf();
+    }
+
+    /**
+     * Verification of a batch of keys. The batch is split into partitions
+     * claimed by the scanning thread and the request threads. Partitions not
+     * claimed by a request thread are verified by the scanning thread, so the
+     * scan does not depend on free request threads.
+     */
+    private final class Verification implements Runnable {
+
+        private final List<KVKey> keys;
+
+        // bad key at the index of the key, null for the other keys
+        private final ByteString[] badKeys;
+
+        private final int partitions;
+
+        private final int partitionSize;
+
+        // next partition to claim
+        private final AtomicInteger next = new AtomicInteger();
+
+        // claimed partitions not yet verified, and partitions not claimed
+        private final CountDownLatch done;
+
+        Verification(List<KVKey> keys) {
+
+            this.keys = keys;
+            this.badKeys = new ByteString[keys.size()];
+
+            this.partitions = Math.max(1, Math.min(throttle.getParallelism(),
+                    keys.size() / MIN_KEYS_PER_PARTITION));
+
+            this.partitionSize = (keys.size() + partitions - 1) / partitions;
+
+            this.done = new CountDownLatch(partitions);
+        }
+
+        /**
+         * Start the request threads verifying.
+         */
+        void start() {
+            for (int i = 1; i < partitions; i++) {
+                try {
+                    engine.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // the scanning thread verifies the partitions
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Verify the partitions not yet claimed and wait for the others.
+         *
+         * @return the bad keys at the index of the key.
+         */
+        ByteString[] runAndAwait() throws InterruptedException {
+
+            this.run();
+
+            this.done.await();
+
+            return this.badKeys;
+        }
+
+        @Override
+        public void run() {
+
+            int partition = 0;
+
+            while ((partition = next.getAndIncrement()) < partitions) {
+
+                try {
+                    int from = partition * partitionSize;
+                    int to = Math.min(keys.size(), from + partitionSize);
+
+                    for (int i = from; i < to; i++) {
+                        badKeys[i] = verify(keys.get(i).toByteString());
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }
+        }
+    }
+}
@@ -161,6 +161,9 @@ public abstract class PinOperationHandler {
         // reset store
         engine.getStore().reset();
 
+        // media scan checkpoints of the erased store
+        engine.storeErased();
+
         // reset setup
         resetSetup(engine);
 
@@ -0,0 +1,54 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.internal;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor of the simulator requests with backpressure support.
+ *
+ * @see ThreadPoolService
+ */
+interface RequestExecutor extends Executor {
+
+    /**
+     * Check if the pending requests reached the high watermark.
+     *
+     * @return true if saturated.
+     */
+    boolean isSaturated();
+
+    /**
+     * Run the task when the pending requests fall to the low watermark. The
+     * task is run by the calling thread if already drained.
+     *
+     * @param task
+     *            task to run, must not block.
+     */
+    void whenDrained(Runnable task);
+
+    /**
+     * Stop executing requests.
+     *
+     * @param timeout
+     *            max time to wait for the running requests in milli seconds.
+     */
+    void shutdown(long timeout);
+}
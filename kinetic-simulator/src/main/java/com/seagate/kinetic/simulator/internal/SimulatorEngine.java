@@ -27,6 +27,7 @@ import java.security.Key;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -94,6 +95,12 @@ public class SimulatorEngine implements MessageService {
     @SuppressWarnings("rawtypes")
     private Store store = null;
 
+    // background media optimization
+    private MediaOptimizer mediaOptimizer = null;
+
+    // changed when the store is erased
+    private final AtomicLong storeEpoch = new AtomicLong(0);
+
     private final ArrayList<TransportProvider> transports = new ArrayList<TransportProvider>();
 
     private final TransportProvider sslService = null;
@@ -133,8 +140,9 @@ public class SimulatorEngine implements MessageService {
 
     // private P2POperationHandler p2pHandler = null;
 
-    // batch op handler
-    private BatchOperationHandler batchOp = null;
+    // batch op handlers of the open batches, key = connection id + "." +
+    // batch id
+    private final ConcurrentHashMap<String, BatchOperationHandler> batchOps = new ConcurrentHashMap<String, BatchOperationHandler>();
 
     private NioEventLoopGroupManager nioManager = null;
 
@@ -303,8 +311,6 @@ public class SimulatorEngine implements MessageService {
 
     private void initHandlers() {
         this.manager = new CommandManager(this);
-        
-        this.batchOp = new BatchOperationHandler(this);
     }
 
     public CommandManager getCommandManager() {
@@ -361,6 +367,37 @@ public class SimulatorEngine implements MessageService {
      */
     private void initStore() {
         this.store = StoreFactory.createInstance(this.config);
+        this.mediaOptimizer = new MediaOptimizer(this);
+    }
+
+    /**
+     * Get the background media optimizer.
+     *
+     * @return the media optimizer.
+     */
+    MediaOptimizer getMediaOptimizer() {
+        return this.mediaOptimizer;
+    }
+
+    /**
+     * Get the store epoch. The epoch changes when the store is erased, a
+     * media scan started before does not save its checkpoint.
+     *
+     * @return the store epoch.
+     */
+    long getStoreEpoch() {
+        return this.storeEpoch.get();
+    }
+
+    /**
+     * Called after the store is erased. The media scan checkpoints saved for
+     * the erased entries are removed.
+     */
+    void storeErased() {
+
+        this.storeEpoch.incrementAndGet();
+
+        MediaScanCheckpoint.deleteAll(this.kineticHome);
     }
 
     /**
@@ -396,6 +433,11 @@ public class SimulatorEngine implements MessageService {
         // close transport providers
         this.closeTransportServices();
 
+        // stop media optimization before the store is closed
+        if (this.mediaOptimizer != null) {
+            this.mediaOptimizer.close();
+        }
+
         // close db store
         if (this.store != null) {
             this.store.close();
@@ -453,11 +495,11 @@ public class SimulatorEngine implements MessageService {
             // prepare to process this request
             context.preProcessRequest();
 
-            // check if in batch mode
-            this.batchOp.checkBatchMode(kmreq);
+            // check if batch id is valid
+            BatchOperationHandler.checkBatchMode(kmreq);
 
             if (kmreq.getIsBatchMessage()) {
-                this.batchOp.handleRequest(context);
+                this.processBatchRequest(context);
             } else {
                 // process request
                 context.processRequest();
@@ -501,6 +543,51 @@ public class SimulatorEngine implements MessageService {
         return context.getResponseMessage();
     }
 
+    /**
+     * Process a batch message with the batch op handler of its connection and
+     * batch. Batches of different connections are staged independently.
+     */
+    private void processBatchRequest(RequestContext context) throws Exception {
+
+        MessageType mtype = context.getMessageType();
+
+        // start and abort are handled by the batch pre-processor
+        if (mtype == MessageType.START_BATCH
+                || mtype == MessageType.ABORT_BATCH) {
+            return;
+        }
+
+        Command.Header header = context.getRequestMessage().getCommand()
+                .getHeader();
+
+        String key = header.getConnectionID() + "." + header.getBatchID();
+
+        BatchOperationHandler batchOp = this.batchOps.get(key);
+
+        if (batchOp == null) {
+            batchOp = new BatchOperationHandler(this,
+                    header.getConnectionID(), header.getBatchID());
+
+            BatchOperationHandler prev = this.batchOps.putIfAbsent(key,
+                    batchOp);
+
+            if (prev != null) {
+                batchOp = prev;
+            }
+        }
+
+        try {
+            batchOp.handleRequest(context);
+        } finally {
+            if (mtype == MessageType.END_BATCH) {
+                // batch is committed or failed
+                this.batchOps.remove(key);
+
+                batchOp.close();
+            }
+        }
+    }
+
     private void addStatisticCounter(KineticMessage kmreq, KineticMessage kmresp) {
 
         try {
@@ -518,17 +605,13 @@ public class SimulatorEngine implements MessageService {
             if (request != null) {
                 inCount = request.getSerializedSize();
                 // add in-bound value byte count
-                if (kmreq.getValue() != null) {
-                    inCount = inCount + kmreq.getValue().length;
-                }
+                inCount = inCount + kmreq.getValueSize();
             }
 
             if (response != null) {
                 outCount = response.getSerializedSize();
                 // add out-bound value byte count
-                if (kmresp.getValue() != null) {
-                    outCount = outCount + kmresp.getValue().length;
-                }
+                outCount = outCount + kmresp.getValueSize();
             }
 
             switch (mtype) {
@@ -683,6 +766,21 @@ public class SimulatorEngine implements MessageService {
         tpService.execute(request);
     }
 
+    @Override
+    public void executeBackground(Runnable request) {
+        tpService.executeBackground(request);
+    }
+
+    @Override
+    public boolean isSaturated() {
+        return tpService.isSaturated();
+    }
+
+    @Override
+    public void whenDrained(Runnable task) {
+        tpService.whenDrained(task);
+    }
+
     public Heartbeat getHearBeat() {
         return this.heartbeat;
     }
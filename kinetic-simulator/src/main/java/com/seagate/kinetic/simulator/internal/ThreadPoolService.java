@@ -25,7 +25,8 @@ import java.util.Timer;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import kinetic.simulator.SimulatorConfiguration;
 
@@ -34,15 +35,38 @@ import com.seagate.kinetic.simulator.io.provider.nio.NioThreadFactory;
 /**
  * Simulator thread pooling service.
  * <p>
+ * Requests are executed by a bounded pool of worker threads shared by the
+ * simulators within the same JVM. The number of workers and the backpressure
+ * watermark are configured with the configuration of the first registered
+ * simulator.
+ * <p>
+ * If virtual threads are enabled and supported by the Java runtime, each
+ * request runs on its own virtual thread instead.
+ * <p>
+ * Long running background requests, such as media scans, are executed by a
+ * separate small pool, so they do not hold the request workers.
+ * 
+ * @see SimulatorConfiguration#setRequestWorkerThreads(int)
+ * @see SimulatorConfiguration#setRequestQueueHighWatermark(int)
+ * @see SimulatorConfiguration#setUseVirtualThreads(boolean)
  * 
  * @author chiaming
  * 
  */
 public class ThreadPoolService {
 
+	private final static Logger logger = Logger
+			.getLogger(ThreadPoolService.class.getName());
+
 	private int referenceCount = 0;
 
-	private ExecutorService pool = null;
+	private volatile RequestExecutor pool = null;
+
+	// threads of the background request pool
+	private static final int BACKGROUND_THREADS = 2;
+
+	// long running background requests
+	private volatile ExecutorService background = null;
 
 	// private HeartbeatTimer internalRunner = null;
 
@@ -88,17 +112,69 @@ public class ThreadPoolService {
 		// internalRunner = new HeartbeatTimer();
 		this.timer = new Timer("simulator-heartbeat", false);
 
+		this.background = Executors.newFixedThreadPool(BACKGROUND_THREADS,
+				new NioThreadFactory("Simulator-Background", true));
+
+		if (config.getUseVirtualThreads()) {
+
+			if (VirtualThreadPool.isSupported()) {
+				try {
+					pool = new VirtualThreadPool(
+							config.getRequestQueueHighWatermark());
+					return;
+				} catch (UnsupportedOperationException e) {
+					// e.g. a preview feature not enabled on JDK 19 and 20
+					logger.log(Level.WARNING, e.getMessage()
+							+ ", using worker pool", e);
+				}
+			} else {
+				logger.warning("virtual threads are not supported by the Java runtime, using worker pool");
+			}
+		}
+
 		// all threads created from this factory are daemon threads
 		ThreadFactory tfactory = new NioThreadFactory("Simulator", true);
 
-		// thread executor service
-		pool = Executors.newCachedThreadPool(tfactory);
+		// bounded worker pool
+		pool = new WorkerPool(config.getRequestWorkerThreads(),
+				config.getRequestQueueHighWatermark(), tfactory);
 	}
 
-	public synchronized void execute(Runnable runnable) {
+	public void execute(Runnable runnable) {
 		pool.execute(runnable);
 	}
 
+	/**
+	 * Execute a long running background request, such as a media scan.
+	 * 
+	 * @param runnable
+	 *            request to execute.
+	 */
+	public void executeBackground(Runnable runnable) {
+		background.execute(runnable);
+	}
+
+	/**
+	 * Check if the requests queued for the workers reached the high
+	 * watermark.
+	 * 
+	 * @return true if the worker pool is saturated.
+	 */
+	public boolean isSaturated() {
+		return pool.isSaturated();
+	}
+
+	/**
+	 * Run the task when the requests queued for the workers fall to the low
+	 * watermark.
+	 * 
+	 * @param task
+	 *            task to run, must not block.
+	 */
+	public void whenDrained(Runnable task) {
+		pool.whenDrained(task);
+	}
+
 	private synchronized void close() {
 
 		this.map.clear();
@@ -108,15 +184,11 @@ public class ThreadPoolService {
 
 		timer.cancel();
 
-		// shutdown simulator pool
-		try {
-			// stop serving new request
-			pool.shutdown();
-			pool.awaitTermination(100, TimeUnit.MILLISECONDS);
+		// shutdown simulator pool, stop serving new request
+		pool.shutdown(100);
 
-		} catch (Exception e) {
-			;
-		}
+		// interrupt running background requests
+		background.shutdownNow();
 	}
 
 }
@@ -0,0 +1,189 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.internal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Request executor that runs every task on a new virtual thread.
+ * <p>
+ * A task blocked in the store parks its virtual thread and releases the
+ * carrier thread, so the number of blocked requests is not limited by a
+ * thread pool size. The simulator is built for Java runtimes without virtual
+ * threads, the executor is looked up reflectively and is only available on
+ * runtimes that support it.
+ * <p>
+ * The tasks in progress are tracked for backpressure, the executor is
+ * saturated when they reach the high watermark.
+ *
+ * @see ThreadPoolService
+ */
+final class VirtualThreadPool implements RequestExecutor {
+
+    private final static Logger logger = Logger
+            .getLogger(VirtualThreadPool.class.getName());
+
+    // Executors.newVirtualThreadPerTaskExecutor, null if not supported
+    private static final Method factoryMethod = lookupFactoryMethod();
+
+    // virtual thread per task executor
+    private final ExecutorService executor;
+
+    // tasks to run when the tasks in progress fall to the low watermark
+    private final ConcurrentLinkedQueue<Runnable> drainTasks = new ConcurrentLinkedQueue<Runnable>();
+
+    // submitted and not yet finished tasks
+    private final AtomicInteger inProgress = new AtomicInteger();
+
+    // saturated at or above
+    private final int highWatermark;
+
+    // drained at or below
+    private final int lowWatermark;
+
+    private static Method lookupFactoryMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check if the Java runtime supports virtual threads.
+     *
+     * @return true if supported.
+     */
+    static boolean isSupported() {
+        return factoryMethod != null;
+    }
+
+    /**
+     * Create an executor.
+     *
+     * @param highWatermark
+     *            tasks in progress at which the executor is saturated.
+     * @throws UnsupportedOperationException
+     *             if the runtime does not support virtual threads.
+     */
+    VirtualThreadPool(int highWatermark) {
+
+        if (factoryMethod == null) {
+            throw new UnsupportedOperationException(
+                    "virtual threads are not supported by the Java runtime");
+        }
+
+        try {
+            this.executor = (ExecutorService) factoryMethod.invoke(null);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException(
+                    "unable to create virtual thread executor", e);
+        }
+
+        this.highWatermark = highWatermark;
+        this.lowWatermark = highWatermark / 2;
+
+        logger.info("virtual thread executor started, high watermark="
+                + highWatermark);
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+
+        inProgress.incrementAndGet();
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        logger.log(Level.WARNING, t.getMessage(), t);
+                    } finally {
+                        finished();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            finished();
+            throw e;
+        }
+    }
+
+    private void finished() {
+        if (inProgress.decrementAndGet() <= lowWatermark
+                && drainTasks.isEmpty() == false) {
+            runDrainTasks();
+        }
+    }
+
+    @Override
+    public boolean isSaturated() {
+        return inProgress.get() >= highWatermark;
+    }
+
+    @Override
+    public void whenDrained(Runnable task) {
+
+        this.drainTasks.offer(task);
+
+        // a task finishing below the watermark before the offer above did
+        // not see the drain task
+        if (inProgress.get() <= lowWatermark) {
+            this.runDrainTasks();
+        }
+    }
+
+    private void runDrainTasks() {
+
+        Runnable task = null;
+
+        while ((task = drainTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown(long timeout) {
+
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            ;
+        }
+
+        // release the channels waiting for the executor
+        this.runDrainTasks();
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.internal;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded work stealing thread pool of the simulator.
+ * <p>
+ * The pool runs a fixed number of worker threads. Each worker has its own task
+ * queue. Tasks submitted by a worker are queued to the worker itself, other
+ * tasks are spread over the workers round robin. A worker takes tasks from
+ * its own queue first and steals from the other queues when its own queue is
+ * empty, so one long running task does not hold up the tasks queued behind
+ * it. Idle workers park until a task is submitted.
+ * <p>
+ * The number of queued tasks is tracked for backpressure. The pool is
+ * saturated when the queued tasks reach the high watermark. Tasks registered
+ * with {@link #whenDrained(Runnable)} are run when the queued tasks fall to
+ * the low watermark, half the high watermark.
+ *
+ * @see ThreadPoolService
+ */
+final class WorkerPool implements RequestExecutor {
+
+    private final static Logger logger = Logger.getLogger(WorkerPool.class
+            .getName());
+
+    // max park time of an idle worker, recovers a missed wake up
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS
+            .toNanos(50);
+
+    // workers
+    private final Worker[] workers;
+
+    // worker of the calling thread, set when a worker starts
+    private final ThreadLocal<Worker> currentWorker = new ThreadLocal<Worker>();
+
+    // parked workers
+    private final ConcurrentLinkedQueue<Worker> idleWorkers = new ConcurrentLinkedQueue<Worker>();
+
+    // tasks to run when the queued tasks fall to the low watermark
+    private final ConcurrentLinkedQueue<Runnable> drainTasks = new ConcurrentLinkedQueue<Runnable>();
+
+    // queued tasks of all workers
+    private final AtomicInteger queued = new AtomicInteger();
+
+    // round robin index of submissions from non worker threads
+    private final AtomicInteger next = new AtomicInteger();
+
+    // saturated at or above
+    private final int highWatermark;
+
+    // drained at or below
+    private final int lowWatermark;
+
+    // shutdown flag
+    private volatile boolean isShutdown = false;
+
+    /**
+     * Create and start a pool.
+     *
+     * @param nThreads
+     *            number of worker threads.
+     * @param highWatermark
+     *            queued tasks at which the pool is saturated.
+     * @param factory
+     *            factory of the worker threads.
+     */
+    WorkerPool(int nThreads, int highWatermark, ThreadFactory factory) {
+
+        if (nThreads <= 0 || highWatermark <= 0) {
+            throw new IllegalArgumentException("nThreads=" + nThreads
+                    + ", highWatermark=" + highWatermark);
+        }
+
+        this.highWatermark = highWatermark;
+        this.lowWatermark = highWatermark / 2;
+
+        this.workers = new Worker[nThreads];
+
+        for (int i = 0; i < nThreads; i++) {
+            workers[i] = new Worker(i);
+        }
+
+        for (Worker worker : workers) {
+            worker.thread = factory.newThread(worker);
+            worker.thread.start();
+        }
+
+        logger.info("worker pool started, threads=" + nThreads
+                + ", high watermark=" + highWatermark);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+
+        if (this.isShutdown) {
+            throw new RejectedExecutionException("worker pool is shut down");
+        }
+
+        // a task submitted by a worker is queued to the worker itself
+        Worker target = this.currentWorker.get();
+
+        if (target == null) {
+            int index = (next.getAndIncrement() & Integer.MAX_VALUE)
+                    % workers.length;
+            target = workers[index];
+        }
+
+        queued.incrementAndGet();
+
+        target.queue.offer(task);
+
+        // wake up a parked worker, it steals the task if not the target
+        Worker idle = this.idleWorkers.poll();
+        if (idle != null) {
+            LockSupport.unpark(idle.thread);
+        }
+    }
+
+    /**
+     * Check if the queued tasks reached the high watermark.
+     *
+     * @return true if saturated.
+     */
+    @Override
+    public boolean isSaturated() {
+        return queued.get() >= highWatermark;
+    }
+
+    /**
+     * Run the task when the queued tasks fall to the low watermark. The task
+     * is run by the calling thread if the pool is already drained.
+     *
+     * @param task
+     *            task to run, must not block.
+     */
+    @Override
+    public void whenDrained(Runnable task) {
+
+        this.drainTasks.offer(task);
+
+        // a worker dequeuing below the watermark before the offer above
+        // did not see the task
+        if (queued.get() <= lowWatermark) {
+            this.runDrainTasks();
+        }
+    }
+
+    private void runDrainTasks() {
+
+        Runnable task = null;
+
+        while ((task = drainTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Get the number of queued tasks.
+     *
+     * @return number of tasks waiting for a worker.
+     */
+    int getQueuedTasks() {
+        return queued.get();
+    }
+
+    /**
+     * Stop the workers. Queued tasks are discarded.
+     *
+     * @param timeout
+     *            max time to wait for the running tasks in milli seconds.
+     */
+    @Override
+    public void shutdown(long timeout) {
+
+        this.isShutdown = true;
+
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+
+        long deadline = System.currentTimeMillis() + timeout;
+
+        try {
+            for (Worker worker : workers) {
+
+                long wait = deadline - System.currentTimeMillis();
+
+                if (wait <= 0) {
+                    break;
+                }
+
+                worker.thread.join(wait);
+            }
+        } catch (InterruptedException e) {
+            ;
+        }
+
+        // release the channels waiting for the pool
+        this.runDrainTasks();
+    }
+
+    /**
+     * Worker thread and its task queue.
+     */
+    private final class Worker implements Runnable {
+
+        private final int index;
+
+        private final LinkedBlockingDeque<Runnable> queue = new LinkedBlockingDeque<Runnable>();
+
+        private Thread thread = null;
+
+        Worker(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+
+            currentWorker.set(this);
+
+            while (isShutdown == false) {
+
+                Runnable task = this.take();
+
+                if (task == null) {
+
+                    // register before the re-check, a task queued after the
+                    // re-check finds this worker in the idle queue
+                    idleWorkers.offer(this);
+
+                    task = this.take();
+
+                    if (task == null) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+
+                    idleWorkers.remove(this);
+
+                    if (task == null) {
+                        continue;
+                    }
+                }
+
+                this.runTask(task);
+            }
+        }
+
+        /**
+         * Take a task from the own queue, or steal one from the others.
+         */
+        private Runnable take() {
+
+            Runnable task = this.queue.pollFirst();
+
+            for (int i = 1; task == null && i < workers.length; i++) {
+                task = workers[(index + i) % workers.length].queue.pollFirst();
+            }
+
+            if (task != null
+                    && queued.decrementAndGet() <= lowWatermark
+                    && drainTasks.isEmpty() == false) {
+                runDrainTasks();
+            }
+
+            return task;
+        }
+
+        private void runTask(Runnable task) {
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.log(Level.WARNING, t.getMessage(), t);
+            } finally {
+                // do not leak an interrupt to the next task
+                Thread.interrupted();
+            }
+        }
+    }
+}
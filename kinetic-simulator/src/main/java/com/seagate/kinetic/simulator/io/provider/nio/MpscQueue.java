@@ -0,0 +1,132 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.io.provider.nio;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unbounded lock-free multi producer single consumer queue.
+ * <p>
+ * A producer appends a node with one atomic swap of the tail and then links
+ * the previous tail to it. The consumer follows the links from a stub head
+ * node and never uses atomic updates on the queue itself.
+ * <p>
+ * Between the swap and the link of a producer, the consumer sees the queue
+ * end at the previous node. An element is visible to the consumer once
+ * {@link #offer(Object)} has returned.
+ *
+ * @param <E>
+ *            element type.
+ */
+final class MpscQueue<E> {
+
+    /**
+     * Queue node, the atomic reference is the link to the next node.
+     */
+    private static final class Node<E> extends AtomicReference<Node<E>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private E value;
+
+        Node(E value) {
+            this.value = value;
+        }
+    }
+
+    // last node, swapped by producers
+    private final AtomicReference<Node<E>> tail;
+
+    // stub node before the first element, consumer only
+    private Node<E> head;
+
+    // number of elements
+    private final AtomicInteger size = new AtomicInteger();
+
+    MpscQueue() {
+        this.head = new Node<E>(null);
+        this.tail = new AtomicReference<Node<E>>(head);
+    }
+
+    /**
+     * Append an element. May be called by any thread.
+     *
+     * @param e
+     *            element to append, not null.
+     */
+    void offer(E e) {
+
+        if (e == null) {
+            throw new NullPointerException();
+        }
+
+        Node<E> node = new Node<E>(e);
+
+        size.incrementAndGet();
+
+        Node<E> prev = tail.getAndSet(node);
+
+        // volatile link, ordered before the producer's following reads
+        prev.set(node);
+    }
+
+    /**
+     * Remove the first element. Must only be called by the consumer.
+     *
+     * @return the first element, or null if the queue is empty.
+     */
+    E poll() {
+
+        Node<E> next = head.get();
+
+        if (next == null) {
+            return null;
+        }
+
+        E e = next.value;
+
+        // the node becomes the new stub
+        next.value = null;
+        head = next;
+
+        size.decrementAndGet();
+
+        return e;
+    }
+
+    /**
+     * Check if the queue is empty. Must only be called by the consumer.
+     *
+     * @return true if no element is visible to the consumer.
+     */
+    boolean isEmpty() {
+        return head.get() == null;
+    }
+
+    /**
+     * Get the number of elements. May be called by any thread.
+     *
+     * @return number of elements offered and not yet polled.
+     */
+    int size() {
+        return size.get();
+    }
+}
@@ -225,7 +225,7 @@ public class NioBatchOpPreProcessor {
 
     }
 
-    private static synchronized void processBatchQueue(
+    private static void processBatchQueue(
             NioMessageServiceHandler ioHandler,
             ChannelHandlerContext ctx,
             KineticMessage km) throws InterruptedException,
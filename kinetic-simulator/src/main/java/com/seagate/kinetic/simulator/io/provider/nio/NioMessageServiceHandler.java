@@ -22,6 +22,7 @@ package com.seagate.kinetic.simulator.io.provider.nio;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,13 +52,25 @@ public class NioMessageServiceHandler extends
 
 	private boolean enforceOrdering = false;
 
-	private NioQueuedRequestProcessRunner queuedRequestProcessRunner = null;
+	private NioOrderedRequestProcessor queuedRequestProcessRunner = null;
+
+	// coalescing response writer of this connection
+	private final NioResponseWriter responseWriter = new NioResponseWriter();
 
 	private static boolean faultInjectCloseConnection = Boolean
 			.getBoolean(FaultInjectedCloseConnectionException.FAULT_INJECT_CLOSE_CONNECTION);
 
     private boolean isSecureChannel = false;
 
+    // reads suspended until the worker pool is drained
+    private final AtomicBoolean waitForPool = new AtomicBoolean(false);
+
+    // reads suspended until the connection queue is drained
+    private final AtomicBoolean waitForQueue = new AtomicBoolean(false);
+
+    // number of reasons reads are suspended, guarded by this
+    private int readSuspended = 0;
+
     public NioMessageServiceHandler(MessageService lcservice2,
             boolean isSecureChannel) {
 		this.lcservice = lcservice2;
@@ -68,8 +81,13 @@ public class NioMessageServiceHandler extends
 				.getMessageOrderingEnforced();
 
 		if (this.enforceOrdering) {
-			this.queuedRequestProcessRunner = new NioQueuedRequestProcessRunner(
-					lcservice);
+			if (lcservice.getServiceConfiguration().getRequestPipelining()) {
+				this.queuedRequestProcessRunner = new NioPipelinedRequestProcessRunner(
+						lcservice, this.responseWriter);
+			} else {
+				this.queuedRequestProcessRunner = new NioQueuedRequestProcessRunner(
+						lcservice, this.responseWriter);
+			}
 		}
 	}
 	
@@ -113,6 +131,67 @@ public class NioMessageServiceHandler extends
             // process regular request
             processRequest(ctx, request);
         }
+
+        // stop reading while the workers are behind
+        checkBackpressure(ctx);
+    }
+
+    /**
+     * Suspend reading from the channel if the worker pool or the queue of
+     * this connection is saturated. Reading is resumed when both are drained.
+     * 
+     * @param ctx
+     *            channel handler context.
+     */
+    private void checkBackpressure(final ChannelHandlerContext ctx) {
+
+        if (this.lcservice.isSaturated()
+                && this.waitForPool.compareAndSet(false, true)) {
+
+            this.suspendRead(ctx);
+
+            this.lcservice.whenDrained(new Runnable() {
+                @Override
+                public void run() {
+                    waitForPool.set(false);
+                    resumeRead(ctx);
+                }
+            });
+        }
+
+        if (this.queuedRequestProcessRunner != null
+                && this.queuedRequestProcessRunner.isSaturated()
+                && this.waitForQueue.compareAndSet(false, true)) {
+
+            this.suspendRead(ctx);
+
+            this.queuedRequestProcessRunner.whenDrained(new Runnable() {
+                @Override
+                public void run() {
+                    waitForQueue.set(false);
+                    resumeRead(ctx);
+                }
+            });
+        }
+    }
+
+    private synchronized void suspendRead(ChannelHandlerContext ctx) {
+
+        if (this.readSuspended++ == 0) {
+            ctx.channel().config().setAutoRead(false);
+
+            logger.fine("reads suspended, channel=" + ctx.channel());
+        }
+    }
+
+    private synchronized void resumeRead(ChannelHandlerContext ctx) {
+
+        if (--this.readSuspended == 0) {
+            // schedules a read
+            ctx.channel().config().setAutoRead(true);
+
+            logger.fine("reads resumed, channel=" + ctx.channel());
+        }
     }
 
     public void processRequest(ChannelHandlerContext ctx,
@@ -144,8 +223,15 @@ public class NioMessageServiceHandler extends
 
         // each request is independently processed
         RequestProcessRunner rpr = null;
-        rpr = new RequestProcessRunner(lcservice, ctx, request);
-        this.lcservice.execute(rpr);
+        rpr = new RequestProcessRunner(lcservice, ctx, request,
+                this.responseWriter);
+
+        if (request.getCommand().getHeader().getMessageType() == MessageType.MEDIASCAN) {
+            // a scan runs for minutes, it does not hold a request worker
+            this.lcservice.executeBackground(rpr);
+        } else {
+            this.lcservice.execute(rpr);
+        }
 
         logger.info("***** request processed asynchronously ....");
     }
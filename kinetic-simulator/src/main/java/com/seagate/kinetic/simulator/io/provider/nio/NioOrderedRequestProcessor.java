@@ -0,0 +1,70 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.io.provider.nio;
+
+import io.netty.channel.ChannelHandlerContext;
+
+import com.seagate.kinetic.common.lib.KineticMessage;
+
+/**
+ * Per connection request processor of the simulator nio service that keeps
+ * the responses in the order of the requests.
+ *
+ * @see NioQueuedRequestProcessRunner
+ * @see NioPipelinedRequestProcessRunner
+ */
+public interface NioOrderedRequestProcessor {
+
+    /**
+     * process request message from IoHandler.
+     *
+     * @param ctx
+     *            channel handler context of the connection.
+     * @param message
+     *            request message.
+     *
+     * @throws InterruptedException
+     *             if interrupted.
+     */
+    public void processRequest(ChannelHandlerContext ctx,
+            KineticMessage message) throws InterruptedException;
+
+    /**
+     * Check if the messages queued for this connection reached the high
+     * watermark.
+     *
+     * @return true if saturated.
+     */
+    public boolean isSaturated();
+
+    /**
+     * Run the task when the queued messages fall to half the high watermark.
+     * Only one task is registered at a time.
+     *
+     * @param task
+     *            task to run, must not block.
+     */
+    public void whenDrained(Runnable task);
+
+    /**
+     * Stop processing the queued messages.
+     */
+    public void close();
+}
@@ -0,0 +1,363 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.io.provider.nio;
+
+import io.netty.channel.ChannelHandlerContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.protobuf.ByteString;
+import com.seagate.kinetic.common.lib.KineticMessage;
+import com.seagate.kinetic.proto.Kinetic.Command.MessageType;
+import com.seagate.kinetic.proto.Kinetic.Message;
+import com.seagate.kinetic.simulator.io.provider.spi.MessageService;
+
+/**
+ * Pipelined request message process runner for simulator nio service.
+ * <p>
+ * Requests of the same connection are executed in parallel unless they
+ * depend on each other:
+ * <ul>
+ * <li>GET, GETVERSION, PUT and DELETE requests of different keys run in
+ * parallel. Requests of the same key run in the order received.</li>
+ * <li>All other requests, and all batch requests, are barriers. A barrier
+ * runs after all requests received before it have finished, requests
+ * received after it wait for the barrier to finish.</li>
+ * </ul>
+ * Responses are written in the order the requests were received.
+ *
+ * @see NioQueuedRequestProcessRunner
+ */
+public class NioPipelinedRequestProcessRunner implements
+        NioOrderedRequestProcessor {
+
+    private static final Logger logger = Logger
+            .getLogger(NioPipelinedRequestProcessRunner.class.getName());
+
+    private final MessageService service;
+
+    // coalescing response writer of the connection
+    private final NioResponseWriter writer;
+
+    // requests waiting for their response to be written, in received order
+    private final LinkedList<Request> responseQueue = new LinkedList<Request>();
+
+    // requests received after a barrier that is not yet started or finished
+    private final LinkedList<Request> blocked = new LinkedList<Request>();
+
+    // last admitted request of each key with a request not yet finished
+    private final Map<ByteString, Request> keyTails = new HashMap<ByteString, Request>();
+
+    // admitted requests not yet finished
+    private int admitted = 0;
+
+    // set while a barrier is running
+    private boolean barrierRunning = false;
+
+    // close flag
+    private volatile boolean isClosed = false;
+
+    // queued messages at which the connection is saturated
+    private final int highWatermark;
+
+    // task to run when the queue is drained
+    private final AtomicReference<Runnable> drainTask = new AtomicReference<Runnable>();
+
+    public NioPipelinedRequestProcessRunner(MessageService service,
+            NioResponseWriter writer) {
+        this.service = service;
+        this.writer = writer;
+
+        this.highWatermark = service.getServiceConfiguration()
+                .getRequestQueueHighWatermark();
+
+        logger.info("nio pipelined process runner instantiated.  response ordering is enforced.");
+    }
+
+    @Override
+    public void processRequest(ChannelHandlerContext ctx,
+            KineticMessage message) throws InterruptedException {
+
+        Request request = new Request(ctx, message);
+
+        boolean start = false;
+
+        synchronized (this) {
+
+            if (this.isClosed) {
+                return;
+            }
+
+            this.responseQueue.add(request);
+
+            if (this.barrierRunning || this.blocked.isEmpty() == false) {
+                // wait behind the barrier
+                this.blocked.add(request);
+            } else if (request.key == null) {
+                if (this.admitted == 0) {
+                    start = this.admit(request);
+                } else {
+                    this.blocked.add(request);
+                }
+            } else {
+                start = this.admit(request);
+            }
+        }
+
+        if (start) {
+            this.service.execute(request);
+        }
+    }
+
+    /**
+     * Admit a request. Guarded by this.
+     *
+     * @return true if the request can start now, false if it waits for an
+     *         earlier request of the same key.
+     */
+    private boolean admit(Request request) {
+
+        this.admitted++;
+
+        if (request.key == null) {
+            this.barrierRunning = true;
+            return true;
+        }
+
+        Request tail = this.keyTails.put(request.key, request);
+
+        if (tail != null) {
+            tail.next = request;
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Called when a request is processed. Writes the responses that are next
+     * in order and starts the requests that waited for this one.
+     */
+    private void finished(Request request) {
+
+        List<Request> ready = new ArrayList<Request>();
+
+        synchronized (this) {
+
+            request.isDone = true;
+
+            this.admitted--;
+
+            if (request.key == null) {
+                this.barrierRunning = false;
+            } else if (request.next != null) {
+                ready.add(request.next);
+            } else {
+                this.keyTails.remove(request.key);
+            }
+
+            // admit the requests received after the barrier
+            if (this.barrierRunning == false && this.admitted == 0) {
+
+                while (this.blocked.isEmpty() == false) {
+
+                    Request next = this.blocked.getFirst();
+
+                    if (next.key == null && this.admitted > 0) {
+                        break;
+                    }
+
+                    this.blocked.removeFirst();
+
+                    if (this.admit(next)) {
+                        ready.add(next);
+                    }
+
+                    if (next.key == null) {
+                        break;
+                    }
+                }
+            }
+
+            // write responses in received order
+            boolean written = false;
+
+            while (this.responseQueue.isEmpty() == false
+                    && this.responseQueue.getFirst().isDone) {
+
+                Request done = this.responseQueue.removeFirst();
+
+                if (done.response != null
+                        && NioQueuedRequestProcessRunner
+                                .shouldSendResponse(done.response)) {
+
+                    if (logger.isLoggable(Level.FINEST)) {
+                        logger.finest("writing response: "
+                                + ((Message.Builder) done.response
+                                        .getMessage()).build());
+                    }
+
+                    this.writer.write(done.ctx, done.response);
+                    written = true;
+                }
+            }
+
+            if (written) {
+                this.writer.flush();
+            }
+        }
+
+        this.checkDrained();
+
+        if (this.isClosed) {
+            return;
+        }
+
+        for (Request next : ready) {
+            this.service.execute(next);
+        }
+    }
+
+    @Override
+    public boolean isSaturated() {
+        synchronized (this) {
+            return this.responseQueue.size() >= this.highWatermark;
+        }
+    }
+
+    @Override
+    public void whenDrained(Runnable task) {
+
+        this.drainTask.set(task);
+
+        // the requests may have finished before the task was set
+        this.checkDrained();
+    }
+
+    private void checkDrained() {
+
+        if (this.drainTask.get() == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (this.responseQueue.size() > this.highWatermark / 2) {
+                return;
+            }
+        }
+
+        Runnable task = this.drainTask.getAndSet(null);
+
+        if (task != null) {
+            task.run();
+        }
+    }
+
+    @Override
+    public void close() {
+
+        if (this.isClosed) {
+            return;
+        }
+
+        this.isClosed = true;
+
+        logger.fine("nio pipelined request process runner closed.");
+    }
+
+    /**
+     * Get the key a request depends on.
+     *
+     * @return the key, or null if the request is a barrier.
+     */
+    private static ByteString keyOf(KineticMessage message) {
+
+        if (message.getIsBatchMessage()
+                || message.getCommand().getHeader().hasBatchID()) {
+            return null;
+        }
+
+        MessageType mtype = message.getCommand().getHeader().getMessageType();
+
+        switch (mtype) {
+        case GET:
+        case GETVERSION:
+        case PUT:
+        case DELETE:
+            return message.getCommand().getBody().getKeyValue().getKey();
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * A request of the connection.
+     */
+    private final class Request implements Runnable {
+
+        private final ChannelHandlerContext ctx;
+
+        private final KineticMessage message;
+
+        // key the request depends on, null for a barrier
+        private final ByteString key;
+
+        // next admitted request of the same key, guarded by the runner
+        private Request next = null;
+
+        // set when processed, guarded by the runner
+        private boolean isDone = false;
+
+        // response message
+        private KineticMessage response = null;
+
+        Request(ChannelHandlerContext ctx, KineticMessage message) {
+            this.ctx = ctx;
+            this.message = message;
+            this.key = keyOf(message);
+        }
+
+        @Override
+        public void run() {
+
+            try {
+                if (isClosed == false) {
+
+                    if (logger.isLoggable(Level.FINEST)) {
+                        logger.finest("received request: " + message);
+                    }
+
+                    this.response = service.processRequest(message);
+                }
+            } catch (Exception e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+            } finally {
+                finished(this);
+            }
+        }
+    }
+}
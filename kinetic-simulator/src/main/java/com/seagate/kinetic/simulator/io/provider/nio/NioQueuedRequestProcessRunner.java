@@ -21,8 +21,8 @@ package com.seagate.kinetic.simulator.io.provider.nio;
 
 import io.netty.channel.ChannelHandlerContext;
 
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,44 +38,63 @@ import com.seagate.kinetic.simulator.io.provider.spi.MessageService;
  * <p>
  * Command messages are processed in sequential order within the same
  * connection.
+ * <p>
+ * Each connection has a mailbox, a lock-free multi producer single consumer
+ * queue. The runner is scheduled to the thread pool service when a message is
+ * queued to an idle mailbox, processes the queued messages in bursts and
+ * gives the thread back as soon as the mailbox is empty. At most one thread
+ * processes the mailbox at any time.
  *
  * @author chiaming
  *
  */
-public class NioQueuedRequestProcessRunner implements Runnable {
+public class NioQueuedRequestProcessRunner implements Runnable,
+		NioOrderedRequestProcessor {
 
 	private static final Logger logger = Logger
 			.getLogger(NioQueuedRequestProcessRunner.class.getName());
 
+	// max messages processed before the worker thread is yielded to others
+	private static final int MAX_MESSAGES_PER_RUN = 64;
+
+	// no message is queued or being processed
+	private static final int IDLE = 0;
+
+	// the runner is submitted or running
+	private static final int SCHEDULED = 1;
+
 	private MessageService service = null;
 
-	// my message queue for the current connection
-	private final LinkedBlockingQueue<NioRequestMessageContext> lbqueue = new LinkedBlockingQueue<NioRequestMessageContext>();
+	// coalescing response writer of the connection
+	private final NioResponseWriter writer;
+
+	// my message mailbox for the current connection
+	private final MpscQueue<NioRequestMessageContext> mailbox = new MpscQueue<NioRequestMessageContext>();
 
-	// flag running flag
-	private volatile boolean isRunning = false;
+	// runner state, IDLE or SCHEDULED
+	private final AtomicInteger state = new AtomicInteger(IDLE);
 
 	// close flag
 	private volatile boolean isClosed = false;
 
-	// reference to current running flag
-	private Thread currentThread = null;
+	// queued messages at which the connection is saturated
+	private final int highWatermark;
+
+	// task to run when the queue is drained
+	private final AtomicReference<Runnable> drainTask = new AtomicReference<Runnable>();
 
-	public NioQueuedRequestProcessRunner(MessageService engine) {
+	public NioQueuedRequestProcessRunner(MessageService engine,
+			NioResponseWriter writer) {
 		this.service = engine;
+		this.writer = writer;
+
+		this.highWatermark = engine.getServiceConfiguration()
+				.getRequestQueueHighWatermark();
 
 		logger.info("nio queued process runner instantiated.  message ordering is enforced.");
 	}
 
-	/**
-	 * process request message from IoHandler.
-	 *
-	 * @param message
-	 *            request message.
-	 *
-	 * @throws InterruptedException
-	 *             if interrupted.
-	 */
+	@Override
 	public void processRequest(ChannelHandlerContext ctx, KineticMessage message)
 			throws InterruptedException {
 
@@ -83,88 +102,106 @@ public class NioQueuedRequestProcessRunner implements Runnable {
 		NioRequestMessageContext requestContext = new NioRequestMessageContext(
 				ctx, message);
 
-		// put to queue
-		this.lbqueue.put(requestContext);
+		// put to mailbox
+		this.mailbox.offer(requestContext);
 
-		// check if there is a thread running. if not, submit to thread pool
-		// for execution.
-		checkRunning();
+		// schedule the runner if idle
+		schedule();
 	}
 
 	/**
-	 * Check if there is a thread running and processing the queue. If not,
-	 * submit myself to the executor service.
+	 * Submit myself to the executor service if the mailbox is idle.
 	 */
-	private void checkRunning() {
-
-		if (this.isRunning == false) {
-
-			synchronized (this) {
+	private void schedule() {
 
-				if (this.isRunning == false) {
-
-					if (this.isClosed) {
-						return;
-					}
-
-					// set flag to true
-					this.isRunning = true;
-
-					// execute by the thread pool
-					this.service.execute(this);
-				}
-			}
+		if (this.isClosed) {
+			return;
+		}
 
+		if (this.state.compareAndSet(IDLE, SCHEDULED)) {
+			// execute by the thread pool
+			this.service.execute(this);
 		}
 	}
 
+	/**
+	 * Process a burst of queued messages and return the thread to the pool.
+	 */
 	@Override
 	public void run() {
 
 		try {
 
-			while (isRunning()) {
-
-				// save the current thread reference
-				this.currentThread = Thread.currentThread();
+			for (int count = 0; count < MAX_MESSAGES_PER_RUN
+					&& this.isClosed == false; count++) {
 
-				// poll message from queue
-				NioRequestMessageContext context = this.lbqueue.poll(6,
-						TimeUnit.SECONDS);
+				// poll message from mailbox
+				NioRequestMessageContext context = this.mailbox.poll();
 
-				if (context != null) {
-					// process message
-					doProcessMessage(context);
-				} else {
-					// break out of loop
-					this.isRunning = false;
+				if (context == null) {
+					break;
 				}
 
+				// process message
+				doProcessMessage(context);
+
+				this.checkDrained();
+
+				// do not hold back large or old responses until the end
+				if (this.writer.shouldFlush()) {
+					this.writer.flush();
+				}
 			}
-		} catch (InterruptedException ie) {
-			// interrupted when closed
-			;
 		} catch (Exception e) {
 			logger.log(Level.WARNING, e.getMessage(), e);
 		} finally {
-			// set running to false
-			isRunning = false;
 
-			// thread returning to pool
-			this.currentThread = null;
+			// one flush for the responses of this run
+			this.writer.flush();
+
+			if (this.isClosed == false && this.mailbox.isEmpty() == false) {
+				// queue behind the other runnable tasks
+				this.service.execute(this);
+			} else {
+				this.state.set(IDLE);
+
+				// a producer that saw the runner scheduled did not submit it
+				if (this.mailbox.isEmpty() == false) {
+					schedule();
+				}
+			}
 		}
 
 	}
 
-	/**
-	 * check if there is a thread running.
-	 *
-	 * @return true if the thread is polling the message.
-	 */
-	private boolean isRunning() {
-		return (isRunning && (!isClosed));
+	@Override
+	public boolean isSaturated() {
+		return this.mailbox.size() >= this.highWatermark;
+	}
+
+	@Override
+	public void whenDrained(Runnable task) {
+
+		this.drainTask.set(task);
+
+		// the runner may have drained the queue before the task was set
+		this.checkDrained();
+	}
+
+	private void checkDrained() {
+
+		if (this.drainTask.get() != null
+				&& this.mailbox.size() <= this.highWatermark / 2) {
+
+			Runnable task = this.drainTask.getAndSet(null);
+
+			if (task != null) {
+				task.run();
+			}
+		}
 	}
 
+	@Override
 	public void close() {
 		// set closed flag
 
@@ -174,11 +211,6 @@ public class NioQueuedRequestProcessRunner implements Runnable {
 
 		this.isClosed = true;
 
-		// wake up lbqueue
-		if (this.currentThread != null) {
-			this.currentThread.interrupt();
-		}
-
 		logger.fine("nio queued request process runner closed.");
 	}
 
@@ -198,7 +230,8 @@ public class NioQueuedRequestProcessRunner implements Runnable {
                         + ((Message.Builder) response.getMessage()).build());
             }
 
-            context.getChannelHandlerContext().writeAndFlush(response);
+            // flushed when the run ends
+            this.writer.write(context.getChannelHandlerContext(), response);
         } else {
             logger.info("*** in no ack mode, response message is not sent ...");
 		}
@@ -213,7 +246,7 @@ public class NioQueuedRequestProcessRunner implements Runnable {
      * 
      * @return false if batch PUT/DELETE. Otherwise return true.
      */
-    private boolean shouldSendResponse(KineticMessage response) {
+    static boolean shouldSendResponse(KineticMessage response) {
 
         boolean flag = true;
 
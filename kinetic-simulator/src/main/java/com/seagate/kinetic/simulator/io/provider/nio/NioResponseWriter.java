@@ -0,0 +1,225 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.io.provider.nio;
+
+import io.netty.channel.ChannelHandlerContext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.seagate.kinetic.common.lib.KineticMessage;
+
+/**
+ * Coalescing response writer of a connection.
+ * <p>
+ * Responses are queued by the request processing threads and written to the
+ * channel by its event loop. The event loop writes all responses queued so
+ * far and flushes once, so responses produced close together share one
+ * flush instead of one system call each.
+ * <p>
+ * A processor that produces a run of responses calls {@link #write} for each
+ * and {@link #flush()} when the run ends, or earlier when
+ * {@link #shouldFlush()} reports that the queued bytes or the age of the
+ * oldest queued response exceed the thresholds. The first response queued
+ * after a flush also arms a timer on the event loop, so a response is not
+ * held back longer than the latency threshold while a slow request of the
+ * same run is processed.
+ *
+ * @see NioQueuedRequestProcessRunner
+ */
+public class NioResponseWriter {
+
+    // queued value bytes that trigger a flush
+    private static final long FLUSH_BYTES = 64 * 1024;
+
+    // age of the oldest queued response that triggers a flush
+    private static final long FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // estimated bytes of a response besides its value
+    private static final int MESSAGE_OVERHEAD = 64;
+
+    // responses waiting for the event loop
+    private final MpscQueue<KineticMessage> queue = new MpscQueue<KineticMessage>();
+
+    // set while a drain is scheduled to the event loop
+    private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+
+    // estimated bytes queued since the last flush
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    // time the first response after the last flush was queued, 0 if none
+    private volatile long firstQueued = 0;
+
+    // context of the connection, set at the first write
+    private volatile ChannelHandlerContext ctx = null;
+
+    // set while a timed flush is scheduled to the event loop
+    private final AtomicBoolean isTimerArmed = new AtomicBoolean(false);
+
+    // event loop task writing the queued responses
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drainQueue();
+        }
+    };
+
+    // event loop task flushing responses held longer than the threshold
+    private final Runnable timedFlush = new Runnable() {
+        @Override
+        public void run() {
+            flushIfOld();
+        }
+    };
+
+    /**
+     * Queue a response. The response is written at the next flush.
+     *
+     * @param ctx
+     *            channel handler context of the connection.
+     * @param response
+     *            response message.
+     */
+    public void write(ChannelHandlerContext ctx, KineticMessage response) {
+
+        this.ctx = ctx;
+
+        boolean isFirst = (this.firstQueued == 0);
+
+        if (isFirst) {
+            this.firstQueued = System.nanoTime();
+        }
+
+        this.queuedBytes.addAndGet(response.getValueSize() + MESSAGE_OVERHEAD);
+
+        this.queue.offer(response);
+
+        if (isFirst) {
+            this.armTimer(FLUSH_NANOS);
+        }
+    }
+
+    /**
+     * Schedule a timed flush to the event loop unless one is scheduled.
+     */
+    private void armTimer(long delay) {
+
+        if (this.isTimerArmed.compareAndSet(false, true)) {
+            this.ctx.executor().schedule(timedFlush, delay,
+                    TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Flush if the oldest queued response reached the latency threshold,
+     * otherwise wait for it. Runs in the event loop.
+     */
+    private void flushIfOld() {
+
+        this.isTimerArmed.set(false);
+
+        long first = this.firstQueued;
+
+        if (first == 0) {
+            // flushed by the processor
+            return;
+        }
+
+        long age = System.nanoTime() - first;
+
+        if (age >= FLUSH_NANOS) {
+            this.flush();
+        } else {
+            this.armTimer(FLUSH_NANOS - age);
+        }
+    }
+
+    /**
+     * Queue a response and flush.
+     *
+     * @param ctx
+     *            channel handler context of the connection.
+     * @param response
+     *            response message.
+     */
+    public void writeAndFlush(ChannelHandlerContext ctx,
+            KineticMessage response) {
+        this.write(ctx, response);
+        this.flush();
+    }
+
+    /**
+     * Check if the queued responses should be flushed before the current run
+     * of responses ends.
+     *
+     * @return true if the byte or latency threshold is exceeded.
+     */
+    public boolean shouldFlush() {
+
+        long first = this.firstQueued;
+
+        return first != 0
+                && (this.queuedBytes.get() >= FLUSH_BYTES || System
+                        .nanoTime() - first >= FLUSH_NANOS);
+    }
+
+    /**
+     * Schedule the queued responses to be written and flushed by the event
+     * loop of the connection.
+     */
+    public void flush() {
+
+        ChannelHandlerContext current = this.ctx;
+
+        if (current == null) {
+            return;
+        }
+
+        this.firstQueued = 0;
+        this.queuedBytes.set(0);
+
+        if (this.isScheduled.compareAndSet(false, true)) {
+            current.channel().eventLoop().execute(drain);
+        }
+    }
+
+    /**
+     * Write the queued responses and flush. Runs in the event loop.
+     */
+    private void drainQueue() {
+
+        // responses queued after this are drained by the next schedule
+        this.isScheduled.set(false);
+
+        boolean written = false;
+
+        KineticMessage response = null;
+
+        while ((response = this.queue.poll()) != null) {
+            this.ctx.write(response);
+            written = true;
+        }
+
+        if (written) {
+            this.ctx.flush();
+        }
+    }
+}
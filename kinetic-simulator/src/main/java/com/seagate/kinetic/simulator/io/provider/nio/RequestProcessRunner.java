@@ -36,6 +36,7 @@ public class RequestProcessRunner implements Runnable {
 	private MessageService service = null;
 	private ChannelHandlerContext ctx = null;
 	private KineticMessage request = null;
+	private NioResponseWriter writer = null;
 
 	public RequestProcessRunner(MessageService service,
 			ChannelHandlerContext ctx, KineticMessage request) {
@@ -44,6 +45,13 @@ public class RequestProcessRunner implements Runnable {
 		this.request = request;
 	}
 
+	public RequestProcessRunner(MessageService service,
+			ChannelHandlerContext ctx, KineticMessage request,
+			NioResponseWriter writer) {
+		this(service, ctx, request);
+		this.writer = writer;
+	}
+
 	@Override
 	public void run() {
 
@@ -58,7 +66,12 @@ public class RequestProcessRunner implements Runnable {
 					+ ((Message.Builder) response.getMessage()).build());
 		}
 
-		ctx.writeAndFlush(response);
+		if (writer != null) {
+			// flushed together with responses of concurrent requests
+			writer.writeAndFlush(ctx, response);
+		} else {
+			ctx.writeAndFlush(response);
+		}
 	}
 
 }
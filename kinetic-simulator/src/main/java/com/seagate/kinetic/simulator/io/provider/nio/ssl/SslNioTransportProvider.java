@@ -20,7 +20,9 @@
 package com.seagate.kinetic.simulator.io.provider.nio.ssl;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 
@@ -89,6 +91,7 @@ public class SslNioTransportProvider implements TransportProvider, Runnable {
 
 		bootstrap.group(bossGroup, workerGroup)
 		.channel(NioServerSocketChannel.class)
+		.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
 		.childHandler(sslChannelInitializer);
 
 		logger.info("KineticClient ssl service binding on port =" + port);
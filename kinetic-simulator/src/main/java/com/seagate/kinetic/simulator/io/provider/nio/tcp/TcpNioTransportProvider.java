@@ -20,7 +20,9 @@
 package com.seagate.kinetic.simulator.io.provider.nio.tcp;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 
@@ -83,6 +85,7 @@ public class TcpNioTransportProvider implements TransportProvider, Runnable {
 
 		bootstrap.group(bossGroup, workerGroup)
 		.channel(NioServerSocketChannel.class)
+		.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
 		.childHandler(msChannelInitializer);
 
 		logger.info("Kinetic nio service binding on port =" + port);
@@ -22,7 +22,6 @@ package com.seagate.kinetic.simulator.io.provider.nio.udt;
 import io.netty.channel.ChannelHandlerContext;
 
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,9 +53,6 @@ public class UdtQueuedRequestProcessRunner implements Runnable {
 	// close flag
 	private volatile boolean isClosed = false;
 
-	// reference to current running flag
-	private Thread currentThread = null;
-
 	public UdtQueuedRequestProcessRunner(MessageService service) {
 		this.service = service;
 
@@ -114,40 +110,57 @@ public class UdtQueuedRequestProcessRunner implements Runnable {
 		}
 	}
 
+	/**
+	 * Process the queued messages and return the thread to the pool when the
+	 * queue is empty. A worker thread is never held by an idle connection.
+	 */
 	@Override
 	public void run() {
 
+		// set when the running flag is cleared in the loop, another run may
+		// own the flag after that
+		boolean released = false;
+
 		try {
 
 			while (isRunning()) {
 
-				// save the current thread reference
-				this.currentThread = Thread.currentThread();
-
 				// poll message from queue
-				UdtRequestMessageContext context = this.lbqueue.poll(6,
-						TimeUnit.SECONDS);
+				UdtRequestMessageContext context = this.lbqueue.poll();
 
 				if (context != null) {
 					// process message
 					doProcessMessage(context);
 				} else {
-					// break out of loop
-					this.isRunning = false;
+					synchronized (this) {
+						// a message queued after this sees the flag cleared
+						// and submits the runner again
+						if (this.lbqueue.isEmpty()) {
+							this.isRunning = false;
+							released = true;
+						}
+					}
+
+					if (released) {
+						break;
+					}
 				}
 
 			}
-		} catch (InterruptedException ie) {
-			// interrupted when closed
-			;
 		} catch (Exception e) {
 			logger.log(Level.WARNING, e.getMessage(), e);
 		} finally {
-			// set running to false
-			isRunning = false;
 
-			// thread returning to pool
-			this.currentThread = null;
+			if (released == false) {
+				synchronized (this) {
+					// set running to false
+					isRunning = false;
+				}
+
+				if (this.lbqueue.isEmpty() == false) {
+					checkRunning();
+				}
+			}
 		}
 
 	}
@@ -170,11 +183,6 @@ public class UdtQueuedRequestProcessRunner implements Runnable {
 
 		this.isClosed = true;
 
-		// wake up lbqueue
-		if (this.currentThread != null) {
-			this.currentThread.interrupt();
-		}
-
 		logger.fine("nio queued request process runner closed.");
 	}
 
@@ -54,6 +54,36 @@ public interface MessageService {
 	 */
 	public void execute(Runnable request);
 
+	/**
+	 * The request runnable object is executed by the background thread pool.
+	 * Long running requests, such as a media scan, are executed there so that
+	 * they do not hold the threads of the thread pool service.
+	 *
+	 * @param request
+	 *            runnable object to be executed.
+	 */
+	public void executeBackground(Runnable request);
+
+	/**
+	 * Check if the requests queued for the thread pool service reached the
+	 * high watermark. A transport should stop reading requests while the
+	 * service is saturated.
+	 *
+	 * @return true if the thread pool service is saturated.
+	 *
+	 * @see #whenDrained(Runnable)
+	 */
+	public boolean isSaturated();
+
+	/**
+	 * The task is run when the requests queued for the thread pool service
+	 * fall to the low watermark, or immediately if already drained.
+	 *
+	 * @param task
+	 *            task to run, such as resuming reads. It must not block.
+	 */
+	public void whenDrained(Runnable task);
+
 	/**
 	 * request the simulator to process the request message.
 	 *
@@ -3,14 +3,40 @@ package com.seagate.kinetic.simulator.persist;
 import java.io.Closeable;
 
 import com.google.protobuf.ByteString;
+import com.seagate.kinetic.simulator.internal.KVStoreException;
 
+/**
+ * Store batch operation. Puts and deletes are staged in the batch and applied
+ * atomically when the batch is committed.
+ */
 public interface BatchOperation<K, V> extends Closeable {
 
     public void put(ByteString key, KVValue value);
 
     public void delete(ByteString key);
 
-    public void commit();
+    /**
+     * Check the version of the entry again when the batch is committed. The
+     * commit fails if the entry was changed by another writer after the
+     * version was checked by the caller.
+     *
+     * @param key
+     *            key of a versioned put or delete in this batch.
+     * @param version
+     *            the version expected in the store, null or empty if no
+     *            entry is expected.
+     */
+    public void checkVersion(ByteString key, ByteString version);
+
+    /**
+     * Apply the staged puts and deletes atomically.
+     *
+     * @throws KVStoreException
+     *             if the batch cannot be written. KVStoreVersionMismatch if a
+     *             version checked with {@link #checkVersion} has changed, no
+     *             entry is modified in this case.
+     */
+    public void commit() throws KVStoreException;
 
     public boolean isClosed();
 }
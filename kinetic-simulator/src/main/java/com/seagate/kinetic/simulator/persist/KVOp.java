@@ -128,7 +128,12 @@ public class KVOp {
                         Authorizer.checkPermission(aclmap, kmreq.getMessage()
                                 .getHmacAuth().getIdentity(),Permission.READ, key);
 
-                        storeEntry = store.get(key);
+                        // value is not read for metadata only request
+                        if (metadataOnly) {
+                            storeEntry = store.getMetadata(key);
+                        } else {
+                            storeEntry = store.get(key);
+                        }
 
                         // respond metadata
                         respondKeyValue.setKey(storeEntry.getKeyOf());
@@ -143,8 +148,7 @@ public class KVOp {
                         // respond value
                         if (!metadataOnly) {
                             // respond.setValue(storeEntry.getData());
-                            //byte[] bytes = storeEntry.getData().toByteArray();
-                            kmresp.setValue(storeEntry.getData().toByteArray());
+                            kmresp.setValueByteString(storeEntry.getData());
                         }
 
                     } finally {
@@ -163,11 +167,10 @@ public class KVOp {
 
                         checkWrite(aclmap, kmreq, Permission.WRITE);
 
-                        ByteString valueByteString = null;
-                        if (kmreq.getValue() != null) {
-                            valueByteString = ByteString.copyFrom(kmreq
-                                    .getValue());
-                        } else {
+                        // request value is not copied
+                        ByteString valueByteString = kmreq
+                                .getValueByteString();
+                        if (valueByteString == null) {
                             // set value to empty if null
                             valueByteString = ByteString.EMPTY;
                         }
@@ -229,7 +232,7 @@ public class KVOp {
                                 .getHmacAuth().getIdentity(), Permission.READ,
                                 key);
 
-                        storeEntry = store.get(key);
+                        storeEntry = store.getMetadata(key);
                         respondKeyValue.setDbVersion(storeEntry.getVersion());
                     } finally {
                         // respond message type
@@ -262,7 +265,7 @@ public class KVOp {
 
                         if (!metadataOnly) {
                             // respond.setValue(storeEntry.getData());
-                            kmresp.setValue(storeEntry.getData().toByteArray());
+                            kmresp.setValueByteString(storeEntry.getData());
                         }
                     } finally {
                         // respond message type
@@ -295,7 +298,7 @@ public class KVOp {
 
                         if (!metadataOnly) {
                             // respond.setValue(storeEntry.getData());
-                            kmresp.setValue(storeEntry.getData().toByteArray());
+                            kmresp.setValueByteString(storeEntry.getData());
                         }
                     } finally {
                         // respond message type
@@ -351,9 +354,8 @@ public class KVOp {
     private static boolean isSupportedValueSize(KineticMessage km) {
         boolean supported = false;
 
-        byte[] value = km.getValue();
-
-        if (value == null || value.length <= maxValueSize) {
+        // size is 0 if value is not set
+        if (km.getValueSize() <= maxValueSize) {
             // value not set, this may happen if client library did not set
             // value as EMPTY for null value.
             supported = true;
@@ -459,7 +461,7 @@ public class KVOp {
             throw new InvalidRequestException(
                     "value size exceeded max supported size. Supported size: "
                             + maxValueSize + ", received size="
-                            + kmreq.getValue().length + " (in bytes)");
+                            + kmreq.getValueSize() + " (in bytes)");
         }
 
         // check permission
@@ -39,6 +39,23 @@ public class KVValue {
         }
     }
 
+    /**
+     * Construct an entry from a serialized metadata record and the value
+     * that was stored separately.
+     *
+     * @param metadata
+     *            metadata record, as returned by {@link #toMetadataByteArray()}
+     * @param value
+     *            entry value. may be null for metadata only access.
+     */
+    public KVValue(byte[] metadata, ByteString value) {
+        this(metadata);
+
+        if (value != null) {
+            setData(value);
+        }
+    }
+
     // brings in the serialized information from Protocol Buffers
     public KVValue(com.seagate.kinetic.proto.KineticDb.Versioned value) {
         m.mergeFrom(value);
@@ -155,4 +172,15 @@ public class KVValue {
         return m.build().toByteArray();
     }
 
+    /**
+     * Serialize the metadata (key, version, tag and algorithm) of this entry
+     * only. The value is not included in the returned record.
+     *
+     * @return serialized metadata record of this entry.
+     */
+    public byte[] toMetadataByteArray() {
+        return com.seagate.kinetic.proto.KineticDb.Versioned.newBuilder()
+                .setMetadata(m.getMetadataBuilder()).build().toByteArray();
+    }
+
 }
@@ -26,7 +26,6 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
 import java.util.logging.Logger;
 
 import kinetic.simulator.SimulatorConfiguration;
@@ -134,11 +133,12 @@ public class RangeOp {
 
                         kvKeys = filterRawKeysToAuthorizedKeys(l, request.getMessage().getHmacAuth().getIdentity(), aclMap);
                     } else {
-                        SortedMap<KVKey, KVValue> m = (SortedMap<KVKey, KVValue>) store
-                                .getRange(k1, i1, k2, i2, n);
-                        LOG.fine("getKeyRange returned " + m.size() + " entries");
+                        // key only scan, values are not read
+                        List<KVKey> l = (List<KVKey>) store.getKeyRange(k1,
+                                i1, k2, i2, n);
+                        LOG.fine("getKeyRange returned " + l.size() + " entries");
 
-                        kvKeys = filterRawKeysToAuthorizedKeys(m.keySet(),
+                        kvKeys = filterRawKeysToAuthorizedKeys(l,
                                 request.getMessage().getHmacAuth().getIdentity(),
                                 aclMap);
                     }
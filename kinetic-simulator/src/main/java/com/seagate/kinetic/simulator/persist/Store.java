@@ -134,6 +134,23 @@ public interface Store<K, O, V> {
      */
     V get(K key) throws KVStoreException;
 
+    /**
+     * Get the metadata of the entry associated with the specified key.
+     * <p>
+     * The returned <code>V</code> entry contains the key, version, tag and
+     * algorithm of the entry. The entry value may not be set. Stores that
+     * keep metadata and value separately do not read the value.
+     *
+     * @param key
+     *            the key used to obtain the entry.
+     *
+     * @return the <code>V</code> entry metadata in the persistent store.
+     *
+     * @throws KVStoreException
+     *             if any internal error occurred.
+     */
+    V getMetadata(K key) throws KVStoreException;
+
     /**
      * Get the <code>V</code> entry associated with a key that is before the
      * specified key in the sequence.
@@ -195,6 +212,35 @@ public interface Store<K, O, V> {
     SortedMap<?, ?> getRange(K startKey, boolean startKeyInclusive, K endKey,
             boolean endKeyInclusive, int n) throws KVStoreException;
 
+    /**
+     * Get a list of keys in the sequence based on the specified key range.
+     * <p>
+     * This is the key only version of
+     * {@link #getRange(Object, boolean, Object, boolean, int)}. The values
+     * associated with the keys are not de-serialized (and are not read if the
+     * store supports key only access). If <code>endKey</code> is empty, the
+     * range extends to the last key in the store.
+     *
+     * @param startKey
+     *            the start key in the specified key range.
+     * @param startKeyInclusive
+     *            true if the start key is inclusive.
+     * @param endKey
+     *            the end key in the specified key range.
+     * @param endKeyInclusive
+     *            true if the end key is inclusive.
+     * @param n
+     *            the maximum entry to be returned in the list.
+     *
+     * @return a list of keys, in ascending order, based on the specified key
+     *         range. At most <code>n</code> keys are returned.
+     *
+     * @throws KVStoreException
+     *             if any internal error occurred.
+     */
+    List<?> getKeyRange(K startKey, boolean startKeyInclusive, K endKey,
+            boolean endKeyInclusive, int n) throws KVStoreException;
+
     /**
      * Get a list of reversed keys in the sequence based on the specified key
      * range.
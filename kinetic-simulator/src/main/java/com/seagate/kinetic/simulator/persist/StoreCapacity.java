@@ -0,0 +1,44 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.persist;
+
+/**
+ * Optional interface of a store that manages its own storage capacity.
+ * <p>
+ * If the store of the simulator implements this interface, the GETLOG
+ * CAPACITIES response reports the capacity of the store instead of the
+ * capacity of the file system.
+ */
+public interface StoreCapacity {
+
+    /**
+     * Get the nominal capacity of the store in bytes.
+     *
+     * @return the nominal capacity in bytes.
+     */
+    long getNominalCapacity();
+
+    /**
+     * Get the bytes of the capacity in use.
+     *
+     * @return the bytes in use.
+     */
+    long getUsedCapacity();
+}
@@ -101,6 +101,18 @@ public class StoreFactory {
 			if (isMemory) {
 				// use memory store
 				dbFullName = packageName + ".memory.MemoryStore";
+
+				// check if the lock free memory store should be used
+				if (Boolean.parseBoolean(config.getProperty(
+						"kinetic.db.memory.concurrent", "false"))) {
+					dbFullName = packageName + ".memory.ConcurrentMemoryStore";
+				}
+
+				// check if values should be stored off the Java heap
+				if (Boolean.parseBoolean(config.getProperty(
+						"kinetic.db.memory.offheap", "false"))) {
+					dbFullName = packageName + ".memory.OffHeapMemoryStore";
+				}
 			}
 		}
 
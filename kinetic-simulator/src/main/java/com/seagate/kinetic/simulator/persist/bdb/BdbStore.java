@@ -96,6 +96,12 @@ public class BdbStore implements Store<ByteString, ByteString, KVValue> {
         return this.kvStore.get(key);
     }
 
+    @Override
+    public KVValue getMetadata(ByteString key) throws KVStoreException {
+        // metadata and value are stored in the same record
+        return this.kvStore.get(key);
+    }
+
     @Override
     public KVValue getPrevious(ByteString key) throws KVStoreException {
         return this.kvStore.getPrevious(key);
@@ -112,6 +118,12 @@ public class BdbStore implements Store<ByteString, ByteString, KVValue> {
         return this.kvStore.getRange(k1, i1, k2, i2, n);
     }
 
+    @Override
+    public List<?> getKeyRange(ByteString k1, boolean i1, ByteString k2,
+            boolean i2, int n) throws KVStoreException {
+        return this.kvStore.getKeyRange(k1, i1, k2, i2, n);
+    }
+
     @Override
     public List<?> getRangeReversed(ByteString k1, boolean i1, ByteString k2,
             boolean i2, int n) throws KVStoreException {
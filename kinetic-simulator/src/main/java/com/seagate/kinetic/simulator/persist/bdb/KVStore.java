@@ -245,6 +245,29 @@ public final class KVStore {
 		return m;
 	}
 
+	public synchronized List<KVKey> getKeyRange(ByteString k1, boolean i1,
+			ByteString k2, boolean i2, int n) throws KVStoreException {
+		logger.fine("Key 1: " + Hmac.toString(k1) + "Key 2: "
+				+ Hmac.toString(k2));
+
+		SortedMap<KVKey, KVValue> m;
+		if (k2.size() == 0)
+			m = v.tailMap(KvkOf(k1), i1);
+		else
+			m = v.subMap(KvkOf(k1), i1, KvkOf(k2), i2);
+
+		// the key set view reads keys only (partial data entry)
+		List<KVKey> kvKeyOfList = new ArrayList<KVKey>();
+		for (KVKey key : m.keySet()) {
+			if (n-- > 0)
+				kvKeyOfList.add(key);
+			else
+				break;
+		}
+
+		return kvKeyOfList;
+	}
+
 	public synchronized List<KVKey> getRangeReversed(ByteString k1, boolean i1,
 			ByteString k2, boolean i2, int n) throws KVStoreException {
 		logger.fine("Key 1: " + Hmac.toString(k1) + "Key 2: "
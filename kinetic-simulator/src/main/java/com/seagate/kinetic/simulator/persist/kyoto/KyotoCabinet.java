@@ -182,6 +182,12 @@ public class KyotoCabinet implements Store<ByteString, ByteString, KVValue> {
         return new KVValue(data);
     }
 
+    @Override
+    public KVValue getMetadata(ByteString key) throws KVStoreException {
+        // metadata and value are stored in the same record
+        return get(key);
+    }
+
     @Override
     public KVValue getPrevious(ByteString key) throws KVStoreException {
         Cursor cursor = null;
@@ -324,6 +330,62 @@ public class KyotoCabinet implements Store<ByteString, ByteString, KVValue> {
         return map;
     }
 
+    @Override
+    public List<?> getKeyRange(ByteString startKey,
+            boolean startKeyInclusive, ByteString endKey,
+            boolean endKeyInclusive, int max) throws KVStoreException {
+
+        List<KVKey> listOfKVKey = new ArrayList<KVKey>();
+
+        byte[] start = startKey.toByteArray();
+        byte[] end = endKey.toByteArray();
+
+        Cursor cursor = null;
+
+        try {
+
+            cursor = db.cursor();
+
+            boolean exist = cursor.jump(start);
+
+            if (exist && startKeyInclusive == false) {
+                // skip start key if it is in the db
+                byte[] key = cursor.get_key(false);
+                if (key != null && compare(key, start) == 0) {
+                    exist = cursor.step();
+                }
+            }
+
+            // first key there?
+            boolean more = exist;
+
+            while (more && listOfKVKey.size() < max) {
+
+                // read key only and step to the next record
+                byte[] key = cursor.get_key(true);
+
+                // empty end key scans to the last key
+                if (key != null
+                        && (end.length == 0 || shouldInclude(key, end,
+                                endKeyInclusive, false))) {
+                    listOfKVKey.add(new KVKey(key));
+                } else {
+                    // exit loop
+                    more = false;
+                }
+            }
+        } catch (Exception e) {
+
+            logger.log(Level.WARNING, e.getMessage(), e);
+
+            throw new KVStoreException(e.getMessage());
+        } finally {
+            cursor.disable();
+        }
+
+        return listOfKVKey;
+    }
+
     @Override
     public List<?> getRangeReversed(ByteString startKey,
             boolean startKeyInclusive, ByteString endKey,
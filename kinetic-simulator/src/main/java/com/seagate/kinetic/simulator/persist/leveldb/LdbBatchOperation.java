@@ -1,6 +1,10 @@
 package com.seagate.kinetic.simulator.persist.leveldb;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import org.iq80.leveldb.DB;
@@ -8,6 +12,7 @@ import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.WriteOptions;
 
 import com.google.protobuf.ByteString;
+import com.seagate.kinetic.simulator.internal.KVStoreException;
 import com.seagate.kinetic.simulator.persist.BatchOperation;
 import com.seagate.kinetic.simulator.persist.KVValue;
 
@@ -18,15 +23,21 @@ public class LdbBatchOperation implements BatchOperation<ByteString, KVValue> {
 
     private WriteBatch batch = null;
 
-    private DB db = null;
+    private LevelDbStore store = null;
 
     private volatile boolean isClosed = false;
 
+    // keys of the staged puts and deletes
+    private final List<byte[]> keys = new ArrayList<byte[]>();
+
+    // versions checked at commit, key -> expected version
+    private final Map<ByteString, ByteString> versions = new HashMap<ByteString, ByteString>();
+
     // sync write option
     public static final WriteOptions SYNC = new WriteOptions().sync(true);
 
-    public LdbBatchOperation(DB db) {
-        this.db = db;
+    public LdbBatchOperation(LevelDbStore store, DB db) {
+        this.store = store;
         this.batch = db.createWriteBatch();
 
         logger.info("*** batch created ....");
@@ -45,21 +56,39 @@ public class LdbBatchOperation implements BatchOperation<ByteString, KVValue> {
 
     @Override
     public void put(ByteString key, KVValue value) {
-        // put entry in batch
-        this.batch.put(key.toByteArray(), value.toByteArray());
+        byte[] keyArray = key.toByteArray();
+
+        // put entry metadata and value in batch
+        LdbLayout.put(this.batch, keyArray, value);
+
+        this.keys.add(keyArray);
     }
 
     @Override
     public void delete(ByteString key) {
-        // delte key in batch
-        this.batch.delete(key.toByteArray());
+        byte[] keyArray = key.toByteArray();
+
+        // delete entry metadata and value in batch
+        LdbLayout.delete(this.batch, keyArray);
+
+        this.keys.add(keyArray);
+    }
+
+    @Override
+    public void checkVersion(ByteString key, ByteString version) {
+
+        // the version seen before the first change of the key in this batch
+        if (this.versions.containsKey(key) == false) {
+            this.versions.put(key, version);
+        }
     }
 
     @Override
-    public synchronized void commit() {
+    public synchronized void commit() throws KVStoreException {
 
         try {
-            db.write(batch, SYNC);
+            // versions are checked and the batch is written atomically
+            store.commitBatch(batch, keys, versions);
         } finally {
             this.isClosed = true;
         }
@@ -0,0 +1,223 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.persist.leveldb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.WriteOptions;
+
+import com.seagate.kinetic.simulator.internal.KVStoreException;
+import com.seagate.kinetic.simulator.persist.KVValue;
+
+/**
+ * Group commit for synchronous LevelDB writes.
+ * <p>
+ * Writers are queued in arrival order. The writer at the head of the queue
+ * becomes the leader: it merges its own write and the writes queued behind it
+ * into one write batch and writes the batch with a single sync. Writers that
+ * arrive while a sync is in progress form the next group. Each writer returns
+ * only after the sync of its group completed, so the durability of a
+ * synchronous write is not changed.
+ */
+final class LdbGroupCommit {
+
+    private final static Logger logger = Logger.getLogger(LdbGroupCommit.class
+            .getName());
+
+    // max number of writes per group
+    private static final int MAX_GROUP_SIZE = 256;
+
+    // max bytes per group, a group has at least one write
+    private static final long MAX_GROUP_BYTES = 4 * 1048576;
+
+    // sync write option
+    private static final WriteOptions SYNC = new WriteOptions().sync(true);
+
+    // db instance
+    private final DB db;
+
+    // queued writes, head of the queue is the leader
+    private final ArrayDeque<PendingWrite> queue = new ArrayDeque<PendingWrite>();
+
+    LdbGroupCommit(DB db) {
+        this.db = db;
+    }
+
+    /**
+     * Put the entry with a synchronous write.
+     */
+    void put(byte[] key, KVValue value) throws KVStoreException {
+        this.commit(new PendingWrite(key, value));
+    }
+
+    /**
+     * Delete the entry with a synchronous write.
+     */
+    void delete(byte[] key) throws KVStoreException {
+        this.commit(new PendingWrite(key, null));
+    }
+
+    private void commit(PendingWrite write) throws KVStoreException {
+
+        List<PendingWrite> group = null;
+
+        synchronized (queue) {
+
+            queue.addLast(write);
+
+            // wait until written by a leader or become the leader
+            boolean interrupted = false;
+
+            while (write.done == false && queue.peekFirst() != write) {
+                try {
+                    queue.wait();
+                } catch (InterruptedException e) {
+                    // the write may already be in a group, keep waiting
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (write.done) {
+                write.checkError();
+                return;
+            }
+
+            // leader, the queue is not changed until the group is written
+            group = this.nextGroup();
+        }
+
+        RuntimeException error = null;
+
+        try {
+            this.write(group);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            error = e;
+        }
+
+        synchronized (queue) {
+
+            for (PendingWrite pw : group) {
+                queue.removeFirst();
+                pw.error = error;
+                pw.done = true;
+            }
+
+            // wake up the writers of the group and the next leader
+            queue.notifyAll();
+        }
+
+        write.checkError();
+    }
+
+    /**
+     * Get the writes of the next group from the head of the queue.
+     */
+    private List<PendingWrite> nextGroup() {
+
+        List<PendingWrite> group = new ArrayList<PendingWrite>();
+
+        long bytes = 0;
+
+        Iterator<PendingWrite> it = queue.iterator();
+
+        while (it.hasNext() && group.size() < MAX_GROUP_SIZE) {
+
+            PendingWrite pw = it.next();
+
+            if (group.size() > 0 && bytes + pw.size() > MAX_GROUP_BYTES) {
+                break;
+            }
+
+            bytes += pw.size();
+            group.add(pw);
+        }
+
+        return group;
+    }
+
+    private void write(List<PendingWrite> group) {
+
+        WriteBatch batch = db.createWriteBatch();
+
+        try {
+            for (PendingWrite pw : group) {
+                if (pw.value != null) {
+                    LdbLayout.put(batch, pw.key, pw.value);
+                } else {
+                    LdbLayout.delete(batch, pw.key);
+                }
+            }
+
+            db.write(batch, SYNC);
+        } finally {
+            try {
+                batch.close();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * A queued put or delete.
+     */
+    private static final class PendingWrite {
+
+        // entry key
+        private final byte[] key;
+
+        // entry to put, null for delete
+        private final KVValue value;
+
+        // set to true when the group of this write is written
+        private boolean done = false;
+
+        // error of the group write, if any
+        private RuntimeException error = null;
+
+        PendingWrite(byte[] key, KVValue value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        long size() {
+            return (value == null) ? key.length : key.length
+                    + value.getData().size();
+        }
+
+        void checkError() throws KVStoreException {
+            if (error != null) {
+                throw new KVStoreException(error.getMessage());
+            }
+        }
+    }
+}
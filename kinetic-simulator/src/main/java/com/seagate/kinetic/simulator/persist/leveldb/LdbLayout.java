@@ -0,0 +1,279 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.persist.leveldb;
+
+import static org.fusesource.leveldbjni.JniDBFactory.factory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.WriteOptions;
+
+import com.google.protobuf.ZeroCopyByteString;
+import com.seagate.kinetic.simulator.persist.KVValue;
+
+/**
+ * LevelDB storage layout for the Kinetic simulator.
+ * <p>
+ * Entry metadata (key, version, tag and algorithm) and entry values are kept
+ * in separate key spaces of the same db. The first byte of each db key is the
+ * key space prefix:
+ * <ul>
+ * <li>0: system records, such as the layout version.
+ * <li>1: entry metadata record, followed by the entry key.
+ * <li>2: entry value, followed by the entry key.
+ * </ul>
+ * Metadata keys sort in the same order as the entry keys, so key ordered
+ * operations iterate the metadata key space only.
+ * <p>
+ * A db created before the layout was introduced (one record per entry) is
+ * converted to this layout when opened. The converted db is built in a new
+ * folder, the original db folder is kept with the ".v1" suffix.
+ *
+ * @see LevelDbStore
+ */
+public final class LdbLayout {
+
+    private final static Logger logger = Logger.getLogger(LdbLayout.class
+            .getName());
+
+    // system record key space
+    public static final byte SYSTEM_PREFIX = 0;
+
+    // metadata key space
+    public static final byte METADATA_PREFIX = 1;
+
+    // value key space
+    public static final byte VALUE_PREFIX = 2;
+
+    // first key after the metadata key space
+    public static final byte[] METADATA_END = { VALUE_PREFIX };
+
+    // layout version record key
+    private static final byte[] LAYOUT_KEY = { SYSTEM_PREFIX, 'l', 'a', 'y',
+            'o', 'u', 't' };
+
+    // current layout version
+    private static final byte[] LAYOUT_VERSION = { 2 };
+
+    // entries per write batch when converting a db
+    private static final int CONVERT_BATCH_SIZE = 1000;
+
+    // sync write option
+    private static final WriteOptions SYNC = new WriteOptions().sync(true);
+
+    private LdbLayout() {
+        ;
+    }
+
+    /**
+     * Get the db key of the metadata record for the specified entry key.
+     */
+    public static byte[] metadataKey(byte[] key) {
+        return prefixed(METADATA_PREFIX, key);
+    }
+
+    /**
+     * Get the db key of the value for the specified entry key.
+     */
+    public static byte[] valueKey(byte[] key) {
+        return prefixed(VALUE_PREFIX, key);
+    }
+
+    /**
+     * Get the entry key from the specified metadata or value db key.
+     */
+    public static byte[] entryKey(byte[] dbKey) {
+        return Arrays.copyOfRange(dbKey, 1, dbKey.length);
+    }
+
+    /**
+     * Check if the specified db key is in the metadata key space.
+     */
+    public static boolean isMetadataKey(byte[] dbKey) {
+        return dbKey.length > 0 && dbKey[0] == METADATA_PREFIX;
+    }
+
+    /**
+     * Add the put of the specified entry to the batch.
+     */
+    public static void put(WriteBatch batch, byte[] key, KVValue value) {
+        batch.put(metadataKey(key), value.toMetadataByteArray());
+        batch.put(valueKey(key), ZeroCopyByteString.array(value.getData()));
+    }
+
+    /**
+     * Add the delete of the specified entry to the batch.
+     */
+    public static void delete(WriteBatch batch, byte[] key) {
+        batch.delete(metadataKey(key));
+        batch.delete(valueKey(key));
+    }
+
+    private static byte[] prefixed(byte prefix, byte[] key) {
+        byte[] dbKey = new byte[key.length + 1];
+        dbKey[0] = prefix;
+        System.arraycopy(key, 0, dbKey, 1, key.length);
+        return dbKey;
+    }
+
+    /**
+     * Open the db at the specified folder in the current layout. A db in the
+     * previous layout is converted before it is returned.
+     *
+     * @param dbFile
+     *            db folder
+     * @param options
+     *            db options
+     * @return the opened db.
+     * @throws IOException
+     *             if any internal error occurred.
+     */
+    public static DB open(File dbFile, Options options) throws IOException {
+
+        File converting = new File(dbFile.getPath() + ".converting");
+
+        // finish or discard an interrupted conversion
+        if (converting.exists()) {
+            if (dbFile.exists()) {
+                // original db still in place, conversion was not complete
+                factory.destroy(converting, options);
+                LevelDbStore.deleteDirectory(converting);
+            } else {
+                // converted db was complete, only the rename was missed
+                rename(converting, dbFile);
+            }
+        }
+
+        DB db = factory.open(dbFile, options);
+
+        if (Arrays.equals(LAYOUT_VERSION, db.get(LAYOUT_KEY))) {
+            return db;
+        }
+
+        if (isEmpty(db)) {
+            // new db
+            db.put(LAYOUT_KEY, LAYOUT_VERSION, SYNC);
+            return db;
+        }
+
+        logger.info("converting leveldb to metadata/value layout, db="
+                + dbFile);
+
+        DB to = factory.open(converting, options);
+
+        long count = 0;
+
+        try {
+            count = convert(db, to);
+        } finally {
+            to.close();
+            db.close();
+        }
+
+        // keep the original db
+        File backup = new File(dbFile.getPath() + ".v1");
+        if (backup.exists()) {
+            backup = new File(dbFile.getPath() + ".v1."
+                    + System.currentTimeMillis());
+        }
+
+        rename(dbFile, backup);
+        rename(converting, dbFile);
+
+        logger.info("leveldb converted, entries=" + count + ", backup="
+                + backup);
+
+        return factory.open(dbFile, options);
+    }
+
+    /**
+     * Copy all entries of a db in the previous layout to the specified db.
+     * The layout version record is written with the last batch.
+     *
+     * @return number of entries converted.
+     */
+    private static long convert(DB from, DB to) throws IOException {
+
+        long count = 0;
+
+        DBIterator cursor = from.iterator();
+
+        WriteBatch batch = to.createWriteBatch();
+
+        try {
+            cursor.seekToFirst();
+
+            int batched = 0;
+
+            while (cursor.hasNext()) {
+
+                Entry<byte[], byte[]> e = cursor.next();
+
+                put(batch, e.getKey(), new KVValue(e.getValue()));
+
+                count++;
+
+                if (++batched == CONVERT_BATCH_SIZE) {
+                    to.write(batch, SYNC);
+                    batch.close();
+
+                    batch = to.createWriteBatch();
+                    batched = 0;
+                }
+            }
+
+            // layout version record completes the conversion
+            batch.put(LAYOUT_KEY, LAYOUT_VERSION);
+
+            to.write(batch, SYNC);
+        } finally {
+            batch.close();
+            cursor.close();
+        }
+
+        return count;
+    }
+
+    private static boolean isEmpty(DB db) throws IOException {
+
+        DBIterator cursor = db.iterator();
+
+        try {
+            cursor.seekToFirst();
+            return (cursor.hasNext() == false);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (from.renameTo(to) == false) {
+            throw new IOException("unable to rename " + from + " to " + to);
+        }
+    }
+}
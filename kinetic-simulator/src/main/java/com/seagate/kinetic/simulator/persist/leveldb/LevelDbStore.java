@@ -21,6 +21,7 @@ package com.seagate.kinetic.simulator.persist.leveldb;
 
 import static org.fusesource.leveldbjni.JniDBFactory.factory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -31,18 +32,25 @@ import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import kinetic.simulator.SimulatorConfiguration;
 
 import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBException;
 import org.iq80.leveldb.DBIterator;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.Snapshot;
 import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.WriteOptions;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.ZeroCopyByteString;
 import com.seagate.kinetic.simulator.internal.KVStoreException;
 import com.seagate.kinetic.simulator.internal.KVStoreNotFound;
 import com.seagate.kinetic.simulator.internal.KVStoreVersionMismatch;
@@ -55,6 +63,17 @@ import com.seagate.kinetic.simulator.persist.Store;
 
 /**
  * LevelDb store for Kinetic simulator.
+ * <p>
+ * Reads are not serialized by this class, LevelDB supports concurrent
+ * readers. Iterator based operations read from a LevelDB snapshot so that a
+ * scan sees a consistent view while writes continue. Put/delete, forced or
+ * versioned, are serialized per key with striped locks.
+ * <p>
+ * Synchronous put/delete from concurrent requests are merged into one write
+ * batch with a single sync, see {@link LdbGroupCommit}.
+ * <p>
+ * Entry metadata and values are stored in separate key spaces, see
+ * {@link LdbLayout}.
  *
  * @author chiaming
  *
@@ -67,6 +86,9 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
     // level db instance
     private DB db = null;
 
+    // group commit for synchronous writes
+    private LdbGroupCommit groupCommit = null;
+
     // level db file
     private String dbFile = null;
 
@@ -81,9 +103,20 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
     private static final WriteOptions asyncWriteOption = new WriteOptions()
             .sync(false);
 
+    // number of key lock stripes, must be power of 2
+    private static final int LOCK_STRIPES = 256;
+
+    // lock stripes for put/delete
+    private final Object[] keyLocks = new Object[LOCK_STRIPES];
+
+    // db operations hold the read lock, close/reset hold the write lock
+    private final ReentrantReadWriteLock dbLock = new ReentrantReadWriteLock();
+
     // default no-arg constructor
     public LevelDbStore() {
-        ;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            keyLocks[i] = new Object();
+        }
     }
 
     @Override
@@ -147,8 +180,10 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
 
         try {
 
-            // open db file
-            db = factory.open(new File(dbFile), options);
+            // open db file, converted to the current layout if needed
+            db = LdbLayout.open(new File(dbFile), options);
+
+            groupCommit = new LdbGroupCommit(db);
 
             // init write option
             // this.syncWriteOption.sync(true);
@@ -164,141 +199,295 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
     }
 
     @Override
-    public synchronized void put(ByteString key, ByteString oldVersion,
+    public void put(ByteString key, ByteString oldVersion,
             KVValue value, PersistOption pOption) throws KVStoreException {
 
-        ByteString version = null;
-
         byte[] keyArray = key.toByteArray();
 
-        byte[] data = null;
+        Lock readLock = dbLock.readLock();
+        readLock.lock();
 
-        data = db.get(keyArray);
+        try {
+            // version check and put are atomic for the key
+            synchronized (lockOf(keyArray)) {
 
-        KVValue obj = null;
+                ByteString version = null;
 
-        if (data != null) {
-            obj = new KVValue(data);
+                // only the metadata record is read for version check
+                byte[] metadata = db.get(LdbLayout.metadataKey(keyArray));
 
-            version = obj.getVersion();
-        }
+                if (metadata != null) {
+                    version = new KVValue(metadata).getVersion();
+                }
 
-        SimulatorEngine.logBytes("put, key", KvkOf(key).getKey());
+                SimulatorEngine.logBytes("put, key", KvkOf(key).getKey());
 
-        checkVersion(version, oldVersion);
-        value.setKeyOf(key);
+                checkVersion(version, oldVersion);
+                value.setKeyOf(key);
 
-        // write options
-        WriteOptions writeOptions = getWriteOption(pOption);
-        // put with write options
-        db.put(keyArray, value.toByteArray(), writeOptions);
+                // put with persist option
+                doPut(keyArray, value, pOption);
+            }
+        } finally {
+            readLock.unlock();
+        }
     }
 
     @Override
-    public synchronized void putForced(ByteString key, KVValue value,
+    public void putForced(ByteString key, KVValue value,
             PersistOption pOption) throws KVStoreException {
 
         byte[] keyArray = key.toByteArray();
 
         value.setKeyOf(key);
 
-        // write options
-        WriteOptions writeOptions = getWriteOption(pOption);
-        // logger.info ("****** put writing option: " + wOptions.sync());
-        db.put(keyArray, value.toByteArray(), writeOptions);
+        Lock readLock = dbLock.readLock();
+        readLock.lock();
+
+        try {
+            // ordered with versioned writes and batch commits of the key
+            synchronized (lockOf(keyArray)) {
+                doPut(keyArray, value, pOption);
+            }
+        } finally {
+            readLock.unlock();
+        }
     }
 
     @Override
-    public synchronized void delete(ByteString key, ByteString oldVersion,
+    public void delete(ByteString key, ByteString oldVersion,
             PersistOption option) throws KVStoreException {
 
-        ByteString prevVersion = getVersion(key);
+        byte[] keyArray = key.toByteArray();
 
-        checkVersion(prevVersion, oldVersion);
+        Lock readLock = dbLock.readLock();
+        readLock.lock();
 
-        // write options
-        WriteOptions writeOptions = getWriteOption(option);
-        // delete with write options
-        db.delete(key.toByteArray(), writeOptions);
+        try {
+            // version check and delete are atomic for the key
+            synchronized (lockOf(keyArray)) {
+
+                ByteString prevVersion = getVersion(key);
+
+                checkVersion(prevVersion, oldVersion);
+
+                // delete with persist option
+                doDelete(keyArray, option);
+            }
+        } finally {
+            readLock.unlock();
+        }
     }
 
     @Override
-    public synchronized void deleteForced(ByteString key, PersistOption option)
+    public void deleteForced(ByteString key, PersistOption option)
             throws KVStoreException {
         // forced delete
 
-        // write options
-        WriteOptions writeOptions = getWriteOption(option);
-        // delete with write option
-        db.delete(key.toByteArray(), writeOptions);
+        byte[] keyArray = key.toByteArray();
+
+        Lock readLock = dbLock.readLock();
+        readLock.lock();
+
+        try {
+            // ordered with versioned writes and batch commits of the key
+            synchronized (lockOf(keyArray)) {
+                // delete with persist option
+                doDelete(keyArray, option);
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * write metadata record and value of the entry in one batch. Synchronous
+     * writes are group committed.
+     */
+    private void doPut(byte[] keyArray, KVValue value, PersistOption pOption)
+            throws KVStoreException {
+
+        WriteOptions writeOptions = getWriteOption(pOption);
+
+        if (writeOptions == SYNC_WRITE_OPTION) {
+            groupCommit.put(keyArray, value);
+            return;
+        }
+
+        WriteBatch batch = db.createWriteBatch();
+
+        try {
+            LdbLayout.put(batch, keyArray, value);
+
+            db.write(batch, writeOptions);
+        } finally {
+            close(batch);
+        }
+    }
+
+    /**
+     * delete metadata record and value of the entry in one batch. Synchronous
+     * writes are group committed.
+     */
+    private void doDelete(byte[] keyArray, PersistOption pOption)
+            throws KVStoreException {
+
+        WriteOptions writeOptions = getWriteOption(pOption);
+
+        if (writeOptions == SYNC_WRITE_OPTION) {
+            groupCommit.delete(keyArray);
+            return;
+        }
+
+        WriteBatch batch = db.createWriteBatch();
+
+        try {
+            LdbLayout.delete(batch, keyArray);
+
+            db.write(batch, writeOptions);
+        } finally {
+            close(batch);
+        }
     }
 
     @Override
-    public synchronized KVValue get(ByteString key) throws KVStoreException {
+    public KVValue get(ByteString key) throws KVStoreException {
 
         byte[] keyArray = key.toByteArray();
-        byte[] data = db.get(keyArray);
 
-        if (data == null) {
+        KVValue value = null;
+
+        Snapshot snapshot = null;
+
+        Lock readLock = dbLock.readLock();
+        readLock.lock();
+
+        try {
+            // metadata and value are read from the same snapshot
+            snapshot = db.getSnapshot();
+
+            value = read(new ReadOptions().snapshot(snapshot),
+                    LdbLayout.metadataKey(keyArray));
+        } finally {
+            close(snapshot);
+            readLock.unlock();
+        }
+
+        if (value == null) {
             throw new KVStoreNotFound();
         }
 
-        return new KVValue(data);
+        return value;
     }
 
     @Override
-    public synchronized KVValue getPrevious(ByteString key)
+    public KVValue getMetadata(ByteString key) throws KVStoreException {
+
+        byte[] metadata = null;
+
+        Lock readLock = dbLock.readLock();
+        readLock.lock();
+
+        try {
+            metadata = db.get(LdbLayout.metadataKey(key.toByteArray()));
+        } finally {
+            readLock.unlock();
+        }
+
+        if (metadata == null) {
+            throw new KVStoreNotFound();
+        }
+
+        return new KVValue(metadata);
+    }
+
+    /**
+     * Read the entry of the specified metadata key.
+     *
+     * @return the entry, or null if not found.
+     */
+    private KVValue read(ReadOptions readOptions, byte[] metadataKey) {
+
+        byte[] metadata = db.get(metadataKey, readOptions);
+
+        if (metadata == null) {
+            return null;
+        }
+
+        return toKVValue(readOptions, metadataKey, metadata);
+    }
+
+    /**
+     * Construct the entry from the metadata record and the value read with
+     * the specified read options.
+     */
+    private KVValue toKVValue(ReadOptions readOptions, byte[] metadataKey,
+            byte[] metadata) {
+
+        byte[] data = db.get(
+                LdbLayout.valueKey(LdbLayout.entryKey(metadataKey)),
+                readOptions);
+
+        return new KVValue(metadata, (data == null) ? ByteString.EMPTY
+                : ZeroCopyByteString.wrap(data));
+    }
+
+    @Override
+    public KVValue getPrevious(ByteString key)
             throws KVStoreException {
-        // get iterator
-        DBIterator dbit = db.iterator();
 
         // get byte[]
-        byte[] kbytes = key.toByteArray();
+        byte[] kbytes = LdbLayout.metadataKey(key.toByteArray());
 
         KVValue value = null;
 
+        Snapshot snapshot = null;
+
+        DBIterator dbit = null;
+
+        Lock readLock = dbLock.readLock();
+        readLock.lock();
+
         try {
+            // consistent view for the iterator
+            snapshot = db.getSnapshot();
+
+            ReadOptions readOptions = new ReadOptions().snapshot(snapshot);
+
+            // get iterator
+            dbit = db.iterator(readOptions);
+
             // move to closest key
             dbit.seek(kbytes);
 
-            // if there is a key smaller
-            if (dbit.hasPrev()) {
-                // get entry
-                Map.Entry<byte[], byte[]> entry = dbit.prev();
-
-                // return value
-                value = new KVValue(entry.getValue());
+            Map.Entry<byte[], byte[]> entry = null;
 
+            if (dbit.hasNext()) {
+                // entry before the closest key
+                if (dbit.hasPrev()) {
+                    entry = dbit.prev();
+                }
             } else {
-                // go to the last key
+                // all keys are smaller, go to the last key
                 dbit.seekToLast();
 
-                // check if there is an entry
                 if (dbit.hasNext()) {
-                    // get entry
-                    Map.Entry<byte[], byte[]> entry = dbit.next();
-
-                    // logger.info("key=" + new String(entry.getKey()));
-                    // compare last
-                    int cv = compare(entry.getKey(), kbytes);
-
-                    if (cv < 0) {
-                        // return value
-                        value = new KVValue(entry.getValue());
-                    } else {
-                        throw new KVStoreNotFound();
-                    }
+                    entry = dbit.peekNext();
                 }
             }
+
+            // must be an entry metadata record
+            if (entry != null && LdbLayout.isMetadataKey(entry.getKey())) {
+                value = toKVValue(readOptions, entry.getKey(),
+                        entry.getValue());
+            }
         } catch (Exception e) {
             //
             throw new KVStoreNotFound();
         } finally {
-            try {
-                dbit.close();
-            } catch (Exception e) {
-                logger.log(Level.WARNING, e.getMessage(), e);
-            }
+            close(dbit);
+            close(snapshot);
+            readLock.unlock();
         }
 
         if (value == null) {
@@ -309,15 +498,28 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
     }
 
     @Override
-    public synchronized KVValue getNext(ByteString key) throws KVStoreException {
-        DBIterator dbit = db.iterator();
+    public KVValue getNext(ByteString key) throws KVStoreException {
 
         KVValue value = null;
 
-        byte[] kbytes = key.toByteArray();
+        byte[] kbytes = LdbLayout.metadataKey(key.toByteArray());
+
+        Snapshot snapshot = null;
+
+        DBIterator dbit = null;
+
+        Lock readLock = dbLock.readLock();
+        readLock.lock();
 
         try {
 
+            // consistent view for the iterator
+            snapshot = db.getSnapshot();
+
+            ReadOptions readOptions = new ReadOptions().snapshot(snapshot);
+
+            dbit = db.iterator(readOptions);
+
             dbit.seek(kbytes);
 
             if (dbit.hasNext()) {
@@ -329,7 +531,13 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
                     entry = dbit.next();
                 }
 
-                value = new KVValue(entry.getValue());
+                // end of metadata key space
+                if (LdbLayout.isMetadataKey(entry.getKey()) == false) {
+                    throw new KVStoreNotFound();
+                }
+
+                value = toKVValue(readOptions, entry.getKey(),
+                        entry.getValue());
 
             } else {
                 throw new KVStoreNotFound();
@@ -337,18 +545,16 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
         } catch (NoSuchElementException ne) {
             throw new KVStoreNotFound();
         } finally {
-            try {
-                dbit.close();
-            } catch (Exception e) {
-                logger.log(Level.WARNING, e.getMessage(), e);
-            }
+            close(dbit);
+            close(snapshot);
+            readLock.unlock();
         }
 
         return value;
     }
 
     @Override
-    public synchronized SortedMap<?, ?> getRange(ByteString startKey,
+    public SortedMap<?, ?> getRange(ByteString startKey,
             boolean startKeyInclusive, ByteString endKey,
             boolean endKeyInclusive, int max) throws KVStoreException {
 
@@ -357,53 +563,41 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
         byte[] start = startKey.toByteArray();
         byte[] end = endKey.toByteArray();
 
+        // empty end key scans to the last key, as getKeyRange does
+        boolean toEnd = (end.length == 0);
+
         // Short-circuit when the start key comes after the end key.
-        if (compare(start, end) > 0) {
+        if (toEnd == false && compare(start, end) > 0) {
             return map;
         }
 
-        if ((compare(start, end) == 0)
+        if (toEnd == false && (compare(start, end) == 0)
                 && ((startKeyInclusive && endKeyInclusive) == false)) {
             return map;
         }
 
         DBIterator cursor = null;
 
-        try {
+        Snapshot snapshot = null;
 
-            cursor = db.iterator();
+        Lock readLock = dbLock.readLock();
+        readLock.lock();
 
-            cursor.seek(start);
+        try {
 
-            if (cursor.hasNext()) {
-                Entry<byte[], byte[]> e = cursor.next();
-
-                int cv = compare(e.getKey(), start);
-
-                if (cv == 0) {
-                    if (startKeyInclusive) {
-                        map.put(new KVKey(e.getKey()),
-                                new KVValue(e.getValue()));
-                    }
-                } else {
-                    // check if should include
-                    if (shouldInclude(e.getKey(), end, endKeyInclusive, false)) {
-                        map.put(new KVKey(e.getKey()),
-                                new KVValue(e.getValue()));
-                    }
-                }
-            }
+            // scan a consistent view while writes continue
+            snapshot = db.getSnapshot();
 
-            while (cursor.hasNext() && map.size() < max) {
+            ReadOptions readOptions = new ReadOptions().snapshot(snapshot);
 
-                Entry<byte[], byte[]> pair = cursor.next();
+            cursor = db.iterator(readOptions);
 
-                // check should we put the pair in the map
-                if (shouldInclude(pair.getKey(), end, endKeyInclusive, false)) {
-                    map.put(new KVKey(pair.getKey()),
-                            new KVValue(pair.getValue()));
-                }
+            List<byte[]> keys = scan(cursor, start, startKeyInclusive, end,
+                    endKeyInclusive, toEnd, max);
 
+            for (byte[] key : keys) {
+                map.put(new KVKey(key),
+                        read(readOptions, LdbLayout.metadataKey(key)));
             }
         } catch (Exception e) {
             logger.log(Level.WARNING, e.getMessage(), e);
@@ -411,11 +605,9 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
             // could get NoSuchElementException from getNext
             throw new KVStoreException(e.getMessage());
         } finally {
-            try {
-                cursor.close();
-            } catch (Exception ex2) {
-                logger.log(Level.WARNING, ex2.getMessage(), ex2);
-            }
+            close(cursor);
+            close(snapshot);
+            readLock.unlock();
         }
 
         return map;
@@ -423,7 +615,104 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
     }
 
     @Override
-    public synchronized List<?> getRangeReversed(ByteString startKey,
+    public List<?> getKeyRange(ByteString startKey,
+            boolean startKeyInclusive, ByteString endKey,
+            boolean endKeyInclusive, int max) throws KVStoreException {
+
+        List<KVKey> listOfKVKey = new ArrayList<KVKey>();
+
+        byte[] start = startKey.toByteArray();
+        byte[] end = endKey.toByteArray();
+
+        // empty end key scans to the last key
+        boolean toEnd = (end.length == 0);
+
+        // Short-circuit when the start key comes after the end key.
+        if (toEnd == false && compare(start, end) > 0) {
+            return listOfKVKey;
+        }
+
+        if (toEnd == false && (compare(start, end) == 0)
+                && ((startKeyInclusive && endKeyInclusive) == false)) {
+            return listOfKVKey;
+        }
+
+        DBIterator cursor = null;
+
+        Snapshot snapshot = null;
+
+        Lock readLock = dbLock.readLock();
+        readLock.lock();
+
+        try {
+
+            // scan a consistent view while writes continue
+            snapshot = db.getSnapshot();
+
+            cursor = db.iterator(new ReadOptions().snapshot(snapshot));
+
+            // only metadata records are visited
+            List<byte[]> keys = scan(cursor, start, startKeyInclusive, end,
+                    endKeyInclusive, toEnd, max);
+
+            for (byte[] key : keys) {
+                listOfKVKey.add(new KVKey(key));
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+
+            throw new KVStoreException(e.getMessage());
+        } finally {
+            close(cursor);
+            close(snapshot);
+            readLock.unlock();
+        }
+
+        return listOfKVKey;
+    }
+
+    /**
+     * Scan the metadata key space in ascending order.
+     *
+     * @return entry keys in the specified range, at most max keys.
+     */
+    private static List<byte[]> scan(DBIterator cursor, byte[] start,
+            boolean startKeyInclusive, byte[] end, boolean endKeyInclusive,
+            boolean toEnd, int max) {
+
+        List<byte[]> keys = new ArrayList<byte[]>();
+
+        byte[] mstart = LdbLayout.metadataKey(start);
+        byte[] mend = LdbLayout.metadataKey(end);
+
+        cursor.seek(mstart);
+
+        while (cursor.hasNext() && keys.size() < max) {
+
+            byte[] key = cursor.next().getKey();
+
+            // end of metadata key space
+            if (LdbLayout.isMetadataKey(key) == false) {
+                break;
+            }
+
+            if (startKeyInclusive == false && compare(key, mstart) == 0) {
+                continue;
+            }
+
+            if (toEnd || shouldInclude(key, mend, endKeyInclusive, false)) {
+                keys.add(LdbLayout.entryKey(key));
+            } else {
+                // passed end key
+                break;
+            }
+        }
+
+        return keys;
+    }
+
+    @Override
+    public List<?> getRangeReversed(ByteString startKey,
             boolean startKeyInclusive, ByteString endKey,
             boolean endKeyInclusive, int max) throws KVStoreException {
 
@@ -442,66 +731,55 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
             return listOfKVKey;
         }
 
+        byte[] mstart = LdbLayout.metadataKey(start);
+        byte[] mend = LdbLayout.metadataKey(end);
+
         DBIterator cursor = null;
 
+        Snapshot snapshot = null;
+
+        Lock readLock = dbLock.readLock();
+        readLock.lock();
+
         try {
 
-            cursor = db.iterator();
+            // scan a consistent view while writes continue
+            snapshot = db.getSnapshot();
 
-            cursor.seek(end);
+            cursor = db.iterator(new ReadOptions().snapshot(snapshot));
 
-            boolean endKeyExist = cursor.hasNext();
+            cursor.seek(mend);
 
-            Entry<byte[], byte[]> e = null;
+            Entry<byte[], byte[]> entry = null;
 
-            // if end key does not exist, seek to last and add the last key if
-            // should include
-            if (!endKeyExist) {
-                cursor.seekToLast();
+            if (cursor.hasNext()) {
+                entry = cursor.peekNext();
 
-                if (cursor.hasNext()) {
-                    e = cursor.next();
-                    if (shouldInclude(e.getKey(), start, startKeyInclusive,
-                            true)) {
-                        listOfKVKey.add(new KVKey(e.getKey()));
-                    }
+                // start from the entry before end key if not included
+                if (compare(entry.getKey(), mend) != 0 || !endKeyInclusive) {
+                    entry = cursor.hasPrev() ? cursor.prev() : null;
                 }
-            } else // if end key exists, add end key if should include
-            {
-                if (endKeyInclusive) {
-                    e = cursor.next();
-
-                    int cv = compare(e.getKey(), end);
-
-                    if (cv == 0) {
-                        listOfKVKey.add(new KVKey(e.getKey()));
-                    }
-                    if (0 > cv) {
-                        // check if should include
-                        if (shouldInclude(e.getKey(), start, startKeyInclusive,
-                                true)) {
-                            listOfKVKey.add(new KVKey(e.getKey()));
-                        }
-                    }
-                }
-            }
-
-            // if endKey exists, seek to endKey, or seek to last key
-            if (endKeyExist) {
-                cursor.seek(end);
             } else {
+                // all keys are smaller, start from the last key
                 cursor.seekToLast();
+
+                entry = cursor.hasNext() ? cursor.peekNext() : null;
             }
 
             // move cursor to previous and add rest keys
-            while (cursor.hasPrev() && listOfKVKey.size() < max) {
+            while (entry != null && listOfKVKey.size() < max) {
 
-                Entry<byte[], byte[]> pair = cursor.prev();
+                byte[] key = entry.getKey();
 
-                // check should we put the pair in the map
-                if (shouldInclude(pair.getKey(), start, startKeyInclusive, true)) {
-                    listOfKVKey.add(new KVKey(pair.getKey()));
+                // start of metadata key space or passed start key
+                if (LdbLayout.isMetadataKey(key) == false
+                        || !shouldInclude(key, mstart, startKeyInclusive, true)) {
+                    break;
                 }
+
+                listOfKVKey.add(new KVKey(LdbLayout.entryKey(key)));
+
+                entry = cursor.hasPrev() ? cursor.prev() : null;
             }
         } catch (Exception e) {
 
@@ -510,18 +788,19 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
             // could get NoSuchElementException from getNext
             throw new KVStoreException(e.getMessage());
         } finally {
-            try {
-                cursor.close();
-            } catch (Exception ex2) {
-                logger.log(Level.WARNING, ex2.getMessage(), ex2);
-            }
+            close(cursor);
+            close(snapshot);
+            readLock.unlock();
         }
 
         return listOfKVKey;
     }
 
     @Override
-    public synchronized void close() {
+    public void close() {
+
+        Lock writeLock = dbLock.writeLock();
+        writeLock.lock();
 
         try {
             this.db.close();
@@ -530,30 +809,144 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
         } catch (IOException e) {
 
             logger.log(Level.WARNING, e.getMessage(), e);
+        } finally {
+            writeLock.unlock();
         }
     }
 
     @Override
     public void reset() throws KVStoreException {
 
-        this.close();
+        // no db access until re-opened
+        Lock writeLock = dbLock.writeLock();
+        writeLock.lock();
 
-        // delete db file
-        File ldb = new File(this.dbFile);
-        // boolean deleted = deleteDirectory(ldb);
-        Options options = new Options();
+        try {
+            this.close();
+
+            // delete db file
+            File ldb = new File(this.dbFile);
+            // boolean deleted = deleteDirectory(ldb);
+            Options options = new Options();
+
+            try {
+                factory.destroy(ldb, options);
+            } catch (IOException e) {
+                throw new KVStoreException(e.getMessage());
+            }
+
+            logger.info("leveldb removed, path=" + this.dbFile);
+
+            // re open
+            this.init(config);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Get the lock stripe for the specified key.
+     */
+    private Object lockOf(byte[] key) {
+        return keyLocks[stripeOf(key)];
+    }
+
+    private static int stripeOf(byte[] key) {
+        int h = Arrays.hashCode(key);
+
+        // spread higher bits
+        h ^= (h >>> 16);
+
+        return h & (LOCK_STRIPES - 1);
+    }
+
+    /**
+     * Check the versions and write the batch atomically. The lock stripes of
+     * all keys of the batch are held, so that no put or delete of the keys
+     * happens between the check and the write.
+     *
+     * @param batch
+     *            the staged batch.
+     * @param keys
+     *            keys of the staged puts and deletes.
+     * @param versions
+     *            key -> expected version.
+     * @throws KVStoreException
+     *             KVStoreVersionMismatch if a version has changed.
+     */
+    void commitBatch(WriteBatch batch, List<byte[]> keys,
+            Map<ByteString, ByteString> versions) throws KVStoreException {
+
+        // stripes are locked in ascending order, concurrent batches do not
+        // deadlock
+        TreeSet<Integer> set = new TreeSet<Integer>();
+
+        for (byte[] key : keys) {
+            set.add(stripeOf(key));
+        }
+
+        int[] stripes = new int[set.size()];
+
+        int i = 0;
+        for (Integer stripe : set) {
+            stripes[i++] = stripe.intValue();
+        }
+
+        Lock readLock = dbLock.readLock();
+        readLock.lock();
 
         try {
-            factory.destroy(ldb, options);
-        } catch (IOException e) {
+            commitLocked(batch, stripes, 0, versions);
+        } catch (DBException e) {
             throw new KVStoreException(e.getMessage());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private void commitLocked(WriteBatch batch, int[] stripes, int index,
+            Map<ByteString, ByteString> versions) throws KVStoreException {
+
+        if (index < stripes.length) {
+            synchronized (keyLocks[stripes[index]]) {
+                commitLocked(batch, stripes, index + 1, versions);
+            }
+
+            return;
+        }
+
+        // conflict detection, versioned keys not changed since staged
+        for (Map.Entry<ByteString, ByteString> e : versions.entrySet()) {
+
+            ByteString version = null;
+
+            byte[] metadata = db.get(LdbLayout.metadataKey(e.getKey()
+                    .toByteArray()));
+
+            if (metadata != null) {
+                version = new KVValue(metadata).getVersion();
+            }
+
+            checkVersion(version, e.getValue());
         }
 
-        logger.info("leveldb removed, path=" + this.dbFile);
+        db.write(batch, SYNC_WRITE_OPTION);
+    }
 
-        // re open
-        this.init(config);
+    /**
+     * close the specified iterator or snapshot, exceptions are logged.
+     */
+    private static void close(Closeable closeable) {
 
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+        }
     }
 
     /**
@@ -628,7 +1021,7 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
     // returns the version if it is in the db. Null otherwise.
     ByteString getVersion(ByteString key) throws KVStoreException {
 
-        KVValue obj = get(key);
+        KVValue obj = getMetadata(key);
 
         if (obj == null)
             throw new KVStoreNotFound();
@@ -697,7 +1090,7 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
     @Override
     public BatchOperation<ByteString, KVValue> createBatchOperation()
             throws KVStoreException {
-        return new LdbBatchOperation(db);
+        return new LdbBatchOperation(this, db);
     }
 
     @Override
@@ -718,13 +1111,18 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
         // fill with 0
         Arrays.fill(key, (byte) 0);
 
-        // get value
-        byte[] data = db.get(key);
+        Lock readLock = dbLock.readLock();
+        readLock.lock();
 
-        WriteBatch batch = db.createWriteBatch();
+        WriteBatch batch = null;
 
         try {
 
+            // get value
+            byte[] data = db.get(key);
+
+            batch = db.createWriteBatch();
+
             if (data == null) {
                 /**
                  * no entry for key. perform no op
@@ -747,7 +1145,11 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
             logger.info("data flushed to db ....");
         } finally {
             // close the batch
-            batch.close();
+            if (batch != null) {
+                batch.close();
+            }
+
+            readLock.unlock();
         }
     }
 
@@ -771,7 +1173,22 @@ public class LevelDbStore implements Store<ByteString, ByteString, KVValue> {
                 end = endKey.toByteArray();
             }
 
-            this.db.compactRange(begin, end);
+            if (begin == null && end == null) {
+                this.db.compactRange(null, null);
+            } else {
+                // metadata key space of the range
+                this.db.compactRange(
+                        (begin == null) ? new byte[] { LdbLayout.METADATA_PREFIX }
+                                : LdbLayout.metadataKey(begin),
+                        (end == null) ? LdbLayout.METADATA_END : LdbLayout
+                                .metadataKey(end));
+
+                // value key space of the range
+                this.db.compactRange(
+                        (begin == null) ? new byte[] { LdbLayout.VALUE_PREFIX }
+                                : LdbLayout.valueKey(begin),
+                        (end == null) ? null : LdbLayout.valueKey(end));
+            }
 
             logger.info("Media optimization finished");
 
@@ -0,0 +1,651 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.persist.memory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import kinetic.simulator.SimulatorConfiguration;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.ZeroCopyByteString;
+import com.seagate.kinetic.simulator.internal.KVStoreException;
+import com.seagate.kinetic.simulator.internal.KVStoreNotFound;
+import com.seagate.kinetic.simulator.persist.BatchOperation;
+import com.seagate.kinetic.simulator.persist.KVKey;
+import com.seagate.kinetic.simulator.persist.KVValue;
+import com.seagate.kinetic.simulator.persist.PersistOption;
+import com.seagate.kinetic.simulator.persist.Store;
+import com.seagate.kinetic.simulator.persist.UnorderedCompaction;
+
+/**
+ *
+ * Concurrent memory store implementation for the Kinetic simulator.
+ * <p>
+ * Entries are kept in a {@link ConcurrentSkipListMap} ordered by
+ * {@link KeyComparator}. Reads do not take any lock. Writers hold the lock
+ * stripe of the key across the version check, the log append and the map
+ * update, so that only concurrent writers to the same stripe wait for each
+ * other and the log order of a key is the same as its update order.
+ * <p>
+ * Each entry holds the serialized metadata record and the value separately,
+ * version checks and metadata only operations do not de-serialize the value.
+ * <p>
+ * The snapshot and log files are the same as {@link MemoryStore}, so the two
+ * implementations may be switched on the same persist folder.
+ *
+ * @see MemoryStore
+ */
+public class ConcurrentMemoryStore implements
+        Store<ByteString, ByteString, KVValue>, UnorderedCompaction {
+
+    private final static java.util.logging.Logger logger = Logger
+            .getLogger(ConcurrentMemoryStore.class.getName());
+
+    // concurrent sorted map
+    private volatile ConcurrentSkipListMap<byte[], StoreEntry> sortedMap = null;
+
+    // write-ahead log and snapshot
+    private volatile MemoryStoreJournal journal = null;
+
+    // number of key lock stripes, must be power of 2
+    private static final int LOCK_STRIPES = 256;
+
+    // lock stripes for put/delete
+    private final Object[] keyLocks = new Object[LOCK_STRIPES];
+
+    /**
+     * default constructor
+     */
+    public ConcurrentMemoryStore() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            keyLocks[i] = new Object();
+        }
+    }
+
+    @Override
+    public void put(ByteString key, ByteString oldVersion, KVValue value,
+            PersistOption pOption) throws KVStoreException {
+
+        byte[] keyArray = key.toByteArray();
+
+        value.setKeyOf(key);
+
+        StoreEntry newValue = new StoreEntry(value);
+
+        long ticket = 0;
+
+        Lock writerLock = journal.writerLock();
+        writerLock.lock();
+
+        try {
+            // version check, log and update are atomic for the key
+            synchronized (lockOf(keyArray)) {
+
+                StoreEntry valueInStore = this.sortedMap.get(keyArray);
+
+                ByteString version = null;
+                if (valueInStore != null) {
+                    version = new KVValue(valueInStore.metadata).getVersion();
+                }
+
+                MemoryStore.checkVersion(version, oldVersion);
+
+                ticket = this.doPut(keyArray, newValue);
+            }
+        } finally {
+            writerLock.unlock();
+        }
+
+        this.written(ticket, pOption);
+    }
+
+    @Override
+    public void putForced(ByteString key, KVValue value, PersistOption pOption)
+            throws KVStoreException {
+
+        byte[] keyArray = key.toByteArray();
+
+        value.setKeyOf(key);
+
+        StoreEntry newValue = new StoreEntry(value);
+
+        long ticket = 0;
+
+        Lock writerLock = journal.writerLock();
+        writerLock.lock();
+
+        try {
+            synchronized (lockOf(keyArray)) {
+                ticket = this.doPut(keyArray, newValue);
+            }
+        } finally {
+            writerLock.unlock();
+        }
+
+        this.written(ticket, pOption);
+    }
+
+    @Override
+    public void delete(ByteString key, ByteString oldVersion,
+            PersistOption pOption) throws KVStoreException {
+
+        byte[] keyArray = key.toByteArray();
+
+        long ticket = 0;
+
+        Lock writerLock = journal.writerLock();
+        writerLock.lock();
+
+        try {
+            // version check, log and remove are atomic for the key
+            synchronized (lockOf(keyArray)) {
+
+                StoreEntry valueInStore = this.sortedMap.get(keyArray);
+
+                if (valueInStore == null) {
+                    throw new KVStoreNotFound();
+                }
+
+                KVValue obj = new KVValue(valueInStore.metadata);
+
+                ByteString prevVersion = obj.hasVersion() ? obj.getVersion()
+                        : ByteString.EMPTY;
+
+                MemoryStore.checkVersion(prevVersion, oldVersion);
+
+                ticket = this.doDelete(keyArray);
+            }
+        } finally {
+            writerLock.unlock();
+        }
+
+        this.written(ticket, pOption);
+    }
+
+    @Override
+    public void deleteForced(ByteString key, PersistOption pOption)
+            throws KVStoreException {
+
+        byte[] keyArray = key.toByteArray();
+
+        long ticket = 0;
+
+        Lock writerLock = journal.writerLock();
+        writerLock.lock();
+
+        try {
+            synchronized (lockOf(keyArray)) {
+                ticket = this.doDelete(keyArray);
+            }
+        } finally {
+            writerLock.unlock();
+        }
+
+        this.written(ticket, pOption);
+    }
+
+    /**
+     * log and put the entry, caller holds the writer lock and the key lock.
+     *
+     * @return ticket of the log record.
+     */
+    private long doPut(byte[] keyArray, StoreEntry entry)
+            throws KVStoreException {
+
+        long ticket = 0;
+
+        try {
+            ticket = this.journal.appendPut(keyArray, entry.metadata,
+                    entry.value);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
+
+        this.sortedMap.put(keyArray, entry);
+
+        return ticket;
+    }
+
+    /**
+     * log and remove the entry, caller holds the writer lock and the key lock.
+     *
+     * @return ticket of the log record.
+     */
+    private long doDelete(byte[] keyArray) throws KVStoreException {
+
+        long ticket = 0;
+
+        try {
+            ticket = this.journal.appendDelete(keyArray);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
+
+        this.sortedMap.remove(keyArray);
+
+        return ticket;
+    }
+
+    /**
+     * wait for the log record to be synced unless the write is asynchronous,
+     * then take a snapshot if the log is too large. The caller does not hold
+     * the writer lock or a key lock, so that concurrent writers share the
+     * sync.
+     */
+    private void written(long ticket, PersistOption pOption)
+            throws KVStoreException {
+
+        if (pOption != PersistOption.ASYNC) {
+            try {
+                this.journal.awaitSync(ticket);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+                throw new KVStoreException(e.getMessage());
+            }
+        }
+
+        this.checkSnapshot();
+    }
+
+    /**
+     * start a background snapshot if the log is too large, other writers
+     * continue while the snapshot is written.
+     */
+    private void checkSnapshot() {
+
+        if (this.journal.needsSnapshot() == false) {
+            return;
+        }
+
+        try {
+            MemoryStoreJournal.PendingSnapshot snapshot = this.journal
+                    .startSnapshot(false);
+
+            if (snapshot != null) {
+                snapshot.writeInBackground(this.entries());
+            }
+        } catch (IOException e) {
+            // logs are kept, retried with the next write
+            logger.log(Level.WARNING, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * weakly consistent entries of this store, writes made while the snapshot
+     * is written are also in the new log.
+     */
+    private MemoryStoreJournal.EntrySource entries() {
+
+        final ConcurrentSkipListMap<byte[], StoreEntry> map = this.sortedMap;
+
+        return new MemoryStoreJournal.EntrySource() {
+            @Override
+            public void writeTo(MemoryStoreJournal.EntryHandler out)
+                    throws IOException {
+                for (Entry<byte[], StoreEntry> e : map.entrySet()) {
+                    out.put(e.getKey(), e.getValue().metadata,
+                            e.getValue().value);
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the lock stripe for the specified key.
+     */
+    private Object lockOf(byte[] key) {
+        int h = Arrays.hashCode(key);
+
+        // spread higher bits
+        h ^= (h >>> 16);
+
+        return keyLocks[h & (LOCK_STRIPES - 1)];
+    }
+
+    @Override
+    public KVValue get(ByteString key) throws KVStoreException {
+
+        StoreEntry object = this.sortedMap.get(key.toByteArray());
+
+        if (object == null) {
+            throw new KVStoreNotFound();
+        }
+
+        return object.toKVValue();
+    }
+
+    @Override
+    public KVValue getMetadata(ByteString key) throws KVStoreException {
+
+        StoreEntry object = this.sortedMap.get(key.toByteArray());
+
+        if (object == null) {
+            throw new KVStoreNotFound();
+        }
+
+        return new KVValue(object.metadata);
+    }
+
+    @Override
+    public KVValue getPrevious(ByteString key) throws KVStoreException {
+
+        // key and value are obtained atomically
+        Entry<byte[], StoreEntry> entry = this.sortedMap.lowerEntry(key
+                .toByteArray());
+
+        if (entry == null) {
+            throw new KVStoreNotFound();
+        }
+
+        return entry.getValue().toKVValue();
+    }
+
+    @Override
+    public KVValue getNext(ByteString key) throws KVStoreException {
+
+        // key and value are obtained atomically
+        Entry<byte[], StoreEntry> entry = this.sortedMap.higherEntry(key
+                .toByteArray());
+
+        if (entry == null) {
+            throw new KVStoreNotFound();
+        }
+
+        return entry.getValue().toKVValue();
+    }
+
+    @Override
+    public SortedMap<?, ?> getRange(ByteString startKey,
+            boolean startKeyInclusive, ByteString endKey,
+            boolean endKeyInclusive, int n) throws KVStoreException {
+
+        NavigableMap<byte[], StoreEntry> bmap = subMap(startKey,
+                startKeyInclusive, endKey, endKeyInclusive);
+
+        // convert type
+        SortedMap<KVKey, KVValue> kvmap = new TreeMap<KVKey, KVValue>();
+
+        for (Entry<byte[], StoreEntry> e : bmap.entrySet()) {
+            if (n-- > 0) {
+                kvmap.put(new KVKey(e.getKey()), e.getValue().toKVValue());
+            } else {
+                break;
+            }
+        }
+
+        return kvmap;
+    }
+
+    @Override
+    public List<?> getKeyRange(ByteString startKey,
+            boolean startKeyInclusive, ByteString endKey,
+            boolean endKeyInclusive, int n) throws KVStoreException {
+
+        NavigableMap<byte[], StoreEntry> bmap = subMap(startKey,
+                startKeyInclusive, endKey, endKeyInclusive);
+
+        List<KVKey> kvKeyOfList = new ArrayList<KVKey>();
+
+        // values are not touched
+        for (byte[] k : bmap.keySet()) {
+            if (n-- > 0) {
+                kvKeyOfList.add(new KVKey(k));
+            } else {
+                break;
+            }
+        }
+
+        return kvKeyOfList;
+    }
+
+    @Override
+    public List<?> getRangeReversed(ByteString startKey,
+            boolean startKeyInclusive, ByteString endKey,
+            boolean endKeyInclusive, int n) throws KVStoreException {
+
+        NavigableMap<byte[], StoreEntry> bmap = subMap(startKey,
+                startKeyInclusive, endKey, endKeyInclusive);
+
+        List<KVKey> kvKeyOfList = new ArrayList<KVKey>();
+
+        // walk the range backwards, only the last n keys are visited
+        for (byte[] k : bmap.descendingKeySet()) {
+            if (n-- > 0) {
+                kvKeyOfList.add(new KVKey(k));
+            } else {
+                break;
+            }
+        }
+
+        return kvKeyOfList;
+    }
+
+    /**
+     * Get a weakly consistent view of the specified key range.
+     */
+    private ConcurrentNavigableMap<byte[], StoreEntry> subMap(
+            ByteString startKey, boolean startKeyInclusive, ByteString endKey,
+            boolean endKeyInclusive) {
+
+        if (endKey.size() == 0) {
+            return sortedMap.tailMap(startKey.toByteArray(),
+                    startKeyInclusive);
+        }
+
+        byte[] start = startKey.toByteArray();
+        byte[] end = endKey.toByteArray();
+
+        // ConcurrentSkipListMap.subMap throws if start is after end
+        if (sortedMap.comparator().compare(start, end) > 0) {
+            return new ConcurrentSkipListMap<byte[], StoreEntry>(
+                    new KeyComparator());
+        }
+
+        return sortedMap.subMap(start, startKeyInclusive, end,
+                endKeyInclusive);
+    }
+
+    @Override
+    public void close() {
+
+        // final snapshot for a fast restart
+        this.journal.close(this.entries());
+
+        logger.info("concurrent memory store closed, entry count="
+                + this.sortedMap.size());
+    }
+
+    @Override
+    public void reset() throws KVStoreException {
+        // clean data
+        this.sortedMap.clear();
+
+        try {
+            // remove snapshot and logs
+            this.journal.reset();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void init(SimulatorConfiguration config) {
+
+        // default home folder
+        String defaultHome = System.getProperty("user.home") + File.separator
+                + "kinetic";
+
+        // kinetic home
+        String kineticHome = config.getProperty(
+                SimulatorConfiguration.KINETIC_HOME, defaultHome);
+
+        File lchome = new File(kineticHome);
+
+        // make folder if not there
+        if (lchome.exists() == false) {
+            boolean created = lchome.mkdir();
+            logger.info("create kinetic home folder: " + kineticHome
+                    + ", created=" + created);
+        }
+
+        // persist home
+        String persistFolder = kineticHome
+                + File.separator
+                + config.getProperty(SimulatorConfiguration.PERSIST_HOME,
+                        "memory");
+
+        File f = new File(persistFolder);
+
+        logger.info("Database file exists: " + f.exists() + ", name="
+                + persistFolder);
+
+        // create persist folder if not existed
+        if (f.exists() == false) {
+            boolean created = f.mkdir();
+            logger.info("create persist folder: " + persistFolder
+                    + ", created=" + created);
+        }
+
+        long maxLogSize = Long.parseLong(config.getProperty(
+                MemoryStoreJournal.LOG_SIZE_PROPERTY,
+                String.valueOf(MemoryStoreJournal.DEFAULT_LOG_SIZE)));
+
+        MemoryStoreJournal j = new MemoryStoreJournal(f, maxLogSize);
+
+        final ConcurrentSkipListMap<byte[], StoreEntry> map = new ConcurrentSkipListMap<byte[], StoreEntry>(
+                new KeyComparator());
+
+        try {
+            // recover the map from snapshot and log
+            j.open(new MemoryStoreJournal.EntryHandler() {
+                @Override
+                public void put(byte[] key, byte[] metadata, byte[] value) {
+                    map.put(key, new StoreEntry(metadata, value));
+                }
+
+                @Override
+                public void delete(byte[] key) {
+                    map.remove(key);
+                }
+            });
+
+            logger.info("loaded memory store, path=" + persistFolder
+                    + ", size=" + map.size());
+
+        } catch (IOException e) {
+
+            logger.log(Level.SEVERE, e.getMessage(), e);
+
+            throw new RuntimeException(e);
+        }
+
+        this.sortedMap = map;
+        this.journal = j;
+    }
+
+    @Override
+    public BatchOperation<ByteString, KVValue> createBatchOperation()
+            throws KVStoreException {
+
+        throw new java.lang.UnsupportedOperationException();
+    }
+
+    @Override
+    public void flush() throws KVStoreException {
+
+        try {
+            this.journal.sync();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
+    }
+
+    /**
+     * Compact the persisted files. Entries are not key ordered in the files,
+     * the range is ignored. A snapshot is taken if writes were logged since
+     * the last snapshot, and the logs covered by it are deleted.
+     */
+    @Override
+    public void compactRange(ByteString startKey, ByteString endKey)
+            throws KVStoreException {
+
+        if (this.journal.needsCompaction() == false) {
+            return;
+        }
+
+        try {
+            // a snapshot in progress compacts the files
+            MemoryStoreJournal.PendingSnapshot snapshot = this.journal
+                    .startSnapshot(false);
+
+            if (snapshot != null) {
+                snapshot.write(this.entries());
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
+    }
+
+    /**
+     * Store entry. Entries are immutable, a modified entry is replaced as a
+     * whole so that readers see metadata and value together.
+     */
+    private static final class StoreEntry {
+
+        // serialized metadata record
+        private final byte[] metadata;
+
+        // entry value
+        private final byte[] value;
+
+        StoreEntry(KVValue kvValue) {
+            this(kvValue.toMetadataByteArray(), ZeroCopyByteString
+                    .array(kvValue.getData()));
+        }
+
+        StoreEntry(byte[] metadata, byte[] value) {
+            this.metadata = metadata;
+            this.value = (value == null) ? new byte[0] : value;
+        }
+
+        KVValue toKVValue() {
+            return new KVValue(metadata, ZeroCopyByteString.wrap(value));
+        }
+    }
+
+}
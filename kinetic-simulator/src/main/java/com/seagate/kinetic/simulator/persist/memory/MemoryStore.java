@@ -20,10 +20,7 @@
 package com.seagate.kinetic.simulator.persist.memory;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map.Entry;
@@ -35,6 +32,7 @@ import java.util.logging.Logger;
 import kinetic.simulator.SimulatorConfiguration;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.ZeroCopyByteString;
 import com.seagate.kinetic.simulator.internal.KVStoreException;
 import com.seagate.kinetic.simulator.internal.KVStoreNotFound;
 import com.seagate.kinetic.simulator.internal.KVStoreVersionMismatch;
@@ -43,28 +41,39 @@ import com.seagate.kinetic.simulator.persist.KVKey;
 import com.seagate.kinetic.simulator.persist.KVValue;
 import com.seagate.kinetic.simulator.persist.PersistOption;
 import com.seagate.kinetic.simulator.persist.Store;
+import com.seagate.kinetic.simulator.persist.UnorderedCompaction;
 
 /**
  *
  * Memory store implementation for the Kinetic simulator.
  * <p>
- * All entries are stored in memory. When a Kinetic server is closed, the memory
- * tree is saved to the disk. When a kinetic server is crashed, all data updated
- * to memory store between start server to crash is lost.
+ * All entries are stored in memory. Every put and delete is appended to a
+ * write-ahead log before the memory tree is updated, and a snapshot of the
+ * memory tree is taken when the log grows too large and when the store is
+ * closed. The memory tree is recovered from the snapshot and the log, see
+ * {@link MemoryStoreJournal}.
+ * <p>
+ * Entry metadata (key, version, tag and algorithm) and entry values are kept in
+ * separate maps, so that version checks and metadata only operations do not
+ * de-serialize the values.
  *
  * @author chiaming
  *
  */
-public class MemoryStore implements Store<ByteString, ByteString, KVValue> {
+public class MemoryStore implements Store<ByteString, ByteString, KVValue>,
+        UnorderedCompaction {
 
     private final static java.util.logging.Logger logger = Logger
             .getLogger(MemoryStore.class.getName());
 
-    // memory tree map
+    // memory tree map, entry metadata records
     private TreeMap<byte[], byte[]> sortedMap = null;
 
-    // file to store the tree
-    private String dbFile = null;
+    // entry values
+    private TreeMap<byte[], byte[]> valueMap = null;
+
+    // write-ahead log and snapshot
+    private MemoryStoreJournal journal = null;
 
     // server config
     private SimulatorConfiguration config = null;
@@ -77,37 +86,46 @@ public class MemoryStore implements Store<ByteString, ByteString, KVValue> {
     }
 
     @Override
-    public synchronized void put(ByteString key, ByteString oldVersion,
-            KVValue value, PersistOption pOption) throws KVStoreException {
+    public void put(ByteString key, ByteString oldVersion, KVValue value,
+            PersistOption pOption) throws KVStoreException {
 
-        ByteString version = null;
+        long ticket = 0;
 
-        byte[] keyArray = key.toByteArray();
+        synchronized (this) {
+            ByteString version = null;
 
-        KVValue obj = null;
-        byte[] valueInStore = this.sortedMap.get(keyArray);
+            byte[] keyArray = key.toByteArray();
 
-        if (valueInStore != null) {
-            obj = new KVValue(valueInStore);
-            version = obj.getVersion();
-        }
+            byte[] metadataInStore = this.sortedMap.get(keyArray);
 
-        checkVersion(version, oldVersion);
+            if (metadataInStore != null) {
+                version = new KVValue(metadataInStore).getVersion();
+            }
 
-        value.setKeyOf(key);
+            checkVersion(version, oldVersion);
+
+            value.setKeyOf(key);
+
+            ticket = this.doPut(keyArray, value);
+        }
 
-        this.sortedMap.put(keyArray, value.toByteArray());
+        this.awaitSync(ticket, pOption);
     }
 
     @Override
-    public synchronized void putForced(ByteString key, KVValue value,
+    public void putForced(ByteString key, KVValue value,
             PersistOption pOption) throws KVStoreException {
 
         try {
+            long ticket = 0;
 
-            value.setKeyOf(key);
+            synchronized (this) {
+                value.setKeyOf(key);
+
+                ticket = this.doPut(key.toByteArray(), value);
+            }
 
-            this.sortedMap.put(key.toByteArray(), value.toByteArray());
+            this.awaitSync(ticket, pOption);
         } catch (Exception e) {
             throw new KVStoreException("DB internal exception");
         }
@@ -115,22 +133,34 @@ public class MemoryStore implements Store<ByteString, ByteString, KVValue> {
     }
 
     @Override
-    public synchronized void delete(ByteString key, ByteString oldVersion,
+    public void delete(ByteString key, ByteString oldVersion,
             PersistOption pOption) throws KVStoreException {
 
-        ByteString prevVersion = getVersion(key);
+        long ticket = 0;
 
-        checkVersion(prevVersion, oldVersion);
+        synchronized (this) {
+            ByteString prevVersion = getVersion(key);
 
-        sortedMap.remove(key.toByteArray());
+            checkVersion(prevVersion, oldVersion);
+
+            ticket = this.doDelete(key.toByteArray());
+        }
+
+        this.awaitSync(ticket, pOption);
     }
 
     @Override
-    public synchronized void deleteForced(ByteString key, PersistOption pOption)
+    public void deleteForced(ByteString key, PersistOption pOption)
             throws KVStoreException {
 
         try {
-            sortedMap.remove(key.toByteArray());
+            long ticket = 0;
+
+            synchronized (this) {
+                ticket = this.doDelete(key.toByteArray());
+            }
+
+            this.awaitSync(ticket, pOption);
         } catch (Exception e) {
             throw new KVStoreException("DB internal exception");
         }
@@ -139,12 +169,24 @@ public class MemoryStore implements Store<ByteString, ByteString, KVValue> {
     @Override
     public synchronized KVValue get(ByteString key) throws KVStoreException {
 
-        byte[] object = this.sortedMap.get(key.toByteArray());
+        KVValue object = this.toKVValue(key.toByteArray());
 
         if (object == null)
             throw new KVStoreNotFound();
 
-        return new KVValue(object);
+        return object;
+    }
+
+    @Override
+    public synchronized KVValue getMetadata(ByteString key)
+            throws KVStoreException {
+
+        byte[] metadata = this.sortedMap.get(key.toByteArray());
+
+        if (metadata == null)
+            throw new KVStoreNotFound();
+
+        return new KVValue(metadata);
     }
 
     @Override
@@ -156,7 +198,7 @@ public class MemoryStore implements Store<ByteString, ByteString, KVValue> {
         if (key1 == null)
             throw new KVStoreNotFound();
 
-        return new KVValue(sortedMap.get(key1));
+        return this.toKVValue(key1);
     }
 
     @Override
@@ -170,7 +212,7 @@ public class MemoryStore implements Store<ByteString, ByteString, KVValue> {
             throw new KVStoreNotFound();
         }
 
-        return new KVValue(sortedMap.get(key1));
+        return this.toKVValue(key1);
     }
 
     @Override
@@ -195,7 +237,8 @@ public class MemoryStore implements Store<ByteString, ByteString, KVValue> {
 
         for (Entry<byte[], byte[]> e : bmap.entrySet()) {
             if (n-- > 0) {
-                kvmap.put(new KVKey(e.getKey()), new KVValue(e.getValue()));
+                kvmap.put(new KVKey(e.getKey()), new KVValue(e.getValue(),
+                        toByteString(valueMap.get(e.getKey()))));
             } else {
                 // return kvmap;
                 break;
@@ -205,6 +248,34 @@ public class MemoryStore implements Store<ByteString, ByteString, KVValue> {
         return kvmap;
     }
 
+    @Override
+    public synchronized List<?> getKeyRange(ByteString startKey,
+            boolean startKeyInclusive, ByteString endKey,
+            boolean endKeyInclusive, int n) throws KVStoreException {
+
+        SortedMap<byte[], byte[]> bmap;
+
+        if (endKey.size() == 0) {
+            bmap = sortedMap.tailMap(startKey.toByteArray(), startKeyInclusive);
+        } else {
+            bmap = sortedMap.subMap(startKey.toByteArray(), startKeyInclusive,
+                    endKey.toByteArray(), endKeyInclusive);
+        }
+
+        List<KVKey> kvKeyOfList = new ArrayList<KVKey>();
+
+        // values are not touched
+        for (byte[] k : bmap.keySet()) {
+            if (n-- > 0) {
+                kvKeyOfList.add(new KVKey(k));
+            } else {
+                break;
+            }
+        }
+
+        return kvKeyOfList;
+    }
+
     @Override
     public synchronized List<?> getRangeReversed(ByteString startKey,
             boolean startKeyInclusive, ByteString endKey,
@@ -244,51 +315,179 @@ public class MemoryStore implements Store<ByteString, ByteString, KVValue> {
 
     }
 
-    @Override
-    public void close() {
+    /**
+     * log and put metadata and value of the entry, caller holds the store
+     * lock.
+     *
+     * @return ticket of the log record.
+     */
+    private long doPut(byte[] keyArray, KVValue value)
+            throws KVStoreException {
+
+        byte[] metadata = value.toMetadataByteArray();
+        byte[] data = ZeroCopyByteString.array(value.getData());
 
-        FileOutputStream fos = null;
-        ObjectOutputStream oos = null;
+        long ticket = 0;
 
         try {
-            // get out put stream
-            fos = new FileOutputStream(dbFile);
-            oos = new ObjectOutputStream(fos);
+            ticket = this.journal.appendPut(keyArray, metadata, data);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
 
-            // write to file.
-            oos.writeObject(this.sortedMap);
-            oos.flush();
-            fos.flush();
+        this.sortedMap.put(keyArray, metadata);
+        this.valueMap.put(keyArray, data);
 
-            logger.info("saved memory file, path=" + dbFile + ", entry count="
-                    + this.sortedMap.size());
+        this.checkSnapshot();
 
-        } catch (Exception e) {
+        return ticket;
+    }
+
+    /**
+     * log and remove metadata and value of the entry, caller holds the store
+     * lock.
+     *
+     * @return ticket of the log record.
+     */
+    private long doDelete(byte[] keyArray) throws KVStoreException {
 
+        long ticket = 0;
+
+        try {
+            ticket = this.journal.appendDelete(keyArray);
+        } catch (IOException e) {
             logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
+
+        this.sortedMap.remove(keyArray);
+        this.valueMap.remove(keyArray);
 
-        } finally {
-            try {
-                oos.close();
-                fos.close();
-            } catch (Exception e2) {
-                ;
+        this.checkSnapshot();
+
+        return ticket;
+    }
+
+    /**
+     * wait for the log record to be synced unless the write is asynchronous,
+     * caller does not hold the store lock so that concurrent writers share
+     * the sync.
+     */
+    private void awaitSync(long ticket, PersistOption pOption)
+            throws KVStoreException {
+
+        if (pOption == PersistOption.ASYNC) {
+            return;
+        }
+
+        try {
+            this.journal.awaitSync(ticket);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
+    }
+
+    /**
+     * start a background snapshot if the log is too large, caller holds the
+     * store lock.
+     */
+    private void checkSnapshot() {
+
+        if (this.journal.needsSnapshot() == false) {
+            return;
+        }
+
+        try {
+            MemoryStoreJournal.PendingSnapshot snapshot = this.journal
+                    .startSnapshot(false);
+
+            if (snapshot != null) {
+                snapshot.writeInBackground(this.entries());
             }
+        } catch (IOException e) {
+            // logs are kept, retried with the next write
+            logger.log(Level.WARNING, e.getMessage(), e);
         }
+    }
 
-        logger.info("memory store closed ...");
+    /**
+     * copy of the entries of this store, made by the caller holding the store
+     * lock. Keys, metadata and values are not modified once stored, only the
+     * references are copied.
+     */
+    private MemoryStoreJournal.EntrySource entries() {
+
+        final int size = this.sortedMap.size();
+
+        final byte[][] keys = new byte[size][];
+        final byte[][] metadata = new byte[size][];
+        final byte[][] values = new byte[size][];
+
+        int i = 0;
+        for (Entry<byte[], byte[]> e : sortedMap.entrySet()) {
+            keys[i] = e.getKey();
+            metadata[i] = e.getValue();
+            values[i] = valueMap.get(e.getKey());
+            i++;
+        }
+
+        return new MemoryStoreJournal.EntrySource() {
+            @Override
+            public void writeTo(MemoryStoreJournal.EntryHandler out)
+                    throws IOException {
+                for (int i = 0; i < size; i++) {
+                    out.put(keys[i], metadata[i], values[i]);
+                }
+            }
+        };
+    }
+
+    /**
+     * construct the entry for the key, caller holds the store lock.
+     *
+     * @return the entry or null if not found.
+     */
+    private KVValue toKVValue(byte[] keyArray) {
+
+        byte[] metadata = this.sortedMap.get(keyArray);
+
+        if (metadata == null) {
+            return null;
+        }
+
+        return new KVValue(metadata, toByteString(valueMap.get(keyArray)));
+    }
+
+    private static ByteString toByteString(byte[] value) {
+        return (value == null) ? ByteString.EMPTY : ZeroCopyByteString.wrap(value);
+    }
+
+    @Override
+    public synchronized void close() {
+
+        // final snapshot for a fast restart
+        this.journal.close(this.entries());
+
+        logger.info("memory store closed, entry count="
+                + this.sortedMap.size());
     }
 
     @Override
-    public void reset() throws KVStoreException {
+    public synchronized void reset() throws KVStoreException {
         // clean data
         this.sortedMap.clear();
+        this.valueMap.clear();
 
-        // this will write the reset map to file.
-        this.close();
-
-        // reopen the file
-        this.init(config);
+        try {
+            // remove snapshot and logs, a background snapshot does not need
+            // the store lock
+            this.journal.reset();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
     }
 
     private static int mySize(ByteString s) {
@@ -316,7 +515,7 @@ public class MemoryStore implements Store<ByteString, ByteString, KVValue> {
     // }
 
     ByteString getVersion(ByteString key) throws KVStoreException {
-        KVValue obj = get(key);
+        KVValue obj = getMetadata(key);
         if (obj == null)
             throw new KVStoreNotFound();
         if (!obj.hasVersion())
@@ -324,9 +523,8 @@ public class MemoryStore implements Store<ByteString, ByteString, KVValue> {
         return obj.getVersion();
     }
 
-    @SuppressWarnings("unchecked")
     @Override
-    public void init(SimulatorConfiguration config) {
+    public synchronized void init(SimulatorConfiguration config) {
 
         this.config = config;
 
@@ -365,37 +563,39 @@ public class MemoryStore implements Store<ByteString, ByteString, KVValue> {
                     + ", created=" + created);
         }
 
-        // db file
-        dbFile = persistFolder + "/memStore.ser";
+        long maxLogSize = Long.parseLong(config.getProperty(
+                MemoryStoreJournal.LOG_SIZE_PROPERTY,
+                String.valueOf(MemoryStoreJournal.DEFAULT_LOG_SIZE)));
 
-        FileInputStream fis = null;
-        ObjectInputStream ois = null;
+        this.journal = new MemoryStoreJournal(f, maxLogSize);
+
+        this.sortedMap = new TreeMap<byte[], byte[]>(new KeyComparator());
+        this.valueMap = new TreeMap<byte[], byte[]>(new KeyComparator());
 
         try {
-            // read memory tree
-            fis = new FileInputStream(dbFile);
-            ois = new ObjectInputStream(fis);
-            this.sortedMap = (TreeMap<byte[], byte[]>) ois.readObject();
+            // recover memory tree from snapshot and log
+            this.journal.open(new MemoryStoreJournal.EntryHandler() {
+                @Override
+                public void put(byte[] key, byte[] metadata, byte[] value) {
+                    sortedMap.put(key, metadata);
+                    valueMap.put(key, value);
+                }
 
-            logger.info("loaded memory file, path=" + dbFile + ", size="
-                    + this.sortedMap.size());
+                @Override
+                public void delete(byte[] key) {
+                    sortedMap.remove(key);
+                    valueMap.remove(key);
+                }
+            });
 
-        } catch (Exception e) {
+            logger.info("loaded memory store, path=" + persistFolder
+                    + ", size=" + this.sortedMap.size());
 
-            // logger.log(Level.WARNING, e.getMessage(), e);
-            logger.fine("unable to load memory store from file, using a new store, path="
-                    + dbFile);
+        } catch (IOException e) {
 
-            // start a new one if unable to read from one on disk
-            this.sortedMap = new TreeMap<byte[], byte[]>(new KeyComparator());
+            logger.log(Level.SEVERE, e.getMessage(), e);
 
-        } finally {
-            try {
-                ois.close();
-                fis.close();
-            } catch (Exception e2) {
-                ;
-            }
+            throw new RuntimeException(e);
         }
 
     }
@@ -409,15 +609,49 @@ public class MemoryStore implements Store<ByteString, ByteString, KVValue> {
 
     @Override
     public void flush() throws KVStoreException {
-        // no op for mem store
-        ;
+
+        try {
+            this.journal.sync();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
     }
 
+    /**
+     * Compact the persisted files. Entries are not key ordered in the files,
+     * the range is ignored. A snapshot is taken if writes were logged since
+     * the last snapshot, and the logs covered by it are deleted.
+     */
     @Override
     public void compactRange(ByteString startKey, ByteString endKey)
             throws KVStoreException {
-        // no op
-        ;
+
+        try {
+            MemoryStoreJournal.PendingSnapshot snapshot = null;
+            MemoryStoreJournal.EntrySource entries = null;
+
+            synchronized (this) {
+                if (this.journal.needsCompaction() == false) {
+                    return;
+                }
+
+                // a snapshot in progress compacts the files
+                snapshot = this.journal.startSnapshot(false);
+
+                if (snapshot == null) {
+                    return;
+                }
+
+                entries = this.entries();
+            }
+
+            // written without the store lock
+            snapshot.write(entries);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
     }
 
 }
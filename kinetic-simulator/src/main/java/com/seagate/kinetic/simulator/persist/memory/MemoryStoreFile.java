@@ -0,0 +1,520 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.persist.memory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.google.protobuf.ZeroCopyByteString;
+import com.seagate.kinetic.simulator.persist.KVValue;
+
+/**
+ * Memory store file utility.
+ * <p>
+ * Snapshot and log files of the memory stores are sequences of records. Each
+ * record is framed as a 4 byte body length and a 4 byte CRC32 of the body. The
+ * body is a 1 byte record type followed by the key, and for a put record the
+ * metadata and the value, each prefixed by a 4 byte length. A zero body length
+ * is the end record.
+ * <p>
+ * A snapshot file starts with a header (magic, format version and the
+ * generation of the first log not covered by the snapshot), followed by one
+ * put record per entry and the end record.
+ * <p>
+ * Files saved by earlier versions contain Java serialized maps, either one map
+ * of full entry records or a metadata map followed by a value map. Such files
+ * can still be loaded.
+ *
+ * @see MemoryStoreJournal
+ */
+final class MemoryStoreFile {
+
+    private final static Logger logger = Logger.getLogger(MemoryStoreFile.class
+            .getName());
+
+    // put record type
+    static final byte PUT = 1;
+
+    // delete record type
+    static final byte DELETE = 2;
+
+    // snapshot file magic
+    private static final int MAGIC = 0x4b4d5353;
+
+    // snapshot format version
+    private static final int FORMAT_VERSION = 1;
+
+    // io buffer size
+    static final int BUFFER_SIZE = 1024 * 1024;
+
+    private MemoryStoreFile() {
+        ;
+    }
+
+    /**
+     * Write a record. A delete record has null metadata and value.
+     */
+    static void writeRecord(DataOutputStream dos, byte type, byte[] key,
+            byte[] metadata, byte[] value) throws IOException {
+
+        int length = 1 + 4 + key.length;
+
+        if (type == PUT) {
+            length += 4 + metadata.length + 4 + value.length;
+        }
+
+        // crc of the body parts, the body is not buffered
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        updateBytes(crc, key);
+
+        if (type == PUT) {
+            updateBytes(crc, metadata);
+            updateBytes(crc, value);
+        }
+
+        dos.writeInt(length);
+        dos.writeInt((int) crc.getValue());
+
+        dos.writeByte(type);
+        writeBytes(dos, key);
+
+        if (type == PUT) {
+            writeBytes(dos, metadata);
+            writeBytes(dos, value);
+        }
+    }
+
+    /**
+     * Write the end record.
+     */
+    static void writeEnd(DataOutputStream dos) throws IOException {
+        dos.writeInt(0);
+        dos.writeInt(0);
+    }
+
+    /**
+     * Read a record and pass it to the handler.
+     *
+     * @return false if the end record is read. An IOException is thrown if
+     *         the record is missing, truncated or corrupted.
+     */
+    static boolean readRecord(DataInputStream dis,
+            MemoryStoreJournal.EntryHandler handler) throws IOException {
+
+        int length = dis.readInt();
+        int checksum = dis.readInt();
+
+        if (length == 0) {
+            return false;
+        }
+
+        if (length < 0) {
+            throw new IOException("invalid record length: " + length);
+        }
+
+        byte[] body = new byte[length];
+        dis.readFully(body);
+
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("record checksum mismatch");
+        }
+
+        ByteBuffer bb = ByteBuffer.wrap(body);
+
+        byte type = bb.get();
+
+        byte[] key = getBytes(bb);
+
+        if (type == PUT) {
+            byte[] metadata = getBytes(bb);
+            byte[] value = getBytes(bb);
+
+            handler.put(key, metadata, value);
+        } else if (type == DELETE) {
+            handler.delete(key);
+        } else {
+            throw new IOException("unknown record type: " + type);
+        }
+
+        return true;
+    }
+
+    private static void updateBytes(CRC32 crc, byte[] bytes) {
+        int v = bytes.length;
+        crc.update(v >>> 24);
+        crc.update(v >>> 16);
+        crc.update(v >>> 8);
+        crc.update(v);
+        crc.update(bytes);
+    }
+
+    private static void writeBytes(DataOutputStream dos, byte[] bytes)
+            throws IOException {
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    private static byte[] getBytes(ByteBuffer bb) {
+        byte[] bytes = new byte[bb.getInt()];
+        bb.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Read a snapshot file.
+     *
+     * @param file
+     *            snapshot file.
+     * @param handler
+     *            handler of the entries read.
+     * @return generation of the first log not covered by the snapshot.
+     * @throws IOException
+     *             if the file is not a valid snapshot.
+     */
+    static long readSnapshot(File file, MemoryStoreJournal.EntryHandler handler)
+            throws IOException {
+
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), BUFFER_SIZE));
+
+        try {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("not a memory store snapshot: " + file);
+            }
+
+            int version = dis.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("unsupported snapshot version: "
+                        + version);
+            }
+
+            long nextGeneration = dis.readLong();
+
+            while (readRecord(dis, handler)) {
+                ;
+            }
+
+            return nextGeneration;
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * Make the snapshot file complete after a crash.
+     * <p>
+     * If the snapshot file is missing, a crash happened while it was replaced.
+     * The temporary file is used if it was completely written, otherwise the
+     * old snapshot moved aside is restored. Leftover files are deleted when
+     * the snapshot file exists.
+     *
+     * @param file
+     *            snapshot file.
+     */
+    static void recoverSnapshot(File file) {
+
+        File tmp = tmpFile(file);
+        File old = oldFile(file);
+
+        if (file.exists() == false) {
+
+            File from = null;
+
+            if (tmp.exists() && isComplete(tmp) && tmp.renameTo(file)) {
+                from = tmp;
+            } else if (old.exists() && old.renameTo(file)) {
+                from = old;
+            }
+
+            if (from != null) {
+                syncDirectory(file.getParentFile());
+                logger.info("memory store snapshot recovered from " + from);
+            }
+        }
+
+        if (file.exists()) {
+            if (tmp.exists() && tmp.delete() == false) {
+                logger.warning("unable to delete " + tmp);
+            }
+
+            if (old.exists() && old.delete() == false) {
+                logger.warning("unable to delete " + old);
+            }
+        }
+    }
+
+    /**
+     * Check if a snapshot file is readable up to its end record.
+     */
+    private static boolean isComplete(File file) {
+
+        try {
+            readSnapshot(file, new MemoryStoreJournal.EntryHandler() {
+                @Override
+                public void put(byte[] key, byte[] metadata, byte[] value) {
+                    ;
+                }
+
+                @Override
+                public void delete(byte[] key) {
+                    ;
+                }
+            });
+
+            return true;
+        } catch (IOException e) {
+            logger.warning("incomplete snapshot, path=" + file + ", "
+                    + e.getMessage());
+            return false;
+        }
+    }
+
+    private static File tmpFile(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    private static File oldFile(File file) {
+        return new File(file.getPath() + ".old");
+    }
+
+    /**
+     * Sync a directory so that a rename in it is durable. Java 6 has no API
+     * to open a directory, the Java 7 file channel is used when available.
+     */
+    static void syncDirectory(File dir) {
+
+        if (dir == null) {
+            return;
+        }
+
+        try {
+            Class<?> optionClass = Class.forName("java.nio.file.OpenOption");
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+
+            Object path = File.class.getMethod("toPath").invoke(dir);
+
+            Object options = Array.newInstance(optionClass, 1);
+            Array.set(options, 0, Class
+                    .forName("java.nio.file.StandardOpenOption")
+                    .getField("READ").get(null));
+
+            FileChannel channel = (FileChannel) FileChannel.class.getMethod(
+                    "open", pathClass, options.getClass()).invoke(null, path,
+                    options);
+
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (Exception e) {
+            // not supported by the platform or the runtime
+            logger.fine("unable to sync directory " + dir + ", " + e);
+        }
+    }
+
+    /**
+     * Snapshot file writer. The snapshot is written to a temporary file which
+     * replaces the snapshot file when committed. The snapshot file is never
+     * deleted before its replacement is in place.
+     */
+    static final class SnapshotWriter implements
+            MemoryStoreJournal.EntryHandler {
+
+        private final File file;
+
+        private final File tmp;
+
+        private final FileOutputStream fos;
+
+        private final DataOutputStream dos;
+
+        private long count = 0;
+
+        SnapshotWriter(File file, long nextGeneration) throws IOException {
+
+            this.file = file;
+            this.tmp = tmpFile(file);
+
+            this.fos = new FileOutputStream(tmp);
+            this.dos = new DataOutputStream(new BufferedOutputStream(fos,
+                    BUFFER_SIZE));
+
+            dos.writeInt(MAGIC);
+            dos.writeInt(FORMAT_VERSION);
+            dos.writeLong(nextGeneration);
+        }
+
+        @Override
+        public void put(byte[] key, byte[] metadata, byte[] value)
+                throws IOException {
+            writeRecord(dos, PUT, key, metadata, value);
+            count++;
+        }
+
+        @Override
+        public void delete(byte[] key) {
+            // snapshot contains live entries only
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Write the end record, sync and replace the snapshot file.
+         *
+         * @return number of entries written.
+         */
+        long commit() throws IOException {
+
+            try {
+                writeEnd(dos);
+                dos.flush();
+
+                fos.getFD().sync();
+            } finally {
+                dos.close();
+            }
+
+            // the old snapshot is kept until the new one is in place
+            if (tmp.renameTo(file) == false) {
+                this.replace();
+            }
+
+            syncDirectory(file.getParentFile());
+
+            return count;
+        }
+
+        /**
+         * Replace the snapshot file on platforms where a rename does not
+         * replace an existing file. The old snapshot is moved aside and
+         * restored if the new one cannot be moved in place.
+         */
+        private void replace() throws IOException {
+
+            File old = oldFile(file);
+
+            if (file.exists() && file.renameTo(old) == false) {
+                throw new IOException("unable to rename " + file + " to "
+                        + old);
+            }
+
+            if (tmp.renameTo(file) == false) {
+                if (old.exists() && old.renameTo(file) == false) {
+                    logger.warning("unable to restore " + file);
+                }
+
+                throw new IOException("unable to rename " + tmp + " to "
+                        + file);
+            }
+
+            if (old.exists() && old.delete() == false) {
+                logger.warning("unable to delete " + old);
+            }
+        }
+
+        /**
+         * Discard the temporary file.
+         */
+        void abort() {
+
+            try {
+                dos.close();
+            } catch (IOException e) {
+                ;
+            }
+
+            if (tmp.delete() == false) {
+                logger.warning("unable to delete " + tmp);
+            }
+        }
+    }
+
+    /**
+     * Load a Java serialized memory store file saved by earlier versions.
+     *
+     * @param file
+     *            memory store file.
+     * @param handler
+     *            handler of the entries read.
+     * @throws Exception
+     *             if unable to read the file.
+     */
+    @SuppressWarnings("unchecked")
+    static void readLegacy(File file, MemoryStoreJournal.EntryHandler handler)
+            throws Exception {
+
+        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(
+                new FileInputStream(file), BUFFER_SIZE));
+
+        try {
+            SortedMap<byte[], byte[]> first = (SortedMap<byte[], byte[]>) ois
+                    .readObject();
+
+            SortedMap<byte[], byte[]> second = null;
+
+            try {
+                second = (SortedMap<byte[], byte[]>) ois.readObject();
+            } catch (EOFException eof) {
+                // single map file
+                second = null;
+            }
+
+            for (Entry<byte[], byte[]> e : first.entrySet()) {
+
+                if (second != null) {
+                    byte[] value = second.get(e.getKey());
+
+                    handler.put(e.getKey(), e.getValue(),
+                            (value == null) ? new byte[0] : value);
+                } else {
+                    // split full entry records
+                    KVValue kv = new KVValue(e.getValue());
+
+                    handler.put(e.getKey(), kv.toMetadataByteArray(),
+                            ZeroCopyByteString.array(kv.getData()));
+                }
+            }
+
+            logger.info("loaded legacy memory file, path=" + file
+                    + ", entries=" + first.size());
+        } finally {
+            ois.close();
+        }
+    }
+}
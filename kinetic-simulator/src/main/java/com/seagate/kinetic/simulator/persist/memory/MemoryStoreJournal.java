@@ -0,0 +1,882 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.persist.memory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-ahead log and snapshot of a memory store.
+ * <p>
+ * Every put and delete is appended to the current log file before the memory
+ * store is updated. Synchronous writes wait for the log to be synced before
+ * they return. The writers waiting at the same time share one sync: the first
+ * one syncs the log for all records appended so far, the others wait for it.
+ * When the log grows beyond the configured size, a snapshot of the store is
+ * written by a background thread and the logs covered by the snapshot are
+ * deleted. A snapshot is also taken when the store is closed.
+ * <p>
+ * Log files are numbered by generation. Taking a snapshot first switches to a
+ * new log generation, then writes the store entries. Writes that happen while
+ * the snapshot is written are in the new log, which is replayed on top of the
+ * snapshot at recovery. Replaying a put or delete again is harmless, so the
+ * snapshot does not need to be a consistent view of the store.
+ * <p>
+ * Recovery reads the snapshot and replays the remaining logs in order, and
+ * stops at the first damaged record. A partially written record at the end of
+ * the last log is the result of a crash and is truncated. Any other damage
+ * leaves a gap, so the later logs are not replayed on top of it: the damaged
+ * log and the later logs are moved aside with the {@value #CORRUPT_SUFFIX}
+ * suffix, and the records before the damage are kept as the last log.
+ *
+ * @see MemoryStoreFile
+ */
+final class MemoryStoreJournal {
+
+    private final static Logger logger = Logger
+            .getLogger(MemoryStoreJournal.class.getName());
+
+    // log size property name, a snapshot is taken when exceeded
+    public static final String LOG_SIZE_PROPERTY = "kinetic.db.memory.log.size";
+
+    // default log size
+    public static final long DEFAULT_LOG_SIZE = 64 * 1048576;
+
+    // snapshot file name
+    static final String SNAPSHOT_FILE = "memStore.snap";
+
+    // file name of earlier versions
+    static final String LEGACY_FILE = "memStore.ser";
+
+    // log file name prefix, followed by the generation
+    static final String LOG_PREFIX = "memStore.log.";
+
+    // suffix of logs moved aside at recovery
+    static final String CORRUPT_SUFFIX = ".corrupt";
+
+    /**
+     * Handler of the entries read from a snapshot or log.
+     */
+    interface EntryHandler {
+
+        void put(byte[] key, byte[] metadata, byte[] value) throws IOException;
+
+        void delete(byte[] key) throws IOException;
+    }
+
+    /**
+     * Source of the entries written to a snapshot.
+     */
+    interface EntrySource {
+
+        void writeTo(EntryHandler out) throws IOException;
+    }
+
+    // persist folder
+    private final File folder;
+
+    // max log size before a snapshot is taken
+    private final long maxLogSize;
+
+    // writers hold the read lock across log append and store update, log
+    // switch holds the write lock
+    private final ReentrantReadWriteLock switchLock = new ReentrantReadWriteLock();
+
+    // only one snapshot at a time
+    private final AtomicBoolean snapshotting = new AtomicBoolean(false);
+
+    // thread writing a background snapshot
+    private volatile Thread snapshotThread = null;
+
+    // number of records appended, guarded by this
+    private long appended = 0;
+
+    // group commit state, guarded by syncLock
+    private final Object syncLock = new Object();
+
+    // number of records known to be synced
+    private long synced = 0;
+
+    // a writer is syncing the log for the group
+    private boolean syncing = false;
+
+    // current log generation
+    private long generation = 0;
+
+    // current log file stream
+    private FileOutputStream fos = null;
+
+    // current log data stream
+    private DataOutputStream dos = null;
+
+    // bytes written to the current log
+    private volatile long logSize = 0;
+
+    MemoryStoreJournal(File folder, long maxLogSize) {
+        this.folder = folder;
+        this.maxLogSize = maxLogSize;
+    }
+
+    /**
+     * Load the snapshot and replay the logs, then start a new log.
+     *
+     * @param loader
+     *            handler of the recovered entries.
+     * @throws IOException
+     *             if the snapshot cannot be read.
+     */
+    synchronized void open(EntryHandler loader) throws IOException {
+
+        long nextGeneration = 0;
+
+        File snapshot = new File(folder, SNAPSHOT_FILE);
+        File legacy = new File(folder, LEGACY_FILE);
+
+        // a crash may have happened while the snapshot was replaced
+        MemoryStoreFile.recoverSnapshot(snapshot);
+
+        if (snapshot.exists()) {
+            nextGeneration = MemoryStoreFile.readSnapshot(snapshot, loader);
+        } else if (legacy.exists()) {
+            try {
+                MemoryStoreFile.readLegacy(legacy, loader);
+            } catch (Exception e) {
+                logger.log(Level.WARNING,
+                        "unable to load memory store file, path=" + legacy, e);
+            }
+        }
+
+        long last = nextGeneration - 1;
+
+        int records = 0;
+
+        List<Long> logs = this.listLogs();
+
+        for (int i = 0; i < logs.size(); i++) {
+
+            long gen = logs.get(i);
+
+            File log = logFile(gen);
+
+            if (gen < nextGeneration) {
+                // covered by the snapshot
+                delete(log);
+                continue;
+            }
+
+            Replay replay = replay(log, loader);
+
+            records += replay.records;
+
+            last = gen;
+
+            if (replay.damage == null) {
+                continue;
+            }
+
+            boolean lastLog = (i == logs.size() - 1);
+
+            if (lastLog && replay.damage instanceof EOFException) {
+                // partially written last record
+                logger.warning("truncating partial record at end of log, path="
+                        + log + ", length=" + replay.length);
+
+                truncate(log, replay.length);
+                break;
+            }
+
+            logger.severe("recovery stopped at damaged log record, path="
+                    + log + ", records=" + replay.records + ", "
+                    + replay.damage);
+
+            quarantine(log, replay.length);
+
+            // later logs would be replayed on top of the gap
+            for (int j = i + 1; j < logs.size(); j++) {
+
+                File later = logFile(logs.get(j));
+
+                logger.severe("log not replayed, moved to " + later
+                        + CORRUPT_SUFFIX);
+
+                moveAside(later);
+
+                last = logs.get(j);
+            }
+
+            break;
+        }
+
+        // never append to a log that may end with a partial record
+        this.generation = Math.max(last + 1, nextGeneration);
+
+        this.openLog();
+
+        logger.info("memory store journal opened, snapshot generation="
+                + nextGeneration + ", log records replayed=" + records);
+    }
+
+    /**
+     * Replay a log file up to the end of the file or the first damaged record.
+     */
+    private static Replay replay(File log, EntryHandler loader)
+            throws IOException {
+
+        Replay replay = new Replay();
+
+        CountingInputStream in = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(log),
+                        MemoryStoreFile.BUFFER_SIZE));
+
+        DataInputStream dis = new DataInputStream(in);
+
+        try {
+            while (MemoryStoreFile.readRecord(dis, loader)) {
+                replay.records++;
+                replay.length = in.count;
+            }
+        } catch (EOFException e) {
+            // end of log, or partially written last record
+            if (replay.length < log.length()) {
+                replay.damage = e;
+            }
+        } catch (IOException e) {
+            replay.damage = e;
+        } finally {
+            dis.close();
+        }
+
+        return replay;
+    }
+
+    /**
+     * Result of a log replay.
+     */
+    private static final class Replay {
+
+        // number of records replayed
+        private int records = 0;
+
+        // length of the replayed records
+        private long length = 0;
+
+        // damage found after the replayed records, null if none
+        private IOException damage = null;
+    }
+
+    /**
+     * Input stream counting the bytes read.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        // bytes read
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Truncate a log to the length of its replayed records.
+     */
+    private static void truncate(File log, long length) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(log, "rw");
+
+        try {
+            raf.setLength(length);
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Move a damaged log aside and keep a copy of its replayed records as the
+     * log, so that the next recovery replays the same records.
+     */
+    private static void quarantine(File log, long length) throws IOException {
+
+        File corrupt = moveAside(log);
+
+        FileInputStream in = new FileInputStream(corrupt);
+
+        try {
+            FileOutputStream out = new FileOutputStream(log);
+
+            try {
+                byte[] buffer = new byte[64 * 1024];
+
+                long remaining = length;
+
+                while (remaining > 0) {
+                    int n = in.read(buffer, 0,
+                            (int) Math.min(buffer.length, remaining));
+
+                    if (n < 0) {
+                        throw new EOFException("unable to copy " + corrupt);
+                    }
+
+                    out.write(buffer, 0, n);
+                    remaining -= n;
+                }
+
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+
+        MemoryStoreFile.syncDirectory(log.getParentFile());
+    }
+
+    /**
+     * Rename a log with the corrupt suffix, it is no longer replayed.
+     *
+     * @return the renamed file.
+     */
+    private static File moveAside(File log) throws IOException {
+
+        File corrupt = new File(log.getPath() + CORRUPT_SUFFIX);
+
+        if (log.renameTo(corrupt) == false) {
+            throw new IOException("unable to rename " + log + " to "
+                    + corrupt);
+        }
+
+        return corrupt;
+    }
+
+    /**
+     * Get the lock a writer holds across the log append and the store update.
+     */
+    Lock writerLock() {
+        return switchLock.readLock();
+    }
+
+    /**
+     * Append a put record. The record is not synced.
+     *
+     * @return ticket of the record, to wait for the record to be synced.
+     * @see #awaitSync(long)
+     */
+    synchronized long appendPut(byte[] key, byte[] metadata, byte[] value)
+            throws IOException {
+
+        MemoryStoreFile.writeRecord(dos, MemoryStoreFile.PUT, key, metadata,
+                value);
+
+        return this.written();
+    }
+
+    /**
+     * Append a delete record. The record is not synced.
+     *
+     * @return ticket of the record, to wait for the record to be synced.
+     * @see #awaitSync(long)
+     */
+    synchronized long appendDelete(byte[] key) throws IOException {
+
+        MemoryStoreFile.writeRecord(dos, MemoryStoreFile.DELETE, key, null,
+                null);
+
+        return this.written();
+    }
+
+    private long written() throws IOException {
+
+        // no partial record is left in the buffer
+        dos.flush();
+
+        this.logSize = dos.size();
+
+        return ++this.appended;
+    }
+
+    /**
+     * Wait until the record of the ticket is synced. The caller must not hold
+     * the writer lock or a store lock, so that other writers can append
+     * records to the same sync.
+     * <p>
+     * If no sync is in progress, the caller syncs the log for all records
+     * appended so far. Otherwise it waits for the sync in progress, and syncs
+     * again if its record was appended after that sync started.
+     *
+     * @param ticket
+     *            ticket returned by the append.
+     * @throws IOException
+     *             if unable to sync the log.
+     */
+    void awaitSync(long ticket) throws IOException {
+
+        synchronized (syncLock) {
+            while (synced < ticket && syncing) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted at sync");
+                }
+            }
+
+            if (synced >= ticket) {
+                return;
+            }
+
+            syncing = true;
+        }
+
+        long target = 0;
+        boolean done = false;
+
+        try {
+            FileOutputStream out = null;
+
+            // records up to the target are in this log or in logs closed
+            // and synced by a log switch
+            synchronized (this) {
+                target = this.appended;
+                out = this.fos;
+            }
+
+            if (out != null) {
+                try {
+                    out.getFD().sync();
+                } catch (IOException e) {
+                    synchronized (this) {
+                        if (out == this.fos) {
+                            throw e;
+                        }
+                    }
+
+                    // log switched and synced while closed
+                }
+            }
+
+            done = true;
+        } finally {
+            synchronized (syncLock) {
+                if (done) {
+                    synced = Math.max(synced, target);
+                }
+
+                syncing = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Sync the current log.
+     */
+    void sync() throws IOException {
+
+        long ticket = 0;
+
+        synchronized (this) {
+            ticket = this.appended;
+        }
+
+        this.awaitSync(ticket);
+    }
+
+    /**
+     * Check if the current log exceeds the configured size and no snapshot
+     * is in progress.
+     */
+    boolean needsSnapshot() {
+        return this.logSize > this.maxLogSize
+                && this.snapshotting.get() == false;
+    }
+
+    /**
+     * Check if writes were logged since the last snapshot, a snapshot would
+     * delete the logs.
+     */
+    boolean needsCompaction() {
+        return this.logSize > 0 || this.listLogs().size() > 1
+                || new File(folder, LEGACY_FILE).exists();
+    }
+
+    /**
+     * Start a snapshot by switching to a new log. Writes logged after the
+     * switch are not covered by the snapshot. The caller must not hold the
+     * writer lock.
+     * <p>
+     * The entries written to the snapshot must include all writes logged
+     * before the switch. A store that does not use the writer lock collects
+     * its entries after this call, while still holding the store lock.
+     *
+     * @param wait
+     *            wait for a snapshot in progress to finish, otherwise return
+     *            null if a snapshot is in progress.
+     * @return the started snapshot, to be written by the caller.
+     * @throws IOException
+     *             if unable to open the new log.
+     */
+    PendingSnapshot startSnapshot(boolean wait) throws IOException {
+
+        if (wait) {
+            this.acquireSnapshot();
+        } else if (snapshotting.compareAndSet(false, true) == false) {
+            return null;
+        }
+
+        boolean started = false;
+
+        try {
+            long covered = 0;
+
+            // switch to a new log, no writer is between log and store update
+            Lock lock = switchLock.writeLock();
+            lock.lock();
+
+            try {
+                synchronized (this) {
+                    this.closeLog();
+
+                    covered = this.generation++;
+
+                    this.openLog();
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            started = true;
+
+            return new PendingSnapshot(covered);
+        } finally {
+            if (started == false) {
+                snapshotting.set(false);
+            }
+        }
+    }
+
+    /**
+     * Wait for a snapshot in progress, then prevent other snapshots until
+     * released.
+     */
+    private void acquireSnapshot() {
+
+        boolean interrupted = false;
+
+        while (snapshotting.compareAndSet(false, true) == false) {
+
+            Thread thread = this.snapshotThread;
+
+            if (thread == null) {
+                Thread.yield();
+                continue;
+            }
+
+            try {
+                thread.join(100);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Snapshot started by a log switch. The snapshot must be written once,
+     * either by the caller or in the background.
+     */
+    final class PendingSnapshot {
+
+        // last log generation covered by the snapshot
+        private final long covered;
+
+        private PendingSnapshot(long covered) {
+            this.covered = covered;
+        }
+
+        /**
+         * Write the snapshot and delete the logs covered by it.
+         *
+         * @param source
+         *            store entries.
+         * @throws IOException
+         *             if unable to write the snapshot, the logs are kept.
+         */
+        void write(EntrySource source) throws IOException {
+            try {
+                writeSnapshot(covered, source);
+            } finally {
+                snapshotting.set(false);
+            }
+        }
+
+        /**
+         * Write the snapshot in a background thread, writers continue while
+         * it is written.
+         *
+         * @param source
+         *            store entries, read by the background thread.
+         */
+        void writeInBackground(final EntrySource source) {
+
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writeSnapshot(covered, source);
+                    } catch (Exception e) {
+                        // logs are kept, retried when the log is too large
+                        logger.log(Level.WARNING, e.getMessage(), e);
+                    } finally {
+                        snapshotThread = null;
+                        snapshotting.set(false);
+                    }
+                }
+            }, "MemoryStore-Snapshot");
+
+            thread.setDaemon(true);
+
+            snapshotThread = thread;
+
+            thread.start();
+        }
+    }
+
+    private void writeSnapshot(long covered, EntrySource source)
+            throws IOException {
+
+        MemoryStoreFile.SnapshotWriter writer = new MemoryStoreFile.SnapshotWriter(
+                new File(folder, SNAPSHOT_FILE), covered + 1);
+
+        long count = 0;
+
+        try {
+            source.writeTo(writer);
+            count = writer.commit();
+        } catch (IOException e) {
+            writer.abort();
+            throw e;
+        } catch (RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+
+        // logs and legacy file are covered by the snapshot
+        for (long gen : this.listLogs()) {
+            if (gen <= covered) {
+                delete(logFile(gen));
+            }
+        }
+
+        File legacy = new File(folder, LEGACY_FILE);
+        if (legacy.exists()) {
+            delete(legacy);
+        }
+
+        logger.info("memory store snapshot taken, entries=" + count
+                + ", log generation=" + (covered + 1));
+    }
+
+    /**
+     * Take a final snapshot and close the current log. A background snapshot
+     * in progress is finished first.
+     *
+     * @param source
+     *            store entries, see {@link #startSnapshot(boolean)}.
+     */
+    void close(EntrySource source) {
+
+        try {
+            this.startSnapshot(true).write(source);
+        } catch (IOException e) {
+            // the logs are kept and replayed at next start
+            logger.log(Level.WARNING, e.getMessage(), e);
+        }
+
+        synchronized (this) {
+            this.closeLog();
+        }
+    }
+
+    /**
+     * Delete the snapshot and all logs, then start a new log. A background
+     * snapshot in progress is finished first.
+     */
+    void reset() throws IOException {
+
+        this.acquireSnapshot();
+
+        try {
+            synchronized (this) {
+                this.closeLog();
+
+                for (long gen : this.listLogs()) {
+                    delete(logFile(gen));
+                }
+
+                // logs moved aside at recovery
+                String[] names = folder.list();
+
+                if (names != null) {
+                    for (String name : names) {
+                        if (name.startsWith(LOG_PREFIX)
+                                && name.endsWith(CORRUPT_SUFFIX)) {
+                            delete(new File(folder, name));
+                        }
+                    }
+                }
+
+                File snapshot = new File(folder, SNAPSHOT_FILE);
+                if (snapshot.exists()) {
+                    delete(snapshot);
+                }
+
+                File legacy = new File(folder, LEGACY_FILE);
+                if (legacy.exists()) {
+                    delete(legacy);
+                }
+
+                this.generation = 0;
+
+                this.openLog();
+            }
+        } finally {
+            snapshotting.set(false);
+        }
+    }
+
+    private void openLog() throws IOException {
+
+        this.fos = new FileOutputStream(logFile(generation));
+
+        this.dos = new DataOutputStream(new BufferedOutputStream(fos,
+                64 * 1024));
+
+        this.logSize = 0;
+    }
+
+    private void closeLog() {
+
+        if (dos == null) {
+            return;
+        }
+
+        try {
+            dos.flush();
+            fos.getFD().sync();
+            dos.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+        }
+
+        dos = null;
+        fos = null;
+    }
+
+    private File logFile(long gen) {
+        return new File(folder, LOG_PREFIX + gen);
+    }
+
+    /**
+     * Get the generations of the existing logs in ascending order.
+     */
+    private List<Long> listLogs() {
+
+        List<Long> list = new ArrayList<Long>();
+
+        String[] names = folder.list();
+
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(LOG_PREFIX)) {
+                    try {
+                        list.add(Long.parseLong(name.substring(LOG_PREFIX
+                                .length())));
+                    } catch (NumberFormatException e) {
+                        ;
+                    }
+                }
+            }
+        }
+
+        Collections.sort(list);
+
+        return list;
+    }
+
+    private static void delete(File file) {
+        if (file.delete() == false) {
+            logger.warning("unable to delete " + file);
+        }
+    }
+}
@@ -0,0 +1,930 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.persist.memory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import kinetic.simulator.SimulatorConfiguration;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.ZeroCopyByteString;
+import com.seagate.kinetic.simulator.internal.KVStoreException;
+import com.seagate.kinetic.simulator.internal.KVStoreNotFound;
+import com.seagate.kinetic.simulator.persist.BatchOperation;
+import com.seagate.kinetic.simulator.persist.KVKey;
+import com.seagate.kinetic.simulator.persist.KVValue;
+import com.seagate.kinetic.simulator.persist.PersistOption;
+import com.seagate.kinetic.simulator.persist.Store;
+import com.seagate.kinetic.simulator.persist.StoreCapacity;
+import com.seagate.kinetic.simulator.persist.UnorderedCompaction;
+
+/**
+ *
+ * Off-heap memory store implementation for the Kinetic simulator.
+ * <p>
+ * The metadata and value of an entry are stored in a chunk of direct memory
+ * managed by a {@link SlabAllocator}. Only the keys and a compact reference
+ * to the chunk of each entry are kept on the Java heap, in a
+ * {@link ConcurrentSkipListMap} ordered by {@link KeyComparator}, so large
+ * stores do not increase the heap size and garbage collection time.
+ * <p>
+ * Writers hold the lock stripe of the key across the version check, the log
+ * append and the index update, as {@link ConcurrentMemoryStore} does. The
+ * chunk of a replaced or removed entry is freed after the index is updated.
+ * Reads do not take any lock: a reader copies the chunk and then checks that
+ * the index still refers to the same reference. If not, the chunk may have
+ * been reused while copied and the read is retried.
+ * <p>
+ * The off-heap memory is defragmented by {@link #compactRange}, which moves
+ * the entries of sparsely used pages so the pages can be reused by other
+ * chunk sizes.
+ * <p>
+ * The snapshot and log files are the same as {@link MemoryStore}. The
+ * capacity of the off-heap memory is set with the
+ * "kinetic.db.memory.offheap.capacity" property, and is reported in the
+ * GETLOG CAPACITIES response.
+ *
+ * @see SlabAllocator
+ * @see MemoryStoreJournal
+ */
+public class OffHeapMemoryStore implements
+        Store<ByteString, ByteString, KVValue>, StoreCapacity,
+        UnorderedCompaction {
+
+    private final static java.util.logging.Logger logger = Logger
+            .getLogger(OffHeapMemoryStore.class.getName());
+
+    // off-heap capacity property name
+    public static final String CAPACITY_PROPERTY = "kinetic.db.memory.offheap.capacity";
+
+    // default off-heap capacity
+    public static final long DEFAULT_CAPACITY = 1024L * 1048576;
+
+    // metadata headroom of a chunk in addition to key, version and tag
+    private static final int METADATA_OVERHEAD = 64;
+
+    // number of key lock stripes, must be power of 2
+    private static final int LOCK_STRIPES = 256;
+
+    // lock stripes for put/delete
+    private final Object[] keyLocks = new Object[LOCK_STRIPES];
+
+    // index of the off-heap chunks
+    private volatile ConcurrentSkipListMap<byte[], Ref> sortedMap = null;
+
+    // chunk allocator
+    private volatile SlabAllocator allocator = null;
+
+    // write-ahead log and snapshot
+    private volatile MemoryStoreJournal journal = null;
+
+    // set while the off-heap memory is defragmented
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+
+    /**
+     * default constructor
+     */
+    public OffHeapMemoryStore() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            keyLocks[i] = new Object();
+        }
+    }
+
+    @Override
+    public void put(ByteString key, ByteString oldVersion, KVValue value,
+            PersistOption pOption) throws KVStoreException {
+
+        byte[] keyArray = key.toByteArray();
+
+        value.setKeyOf(key);
+
+        byte[] metadata = value.toMetadataByteArray();
+        byte[] data = ZeroCopyByteString.array(value.getData());
+
+        long ticket = 0;
+
+        Lock writerLock = journal.writerLock();
+        writerLock.lock();
+
+        try {
+            // version check, log and update are atomic for the key
+            synchronized (lockOf(keyArray)) {
+
+                Ref ref = this.sortedMap.get(keyArray);
+
+                ByteString version = null;
+                if (ref != null) {
+                    version = new KVValue(this.read(ref, false)[0])
+                            .getVersion();
+                }
+
+                MemoryStore.checkVersion(version, oldVersion);
+
+                ticket = this.doPut(keyArray, metadata, data);
+            }
+        } finally {
+            writerLock.unlock();
+        }
+
+        this.written(ticket, pOption);
+    }
+
+    @Override
+    public void putForced(ByteString key, KVValue value, PersistOption pOption)
+            throws KVStoreException {
+
+        byte[] keyArray = key.toByteArray();
+
+        value.setKeyOf(key);
+
+        byte[] metadata = value.toMetadataByteArray();
+        byte[] data = ZeroCopyByteString.array(value.getData());
+
+        long ticket = 0;
+
+        Lock writerLock = journal.writerLock();
+        writerLock.lock();
+
+        try {
+            synchronized (lockOf(keyArray)) {
+                ticket = this.doPut(keyArray, metadata, data);
+            }
+        } finally {
+            writerLock.unlock();
+        }
+
+        this.written(ticket, pOption);
+    }
+
+    @Override
+    public void delete(ByteString key, ByteString oldVersion,
+            PersistOption pOption) throws KVStoreException {
+
+        byte[] keyArray = key.toByteArray();
+
+        long ticket = 0;
+
+        Lock writerLock = journal.writerLock();
+        writerLock.lock();
+
+        try {
+            // version check, log and remove are atomic for the key
+            synchronized (lockOf(keyArray)) {
+
+                Ref ref = this.sortedMap.get(keyArray);
+
+                if (ref == null) {
+                    throw new KVStoreNotFound();
+                }
+
+                KVValue obj = new KVValue(this.read(ref, false)[0]);
+
+                ByteString prevVersion = obj.hasVersion() ? obj.getVersion()
+                        : ByteString.EMPTY;
+
+                MemoryStore.checkVersion(prevVersion, oldVersion);
+
+                ticket = this.doDelete(keyArray);
+            }
+        } finally {
+            writerLock.unlock();
+        }
+
+        this.written(ticket, pOption);
+    }
+
+    @Override
+    public void deleteForced(ByteString key, PersistOption pOption)
+            throws KVStoreException {
+
+        byte[] keyArray = key.toByteArray();
+
+        long ticket = 0;
+
+        Lock writerLock = journal.writerLock();
+        writerLock.lock();
+
+        try {
+            synchronized (lockOf(keyArray)) {
+                ticket = this.doDelete(keyArray);
+            }
+        } finally {
+            writerLock.unlock();
+        }
+
+        this.written(ticket, pOption);
+    }
+
+    /**
+     * store, log and index the entry, caller holds the writer lock and the key
+     * lock.
+     *
+     * @return ticket of the log record.
+     */
+    private long doPut(byte[] keyArray, byte[] metadata, byte[] data)
+            throws KVStoreException {
+
+        Ref ref = this.allocate(metadata, data);
+
+        if (ref == null) {
+            throw new KVStoreException("off-heap memory store is full");
+        }
+
+        long ticket = 0;
+
+        try {
+            ticket = this.journal.appendPut(keyArray, metadata, data);
+        } catch (IOException e) {
+            this.free(ref);
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
+
+        this.free(this.sortedMap.put(keyArray, ref));
+
+        return ticket;
+    }
+
+    /**
+     * log and remove the entry, caller holds the writer lock and the key lock.
+     *
+     * @return ticket of the log record.
+     */
+    private long doDelete(byte[] keyArray) throws KVStoreException {
+
+        long ticket = 0;
+
+        try {
+            ticket = this.journal.appendDelete(keyArray);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
+
+        this.free(this.sortedMap.remove(keyArray));
+
+        return ticket;
+    }
+
+    /**
+     * Copy metadata and value to a new chunk.
+     *
+     * @return reference to the chunk, or null if no memory is available.
+     */
+    private Ref allocate(byte[] metadata, byte[] data) {
+
+        long handle = this.allocator.allocate(metadata.length + data.length);
+
+        if (handle == SlabAllocator.NO_MEMORY) {
+            return null;
+        }
+
+        this.allocator.write(handle, 0, metadata);
+        this.allocator.write(handle, metadata.length, data);
+
+        return new Ref(handle, metadata.length, data.length);
+    }
+
+    /**
+     * Free the chunk of a reference removed from the index.
+     */
+    private void free(Ref ref) {
+        if (ref != null) {
+            this.allocator.free(ref.handle, ref.metadataLength
+                    + ref.valueLength);
+        }
+    }
+
+    /**
+     * Copy metadata and optionally the value of a chunk.
+     *
+     * @return metadata and value, the value is null if not requested.
+     */
+    private byte[][] read(Ref ref, boolean withValue) {
+
+        byte[] metadata = new byte[ref.metadataLength];
+        this.allocator.read(ref.handle, 0, metadata);
+
+        byte[] value = null;
+
+        if (withValue) {
+            value = new byte[ref.valueLength];
+            this.allocator.read(ref.handle, ref.metadataLength, value);
+        }
+
+        return new byte[][] { metadata, value };
+    }
+
+    /**
+     * Copy a chunk without holding a lock.
+     *
+     * @return metadata and value, or null if the entry was replaced or removed
+     *         while copied.
+     */
+    private byte[][] readValidated(byte[] key, Ref ref, boolean withValue) {
+
+        byte[][] data = this.read(ref, withValue);
+
+        // a reference is never indexed again once removed, the chunk was not
+        // freed if the reference is still indexed
+        if (this.sortedMap.get(key) != ref) {
+            return null;
+        }
+
+        return data;
+    }
+
+    /**
+     * Copy the current chunk of a key without holding a lock.
+     *
+     * @return metadata and value, or null if no entry.
+     */
+    private byte[][] readCurrent(byte[] key, boolean withValue) {
+
+        while (true) {
+
+            Ref ref = this.sortedMap.get(key);
+
+            if (ref == null) {
+                return null;
+            }
+
+            byte[][] data = this.readValidated(key, ref, withValue);
+
+            if (data != null) {
+                return data;
+            }
+        }
+    }
+
+    private static KVValue toKVValue(byte[][] data) {
+        return new KVValue(data[0], ZeroCopyByteString.wrap(data[1]));
+    }
+
+    @Override
+    public KVValue get(ByteString key) throws KVStoreException {
+
+        byte[][] data = this.readCurrent(key.toByteArray(), true);
+
+        if (data == null) {
+            throw new KVStoreNotFound();
+        }
+
+        return toKVValue(data);
+    }
+
+    @Override
+    public KVValue getMetadata(ByteString key) throws KVStoreException {
+
+        byte[][] data = this.readCurrent(key.toByteArray(), false);
+
+        if (data == null) {
+            throw new KVStoreNotFound();
+        }
+
+        return new KVValue(data[0]);
+    }
+
+    @Override
+    public KVValue getPrevious(ByteString key) throws KVStoreException {
+
+        byte[] keyArray = key.toByteArray();
+
+        while (true) {
+
+            Entry<byte[], Ref> entry = this.sortedMap.lowerEntry(keyArray);
+
+            if (entry == null) {
+                throw new KVStoreNotFound();
+            }
+
+            byte[][] data = this.readValidated(entry.getKey(),
+                    entry.getValue(), true);
+
+            if (data != null) {
+                return toKVValue(data);
+            }
+        }
+    }
+
+    @Override
+    public KVValue getNext(ByteString key) throws KVStoreException {
+
+        byte[] keyArray = key.toByteArray();
+
+        while (true) {
+
+            Entry<byte[], Ref> entry = this.sortedMap.higherEntry(keyArray);
+
+            if (entry == null) {
+                throw new KVStoreNotFound();
+            }
+
+            byte[][] data = this.readValidated(entry.getKey(),
+                    entry.getValue(), true);
+
+            if (data != null) {
+                return toKVValue(data);
+            }
+        }
+    }
+
+    @Override
+    public SortedMap<?, ?> getRange(ByteString startKey,
+            boolean startKeyInclusive, ByteString endKey,
+            boolean endKeyInclusive, int n) throws KVStoreException {
+
+        NavigableMap<byte[], Ref> bmap = subMap(startKey, startKeyInclusive,
+                endKey, endKeyInclusive);
+
+        // convert type
+        SortedMap<KVKey, KVValue> kvmap = new TreeMap<KVKey, KVValue>();
+
+        for (Entry<byte[], Ref> e : bmap.entrySet()) {
+
+            if (n <= 0) {
+                break;
+            }
+
+            byte[][] data = this.readValidated(e.getKey(), e.getValue(), true);
+
+            if (data == null) {
+                // replaced or removed meanwhile
+                data = this.readCurrent(e.getKey(), true);
+            }
+
+            if (data != null) {
+                kvmap.put(new KVKey(e.getKey()), toKVValue(data));
+                n--;
+            }
+        }
+
+        return kvmap;
+    }
+
+    @Override
+    public List<?> getKeyRange(ByteString startKey,
+            boolean startKeyInclusive, ByteString endKey,
+            boolean endKeyInclusive, int n) throws KVStoreException {
+
+        NavigableMap<byte[], Ref> bmap = subMap(startKey, startKeyInclusive,
+                endKey, endKeyInclusive);
+
+        List<KVKey> kvKeyOfList = new ArrayList<KVKey>();
+
+        // chunks are not touched
+        for (byte[] k : bmap.keySet()) {
+            if (n-- > 0) {
+                kvKeyOfList.add(new KVKey(k));
+            } else {
+                break;
+            }
+        }
+
+        return kvKeyOfList;
+    }
+
+    @Override
+    public List<?> getRangeReversed(ByteString startKey,
+            boolean startKeyInclusive, ByteString endKey,
+            boolean endKeyInclusive, int n) throws KVStoreException {
+
+        NavigableMap<byte[], Ref> bmap = subMap(startKey, startKeyInclusive,
+                endKey, endKeyInclusive);
+
+        List<KVKey> kvKeyOfList = new ArrayList<KVKey>();
+
+        // walk the range backwards, only the last n keys are visited
+        for (byte[] k : bmap.descendingKeySet()) {
+            if (n-- > 0) {
+                kvKeyOfList.add(new KVKey(k));
+            } else {
+                break;
+            }
+        }
+
+        return kvKeyOfList;
+    }
+
+    /**
+     * Get a weakly consistent view of the specified key range.
+     */
+    private ConcurrentNavigableMap<byte[], Ref> subMap(ByteString startKey,
+            boolean startKeyInclusive, ByteString endKey,
+            boolean endKeyInclusive) {
+
+        if (endKey.size() == 0) {
+            return sortedMap.tailMap(startKey.toByteArray(),
+                    startKeyInclusive);
+        }
+
+        byte[] start = startKey.toByteArray();
+        byte[] end = endKey.toByteArray();
+
+        // ConcurrentSkipListMap.subMap throws if start is after end
+        if (sortedMap.comparator().compare(start, end) > 0) {
+            return new ConcurrentSkipListMap<byte[], Ref>(new KeyComparator());
+        }
+
+        return sortedMap.subMap(start, startKeyInclusive, end,
+                endKeyInclusive);
+    }
+
+    /**
+     * wait for the log record to be synced unless the write is asynchronous,
+     * then take a snapshot if the log is too large. The caller does not hold
+     * the writer lock or a key lock, so that concurrent writers share the
+     * sync.
+     */
+    private void written(long ticket, PersistOption pOption)
+            throws KVStoreException {
+
+        if (pOption != PersistOption.ASYNC) {
+            try {
+                this.journal.awaitSync(ticket);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+                throw new KVStoreException(e.getMessage());
+            }
+        }
+
+        this.checkSnapshot();
+    }
+
+    /**
+     * start a background snapshot if the log is too large, other writers
+     * continue while the snapshot is written.
+     */
+    private void checkSnapshot() {
+
+        if (this.journal.needsSnapshot() == false) {
+            return;
+        }
+
+        try {
+            MemoryStoreJournal.PendingSnapshot snapshot = this.journal
+                    .startSnapshot(false);
+
+            if (snapshot != null) {
+                snapshot.writeInBackground(this.entries());
+            }
+        } catch (IOException e) {
+            // logs are kept, retried with the next write
+            logger.log(Level.WARNING, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * weakly consistent entries of this store, writes made while the snapshot
+     * is written are also in the new log.
+     */
+    private MemoryStoreJournal.EntrySource entries() {
+
+        final ConcurrentSkipListMap<byte[], Ref> map = this.sortedMap;
+
+        return new MemoryStoreJournal.EntrySource() {
+            @Override
+            public void writeTo(MemoryStoreJournal.EntryHandler out)
+                    throws IOException {
+                for (Entry<byte[], Ref> e : map.entrySet()) {
+
+                    byte[][] data = readValidated(e.getKey(), e.getValue(),
+                            true);
+
+                    if (data == null) {
+                        data = readCurrent(e.getKey(), true);
+                    }
+
+                    if (data != null) {
+                        out.put(e.getKey(), data[0], data[1]);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the lock stripe for the specified key.
+     */
+    private Object lockOf(byte[] key) {
+        int h = Arrays.hashCode(key);
+
+        // spread higher bits
+        h ^= (h >>> 16);
+
+        return keyLocks[h & (LOCK_STRIPES - 1)];
+    }
+
+    @Override
+    public long getNominalCapacity() {
+        return this.allocator.getCapacity();
+    }
+
+    @Override
+    public long getUsedCapacity() {
+        return this.allocator.getUsedBytes();
+    }
+
+    @Override
+    public void close() {
+
+        // final snapshot for a fast restart
+        this.journal.close(this.entries());
+
+        logger.info("off-heap memory store closed, entry count="
+                + this.sortedMap.size() + ", allocator: " + this.allocator);
+
+        this.sortedMap.clear();
+
+        // release the arenas
+        this.allocator.reset();
+    }
+
+    @Override
+    public void reset() throws KVStoreException {
+        // clean data
+        this.sortedMap.clear();
+
+        this.allocator.reset();
+
+        try {
+            // remove snapshot and logs
+            this.journal.reset();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void init(SimulatorConfiguration config) {
+
+        // default home folder
+        String defaultHome = System.getProperty("user.home") + File.separator
+                + "kinetic";
+
+        // kinetic home
+        String kineticHome = config.getProperty(
+                SimulatorConfiguration.KINETIC_HOME, defaultHome);
+
+        File lchome = new File(kineticHome);
+
+        // make folder if not there
+        if (lchome.exists() == false) {
+            boolean created = lchome.mkdir();
+            logger.info("create kinetic home folder: " + kineticHome
+                    + ", created=" + created);
+        }
+
+        // persist home
+        String persistFolder = kineticHome
+                + File.separator
+                + config.getProperty(SimulatorConfiguration.PERSIST_HOME,
+                        "memory");
+
+        File f = new File(persistFolder);
+
+        logger.info("Database file exists: " + f.exists() + ", name="
+                + persistFolder);
+
+        // create persist folder if not existed
+        if (f.exists() == false) {
+            boolean created = f.mkdir();
+            logger.info("create persist folder: " + persistFolder
+                    + ", created=" + created);
+        }
+
+        long capacity = Long.parseLong(config.getProperty(CAPACITY_PROPERTY,
+                String.valueOf(DEFAULT_CAPACITY)));
+
+        // largest entry, the metadata contains key, version and tag
+        int maxChunkSize = SimulatorConfiguration.getMaxSupportedValueSize()
+                + SimulatorConfiguration.getMaxSupportedKeySize()
+                + SimulatorConfiguration.getMaxSupportedVersionSize()
+                + SimulatorConfiguration.getMaxSupportedTagSize()
+                + METADATA_OVERHEAD;
+
+        this.allocator = new SlabAllocator(capacity, maxChunkSize);
+
+        long maxLogSize = Long.parseLong(config.getProperty(
+                MemoryStoreJournal.LOG_SIZE_PROPERTY,
+                String.valueOf(MemoryStoreJournal.DEFAULT_LOG_SIZE)));
+
+        MemoryStoreJournal j = new MemoryStoreJournal(f, maxLogSize);
+
+        this.sortedMap = new ConcurrentSkipListMap<byte[], Ref>(
+                new KeyComparator());
+
+        try {
+            // recover the index and chunks from snapshot and log
+            j.open(new MemoryStoreJournal.EntryHandler() {
+                @Override
+                public void put(byte[] key, byte[] metadata, byte[] value)
+                        throws IOException {
+
+                    Ref ref = allocate(metadata, value);
+
+                    if (ref == null) {
+                        throw new IOException(
+                                "off-heap capacity exceeded, capacity="
+                                        + allocator.getCapacity());
+                    }
+
+                    free(sortedMap.put(key, ref));
+                }
+
+                @Override
+                public void delete(byte[] key) {
+                    free(sortedMap.remove(key));
+                }
+            });
+
+            logger.info("loaded off-heap memory store, path=" + persistFolder
+                    + ", size=" + sortedMap.size() + ", allocator: "
+                    + allocator);
+
+        } catch (IOException e) {
+
+            logger.log(Level.SEVERE, e.getMessage(), e);
+
+            throw new RuntimeException(e);
+        }
+
+        this.journal = j;
+    }
+
+    @Override
+    public BatchOperation<ByteString, KVValue> createBatchOperation()
+            throws KVStoreException {
+
+        throw new java.lang.UnsupportedOperationException();
+    }
+
+    @Override
+    public void flush() throws KVStoreException {
+
+        try {
+            this.journal.sync();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
+    }
+
+    /**
+     * Defragment the off-heap memory and compact the persisted files.
+     * <p>
+     * Entries are not key ordered in memory or in the files, the range is
+     * ignored. The entries on sparsely used pages are moved to free chunks of
+     * fuller pages of the same slab class, and the emptied pages are returned
+     * to the allocator for use by any slab class. A snapshot is taken if
+     * writes were logged since the last snapshot.
+     */
+    @Override
+    public void compactRange(ByteString startKey, ByteString endKey)
+            throws KVStoreException {
+
+        if (this.compacting.compareAndSet(false, true)) {
+            try {
+                this.defragment();
+            } finally {
+                this.compacting.set(false);
+            }
+        }
+
+        if (this.journal.needsCompaction() == false) {
+            return;
+        }
+
+        try {
+            // a snapshot in progress compacts the files
+            MemoryStoreJournal.PendingSnapshot snapshot = this.journal
+                    .startSnapshot(false);
+
+            if (snapshot != null) {
+                snapshot.write(this.entries());
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
+    }
+
+    /**
+     * Move the entries on the pages marked for evacuation.
+     */
+    private void defragment() {
+
+        int marked = this.allocator.beginEvacuation();
+
+        if (marked == 0) {
+            return;
+        }
+
+        int moved = 0;
+
+        try {
+            for (Entry<byte[], Ref> e : this.sortedMap.entrySet()) {
+                if (this.allocator.isEvacuating(e.getValue().handle)
+                        && this.relocate(e.getKey())) {
+                    moved++;
+                }
+            }
+        } finally {
+            int released = this.allocator.endEvacuation();
+
+            logger.info("off-heap memory defragmented, pages marked="
+                    + marked + ", pages released=" + released
+                    + ", entries moved=" + moved + ", allocator: "
+                    + this.allocator);
+        }
+    }
+
+    /**
+     * Move the entry of the key to a new chunk if its chunk is on a page
+     * being evacuated. The content and the version are not changed, nothing
+     * is logged.
+     *
+     * @return true if moved.
+     */
+    private boolean relocate(byte[] key) {
+
+        synchronized (lockOf(key)) {
+
+            Ref ref = this.sortedMap.get(key);
+
+            if (ref == null || this.allocator.isEvacuating(ref.handle) == false) {
+                return false;
+            }
+
+            byte[][] data = this.read(ref, true);
+
+            Ref moved = this.allocate(data[0], data[1]);
+
+            if (moved == null) {
+                return false;
+            }
+
+            this.sortedMap.put(key, moved);
+
+            // readers of the old chunk see the replaced reference and retry
+            this.free(ref);
+
+            return true;
+        }
+    }
+
+    /**
+     * Index reference to the chunk of an entry. A new reference is created for
+     * each put, so readers can detect a replaced entry by identity.
+     */
+    private static final class Ref {
+
+        // chunk handle
+        private final long handle;
+
+        // metadata length, the metadata is at the start of the chunk
+        private final int metadataLength;
+
+        // value length, the value follows the metadata
+        private final int valueLength;
+
+        Ref(long handle, int metadataLength, int valueLength) {
+            this.handle = handle;
+            this.metadataLength = metadataLength;
+            this.valueLength = valueLength;
+        }
+    }
+
+}
@@ -0,0 +1,671 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.persist.memory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Slab allocator of off-heap memory chunks.
+ * <p>
+ * Memory is reserved from the operating system in direct buffer arenas, up to
+ * the configured capacity. Arenas are divided into pages. A page is assigned
+ * to a slab class when the class runs out of chunks, and is carved into chunks
+ * of the chunk size of the class. Chunk sizes of the slab classes grow by a
+ * constant factor, so the space wasted per chunk is bounded. Freed chunks are
+ * kept in a free list of their class and reused.
+ * <p>
+ * Pages are defragmented by evacuation. {@link #beginEvacuation()} marks the
+ * sparsely used pages of each class whose live chunks fit in the free chunks
+ * of the other pages of the class, and stops allocating from them. The owner
+ * of the chunks then moves the chunks on the marked pages, see
+ * {@link #isEvacuating(long)}. A marked page is returned to the allocator when
+ * its last chunk is freed and may be assigned to any class.
+ * {@link #endEvacuation()} unmarks the pages that are still in use.
+ * <p>
+ * A chunk is identified by a handle, the arena index in the high 32 bits and
+ * the offset in the arena in the low 32 bits. The caller remembers the size it
+ * allocated, the chunk is freed with the same size.
+ *
+ * @see OffHeapMemoryStore
+ */
+final class SlabAllocator {
+
+    private final static Logger logger = Logger.getLogger(SlabAllocator.class
+            .getName());
+
+    // arena size
+    static final int ARENA_SIZE = 64 * 1048576;
+
+    // page size, the largest chunk must fit in a page
+    static final int PAGE_SIZE = 8 * 1048576;
+
+    // pages per arena
+    private static final int PAGES_PER_ARENA = ARENA_SIZE / PAGE_SIZE;
+
+    // smallest chunk size
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    // chunk size growth factor of the slab classes
+    private static final double GROWTH_FACTOR = 1.25;
+
+    // chunk size alignment
+    private static final int ALIGNMENT = 8;
+
+    // handle returned if no memory is available
+    static final long NO_MEMORY = -1;
+
+    // configured capacity
+    private final long capacity;
+
+    // arenas, allocated on demand
+    private final ByteBuffer[] arenas;
+
+    // slab classes ordered by chunk size
+    private final SlabClass[] classes;
+
+    // number of pages carved from the arenas, guarded by this
+    private int pagesUsed = 0;
+
+    // pages returned by the slab classes, guarded by this
+    private final int[] freePages;
+
+    // number of returned pages, guarded by this
+    private int freePageCount = 0;
+
+    // pages returned by evacuation, guarded by this
+    private long releasedPages = 0;
+
+    // pages returned before the current evacuation, guarded by this
+    private long releasedBefore = 0;
+
+    // live chunks of each page, guarded by the monitor of the page's class
+    private final int[] pageLive;
+
+    // pages being evacuated, written under the monitor of the page's class
+    private final boolean[] evacuating;
+
+    /**
+     * Create an allocator.
+     *
+     * @param capacity
+     *            max bytes reserved for arenas.
+     * @param maxChunkSize
+     *            size of the largest chunk.
+     */
+    SlabAllocator(long capacity, int maxChunkSize) {
+
+        if (maxChunkSize > PAGE_SIZE) {
+            throw new IllegalArgumentException("chunk size " + maxChunkSize
+                    + " exceeds page size " + PAGE_SIZE);
+        }
+
+        int arenaCount = (int) Math.max(1, (capacity + ARENA_SIZE - 1)
+                / ARENA_SIZE);
+
+        this.capacity = (long) arenaCount * ARENA_SIZE;
+        this.arenas = new ByteBuffer[arenaCount];
+
+        this.freePages = new int[arenaCount * PAGES_PER_ARENA];
+        this.pageLive = new int[arenaCount * PAGES_PER_ARENA];
+        this.evacuating = new boolean[arenaCount * PAGES_PER_ARENA];
+
+        List<SlabClass> list = new ArrayList<SlabClass>();
+
+        int size = MIN_CHUNK_SIZE;
+
+        while (size < maxChunkSize) {
+            list.add(new SlabClass(size));
+
+            size = align((int) (size * GROWTH_FACTOR));
+        }
+
+        list.add(new SlabClass(align(maxChunkSize)));
+
+        this.classes = list.toArray(new SlabClass[list.size()]);
+    }
+
+    private static int align(int size) {
+        return (size + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+    }
+
+    /**
+     * Allocate a chunk.
+     *
+     * @param size
+     *            bytes needed.
+     * @return handle of the chunk, or {@link #NO_MEMORY} if the capacity is
+     *         used up.
+     * @throws IllegalArgumentException
+     *             if the size exceeds the largest chunk size.
+     */
+    long allocate(int size) {
+
+        SlabClass sc = classOf(size);
+
+        synchronized (sc) {
+
+            if (sc.freeCount > 0) {
+                long handle = sc.free[--sc.freeCount];
+                sc.used++;
+                pageLive[pageOf(handle)]++;
+                return handle;
+            }
+
+            if (sc.carveLeft == 0) {
+
+                long page = this.newPage();
+
+                if (page == NO_MEMORY) {
+                    return NO_MEMORY;
+                }
+
+                sc.pages++;
+                sc.carve = page;
+                sc.carveLeft = PAGE_SIZE / sc.chunkSize;
+            }
+
+            long handle = sc.carve;
+
+            sc.carve += sc.chunkSize;
+            sc.carveLeft--;
+            sc.used++;
+            pageLive[pageOf(handle)]++;
+
+            return handle;
+        }
+    }
+
+    /**
+     * Free a chunk.
+     *
+     * @param handle
+     *            handle of the chunk.
+     * @param size
+     *            size passed to {@link #allocate(int)}.
+     */
+    void free(long handle, int size) {
+
+        SlabClass sc = classOf(size);
+
+        synchronized (sc) {
+
+            int page = pageOf(handle);
+
+            sc.used--;
+            pageLive[page]--;
+
+            if (evacuating[page]) {
+                if (pageLive[page] == 0) {
+                    this.release(sc, page);
+                } else {
+                    sc.parked = push(sc.parked, sc.parkedCount++, handle);
+                }
+                return;
+            }
+
+            sc.free = push(sc.free, sc.freeCount++, handle);
+        }
+    }
+
+    /**
+     * Store a handle at the index, the array is grown if full.
+     *
+     * @return the array.
+     */
+    private static long[] push(long[] array, int index, long handle) {
+
+        if (index == array.length) {
+            long[] grown = new long[array.length * 2];
+            System.arraycopy(array, 0, grown, 0, index);
+            array = grown;
+        }
+
+        array[index] = handle;
+
+        return array;
+    }
+
+    /**
+     * Mark the sparsely used pages of each slab class for evacuation. Free
+     * chunks of a marked page are not allocated until the evacuation ends.
+     * Pages are marked, least used first, while their live chunks fit in the
+     * free chunks of the unmarked pages of the class. Marked pages without
+     * live chunks are returned at once.
+     *
+     * @return number of pages marked.
+     */
+    int beginEvacuation() {
+
+        synchronized (this) {
+            this.releasedBefore = this.releasedPages;
+        }
+
+        int marked = 0;
+
+        for (SlabClass sc : classes) {
+            synchronized (sc) {
+                marked += this.markSparsePages(sc);
+            }
+        }
+
+        return marked;
+    }
+
+    /**
+     * Mark the sparse pages of a class, the caller holds the class monitor.
+     */
+    private int markSparsePages(SlabClass sc) {
+
+        int perPage = PAGE_SIZE / sc.chunkSize;
+
+        int carvePage = (sc.carveLeft > 0) ? pageOf(sc.carve) : -1;
+
+        // pages with free chunks, live count in the high 32 bits
+        long[] candidates = new long[Math.min(sc.freeCount, pageLive.length)];
+        int count = 0;
+
+        boolean[] seen = new boolean[pageLive.length];
+
+        for (int i = 0; i < sc.freeCount; i++) {
+
+            int page = pageOf(sc.free[i]);
+
+            if (seen[page] || page == carvePage || evacuating[page]) {
+                continue;
+            }
+
+            seen[page] = true;
+
+            // more than half of the page is free
+            if (pageLive[page] * 2 < perPage) {
+                candidates[count++] = ((long) pageLive[page] << 32) | page;
+            }
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        Arrays.sort(candidates, 0, count);
+
+        // free chunks outside the marked pages
+        long room = sc.freeCount + sc.carveLeft;
+
+        int marked = 0;
+
+        for (int i = 0; i < count; i++) {
+
+            int live = (int) (candidates[i] >>> 32);
+            int page = (int) candidates[i];
+
+            int free = perPage - live;
+
+            if (live > room - free) {
+                break;
+            }
+
+            room -= free + live;
+
+            evacuating[page] = true;
+            marked++;
+        }
+
+        // park the free chunks of the marked pages
+        int kept = 0;
+
+        for (int i = 0; i < sc.freeCount; i++) {
+
+            long handle = sc.free[i];
+
+            if (evacuating[pageOf(handle)]) {
+                sc.parked = push(sc.parked, sc.parkedCount++, handle);
+            } else {
+                sc.free[kept++] = handle;
+            }
+        }
+
+        sc.freeCount = kept;
+
+        // nothing to move
+        for (int i = 0; i < count; i++) {
+
+            int page = (int) candidates[i];
+
+            if (evacuating[page] && pageLive[page] == 0) {
+                this.release(sc, page);
+            }
+        }
+
+        return marked;
+    }
+
+    /**
+     * Check if the chunk is on a page being evacuated. The owner moves the
+     * chunk to a newly allocated chunk and frees it.
+     *
+     * @param handle
+     *            handle of the chunk.
+     * @return true if the chunk should be moved.
+     */
+    boolean isEvacuating(long handle) {
+        return evacuating[pageOf(handle)];
+    }
+
+    /**
+     * End the evacuation. The pages still in use are unmarked, their free
+     * chunks are allocated again.
+     *
+     * @return number of pages returned since the evacuation began.
+     */
+    int endEvacuation() {
+
+        for (SlabClass sc : classes) {
+            synchronized (sc) {
+
+                for (int i = 0; i < sc.parkedCount; i++) {
+
+                    long handle = sc.parked[i];
+
+                    // chunks of returned pages are dropped
+                    if (evacuating[pageOf(handle)]) {
+                        sc.free = push(sc.free, sc.freeCount++, handle);
+                    }
+                }
+
+                for (int i = 0; i < sc.parkedCount; i++) {
+                    evacuating[pageOf(sc.parked[i])] = false;
+                }
+
+                sc.parked = new long[16];
+                sc.parkedCount = 0;
+            }
+        }
+
+        synchronized (this) {
+            return (int) (this.releasedPages - this.releasedBefore);
+        }
+    }
+
+    /**
+     * Return an evacuated page without live chunks, the caller holds the
+     * class monitor.
+     */
+    private void release(SlabClass sc, int page) {
+
+        evacuating[page] = false;
+
+        sc.pages--;
+
+        synchronized (this) {
+            freePages[freePageCount++] = page;
+            releasedPages++;
+        }
+    }
+
+    private static int pageOf(long handle) {
+        return (int) (handle >>> 32) * PAGES_PER_ARENA + offsetOf(handle)
+                / PAGE_SIZE;
+    }
+
+    /**
+     * Assign a new page, arenas are allocated on demand.
+     *
+     * @return handle of the first byte of the page.
+     */
+    private synchronized long newPage() {
+
+        if (freePageCount > 0) {
+
+            int page = freePages[--freePageCount];
+
+            return ((long) (page / PAGES_PER_ARENA) << 32)
+                    | (long) (page % PAGES_PER_ARENA) * PAGE_SIZE;
+        }
+
+        int arena = pagesUsed / PAGES_PER_ARENA;
+
+        if (arena >= arenas.length) {
+            return NO_MEMORY;
+        }
+
+        if (arenas[arena] == null) {
+            try {
+                arenas[arena] = ByteBuffer.allocateDirect(ARENA_SIZE);
+            } catch (OutOfMemoryError e) {
+                // -XX:MaxDirectMemorySize is lower than the capacity
+                logger.warning("unable to allocate off-heap arena, "
+                        + e.getMessage());
+                return NO_MEMORY;
+            }
+
+            logger.info("allocated off-heap arena, index=" + arena);
+        }
+
+        long offset = (long) (pagesUsed % PAGES_PER_ARENA) * PAGE_SIZE;
+
+        pagesUsed++;
+
+        return ((long) arena << 32) | offset;
+    }
+
+    private SlabClass classOf(int size) {
+
+        // binary search of the smallest class that fits
+        int low = 0;
+        int high = classes.length - 1;
+
+        if (size > classes[high].chunkSize) {
+            throw new IllegalArgumentException("size " + size
+                    + " exceeds max chunk size " + classes[high].chunkSize);
+        }
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (classes[mid].chunkSize < size) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return classes[low];
+    }
+
+    /**
+     * Get the size of the largest chunk.
+     */
+    int getMaxChunkSize() {
+        return classes[classes.length - 1].chunkSize;
+    }
+
+    /**
+     * Copy bytes into a chunk.
+     */
+    void write(long handle, int position, byte[] src) {
+
+        ByteBuffer bb = arenaOf(handle).duplicate();
+        bb.position(offsetOf(handle) + position);
+        bb.put(src);
+    }
+
+    /**
+     * Copy bytes out of a chunk.
+     */
+    void read(long handle, int position, byte[] dst) {
+
+        ByteBuffer bb = arenaOf(handle).duplicate();
+        bb.position(offsetOf(handle) + position);
+        bb.get(dst);
+    }
+
+    private ByteBuffer arenaOf(long handle) {
+        return arenas[(int) (handle >>> 32)];
+    }
+
+    private static int offsetOf(long handle) {
+        return (int) handle;
+    }
+
+    /**
+     * Free all chunks and release the arenas.
+     */
+    synchronized void reset() {
+
+        for (SlabClass sc : classes) {
+            synchronized (sc) {
+                sc.reset();
+            }
+        }
+
+        for (int i = 0; i < arenas.length; i++) {
+            // memory is released when the buffer is garbage collected
+            arenas[i] = null;
+        }
+
+        pagesUsed = 0;
+        freePageCount = 0;
+
+        Arrays.fill(pageLive, 0);
+        Arrays.fill(evacuating, false);
+    }
+
+    /**
+     * Get the capacity, rounded up to whole arenas.
+     */
+    long getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Get the bytes of the allocated arenas.
+     */
+    synchronized long getReservedBytes() {
+
+        long reserved = 0;
+
+        for (ByteBuffer arena : arenas) {
+            if (arena != null) {
+                reserved += ARENA_SIZE;
+            }
+        }
+
+        return reserved;
+    }
+
+    /**
+     * Get the bytes of the pages assigned to slab classes.
+     */
+    synchronized long getPageBytes() {
+        return (long) (pagesUsed - freePageCount) * PAGE_SIZE;
+    }
+
+    /**
+     * Get the bytes of the chunks in use.
+     */
+    long getUsedBytes() {
+
+        long used = 0;
+
+        for (SlabClass sc : classes) {
+            synchronized (sc) {
+                used += sc.used * sc.chunkSize;
+            }
+        }
+
+        return used;
+    }
+
+    @Override
+    public String toString() {
+
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("capacity=").append(getCapacity());
+        sb.append(", reserved=").append(getReservedBytes());
+        sb.append(", pages=").append(getPageBytes());
+        sb.append(", used=").append(getUsedBytes());
+
+        for (SlabClass sc : classes) {
+            synchronized (sc) {
+                if (sc.pages > 0) {
+                    sb.append(", [chunk=").append(sc.chunkSize);
+                    sb.append(", pages=").append(sc.pages);
+                    sb.append(", used=").append(sc.used);
+                    sb.append(", free=").append(sc.freeCount).append("]");
+                }
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Chunks of one size. Guarded by its own monitor.
+     */
+    private static final class SlabClass {
+
+        // chunk size of this class
+        private final int chunkSize;
+
+        // handles of freed chunks
+        private long[] free = new long[16];
+
+        // number of freed chunks
+        private int freeCount = 0;
+
+        // next chunk to carve from the current page
+        private long carve = 0;
+
+        // chunks left in the current page
+        private int carveLeft = 0;
+
+        // pages assigned to this class
+        private int pages = 0;
+
+        // chunks in use
+        private long used = 0;
+
+        // free chunks of pages being evacuated
+        private long[] parked = new long[16];
+
+        // number of parked chunks
+        private int parkedCount = 0;
+
+        SlabClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        void reset() {
+            free = new long[16];
+            freeCount = 0;
+            carve = 0;
+            carveLeft = 0;
+            pages = 0;
+            used = 0;
+            parked = new long[16];
+            parkedCount = 0;
+        }
+    }
+}
@@ -0,0 +1,500 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.persist.mmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.ZeroCopyByteString;
+
+/**
+ * Memory mapped append-only log segment.
+ * <p>
+ * A segment file is mapped as a whole when opened. Records are appended at the
+ * write position. Each record has the following format:
+ * <ul>
+ * <li>4 bytes: body length
+ * <li>4 bytes: CRC32 of the body
+ * <li>body: 1 byte record type, 4 bytes key length, key, and for a put record,
+ * 4 bytes metadata length, metadata, 4 bytes value length, value.
+ * </ul>
+ * The unused part of a segment is filled with zeros, a zero body length marks
+ * the end of the records.
+ * <p>
+ * The mapping of a segment stays valid after the segment is closed or deleted
+ * until it is garbage collected, so readers holding a segment may still read
+ * from it.
+ *
+ * @see MmapLogStore
+ */
+final class LogSegment {
+
+    private final static Logger logger = Logger.getLogger(LogSegment.class
+            .getName());
+
+    // put record type
+    static final byte PUT = 1;
+
+    // delete (tombstone) record type
+    static final byte DELETE = 2;
+
+    // record header size, body length and crc
+    static final int HEADER_SIZE = 8;
+
+    // segment file name suffix
+    static final String SUFFIX = ".seg";
+
+    // segment id, segments with higher id are newer
+    private final long id;
+
+    // segment file
+    private final File file;
+
+    // file channel
+    private final FileChannel channel;
+
+    // mapped segment file
+    private final MappedByteBuffer buffer;
+
+    // write position, only changed by the store writer
+    private volatile int position = 0;
+
+    // bytes of live put records, guarded by the store writer lock
+    private long liveBytes = 0;
+
+    private LogSegment(long id, File file, RandomAccessFile raf, int size)
+            throws IOException {
+        this.id = id;
+        this.file = file;
+        this.channel = raf.getChannel();
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Create a new segment file with the specified size.
+     */
+    static LogSegment create(File folder, long id, int size)
+            throws IOException {
+
+        File file = new File(folder, toFileName(id));
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        // new segment is zero filled
+        raf.setLength(size);
+
+        return new LogSegment(id, file, raf, size);
+    }
+
+    /**
+     * Open an existing segment file. The write position is set by
+     * {@link #recover(RecordVisitor)}.
+     */
+    static LogSegment open(File file) throws IOException {
+
+        String name = file.getName();
+
+        long id = Long.parseLong(name.substring(0,
+                name.length() - SUFFIX.length()));
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        return new LogSegment(id, file, raf, (int) raf.length());
+    }
+
+    static String toFileName(long id) {
+        return String.format("%016d", id) + SUFFIX;
+    }
+
+    static boolean isSegmentFile(String name) {
+        return name.endsWith(SUFFIX)
+                && name.substring(0, name.length() - SUFFIX.length()).matches(
+                        "[0-9]+");
+    }
+
+    long getId() {
+        return this.id;
+    }
+
+    int getPosition() {
+        return this.position;
+    }
+
+    long getLiveBytes() {
+        return this.liveBytes;
+    }
+
+    void addLiveBytes(long delta) {
+        this.liveBytes += delta;
+    }
+
+    int capacity() {
+        return this.buffer.capacity();
+    }
+
+    /**
+     * Get the size of a put record.
+     */
+    static int putRecordSize(byte[] key, byte[] metadata, ByteString value) {
+        return HEADER_SIZE + 1 + 4 + key.length + 4 + metadata.length + 4
+                + value.size();
+    }
+
+    /**
+     * Get the size of a delete record.
+     */
+    static int deleteRecordSize(byte[] key) {
+        return HEADER_SIZE + 1 + 4 + key.length;
+    }
+
+    /**
+     * Check if a record of the specified size fits in this segment.
+     */
+    boolean hasRoom(int recordSize) {
+        return this.position + recordSize <= this.buffer.capacity();
+    }
+
+    /**
+     * Append a put record. The caller holds the store writer lock and has
+     * checked that the record fits.
+     *
+     * @return offset of the value in this segment.
+     */
+    int appendPut(byte[] key, byte[] metadata, ByteString value) {
+
+        byte[] valueArray = ZeroCopyByteString.array(value);
+
+        int size = putRecordSize(key, metadata, value);
+
+        ByteBuffer dup = this.buffer.duplicate();
+        dup.position(this.position + HEADER_SIZE);
+
+        CRC32 crc = new CRC32();
+
+        dup.put(PUT);
+        crc.update(PUT);
+
+        putBytes(dup, crc, key);
+        putBytes(dup, crc, metadata);
+
+        int valueOffset = dup.position() + 4;
+
+        putBytes(dup, crc, valueArray);
+
+        this.writeHeader(size, crc);
+
+        return valueOffset;
+    }
+
+    /**
+     * Append a delete record. The caller holds the store writer lock and has
+     * checked that the record fits.
+     */
+    void appendDelete(byte[] key) {
+
+        int size = deleteRecordSize(key);
+
+        ByteBuffer dup = this.buffer.duplicate();
+        dup.position(this.position + HEADER_SIZE);
+
+        CRC32 crc = new CRC32();
+
+        dup.put(DELETE);
+        crc.update(DELETE);
+
+        putBytes(dup, crc, key);
+
+        this.writeHeader(size, crc);
+    }
+
+    /**
+     * Write the record header after the body, the record becomes visible to
+     * recovery only when the header is written.
+     */
+    private void writeHeader(int size, CRC32 crc) {
+        this.buffer.putInt(this.position + 4, (int) crc.getValue());
+        this.buffer.putInt(this.position, size - HEADER_SIZE);
+        this.position += size;
+    }
+
+    private static void putBytes(ByteBuffer dup, CRC32 crc, byte[] bytes) {
+
+        dup.putInt(bytes.length);
+        updateInt(crc, bytes.length);
+
+        dup.put(bytes);
+        crc.update(bytes);
+    }
+
+    private static void updateInt(CRC32 crc, int v) {
+        crc.update(v >>> 24);
+        crc.update(v >>> 16);
+        crc.update(v >>> 8);
+        crc.update(v);
+    }
+
+    /**
+     * Read the value at the specified offset from the mapped segment.
+     */
+    ByteString read(int offset, int length) {
+
+        if (length == 0) {
+            return ByteString.EMPTY;
+        }
+
+        ByteBuffer dup = this.buffer.duplicate();
+        dup.position(offset);
+        dup.limit(offset + length);
+
+        return ByteString.copyFrom(dup);
+    }
+
+    /**
+     * Force the appended records to the storage device.
+     */
+    void force() {
+        this.buffer.force();
+    }
+
+    /**
+     * Visit the valid records of this segment. The write position is set to
+     * the end of the last valid record. A partially written record and
+     * anything after it is cleared.
+     *
+     * @return number of records visited.
+     */
+    int recover(RecordVisitor visitor) {
+
+        int pos = 0;
+        int count = 0;
+        boolean torn = false;
+
+        int capacity = this.buffer.capacity();
+
+        while (pos + HEADER_SIZE <= capacity) {
+
+            int bodyLength = this.buffer.getInt(pos);
+
+            if (bodyLength == 0) {
+                // end of records
+                break;
+            }
+
+            if (bodyLength < 0 || pos + HEADER_SIZE + bodyLength > capacity) {
+                torn = true;
+                break;
+            }
+
+            byte[] body = new byte[bodyLength];
+
+            ByteBuffer dup = this.buffer.duplicate();
+            dup.position(pos + HEADER_SIZE);
+            dup.get(body);
+
+            CRC32 crc = new CRC32();
+            crc.update(body);
+
+            if ((int) crc.getValue() != this.buffer.getInt(pos + 4)) {
+                torn = true;
+                break;
+            }
+
+            try {
+                Record record = Record.parse(body, pos + HEADER_SIZE);
+                record.offset = pos;
+                record.size = HEADER_SIZE + bodyLength;
+
+                visitor.visit(this, record);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "invalid record, segment=" + file
+                        + ", offset=" + pos, e);
+                torn = true;
+                break;
+            }
+
+            pos += HEADER_SIZE + bodyLength;
+            count++;
+        }
+
+        this.position = pos;
+
+        if (torn) {
+            logger.warning("discarding partially written records, segment="
+                    + file + ", offset=" + pos);
+
+            // later appends must not be followed by stale records
+            for (int i = pos; i < capacity; i++) {
+                this.buffer.put(i, (byte) 0);
+            }
+
+            this.buffer.force();
+        }
+
+        return count;
+    }
+
+    /**
+     * Read all valid records of this segment, used by compaction.
+     */
+    List<Record> records() {
+
+        final List<Record> list = new ArrayList<Record>();
+
+        int pos = 0;
+
+        while (pos + HEADER_SIZE <= this.position) {
+
+            int bodyLength = this.buffer.getInt(pos);
+
+            byte[] body = new byte[bodyLength];
+
+            ByteBuffer dup = this.buffer.duplicate();
+            dup.position(pos + HEADER_SIZE);
+            dup.get(body);
+
+            Record record = Record.parse(body, pos + HEADER_SIZE);
+            record.offset = pos;
+            record.size = HEADER_SIZE + bodyLength;
+
+            list.add(record);
+
+            pos += HEADER_SIZE + bodyLength;
+        }
+
+        return list;
+    }
+
+    /**
+     * Close the file channel. The mapping stays valid for readers.
+     */
+    void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Close and delete the segment file.
+     */
+    void delete() {
+
+        this.close();
+
+        if (this.file.delete() == false) {
+            logger.warning("unable to delete segment file: " + file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.file.getPath();
+    }
+
+    /**
+     * Record visitor for recovery.
+     */
+    interface RecordVisitor {
+
+        /**
+         * Visit a valid record.
+         *
+         * @param segment
+         *            the segment of the record
+         * @param record
+         *            the parsed record
+         */
+        void visit(LogSegment segment, Record record);
+    }
+
+    /**
+     * Parsed log record. The value is not copied, only its offset in the
+     * segment is kept.
+     */
+    static final class Record {
+
+        // record type
+        byte type;
+
+        // entry key
+        byte[] key;
+
+        // serialized metadata, null for delete
+        byte[] metadata;
+
+        // value offset in the segment
+        int valueOffset;
+
+        // value length
+        int valueLength;
+
+        // record offset in the segment
+        int offset;
+
+        // record size including header
+        int size;
+
+        /**
+         * Parse a record body.
+         *
+         * @param body
+         *            record body
+         * @param bodyOffset
+         *            offset of the body in the segment
+         */
+        static Record parse(byte[] body, int bodyOffset) {
+
+            ByteBuffer bb = ByteBuffer.wrap(body);
+
+            Record record = new Record();
+
+            record.type = bb.get();
+
+            if (record.type != PUT && record.type != DELETE) {
+                throw new IllegalStateException("unknown record type: "
+                        + record.type);
+            }
+
+            record.key = new byte[bb.getInt()];
+            bb.get(record.key);
+
+            if (record.type == PUT) {
+                record.metadata = new byte[bb.getInt()];
+                bb.get(record.metadata);
+
+                record.valueLength = bb.getInt();
+                record.valueOffset = bodyOffset + bb.position();
+            }
+
+            return record;
+        }
+    }
+}
@@ -0,0 +1,729 @@
+/**
+ *
+ * Copyright (C) 2014 Seagate Technology.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.simulator.persist.mmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import kinetic.simulator.SimulatorConfiguration;
+
+import com.google.protobuf.ByteString;
+import com.seagate.kinetic.simulator.internal.KVStoreException;
+import com.seagate.kinetic.simulator.internal.KVStoreNotFound;
+import com.seagate.kinetic.simulator.persist.BatchOperation;
+import com.seagate.kinetic.simulator.persist.KVKey;
+import com.seagate.kinetic.simulator.persist.KVValue;
+import com.seagate.kinetic.simulator.persist.PersistOption;
+import com.seagate.kinetic.simulator.persist.Store;
+import com.seagate.kinetic.simulator.persist.UnorderedCompaction;
+import com.seagate.kinetic.simulator.persist.memory.KeyComparator;
+import com.seagate.kinetic.simulator.persist.memory.MemoryStore;
+import com.seagate.kinetic.simulator.persist.mmap.LogSegment.Record;
+import com.seagate.kinetic.simulator.persist.mmap.LogSegment.RecordVisitor;
+
+/**
+ * Memory mapped append-only log store for the Kinetic simulator.
+ * <p>
+ * Entries are appended to memory mapped segment files, see {@link LogSegment}.
+ * An in-memory sorted index maps each key to the segment and offset of its
+ * latest value, together with the entry metadata. Values are read from the
+ * mapped segments, no JNI call is involved.
+ * <p>
+ * Writes are serialized by the store. A synchronous write forces the segment
+ * before it returns. Reads do not take any lock.
+ * <p>
+ * The index is rebuilt at start up by replaying the segment files in order.
+ * Space of overwritten and deleted entries is reclaimed by segment compaction,
+ * which is performed when a media optimize ({@link #compactRange}) is
+ * requested.
+ * <p>
+ * This store is selected with the following Java System property:
+ * <p>
+ * -Dkinetic.db.class=com.seagate.kinetic.simulator.persist.mmap.MmapLogStore
+ * <p>
+ * The segment size (in bytes, default 64 MB) may be set with the
+ * "kinetic.db.mmap.segment.size" property.
+ *
+ * @see LogSegment
+ */
+public class MmapLogStore implements Store<ByteString, ByteString, KVValue>,
+        UnorderedCompaction {
+
+    private final static java.util.logging.Logger logger = Logger
+            .getLogger(MmapLogStore.class.getName());
+
+    // segment size property name
+    public static final String SEGMENT_SIZE_PROPERTY = "kinetic.db.mmap.segment.size";
+
+    // default segment size
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1048576;
+
+    // key index
+    private volatile ConcurrentSkipListMap<byte[], IndexEntry> index = null;
+
+    // segments ordered by id, the last one is the active segment
+    private final List<LogSegment> segments = new ArrayList<LogSegment>();
+
+    // the segment appended to
+    private LogSegment active = null;
+
+    // segment size
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+
+    // segment folder
+    private File folder = null;
+
+    // writer lock, guards appends, segments and live bytes
+    private final Object writeLock = new Object();
+
+    // server config
+    private SimulatorConfiguration config = null;
+
+    /**
+     * default constructor
+     */
+    public MmapLogStore() {
+        ;
+    }
+
+    @Override
+    public void init(SimulatorConfiguration config) {
+
+        this.config = config;
+
+        // default home folder
+        String defaultHome = System.getProperty("user.home") + File.separator
+                + "kinetic";
+
+        // kinetic home
+        String kineticHome = config.getProperty(
+                SimulatorConfiguration.KINETIC_HOME, defaultHome);
+
+        File lchome = new File(kineticHome);
+
+        // make folder if not there
+        if (lchome.exists() == false) {
+            boolean created = lchome.mkdir();
+            logger.info("create kinetic home folder: " + kineticHome
+                    + ", created=" + created);
+        }
+
+        // persist home
+        String persistFolder = kineticHome
+                + File.separator
+                + config.getProperty(SimulatorConfiguration.PERSIST_HOME,
+                        "mmap");
+
+        File f = new File(persistFolder);
+
+        logger.info("Database exists: " + f.exists() + ", name="
+                + persistFolder);
+
+        // create persist folder if not existed
+        if (f.exists() == false) {
+            boolean created = f.mkdir();
+            logger.info("create persist folder: " + persistFolder
+                    + ", created=" + created);
+        }
+
+        this.segmentSize = Integer.parseInt(config.getProperty(
+                SEGMENT_SIZE_PROPERTY, String.valueOf(DEFAULT_SEGMENT_SIZE)));
+
+        synchronized (writeLock) {
+
+            this.folder = f;
+
+            try {
+                this.recover();
+            } catch (IOException e) {
+
+                logger.log(Level.SEVERE, e.getMessage(), e);
+
+                throw new RuntimeException(e);
+            }
+        }
+
+        logger.info("mmap log store opened, folder=" + persistFolder
+                + ", segments=" + segments.size() + ", entries="
+                + index.size());
+    }
+
+    /**
+     * Rebuild the index by replaying all segment files in order. The caller
+     * holds the writer lock.
+     */
+    private void recover() throws IOException {
+
+        final ConcurrentSkipListMap<byte[], IndexEntry> map = new ConcurrentSkipListMap<byte[], IndexEntry>(
+                new KeyComparator());
+
+        this.segments.clear();
+
+        String[] names = folder.list();
+
+        if (names == null) {
+            names = new String[0];
+        }
+
+        // file names are zero padded ids
+        Arrays.sort(names);
+
+        RecordVisitor visitor = new RecordVisitor() {
+            @Override
+            public void visit(LogSegment segment, Record record) {
+                if (record.type == LogSegment.PUT) {
+                    IndexEntry entry = new IndexEntry(segment, record.offset,
+                            record.size, record.metadata, record.valueOffset,
+                            record.valueLength);
+
+                    updateIndex(map, record.key, entry);
+                } else {
+                    updateIndex(map, record.key, null);
+                }
+            }
+        };
+
+        for (String name : names) {
+
+            if (LogSegment.isSegmentFile(name) == false) {
+                continue;
+            }
+
+            LogSegment segment = LogSegment.open(new File(folder, name));
+
+            int count = segment.recover(visitor);
+
+            logger.fine("segment recovered, segment=" + segment
+                    + ", records=" + count);
+
+            this.segments.add(segment);
+        }
+
+        if (segments.isEmpty()) {
+            this.segments.add(LogSegment.create(folder, 1, segmentSize));
+        }
+
+        this.active = segments.get(segments.size() - 1);
+
+        this.index = map;
+    }
+
+    /**
+     * Set the index entry of the key and account the live bytes of the
+     * segments. A null entry removes the key. The caller holds the writer
+     * lock.
+     */
+    private static void updateIndex(
+            ConcurrentSkipListMap<byte[], IndexEntry> map, byte[] key,
+            IndexEntry entry) {
+
+        IndexEntry old = null;
+
+        if (entry != null) {
+            old = map.put(key, entry);
+            entry.segment.addLiveBytes(entry.size);
+        } else {
+            old = map.remove(key);
+        }
+
+        if (old != null) {
+            old.segment.addLiveBytes(-old.size);
+        }
+    }
+
+    @Override
+    public void put(ByteString key, ByteString oldVersion, KVValue value,
+            PersistOption pOption) throws KVStoreException {
+
+        byte[] keyArray = key.toByteArray();
+
+        value.setKeyOf(key);
+
+        synchronized (writeLock) {
+
+            IndexEntry entry = this.index.get(keyArray);
+
+            ByteString version = null;
+            if (entry != null) {
+                version = new KVValue(entry.metadata).getVersion();
+            }
+
+            MemoryStore.checkVersion(version, oldVersion);
+
+            this.doPut(keyArray, value.toMetadataByteArray(),
+                    value.getData(), pOption);
+        }
+    }
+
+    @Override
+    public void putForced(ByteString key, KVValue value, PersistOption pOption)
+            throws KVStoreException {
+
+        value.setKeyOf(key);
+
+        synchronized (writeLock) {
+            this.doPut(key.toByteArray(), value.toMetadataByteArray(),
+                    value.getData(), pOption);
+        }
+    }
+
+    @Override
+    public void delete(ByteString key, ByteString oldVersion,
+            PersistOption pOption) throws KVStoreException {
+
+        byte[] keyArray = key.toByteArray();
+
+        synchronized (writeLock) {
+
+            IndexEntry entry = this.index.get(keyArray);
+
+            if (entry == null) {
+                throw new KVStoreNotFound();
+            }
+
+            KVValue metadata = new KVValue(entry.metadata);
+
+            ByteString version = metadata.hasVersion() ? metadata
+                    .getVersion() : ByteString.EMPTY;
+
+            MemoryStore.checkVersion(version, oldVersion);
+
+            this.doDelete(keyArray, pOption);
+        }
+    }
+
+    @Override
+    public void deleteForced(ByteString key, PersistOption pOption)
+            throws KVStoreException {
+
+        synchronized (writeLock) {
+            this.doDelete(key.toByteArray(), pOption);
+        }
+    }
+
+    /**
+     * Append a put record and update the index. The caller holds the writer
+     * lock.
+     */
+    private void doPut(byte[] keyArray, byte[] metadata, ByteString value,
+            PersistOption pOption) throws KVStoreException {
+
+        int size = LogSegment.putRecordSize(keyArray, metadata, value);
+
+        LogSegment segment = this.segmentFor(size);
+
+        int offset = segment.getPosition();
+
+        int valueOffset = segment.appendPut(keyArray, metadata, value);
+
+        if (pOption != PersistOption.ASYNC) {
+            segment.force();
+        }
+
+        updateIndex(this.index, keyArray, new IndexEntry(segment, offset,
+                size, metadata, valueOffset, value.size()));
+    }
+
+    /**
+     * Append a delete record and update the index. The caller holds the
+     * writer lock.
+     */
+    private void doDelete(byte[] keyArray, PersistOption pOption)
+            throws KVStoreException {
+
+        LogSegment segment = this.segmentFor(LogSegment
+                .deleteRecordSize(keyArray));
+
+        segment.appendDelete(keyArray);
+
+        if (pOption != PersistOption.ASYNC) {
+            segment.force();
+        }
+
+        updateIndex(this.index, keyArray, null);
+    }
+
+    /**
+     * Get the segment to append a record of the specified size. A new active
+     * segment is created if the record does not fit. The caller holds the
+     * writer lock.
+     */
+    private LogSegment segmentFor(int recordSize) throws KVStoreException {
+
+        if (this.active.hasRoom(recordSize)) {
+            return this.active;
+        }
+
+        try {
+            // sealed segment must be durable before the new one is used
+            this.active.force();
+
+            LogSegment segment = LogSegment.create(folder,
+                    this.active.getId() + 1,
+                    Math.max(segmentSize, recordSize));
+
+            this.segments.add(segment);
+
+            this.active = segment;
+
+            logger.fine("new segment created: " + segment);
+
+            return segment;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw new KVStoreException(e.getMessage());
+        }
+    }
+
+    @Override
+    public KVValue get(ByteString key) throws KVStoreException {
+
+        IndexEntry entry = this.index.get(key.toByteArray());
+
+        if (entry == null) {
+            throw new KVStoreNotFound();
+        }
+
+        return entry.toKVValue();
+    }
+
+    @Override
+    public KVValue getMetadata(ByteString key) throws KVStoreException {
+
+        IndexEntry entry = this.index.get(key.toByteArray());
+
+        if (entry == null) {
+            throw new KVStoreNotFound();
+        }
+
+        return new KVValue(entry.metadata);
+    }
+
+    @Override
+    public KVValue getPrevious(ByteString key) throws KVStoreException {
+
+        Entry<byte[], IndexEntry> entry = this.index.lowerEntry(key
+                .toByteArray());
+
+        if (entry == null) {
+            throw new KVStoreNotFound();
+        }
+
+        return entry.getValue().toKVValue();
+    }
+
+    @Override
+    public KVValue getNext(ByteString key) throws KVStoreException {
+
+        Entry<byte[], IndexEntry> entry = this.index.higherEntry(key
+                .toByteArray());
+
+        if (entry == null) {
+            throw new KVStoreNotFound();
+        }
+
+        return entry.getValue().toKVValue();
+    }
+
+    @Override
+    public SortedMap<?, ?> getRange(ByteString startKey,
+            boolean startKeyInclusive, ByteString endKey,
+            boolean endKeyInclusive, int n) throws KVStoreException {
+
+        NavigableMap<byte[], IndexEntry> bmap = subMap(startKey,
+                startKeyInclusive, endKey, endKeyInclusive);
+
+        // convert type
+        SortedMap<KVKey, KVValue> kvmap = new TreeMap<KVKey, KVValue>();
+
+        for (Entry<byte[], IndexEntry> e : bmap.entrySet()) {
+            if (n-- > 0) {
+                kvmap.put(new KVKey(e.getKey()), e.getValue().toKVValue());
+            } else {
+                break;
+            }
+        }
+
+        return kvmap;
+    }
+
+    @Override
+    public List<?> getKeyRange(ByteString startKey,
+            boolean startKeyInclusive, ByteString endKey,
+            boolean endKeyInclusive, int n) throws KVStoreException {
+
+        NavigableMap<byte[], IndexEntry> bmap = subMap(startKey,
+                startKeyInclusive, endKey, endKeyInclusive);
+
+        List<KVKey> kvKeyOfList = new ArrayList<KVKey>();
+
+        // values are not touched
+        for (byte[] k : bmap.keySet()) {
+            if (n-- > 0) {
+                kvKeyOfList.add(new KVKey(k));
+            } else {
+                break;
+            }
+        }
+
+        return kvKeyOfList;
+    }
+
+    @Override
+    public List<?> getRangeReversed(ByteString startKey,
+            boolean startKeyInclusive, ByteString endKey,
+            boolean endKeyInclusive, int n) throws KVStoreException {
+
+        NavigableMap<byte[], IndexEntry> bmap = subMap(startKey,
+                startKeyInclusive, endKey, endKeyInclusive);
+
+        List<KVKey> kvKeyOfList = new ArrayList<KVKey>();
+
+        for (byte[] k : bmap.descendingKeySet()) {
+            if (n-- > 0) {
+                kvKeyOfList.add(new KVKey(k));
+            } else {
+                break;
+            }
+        }
+
+        return kvKeyOfList;
+    }
+
+    /**
+     * Get a weakly consistent view of the specified key range.
+     */
+    private ConcurrentNavigableMap<byte[], IndexEntry> subMap(
+            ByteString startKey, boolean startKeyInclusive, ByteString endKey,
+            boolean endKeyInclusive) {
+
+        if (endKey.size() == 0) {
+            return index.tailMap(startKey.toByteArray(), startKeyInclusive);
+        }
+
+        byte[] start = startKey.toByteArray();
+        byte[] end = endKey.toByteArray();
+
+        // ConcurrentSkipListMap.subMap throws if start is after end
+        if (index.comparator().compare(start, end) > 0) {
+            return new ConcurrentSkipListMap<byte[], IndexEntry>(
+                    new KeyComparator());
+        }
+
+        return index.subMap(start, startKeyInclusive, end, endKeyInclusive);
+    }
+
+    @Override
+    public void close() {
+
+        synchronized (writeLock) {
+
+            for (LogSegment segment : segments) {
+                segment.force();
+                segment.close();
+            }
+
+            logger.info("mmap log store closed, segments=" + segments.size()
+                    + ", entries=" + index.size());
+        }
+    }
+
+    @Override
+    public void reset() throws KVStoreException {
+
+        synchronized (writeLock) {
+
+            for (LogSegment segment : segments) {
+                segment.delete();
+            }
+
+            this.segments.clear();
+
+            // start with a new segment
+            this.init(config);
+        }
+    }
+
+    @Override
+    public BatchOperation<ByteString, KVValue> createBatchOperation()
+            throws KVStoreException {
+
+        throw new java.lang.UnsupportedOperationException();
+    }
+
+    @Override
+    public void flush() throws KVStoreException {
+
+        synchronized (writeLock) {
+            this.active.force();
+        }
+    }
+
+    /**
+     * Compact segments. Segments are not key ordered, all sealed segments with
+     * space of overwritten or deleted entries are compacted regardless of the
+     * specified range. Live records of a compacted segment are appended to the
+     * active segment and the segment file is deleted.
+     */
+    @Override
+    public void compactRange(ByteString startKey, ByteString endKey)
+            throws KVStoreException {
+
+        List<LogSegment> victims = new ArrayList<LogSegment>();
+
+        // oldest segment not compacted
+        long oldestRemaining = Long.MAX_VALUE;
+
+        synchronized (writeLock) {
+
+            for (LogSegment segment : segments) {
+
+                if (segment != active
+                        && segment.getLiveBytes() < segment.getPosition()) {
+                    victims.add(segment);
+                } else {
+                    oldestRemaining = Math.min(oldestRemaining,
+                            segment.getId());
+                }
+            }
+        }
+
+        if (victims.isEmpty()) {
+            return;
+        }
+
+        long moved = 0;
+
+        for (LogSegment segment : victims) {
+
+            // older remaining segments may hold puts of deleted keys
+            boolean keepTombstones = oldestRemaining < segment.getId();
+
+            for (Record record : segment.records()) {
+
+                synchronized (writeLock) {
+                    if (this.relocate(segment, record, keepTombstones)) {
+                        moved++;
+                    }
+                }
+            }
+        }
+
+        synchronized (writeLock) {
+
+            // relocated records must be durable before the files are deleted
+            this.active.force();
+
+            this.segments.removeAll(victims);
+        }
+
+        // oldest first, so that no tombstone is lost before the put it hides
+        for (LogSegment segment : victims) {
+            segment.delete();
+        }
+
+        logger.info("segments compacted, count=" + victims.size()
+                + ", records moved=" + moved);
+    }
+
+    /**
+     * Append the record to the active segment if it is still live. The
+     * caller holds the writer lock.
+     *
+     * @return true if the record was moved.
+     */
+    private boolean relocate(LogSegment segment, Record record,
+            boolean keepTombstones) throws KVStoreException {
+
+        IndexEntry entry = this.index.get(record.key);
+
+        if (record.type == LogSegment.PUT) {
+
+            if (entry == null || entry.segment != segment
+                    || entry.offset != record.offset) {
+                // overwritten or deleted
+                return false;
+            }
+
+            this.doPut(record.key, record.metadata,
+                    segment.read(record.valueOffset, record.valueLength),
+                    PersistOption.ASYNC);
+
+            return true;
+        }
+
+        if (keepTombstones && entry == null) {
+            this.doDelete(record.key, PersistOption.ASYNC);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Index entry, the location of the latest put record of a key.
+     */
+    private static final class IndexEntry {
+
+        // segment of the record
+        private final LogSegment segment;
+
+        // record offset in the segment
+        private final int offset;
+
+        // record size
+        private final int size;
+
+        // serialized metadata
+        private final byte[] metadata;
+
+        // value offset in the segment
+        private final int valueOffset;
+
+        // value length
+        private final int valueLength;
+
+        IndexEntry(LogSegment segment, int offset, int size, byte[] metadata,
+                int valueOffset, int valueLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+            this.metadata = metadata;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+        }
+
+        KVValue toKVValue() {
+            return new KVValue(metadata, segment.read(valueOffset,
+                    valueLength));
+        }
+    }
+}
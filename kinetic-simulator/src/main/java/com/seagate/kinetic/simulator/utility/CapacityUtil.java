@@ -24,6 +24,7 @@ import java.io.File;
 import java.util.logging.Logger;
 
 import com.seagate.kinetic.proto.Kinetic.Command.GetLog.Capacity;
+import com.seagate.kinetic.simulator.persist.StoreCapacity;
 
 /**
  *
@@ -42,6 +43,32 @@ public abstract class CapacityUtil {
 
     //private static long MB = 1000000;
 
+    /**
+     * Get the capacity of the store if it manages its own capacity, otherwise
+     * the capacity of the file system.
+     *
+     * @param store
+     *            the store of the simulator.
+     * @return the capacity.
+     */
+    public static Capacity getCapacity(Object store) {
+
+        if (store instanceof StoreCapacity) {
+
+            StoreCapacity sc = (StoreCapacity) store;
+
+            long total = sc.getNominalCapacity();
+
+            float portionFull = (total == 0) ? 0
+                    : (float) sc.getUsedCapacity() / total;
+
+            return Capacity.newBuilder().setNominalCapacityInBytes(total)
+                    .setPortionFull(portionFull).build();
+        }
+
+        return getCapacity();
+    }
+
     public static Capacity getCapacity() {
 
         Capacity capacity = null;
@@ -118,6 +118,24 @@ public class SimulatorConfiguration extends Properties {
     private int nioEventLoopWorkerThreads = Integer
             .parseInt(DEFAULT_NIO_EVENT_LOOP_THREADS);
 
+    /**
+     * request worker threads, 0 to size the pool by available processors
+     */
+    private int requestWorkerThreads = 0;
+
+    /**
+     * requests queued for the workers at which reads are suspended
+     */
+    private int requestQueueHighWatermark = 1024;
+
+    /**
+     * flag to execute requests on virtual threads, default is set to false
+     * unless the "kinetic.simulator.virtualThreads" system property is set to
+     * true.
+     */
+    private boolean useVirtualThreads = Boolean
+            .getBoolean("kinetic.simulator.virtualThreads");
+
     /**
      * flag to indicate if memory store is used for the simulator
      */
@@ -154,6 +172,14 @@ public class SimulatorConfiguration extends Properties {
     // .getBoolean("kinetic.nio.messageOrder.enforced");
     private boolean messageOrderinEnforced = true;
 
+    /**
+     * pipeline requests of different keys received within the same
+     * connection, default is set to false unless the
+     * "kinetic.simulator.pipelined" system property is set to true.
+     */
+    private boolean requestPipelining = Boolean
+            .getBoolean("kinetic.simulator.pipelined");
+
     /**
      * max supported value size in bytes
      */
@@ -526,6 +552,97 @@ public class SimulatorConfiguration extends Properties {
         return this.nioEventLoopWorkerThreads;
     }
 
+    /**
+     * Set the number of worker threads processing requests.
+     * <p>
+     * If not set, the default is set to 0 - the system uses twice the number
+     * of available processors obtained from <code>Runtime</code> API, and at
+     * least 4 threads.
+     * 
+     * @param nThreads
+     *            number of request worker threads.
+     * 
+     * @see Runtime#availableProcessors()
+     */
+    public void setRequestWorkerThreads(int nThreads) {
+
+        if (nThreads < 0) {
+            throw new java.lang.IllegalArgumentException(
+                    "nThread must be greater or equal to 0");
+        }
+
+        this.requestWorkerThreads = nThreads;
+    }
+
+    /**
+     * Get the number of worker threads processing requests.
+     * 
+     * @return number of request worker threads.
+     */
+    public int getRequestWorkerThreads() {
+
+        if (this.requestWorkerThreads > 0) {
+            return this.requestWorkerThreads;
+        }
+
+        return Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Set the number of requests queued for the workers at which the
+     * simulator stops reading from its connections.
+     * <p>
+     * Reading resumes when the queued requests fall to half the high
+     * watermark. The default is 1024.
+     * 
+     * @param highWatermark
+     *            queued requests at which reading is suspended.
+     */
+    public void setRequestQueueHighWatermark(int highWatermark) {
+
+        if (highWatermark <= 0) {
+            throw new java.lang.IllegalArgumentException(
+                    "highWatermark must be greater than 0");
+        }
+
+        this.requestQueueHighWatermark = highWatermark;
+    }
+
+    /**
+     * Get the number of requests queued for the workers at which the
+     * simulator stops reading from its connections.
+     * 
+     * @return queued requests at which reading is suspended.
+     */
+    public int getRequestQueueHighWatermark() {
+        return this.requestQueueHighWatermark;
+    }
+
+    /**
+     * Set to true to execute each request and each per connection ordered
+     * queue on a virtual thread instead of the bounded worker pool.
+     * <p>
+     * Virtual threads require a Java runtime that supports them (Java 21 or
+     * later). The worker pool is used if the runtime does not. The request
+     * queue high watermark applies to the requests in progress.
+     * 
+     * @param flag
+     *            set to true to use virtual threads.
+     */
+    public void setUseVirtualThreads(boolean flag) {
+        this.useVirtualThreads = flag;
+    }
+
+    /**
+     * Get the flag that indicates if requests are executed on virtual
+     * threads.
+     * 
+     * @return true if virtual threads are requested.
+     */
+    public boolean getUseVirtualThreads() {
+        return this.useVirtualThreads;
+    }
+
     /**
      * Set to true to instruct the simulator to use memory store.
      * <p>
@@ -674,6 +791,35 @@ public class SimulatorConfiguration extends Properties {
         this.messageOrderinEnforced = flag;
     }
 
+    /**
+     * Get if requests of different keys received within the same connection
+     * are executed in parallel.
+     * 
+     * @return true if request pipelining is enabled. Otherwise, return false.
+     */
+    public boolean getRequestPipelining() {
+        return this.requestPipelining;
+    }
+
+    /**
+     * Set if requests of different keys received within the same connection
+     * are executed in parallel.
+     * <p>
+     * Applies if message ordering is enforced. GET, GETVERSION, PUT and
+     * DELETE requests of the same key are executed in received order, all
+     * other requests are executed after the requests received before them
+     * and before the requests received after them. Responses are sent in
+     * received order.
+     * <p>
+     * This flag must be set before starting/instantiating the simulator.
+     * 
+     * @param flag
+     *            set to true to enable request pipelining.
+     */
+    public void setRequestPipelining(boolean flag) {
+        this.requestPipelining = flag;
+    }
+
     /**
      * Max supported value size in bytes. Default is set to 1M bytes (1024 *
      * 1024).
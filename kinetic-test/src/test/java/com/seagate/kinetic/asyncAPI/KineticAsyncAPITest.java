@@ -30,6 +30,7 @@ import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
 import static org.testng.internal.junit.ArrayAsserts.assertArrayEquals;
 
 import java.io.IOException;
@@ -38,14 +39,21 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
+import kinetic.client.AsyncKineticException;
 import kinetic.client.CallbackHandler;
 import kinetic.client.CallbackResult;
+import kinetic.client.ClientConfiguration;
 import kinetic.client.Entry;
 import kinetic.client.EntryMetadata;
 import kinetic.client.KineticClient;
+import kinetic.client.KineticClientFactory;
 import kinetic.client.KineticException;
+import kinetic.client.KineticFuture;
 
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -55,6 +63,7 @@ import com.seagate.kinetic.IntegrationTestLoggerFactory;
 import com.seagate.kinetic.KVGenerator;
 import com.seagate.kinetic.KineticTestHelpers;
 import com.seagate.kinetic.KineticTestHelpers.SuccessAsyncHandler;
+import com.seagate.kinetic.client.internal.DefaultBatchOperation;
 
 /**
  * Kinetic Client Asynchronous API.
@@ -80,6 +89,8 @@ import com.seagate.kinetic.KineticTestHelpers.SuccessAsyncHandler;
  * <p>
  * getMetadataAsync(byte[] key, CallbackHandler<EntryMetadata> handler)
  * <p>
+ * The same operations without a callback handler return a KineticFuture.
+ * <p>
  * 
  * @see KineticClient
  * 
@@ -1449,4 +1460,567 @@ public class KineticAsyncAPITest extends IntegrationTestCase {
 
         logger.info(this.testEndInfo());
     }
+
+    /**
+     * Test putForcedAsync and getAsync with futures. The entries got should be
+     * the same as put, and the future of a key not found completes with null.
+     * <p>
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * @throws InterruptedException
+     *             if thread is interrupted.
+     * @throws ExecutionException
+     *             if an operation failed.
+     */
+    @Test(dataProvider = "transportProtocolOptions")
+    public void testGetAsync_Future_ReturnsPutEntries(String clientName)
+            throws KineticException, InterruptedException, ExecutionException {
+
+        cleanKVGenData(MAX_KEYS, getClient(clientName));
+
+        List<String> keySList = new ArrayList<String>();
+        List<KineticFuture<Entry>> putFutures = new ArrayList<KineticFuture<Entry>>();
+
+        for (int i = 0; i < MAX_KEYS; i++) {
+            String keyS = kvGenerator.getNextKey();
+            keySList.add(keyS);
+
+            Entry entry = new Entry(toByteArray(keyS),
+                    toByteArray(kvGenerator.getValue(keyS)));
+
+            putFutures.add(getClient(clientName).putForcedAsync(entry));
+        }
+
+        for (KineticFuture<Entry> future : putFutures) {
+            assertTrue(future.get() != null);
+        }
+
+        // fan out the gets, collect the values with callbacks
+        final List<byte[]> values = new ArrayList<byte[]>();
+        final CountDownLatch getSignal = new CountDownLatch(MAX_KEYS);
+
+        for (int i = 0; i < MAX_KEYS; i++) {
+            getClient(clientName).getAsync(toByteArray(keySList.get(i)))
+                    .addCallback(new CallbackHandler<Entry>() {
+                        @Override
+                        public void onSuccess(CallbackResult<Entry> result) {
+                            synchronized (values) {
+                                values.add(result.getResult().getValue());
+                            }
+                            getSignal.countDown();
+                        }
+
+                        @Override
+                        public void onError(AsyncKineticException exception) {
+                            getSignal.countDown();
+                        }
+                    });
+        }
+
+        waitForLatch(getSignal);
+        assertEquals(MAX_KEYS, values.size());
+
+        for (int i = 0; i < MAX_KEYS; i++) {
+            Entry entry = getClient(clientName).getAsync(
+                    toByteArray(keySList.get(i))).getResult();
+
+            assertArrayEquals(toByteArray(kvGenerator.getValue(keySList
+                    .get(i))), entry.getValue());
+        }
+
+        cleanKVGenData(MAX_KEYS, getClient(clientName));
+
+        assertNull(getClient(clientName).getAsync(
+                toByteArray(keySList.get(0))).get());
+
+        logger.info(this.testEndInfo());
+    }
+
+    /**
+     * Test putAsync with a future and a wrong version. The future should
+     * complete with a version mismatch.
+     * <p>
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * @throws InterruptedException
+     *             if thread is interrupted.
+     */
+    @Test(dataProvider = "transportProtocolOptions")
+    public void testPutAsync_Future_FailsOnVersionMismatch(String clientName)
+            throws KineticException, InterruptedException {
+
+        cleanKVGenData(1, getClient(clientName));
+
+        String keyS = kvGenerator.getNextKey();
+
+        Entry entry = new Entry(toByteArray(keyS),
+                toByteArray(kvGenerator.getValue(keyS)));
+        entry.getEntryMetadata().setVersion(int32(1));
+
+        KineticFuture<Entry> future = getClient(clientName).putAsync(entry,
+                int32(2));
+
+        try {
+            future.get();
+            fail("put should fail with a version mismatch");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AsyncKineticException);
+        }
+
+        assertTrue(future.isDone());
+        assertFalse(future.cancel(true));
+
+        try {
+            future.getResult();
+            fail("put should fail with a version mismatch");
+        } catch (KineticException e) {
+            assertTrue(e instanceof AsyncKineticException);
+        }
+
+        cleanKVGenData(1, getClient(clientName));
+
+        logger.info(this.testEndInfo());
+    }
+
+    /**
+     * Test putForcedAsync and deleteForcedAsync with write coalescing. The
+     * writes should be committed by batches, and a versioned put with a wrong
+     * version should fail without failing the other writes.
+     * <p>
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * @throws InterruptedException
+     *             if thread is interrupted.
+     * @throws ExecutionException
+     *             if a write failed.
+     */
+    @Test
+    public void testPutForcedAsync_Coalesced_WritesAreIndependent()
+            throws KineticException, InterruptedException, ExecutionException {
+
+        ClientConfiguration clientConfiguration = getClientConfig();
+        clientConfiguration.setWriteCoalescingWindowMillis(50);
+        KineticClient client = KineticClientFactory
+                .createInstance(clientConfiguration);
+
+        cleanKVGenData(MAX_KEYS + 1, client);
+
+        List<String> keySList = new ArrayList<String>();
+        List<KineticFuture<Entry>> futures = new ArrayList<KineticFuture<Entry>>();
+
+        for (int i = 0; i < MAX_KEYS; i++) {
+            String keyS = kvGenerator.getNextKey();
+            keySList.add(keyS);
+
+            futures.add(client.putForcedAsync(new Entry(toByteArray(keyS),
+                    toByteArray(kvGenerator.getValue(keyS)))));
+        }
+
+        // the entry does not exist, the put fails with a version mismatch
+        String keyS = kvGenerator.getNextKey();
+        Entry entry = new Entry(toByteArray(keyS),
+                toByteArray(kvGenerator.getValue(keyS)));
+        entry.getEntryMetadata().setVersion(int32(1));
+
+        KineticFuture<Entry> failed = client.putAsync(entry, int32(2));
+
+        try {
+            failed.get();
+            fail("put should fail with a version mismatch");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AsyncKineticException);
+        }
+
+        for (int i = 0; i < MAX_KEYS; i++) {
+            assertArrayEquals(toByteArray(keySList.get(i)), futures.get(i)
+                    .get().getKey());
+
+            Entry stored = client.get(toByteArray(keySList.get(i)));
+            assertArrayEquals(
+                    toByteArray(kvGenerator.getValue(keySList.get(i))),
+                    stored.getValue());
+        }
+
+        assertNull(client.get(toByteArray(keyS)));
+
+        List<KineticFuture<Boolean>> deletes = new ArrayList<KineticFuture<Boolean>>();
+
+        for (int i = 0; i < MAX_KEYS; i++) {
+            deletes.add(client.deleteForcedAsync(toByteArray(keySList.get(i))));
+        }
+
+        for (int i = 0; i < MAX_KEYS; i++) {
+            assertTrue(deletes.get(i).get());
+            assertNull(client.get(toByteArray(keySList.get(i))));
+        }
+
+        // the deletes are committed by batches
+        assertTrue(client.getMetrics().getCoalescedWriteCount() > 0);
+
+        client.close();
+
+        logger.info(this.testEndInfo());
+    }
+
+    /**
+     * Test putForcedAsync with write coalescing on two keys written in turn.
+     * The writes of a key are never committed by the same batch, so the last
+     * write of each key is stored.
+     * <p>
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * @throws InterruptedException
+     *             if thread is interrupted.
+     * @throws ExecutionException
+     *             if a write failed.
+     */
+    @Test
+    public void testPutForcedAsync_Coalesced_SameKeyWritesKeepOrder()
+            throws KineticException, InterruptedException, ExecutionException {
+        putForcedAsyncSameKeys(1, 50);
+    }
+
+    /**
+     * Test putForcedAsync with write coalescing over a pool of connections.
+     * A short window mixes batches and single requests, which may be sent
+     * over different connections, and the last write of each key is stored.
+     * <p>
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * @throws InterruptedException
+     *             if thread is interrupted.
+     * @throws ExecutionException
+     *             if a write failed.
+     */
+    @Test
+    public void testPutForcedAsync_Coalesced_ConnectionPool_SameKeyWritesKeepOrder()
+            throws KineticException, InterruptedException, ExecutionException {
+        putForcedAsyncSameKeys(4, 1);
+    }
+
+    private void putForcedAsyncSameKeys(int poolSize, long window)
+            throws KineticException, InterruptedException, ExecutionException {
+
+        ClientConfiguration clientConfiguration = getClientConfig();
+        clientConfiguration.setWriteCoalescingWindowMillis(window);
+        clientConfiguration.setConnectionPoolSize(poolSize);
+        KineticClient client = KineticClientFactory
+                .createInstance(clientConfiguration);
+
+        byte[] key1 = toByteArray("coalesced-key1");
+        byte[] key2 = toByteArray("coalesced-key2");
+
+        client.deleteForced(key1);
+        client.deleteForced(key2);
+
+        List<KineticFuture<Entry>> futures = new ArrayList<KineticFuture<Entry>>();
+
+        for (int i = 0; i < MAX_KEYS; i++) {
+            futures.add(client.putForcedAsync(new Entry(key1,
+                    toByteArray("value1-" + i))));
+            futures.add(client.putForcedAsync(new Entry(key2,
+                    toByteArray("value2-" + i))));
+        }
+
+        for (KineticFuture<Entry> future : futures) {
+            future.get();
+        }
+
+        assertTrue(client.getMetrics().getCoalescedWriteCount() > 0);
+
+        assertArrayEquals(toByteArray("value1-" + (MAX_KEYS - 1)),
+                client.get(key1).getValue());
+        assertArrayEquals(toByteArray("value2-" + (MAX_KEYS - 1)),
+                client.get(key2).getValue());
+
+        client.deleteForced(key1);
+        client.deleteForced(key2);
+
+        client.close();
+
+        logger.info(this.testEndInfo());
+    }
+
+    /**
+     * Test deleteAsync and deleteForcedAsync of missing entries with write
+     * coalescing. The deletes return the result they return without
+     * coalescing, and the puts of the same group are stored.
+     * <p>
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * @throws InterruptedException
+     *             if thread is interrupted.
+     * @throws ExecutionException
+     *             if a write failed.
+     */
+    @Test
+    public void testDeleteAsync_Coalesced_ReturnsFalse_ForNonExistingKey()
+            throws KineticException, InterruptedException, ExecutionException {
+
+        ClientConfiguration clientConfiguration = getClientConfig();
+        clientConfiguration.setWriteCoalescingWindowMillis(50);
+        KineticClient client = KineticClientFactory
+                .createInstance(clientConfiguration);
+
+        cleanKVGenData(MAX_KEYS + 2, client);
+
+        List<String> keySList = new ArrayList<String>();
+        List<KineticFuture<Entry>> puts = new ArrayList<KineticFuture<Entry>>();
+
+        for (int i = 0; i < MAX_KEYS; i++) {
+            String keyS = kvGenerator.getNextKey();
+            keySList.add(keyS);
+
+            puts.add(client.putForcedAsync(new Entry(toByteArray(keyS),
+                    toByteArray(kvGenerator.getValue(keyS)))));
+        }
+
+        Entry missing = new Entry(toByteArray(kvGenerator.getNextKey()),
+                toByteArray("value"));
+        missing.getEntryMetadata().setVersion(int32(0));
+
+        KineticFuture<Boolean> delete = client.deleteAsync(missing);
+        KineticFuture<Boolean> deleteForced = client
+                .deleteForcedAsync(toByteArray(kvGenerator.getNextKey()));
+
+        assertFalse(delete.get());
+
+        // the server does not check if the entry exists
+        assertTrue(deleteForced.get());
+
+        for (int i = 0; i < MAX_KEYS; i++) {
+            puts.get(i).get();
+
+            assertArrayEquals(
+                    toByteArray(kvGenerator.getValue(keySList.get(i))),
+                    client.get(toByteArray(keySList.get(i))).getValue());
+        }
+
+        cleanKVGenData(MAX_KEYS + 2, client);
+
+        client.close();
+
+        logger.info(this.testEndInfo());
+    }
+
+    /**
+     * Test close with write coalescing. The writes queued before close are
+     * sent and committed, and their callback handlers are invoked.
+     * <p>
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * @throws InterruptedException
+     *             if thread is interrupted.
+     */
+    @Test
+    public void testClose_Coalesced_SendsQueuedWrites()
+            throws KineticException, InterruptedException {
+
+        int writes = 3 * MAX_KEYS;
+
+        ClientConfiguration clientConfiguration = getClientConfig();
+        clientConfiguration.setWriteCoalescingWindowMillis(50);
+        KineticClient client = KineticClientFactory
+                .createInstance(clientConfiguration);
+
+        cleanKVGenData(writes, client);
+
+        final CountDownLatch latch = new CountDownLatch(writes);
+
+        CallbackHandler<Entry> handler = buildSuccessOnlyCallbackHandler(new SuccessAsyncHandler<Entry>() {
+            @Override
+            public void onSuccess(CallbackResult<Entry> result) {
+                latch.countDown();
+            }
+        });
+
+        List<String> keySList = new ArrayList<String>();
+
+        for (int i = 0; i < writes; i++) {
+            String keyS = kvGenerator.getNextKey();
+            keySList.add(keyS);
+
+            client.putForcedAsync(new Entry(toByteArray(keyS),
+                    toByteArray(kvGenerator.getValue(keyS))), handler);
+        }
+
+        client.close();
+
+        // the responses are received before the connections are closed
+        waitForLatch(latch);
+
+        KineticClient verifier = KineticClientFactory
+                .createInstance(getClientConfig());
+
+        for (String keyS : keySList) {
+            assertArrayEquals(toByteArray(kvGenerator.getValue(keyS)),
+                    verifier.get(toByteArray(keyS)).getValue());
+        }
+
+        cleanKVGenData(writes, verifier);
+
+        verifier.close();
+
+        logger.info(this.testEndInfo());
+    }
+
+    /**
+     * Test write coalescing with callback handlers that write again while the
+     * asynchronous window is full. Each write is sent as a single request and
+     * each callback queues two writes, so the callbacks fill the queue of the
+     * coalescer while it waits for a slot of the window. All writes should
+     * complete.
+     * <p>
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * @throws InterruptedException
+     *             if thread is interrupted.
+     */
+    @Test
+    public void testPutForcedAsync_Coalesced_ChainedCallbacks_Complete()
+            throws KineticException, InterruptedException {
+
+        final int writes = 5 * MAX_KEYS;
+
+        ClientConfiguration clientConfiguration = getClientConfig();
+        clientConfiguration.setWriteCoalescingWindowMillis(50);
+        clientConfiguration.setWriteCoalescingMaxEntries(1);
+        clientConfiguration.setAsyncQueueSize(1);
+        final KineticClient client = KineticClientFactory
+                .createInstance(clientConfiguration);
+
+        final CountDownLatch latch = new CountDownLatch(writes);
+        final AtomicInteger issued = new AtomicInteger(0);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        final CallbackHandler<Entry> handler = new CallbackHandler<Entry>() {
+            @Override
+            public void onSuccess(CallbackResult<Entry> result) {
+
+                latch.countDown();
+
+                // written by the thread that invokes the callback
+                for (int i = 0; i < 2; i++) {
+                    this.write();
+                }
+            }
+
+            @Override
+            public void onError(AsyncKineticException exception) {
+                error.set(exception);
+            }
+
+            private void write() {
+
+                int i = issued.getAndIncrement();
+
+                if (i >= writes) {
+                    return;
+                }
+
+                try {
+                    client.putForcedAsync(new Entry(
+                            toByteArray("chained-key-" + i),
+                            toByteArray("value-" + i)), this);
+                } catch (KineticException e) {
+                    error.set(e);
+                }
+            }
+        };
+
+        issued.incrementAndGet();
+        client.putForcedAsync(new Entry(toByteArray("chained-key-0"),
+                toByteArray("value-0")), handler);
+
+        waitForLatch(latch, 30);
+
+        assertNull(error.get());
+
+        for (int i = 0; i < writes; i++) {
+            byte[] key = toByteArray("chained-key-" + i);
+
+            assertArrayEquals(toByteArray("value-" + i), client.get(key)
+                    .getValue());
+
+            client.deleteForced(key);
+        }
+
+        client.close();
+
+        logger.info(this.testEndInfo());
+    }
+
+    /**
+     * Test an asynchronous request whose response is lost. The drive does not
+     * respond to a put of a batch, so the response of an asynchronous batch
+     * put never arrives. The request should time out, release its slot of the
+     * asynchronous window and be counted by the client metrics.
+     * <p>
+     * 
+     * @throws KineticException
+     *             if any internal error occurred.
+     * @throws InterruptedException
+     *             if thread is interrupted.
+     * @throws ExecutionException
+     *             if a write failed.
+     */
+    @Test
+    public void testAsyncRequest_LostResponse_TimesOut()
+            throws KineticException, InterruptedException, ExecutionException {
+
+        ClientConfiguration clientConfiguration = getClientConfig();
+        clientConfiguration.setRequestTimeoutMillis(500);
+        clientConfiguration.setAsyncQueueSize(1);
+        KineticClient client = KineticClientFactory
+                .createInstance(clientConfiguration);
+
+        final AtomicReference<AsyncKineticException> error = new AtomicReference<AsyncKineticException>();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        CallbackHandler<Entry> handler = new CallbackHandler<Entry>() {
+            @Override
+            public void onSuccess(CallbackResult<Entry> result) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(AsyncKineticException exception) {
+                error.set(exception);
+                latch.countDown();
+            }
+        };
+
+        DefaultBatchOperation batch = (DefaultBatchOperation) client
+                .createBatchOperation();
+
+        byte[] key = toByteArray("lost-response-key");
+
+        batch.putForcedAsync(new Entry(key, toByteArray("value")), handler);
+
+        waitForLatch(latch);
+
+        assertTrue(error.get() != null);
+        assertEquals(1, client.getMetrics().getAsyncTimeoutCount());
+        assertEquals(0, client.getMetrics().getOutstandingRequestCount());
+
+        batch.abort();
+
+        // the only slot of the asynchronous window is released
+        Entry entry = new Entry(key, toByteArray("value"));
+        assertArrayEquals(key, client.putForcedAsync(entry).get().getKey());
+
+        client.deleteForced(key);
+
+        client.close();
+
+        logger.info(this.testEndInfo());
+    }
 }
@@ -0,0 +1,221 @@
+/**
+ * 
+ * Copyright (C) 2014 Seagate Technology.
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.basicAPI;
+
+import static com.seagate.kinetic.KineticTestHelpers.int32;
+import static com.seagate.kinetic.KineticTestHelpers.toByteArray;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.internal.junit.ArrayAsserts.assertArrayEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+import kinetic.client.AsyncKineticException;
+import kinetic.client.CallbackHandler;
+import kinetic.client.CallbackResult;
+import kinetic.client.Entry;
+import kinetic.client.KineticClient;
+import kinetic.client.KineticClientFactory;
+import kinetic.client.KineticException;
+import kinetic.client.KineticFuture;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.jcraft.jsch.JSchException;
+import com.seagate.kinetic.IntegrationTestLoggerFactory;
+
+/**
+ * Kinetic Client Basic API Test against a simulator with request pipelining
+ * enabled, set by the "kinetic.simulator.pipelined" Java System property when
+ * the simulator is instantiated.
+ * <p>
+ * In addition to the basic API tests, asynchronous requests of one connection
+ * are checked to be executed in order for the same key, and around requests
+ * that are not keyed.
+ *
+ * @see KineticBasicAPITest
+ */
+@Test(groups = { "simulator" })
+public class PipelinedBasicAPITest extends KineticBasicAPITest {
+    private static final Logger logger = IntegrationTestLoggerFactory
+            .getLogger(PipelinedBasicAPITest.class.getName());
+
+    private static final String PIPELINED = "kinetic.simulator.pipelined";
+
+    private final int MAX_REQUESTS = 50;
+
+    @Override
+    @BeforeClass(alwaysRun = true)
+    public void startTestServer() throws InterruptedException,
+            KineticException, IOException, JSchException, ExecutionException {
+
+        String previous = System.setProperty(PIPELINED, "true");
+
+        try {
+            super.startTestServer();
+        } finally {
+            if (previous == null) {
+                System.clearProperty(PIPELINED);
+            } else {
+                System.setProperty(PIPELINED, previous);
+            }
+        }
+    }
+
+    /**
+     * Test a chain of versioned puts of one key sent without waiting for the
+     * responses, with puts of other keys in between. Each put only succeeds
+     * if the put before it was executed, and the responses should arrive in
+     * the order the requests were sent.
+     * <p>
+     *
+     * @throws KineticException
+     *             if any internal error occurred.
+     * @throws InterruptedException
+     *             if thread is interrupted.
+     * @throws ExecutionException
+     *             if a put failed.
+     */
+    @Test
+    public void testVersionedPutsOfOneKey_ExecutedInOrder()
+            throws KineticException, InterruptedException, ExecutionException {
+
+        KineticClient client = KineticClientFactory
+                .createInstance(getClientConfig());
+
+        byte[] key = toByteArray("pipelined-key");
+
+        Entry first = new Entry(key, toByteArray("value0"));
+        first.getEntryMetadata().setVersion(int32(0));
+        client.putForced(first);
+
+        final List<Integer> responses = Collections
+                .synchronizedList(new ArrayList<Integer>());
+
+        CallbackHandler<Entry> handler = new CallbackHandler<Entry>() {
+            @Override
+            public void onSuccess(CallbackResult<Entry> result) {
+                responses.add(ByteBuffer.wrap(
+                        result.getResult().getEntryMetadata().getVersion())
+                        .getInt());
+            }
+
+            @Override
+            public void onError(AsyncKineticException exception) {
+                responses.add(-1);
+            }
+        };
+
+        List<KineticFuture<Entry>> others = new ArrayList<KineticFuture<Entry>>();
+
+        for (int i = 0; i < MAX_REQUESTS; i++) {
+            Entry entry = new Entry(key, toByteArray("value" + (i + 1)));
+            entry.getEntryMetadata().setVersion(int32(i));
+            client.putAsync(entry, int32(i + 1), handler);
+
+            others.add(client.putForcedAsync(new Entry(
+                    toByteArray("pipelined-other" + i), toByteArray("value"))));
+        }
+
+        for (KineticFuture<Entry> other : others) {
+            other.get();
+        }
+
+        // responses are in request order, the chain is answered before the
+        // last put of the other keys
+        assertEquals(MAX_REQUESTS, responses.size());
+        for (int i = 0; i < MAX_REQUESTS; i++) {
+            assertEquals(Integer.valueOf(i + 1), responses.get(i));
+        }
+
+        Entry stored = client.get(key);
+        assertArrayEquals(toByteArray("value" + MAX_REQUESTS),
+                stored.getValue());
+        assertArrayEquals(int32(MAX_REQUESTS), stored.getEntryMetadata()
+                .getVersion());
+
+        client.deleteForced(key);
+        for (int i = 0; i < MAX_REQUESTS; i++) {
+            client.deleteForced(toByteArray("pipelined-other" + i));
+        }
+
+        client.close();
+
+        logger.info(this.testEndInfo());
+    }
+
+    /**
+     * Test getNext, a request that is not keyed, between puts of different
+     * keys sent without waiting for the responses. Each put adds a key that
+     * is the next key after the start key, so each getNext should see the put
+     * sent before it and not the put sent after it.
+     * <p>
+     *
+     * @throws KineticException
+     *             if any internal error occurred.
+     * @throws InterruptedException
+     *             if thread is interrupted.
+     * @throws ExecutionException
+     *             if a request failed.
+     */
+    @Test
+    public void testGetNext_BetweenPutsOfDifferentKeys_IsBarrier()
+            throws KineticException, InterruptedException, ExecutionException {
+
+        KineticClient client = KineticClientFactory
+                .createInstance(getClientConfig());
+
+        byte[] startKey = toByteArray("pipelined-barrier");
+
+        List<KineticFuture<Entry>> nexts = new ArrayList<KineticFuture<Entry>>();
+
+        // keys are put in descending order
+        for (int i = MAX_REQUESTS - 1; i >= 0; i--) {
+            client.putForcedAsync(new Entry(barrierKey(i), toByteArray("value"
+                    + i)));
+            nexts.add(client.getNextAsync(startKey));
+        }
+
+        for (int i = 0; i < MAX_REQUESTS; i++) {
+            int expected = MAX_REQUESTS - 1 - i;
+            Entry next = nexts.get(i).get();
+            assertArrayEquals(barrierKey(expected), next.getKey());
+            assertArrayEquals(toByteArray("value" + expected), next.getValue());
+        }
+
+        for (int i = 0; i < MAX_REQUESTS; i++) {
+            client.deleteForced(barrierKey(i));
+        }
+
+        client.close();
+
+        logger.info(this.testEndInfo());
+    }
+
+    private static byte[] barrierKey(int i) {
+        return toByteArray(String.format("pipelined-barrier-%03d", i));
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * 
+ * Copyright (C) 2014 Seagate Technology.
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.seagate.kinetic.basicAPI;
+
+import static com.seagate.kinetic.KineticTestHelpers.int32;
+import static com.seagate.kinetic.KineticTestHelpers.toByteArray;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.internal.junit.ArrayAsserts.assertArrayEquals;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+import kinetic.client.Entry;
+import kinetic.client.KineticClient;
+import kinetic.client.KineticClientFactory;
+import kinetic.client.KineticException;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.jcraft.jsch.JSchException;
+import com.seagate.kinetic.IntegrationTestLoggerFactory;
+import com.seagate.kinetic.KVGenerator;
+
+/**
+ * Kinetic Client Basic API Test against a simulator that uses the specified
+ * store, set by the "kinetic.db.class" Java System property when the
+ * simulator is instantiated.
+ * <p>
+ * In addition to the basic API tests, the entries written before a restart of
+ * the simulator are verified after the restart.
+ *
+ * @see KineticBasicAPITest
+ */
+@Test(groups = { "simulator" })
+public abstract class StoreBasicAPITest extends KineticBasicAPITest {
+    private static final Logger logger = IntegrationTestLoggerFactory
+            .getLogger(StoreBasicAPITest.class.getName());
+
+    private static final String DB_CLASS = "kinetic.db.class";
+
+    private final int MAX_KEYS = 100;
+
+    // full name of the store class
+    private final String dbClass;
+
+    protected StoreBasicAPITest(Class<?> dbClass) {
+        this.dbClass = dbClass.getName();
+    }
+
+    @Override
+    @BeforeClass(alwaysRun = true)
+    public void startTestServer() throws InterruptedException,
+            KineticException, IOException, JSchException, ExecutionException {
+
+        String previous = System.setProperty(DB_CLASS, this.dbClass);
+
+        try {
+            super.startTestServer();
+        } finally {
+            restoreDbClass(previous);
+        }
+    }
+
+    @Override
+    protected void restartServer() throws Exception {
+
+        String previous = System.setProperty(DB_CLASS, this.dbClass);
+
+        try {
+            super.restartServer();
+        } finally {
+            restoreDbClass(previous);
+        }
+    }
+
+    private static void restoreDbClass(String previous) {
+        if (previous == null) {
+            System.clearProperty(DB_CLASS);
+        } else {
+            System.setProperty(DB_CLASS, previous);
+        }
+    }
+
+    /**
+     * Test that the store recovers its entries when the simulator is
+     * restarted. Entries are put, updated with a new version and deleted
+     * before the restart, the last value, version and the deletes should be
+     * found after the restart.
+     * <p>
+     *
+     * @throws Exception
+     *             if any error occurred.
+     */
+    @Test
+    public void testRecovery_AfterRestart() throws Exception {
+
+        KineticClient client = KineticClientFactory
+                .createInstance(getClientConfig());
+
+        KVGenerator kvGenerator = new KVGenerator();
+
+        for (int i = 0; i < MAX_KEYS; i++) {
+            String key = kvGenerator.getNextKey();
+            Entry entry = new Entry(toByteArray(key),
+                    toByteArray(kvGenerator.getValue(key)));
+            entry.getEntryMetadata().setVersion(int32(0));
+            client.putForced(entry);
+        }
+
+        // update every second entry, delete every third entry
+        kvGenerator.reset();
+        for (int i = 0; i < MAX_KEYS; i++) {
+            byte[] key = toByteArray(kvGenerator.getNextKey());
+
+            if (i % 2 == 0) {
+                Entry entry = new Entry(key, toByteArray("updated" + i));
+                entry.getEntryMetadata().setVersion(int32(0));
+                client.put(entry, int32(1));
+            }
+
+            if (i % 3 == 0) {
+                client.deleteForced(key);
+            }
+        }
+
+        client.close();
+
+        restartServer();
+
+        client = KineticClientFactory.createInstance(getClientConfig());
+
+        kvGenerator.reset();
+        for (int i = 0; i < MAX_KEYS; i++) {
+            String key = kvGenerator.getNextKey();
+            Entry entry = client.get(toByteArray(key));
+
+            if (i % 3 == 0) {
+                assertNull(entry);
+            } else if (i % 2 == 0) {
+                assertArrayEquals(toByteArray("updated" + i), entry.getValue());
+                assertArrayEquals(int32(1), entry.getEntryMetadata()
+                        .getVersion());
+            } else {
+                assertArrayEquals(toByteArray(kvGenerator.getValue(key)),
+                        entry.getValue());
+                assertArrayEquals(int32(0), entry.getEntryMetadata()
+                        .getVersion());
+            }
+        }
+
+        // the key range is recovered in order, without the deleted keys
+        kvGenerator.reset();
+        byte[] firstKey = toByteArray(kvGenerator.getNextKey());
+        String lastKey = null;
+        for (int i = 1; i < MAX_KEYS; i++) {
+            lastKey = kvGenerator.getNextKey();
+        }
+
+        List<byte[]> keys = client.getKeyRange(firstKey, true,
+                toByteArray(lastKey), true, MAX_KEYS);
+
+        kvGenerator.reset();
+        int index = 0;
+        for (int i = 0; i < MAX_KEYS; i++) {
+            String key = kvGenerator.getNextKey();
+            if (i % 3 != 0) {
+                assertArrayEquals(toByteArray(key), keys.get(index++));
+            }
+        }
+        assertEquals(index, keys.size());
+
+        kvGenerator.reset();
+        for (int i = 0; i < MAX_KEYS; i++) {
+            client.deleteForced(toByteArray(kvGenerator.getNextKey()));
+        }
+
+        client.close();
+
+        logger.info(this.testEndInfo());
+    }
+}
@@ -2624,6 +2624,159 @@ public class BatchBasicAPITest extends IntegrationTestCase {
 		}
 	}
 
+	@Test(dataProvider = "transportProtocolOptions")
+	public void testBatchOperation_VersionChangedBeforeCommit_CommitFailed(
+			String clientName) {
+		Entry bar = getBarEntry();
+		Entry foo = getFooEntry();
+
+		try {
+			cleanEntry(bar, getClient(clientName));
+			cleanEntry(foo, getClient(clientName));
+		} catch (KineticException e) {
+			Assert.fail("Clean entry failed. " + e.getMessage());
+		}
+
+		try {
+			getClient(clientName).putForced(bar);
+		} catch (KineticException e) {
+			Assert.fail("Put entry failed. " + e.getMessage());
+		}
+
+		BatchOperation batch = null;
+		try {
+			batch = getClient(clientName).createBatchOperation();
+		} catch (KineticException e) {
+			Assert.fail("Create batch operation throw exception. "
+					+ e.getMessage());
+		}
+
+		try {
+			batch.putForced(foo);
+			batch.put(new Entry(bar.getKey(), toByteArray("newvalue"), bar
+					.getEntryMetadata()), toByteArray("5678"));
+		} catch (KineticException e) {
+			Assert.fail("Put entry throw exception. " + e.getMessage());
+		}
+
+		// another writer changes bar after its put is sent
+		ClientConfiguration cc = kineticClientConfigutations.get(clientName);
+		KineticClient client1 = null;
+		try {
+			client1 = KineticClientFactory.createInstance(cc);
+			Entry other = getBarEntry();
+			other.getEntryMetadata().setVersion(toByteArray("9999"));
+			client1.putForced(other);
+		} catch (KineticException e) {
+			Assert.fail("Put entry by another client failed. "
+					+ e.getMessage());
+		} finally {
+			try {
+				client1.close();
+			} catch (KineticException e) {
+				Assert.fail("Close connetction failed. " + e.getMessage());
+			}
+		}
+
+		try {
+			batch.commit();
+			Assert.fail("Batch commit should fail with a version mismatch.");
+		} catch (BatchAbortedException e) {
+			assertTrue(e.getResponseMessage().getCommand().getStatus()
+					.getCode().equals(StatusCode.INVALID_BATCH));
+
+			// the put of bar is sent right before the end of the batch
+			long endSequence = e.getRequestMessage().getCommand().getHeader()
+					.getSequence();
+			assertTrue(e.getResponseMessage().getCommand().getBody()
+					.getBatch().getFailedSequence() == endSequence - 1);
+			assertTrue(e.getFailedOperationIndex() == 1);
+		} catch (KineticException e) {
+			Assert.fail("received unexpected exception: " + e.getMessage());
+		}
+
+		// foo is not written, bar is the entry of the other writer
+		try {
+			assertNull(getClient(clientName).get(foo.getKey()));
+
+			Entry barGet = getClient(clientName).get(bar.getKey());
+			assertTrue(Arrays.equals(toByteArray("9999"), barGet
+					.getEntryMetadata().getVersion()));
+			assertTrue(Arrays.equals(bar.getValue(), barGet.getValue()));
+		} catch (KineticException e) {
+			Assert.fail("Get entry throw exception. " + e.getMessage());
+		}
+
+		try {
+			cleanEntry(bar, getClient(clientName));
+			cleanEntry(foo, getClient(clientName));
+		} catch (KineticException e) {
+			Assert.fail("Clean entry failed. " + e.getMessage());
+		}
+	}
+
+	@Test(dataProvider = "transportProtocolOptions")
+	public void testBatchOperation_TwoClientsStageAtTheSameTime_BothCommitted(
+			String clientName) {
+		Entry bar = getBarEntry();
+		Entry foo = getFooEntry();
+
+		try {
+			cleanEntry(bar, getClient(clientName));
+			cleanEntry(foo, getClient(clientName));
+		} catch (KineticException e) {
+			Assert.fail("Clean entry failed. " + e.getMessage());
+		}
+
+		ClientConfiguration cc = kineticClientConfigutations.get(clientName);
+		KineticClient client1 = null;
+		KineticClient client2 = null;
+		try {
+			client1 = KineticClientFactory.createInstance(cc);
+			client2 = KineticClientFactory.createInstance(cc);
+		} catch (KineticException e) {
+			Assert.fail("Create two clients failed. " + e.getMessage());
+		}
+
+		try {
+			BatchOperation batch1 = client1.createBatchOperation();
+			BatchOperation batch2 = client2.createBatchOperation();
+
+			// both batches are staged before either is committed
+			batch1.putForced(foo);
+			batch2.putForced(bar);
+
+			batch2.commit();
+			batch1.commit();
+		} catch (KineticException e) {
+			Assert.fail("Batch operation throw exception. " + e.getMessage());
+		} finally {
+			try {
+				client1.close();
+				client2.close();
+			} catch (KineticException e) {
+				Assert.fail("Close connetction failed. " + e.getMessage());
+			}
+		}
+
+		try {
+			Entry fooGet = getClient(clientName).get(foo.getKey());
+			assertTrue(Arrays.equals(foo.getValue(), fooGet.getValue()));
+
+			Entry barGet = getClient(clientName).get(bar.getKey());
+			assertTrue(Arrays.equals(bar.getValue(), barGet.getValue()));
+		} catch (KineticException e) {
+			Assert.fail("Get entry throw exception. " + e.getMessage());
+		}
+
+		try {
+			cleanEntry(bar, getClient(clientName));
+			cleanEntry(foo, getClient(clientName));
+		} catch (KineticException e) {
+			Assert.fail("Clean entry failed. " + e.getMessage());
+		}
+	}
+
 	private Entry getFooEntry() {
 		Entry foo = new Entry();
 		byte[] fooKey = toByteArray("foo");
@@ -20,6 +20,7 @@
 package com.seagate.kinetic.concurrent;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
 import org.testng.annotations.Test;
 import org.testng.annotations.BeforeMethod;
@@ -33,6 +34,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
+import kinetic.client.BatchOperation;
+import kinetic.client.ClientConfiguration;
 import kinetic.client.Entry;
 import kinetic.client.EntryMetadata;
 import kinetic.client.KineticClient;
@@ -187,6 +190,73 @@ public class KineticClientConcurrentTest extends IntegrationTestCase {
 		logger.info(this.testEndInfo());
 	}
 	
+	/**
+	 *
+	 * Concurrent threads share one client with a pool of connections, then
+	 * verify the entries and a batch sent through the pooled client.
+	 *
+	 * @throws KineticException
+	 *             if any kinetic internal error occurred.
+	 * @throws InterruptedException
+	 *             if any interrupt error occurred.
+	 */
+	@Test
+	public void pooledClientConcurrentTest() throws InterruptedException,
+			KineticException, UnsupportedEncodingException {
+		int totalWrites = writeThreads * writesEachThread;
+		CountDownLatch latch = new CountDownLatch(writeThreads);
+		ExecutorService pool = Executors.newCachedThreadPool();
+
+		ClientConfiguration clientConfiguration = getClientConfig();
+		clientConfiguration.setConnectionPoolSize(4);
+		KineticClient kineticClient = KineticClientFactory
+				.createInstance(clientConfiguration);
+
+		cleanData(totalWrites, kineticClient);
+
+		kvGenerator = new KVGenerator();
+		kvGenerator.reset();
+		for (int i = 0; i < writeThreads; i++) {
+			pool.execute(new WriteThread(kineticClient, kvGenerator,
+					writesEachThread, latch, false));
+		}
+
+		// wait all threads finish
+		latch.await();
+		pool.shutdown();
+
+		kvGenerator.reset();
+		for (int i = 0; i < totalWrites; i++) {
+			String key = kvGenerator.getNextKey();
+			Entry entry = kineticClient.get(toByteArray(key));
+			if (entry == null) {
+				Assert.fail("return null when get key " + key);
+			}
+			assertEquals(kvGenerator.getValue(key), new String(entry.getValue()));
+		}
+
+		// all requests of a batch go through the connection of the batch
+		BatchOperation batch = kineticClient.createBatchOperation();
+		kvGenerator.reset();
+		for (int i = 0; i < 10; i++) {
+			batch.deleteForced(toByteArray(kvGenerator.getNextKey()));
+		}
+		batch.commit();
+
+		kvGenerator.reset();
+		for (int i = 0; i < 10; i++) {
+			assertNull(kineticClient.get(toByteArray(kvGenerator.getNextKey())));
+		}
+
+		assertEquals(0, kineticClient.getMetrics().getOutstandingRequestCount());
+
+		cleanData(totalWrites, kineticClient);
+
+		kineticClient.close();
+
+		logger.info(this.testEndInfo());
+	}
+
     private void cleanData(int dataCount, KineticClient client)
             throws KineticException {
 	    KVGenerator kvGenerator = new KVGenerator();
@@ -206,13 +276,21 @@ public class KineticClientConcurrentTest extends IntegrationTestCase {
 		private final CountDownLatch latch;
 		private final KVGenerator kvGenerator;
 		private final KineticClient kineticClient;
+		private final boolean closeClient;
 
 		public WriteThread(KineticClient kineticClient,
 				KVGenerator kvGenerator, int writeCount, CountDownLatch latch) {
+			this(kineticClient, kvGenerator, writeCount, latch, true);
+		}
+
+		public WriteThread(KineticClient kineticClient,
+				KVGenerator kvGenerator, int writeCount, CountDownLatch latch,
+				boolean closeClient) {
 			this.kineticClient = kineticClient;
 			this.kvGenerator = kvGenerator;
 			this.writeCount = writeCount;
 			this.latch = latch;
+			this.closeClient = closeClient;
 		}
 
 		@Override
@@ -237,12 +315,14 @@ public class KineticClientConcurrentTest extends IntegrationTestCase {
 				}
 			}
 
-			try {
-				kineticClient.close();
-			} catch (KineticException e) {
-				Assert.fail("close kineticClient failed, " + e.getMessage());
-			} catch (Exception e) {
-				Assert.fail("close kineticClient failed, " + e.getMessage());
+			if (closeClient) {
+				try {
+					kineticClient.close();
+				} catch (KineticException e) {
+					Assert.fail("close kineticClient failed, " + e.getMessage());
+				} catch (Exception e) {
+					Assert.fail("close kineticClient failed, " + e.getMessage());
+				}
 			}
 
 			// latch count down